@@ -0,0 +1,188 @@
+package hr.marin.filesearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * <p>
+ * Checks that {@link CosineScorer} prunes posting lists with MaxScore without
+ * changing the results: the pruned and the exhaustive scoring of a shard must
+ * return the same documents with the same scores in the same order.
+ * </p>
+ * <p>
+ * The documents are random, and every third one is a copy of an earlier one,
+ * so many scores are equal. A third of the others have a single word, whose
+ * weight divided by the norm is the upper bound of its list. The weights of
+ * half of the words are the numbers of occurrences times the inverse document
+ * frequencies and the others are random, so a compressed index has lists with
+ * computed, exact and quantized weights.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class CosineScorerTest {
+	/**
+	 * The number of words of the dictionary
+	 */
+	private static final int WORDS = 12;
+	/**
+	 * The number of documents of the index
+	 */
+	private static final int DOCUMENTS = 600;
+	/**
+	 * The number of random queries checked for every format
+	 */
+	private static final int QUERIES = 200;
+	/**
+	 * The numbers of collected documents: all of them up to 40, so the
+	 * threshold falls on many different scores, and one larger than the
+	 * number of candidates of any query
+	 */
+	private static final int[] K = IntStream.concat(IntStream.rangeClosed(1, 40), IntStream.of(2 * DOCUMENTS))
+			.toArray();
+
+	@Test
+	public void prunedShardsEqualExhaustiveShards() {
+		Random random = new Random(19);
+		Index heap = randomIndex(random);
+		double[] norms = new double[heap.size()];
+		for (int docId = 0; docId < norms.length; docId++) {
+			norms[docId] = heap.getNorm(docId);
+		}
+
+		for (InvertedIndex.Format format : InvertedIndex.Format.values()) {
+			Index index = (format == InvertedIndex.Format.HEAP) ? heap
+					: new Index(heap, new InvertedIndex(heap.getVectors(), heap.getDocuments(), norms, WORDS,
+							heap.getTotalDictionary(), format));
+			for (int query = 0; query < QUERIES; query++) {
+				SparseVector vector = randomQuery(random);
+				int from = random.nextBoolean() ? 0 : random.nextInt(DOCUMENTS);
+				int to = random.nextBoolean() ? DOCUMENTS : from + random.nextInt(DOCUMENTS - from + 1);
+				for (int k : K) {
+					TopKCollector pruned = CosineScorer.pruneShard(index, vector, k, from, to);
+					TopKCollector exhaustive = CosineScorer.exhaustiveShard(index, vector, k, from, to);
+					assertSame(exhaustive, pruned, format + " " + vector + " k=" + k + " [" + from + ", " + to + ")");
+				}
+			}
+		}
+	}
+
+	@Test
+	public void quantizedWeightsDifferFromExactWeights() {
+		Index heap = randomIndex(new Random(19));
+		double[] norms = new double[heap.size()];
+		for (int docId = 0; docId < norms.length; docId++) {
+			norms[docId] = heap.getNorm(docId);
+		}
+		InvertedIndex quantized = new InvertedIndex(heap.getVectors(), heap.getDocuments(), norms, WORDS,
+				heap.getTotalDictionary(), InvertedIndex.Format.QUANTIZED);
+
+		boolean differ = false;
+		for (int word = WORDS / 2; word < WORDS; word++) {
+			differ |= !Arrays.equals(heap.getInvertedIndex().getWeights(word), quantized.getWeights(word));
+		}
+		assertTrue(differ, "No weights were quantized");
+	}
+
+	/**
+	 * Checks that two sorted collectors hold the same documents with the same
+	 * scores in the same order.
+	 * 
+	 * @param expected
+	 *            The collector of the exhaustive scoring
+	 * @param actual
+	 *            The collector of the pruned scoring
+	 * @param message
+	 *            The description of the checked case
+	 */
+	private static void assertSame(TopKCollector expected, TopKCollector actual, String message) {
+		expected.sort();
+		actual.sort();
+		assertEquals(expected.size(), actual.size(), message);
+		for (int rank = 0; rank < expected.size(); rank++) {
+			assertEquals(expected.documentAt(rank), actual.documentAt(rank), message + " rank " + rank);
+			assertEquals(expected.scoreAt(rank), actual.scoreAt(rank), 0, message + " rank " + rank);
+		}
+	}
+
+	/**
+	 * Creates an index of random documents kept on the heap.
+	 * 
+	 * @param random
+	 *            The source of the documents
+	 * @return The index of the documents
+	 */
+	private static Index randomIndex(Random random) {
+		int[][] terms = new int[DOCUMENTS][];
+		int[][] occurences = new int[DOCUMENTS][];
+		double[][] randomWeights = new double[DOCUMENTS][];
+		int[] numbersOfDocuments = new int[WORDS];
+		for (int docId = 0; docId < DOCUMENTS; docId++) {
+			if (docId % 3 == 2) {
+				int copy = random.nextInt(docId);
+				terms[docId] = terms[copy];
+				occurences[docId] = occurences[copy];
+				randomWeights[docId] = randomWeights[copy];
+			} else {
+				int length = (random.nextInt(3) == 0) ? 1 : 2 + random.nextInt(6);
+				int[] words = random.ints(0, WORDS).distinct().limit(length).sorted().toArray();
+				terms[docId] = words;
+				occurences[docId] = new int[words.length];
+				randomWeights[docId] = new double[words.length];
+				for (int i = 0; i < words.length; i++) {
+					occurences[docId][i] = 1 + random.nextInt(5);
+					randomWeights[docId][i] = random.nextDouble() * 10;
+				}
+			}
+			for (int word : terms[docId]) {
+				numbersOfDocuments[word]++;
+			}
+		}
+
+		String[] words = new String[WORDS];
+		for (int word = 0; word < WORDS; word++) {
+			words[word] = "w" + word;
+		}
+		TotalDictionary dictionary = new TotalDictionary(words, numbersOfDocuments, DOCUMENTS);
+
+		List<DocumentTerms> documents = new ArrayList<>(DOCUMENTS);
+		List<DocumentVector> vectors = new ArrayList<>(DOCUMENTS);
+		for (int docId = 0; docId < DOCUMENTS; docId++) {
+			double[] weights = new double[terms[docId].length];
+			for (int i = 0; i < weights.length; i++) {
+				int word = terms[docId][i];
+				weights[i] = (word < WORDS / 2) ? occurences[docId][i] * dictionary.idf(word)
+						: randomWeights[docId][i];
+			}
+			documents.add(new DocumentTerms(null, null, terms[docId], occurences[docId]));
+			vectors.add(new DocumentVector(null, WORDS, terms[docId], weights));
+		}
+		return new Index(dictionary, documents, vectors, null);
+	}
+
+	/**
+	 * Creates a random query of two to four words with positive weights,
+	 * often equal ones.
+	 * 
+	 * @param random
+	 *            The source of the query
+	 * @return The vector of the query
+	 */
+	private static SparseVector randomQuery(Random random) {
+		int[] words = random.ints(0, WORDS).distinct().limit(2 + random.nextInt(3)).sorted().toArray();
+		double[] weights = new double[words.length];
+		for (int i = 0; i < words.length; i++) {
+			weights[i] = random.nextBoolean() ? 1 : 0.1 + random.nextDouble();
+		}
+		return new SparseVector(WORDS, words, weights);
+	}
+}
@@ -0,0 +1,192 @@
+package hr.marin.filesearch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the HTTP endpoints of a {@link QueryServer} listening on an ephemeral
+ * port of the loopback address: the JSON of the query, results and type
+ * endpoints, the rejection of bad parameters and the rejection of requests
+ * the handling threads have no room for.
+ * 
+ * @author Marin
+ *
+ */
+public class QueryServerTest {
+	/**
+	 * The session id in the JSON of a response
+	 */
+	private static final Pattern SESSION = Pattern.compile("\\{\"session\":\"([^\"]+)\",");
+
+	/**
+	 * The directory of the documents
+	 */
+	@TempDir
+	Path dir;
+	/**
+	 * The environment the server answers from
+	 */
+	private Environment environment;
+	/**
+	 * The server, with one handling thread and room for one waiting request
+	 */
+	private QueryServer server;
+	/**
+	 * The client sending the requests
+	 */
+	private HttpClient client;
+
+	@BeforeEach
+	public void start() throws IOException {
+		Files.writeString(dir.resolve("a.txt"), "apple banana apple");
+		Files.writeString(dir.resolve("b.txt"), "banana cherry");
+		Files.writeString(dir.resolve("c.txt"), "cherry date");
+		Index index = new Indexer(dir, Collections.emptySet(), StandardCharsets.UTF_8, 1).build();
+		environment = new Environment(index, Collections.emptySet());
+		server = new QueryServer(environment, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, 1, 1);
+		server.start();
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(5))
+				.build();
+	}
+
+	@AfterEach
+	public void stop() {
+		server.close();
+	}
+
+	@Test
+	public void queryReturnsJsonResults() throws Exception {
+		HttpResponse<String> response = get("/query?q=" + URLEncoder.encode("apple banana", StandardCharsets.UTF_8));
+		assertEquals(200, response.statusCode());
+		assertEquals("application/json; charset=utf-8", response.headers().firstValue("Content-Type").orElse(null));
+
+		Matcher matcher = SESSION.matcher(response.body());
+		assertTrue(matcher.lookingAt(), response.body());
+		String session = matcher.group(1);
+		String results = Utilities.toJson(environment.query("apple banana", environment.getMaxResults()));
+		assertEquals("{\"session\":" + Utilities.jsonQuote(session) + ",\"results\":" + results + "}",
+				response.body());
+		assertTrue(results.startsWith("[{\"rank\":0,\"similarity\":"), results);
+		assertTrue(results.contains(Utilities.jsonQuote(dir.resolve("a.txt").toAbsolutePath().toString())), results);
+		assertTrue(results.contains(Utilities.jsonQuote(dir.resolve("b.txt").toAbsolutePath().toString())), results);
+
+		response = get("/results?session=" + session);
+		assertEquals(200, response.statusCode());
+		assertEquals("{\"session\":" + Utilities.jsonQuote(session) + ",\"results\":" + results + "}",
+				response.body());
+
+		response = get("/type?session=" + session + "&rank=0");
+		assertEquals(200, response.statusCode());
+		assertEquals("{\"path\":" + Utilities.jsonQuote(dir.resolve("a.txt").toAbsolutePath().toString())
+				+ ",\"content\":\"apple banana apple\"}", response.body());
+	}
+
+	@Test
+	public void queryWithOneResult() throws Exception {
+		HttpResponse<String> response = get("/query?q=cherry&n=1");
+		assertEquals(200, response.statusCode());
+		assertTrue(response.body().endsWith(",\"results\":" + Utilities.toJson(environment.query("cherry", 1)) + "}"),
+				response.body());
+		assertEquals(1, response.body().split("\"rank\":").length - 1, response.body());
+	}
+
+	@Test
+	public void badParametersAreRejected() throws Exception {
+		assertEquals(400, get("/query").statusCode());
+		assertEquals(400, get("/query?n=3").statusCode());
+		assertEquals(400, get("/query?q=apple&n=-1").statusCode());
+		assertEquals(400, get("/query?q=apple&n=many").statusCode());
+		assertEquals(400, get("/query?q=apple&n=2000000000").statusCode());
+		assertEquals(400, get("/query?q=apple&n=" + (QueryServer.MAX_RESULTS + 1)).statusCode());
+		assertEquals(200, get("/query?q=apple&n=" + QueryServer.MAX_RESULTS).statusCode());
+		assertEquals(400, get("/type?rank=0").statusCode());
+		assertEquals(404, get("/results?session=unknown").statusCode());
+
+		HttpResponse<String> response = client.send(
+				HttpRequest.newBuilder(uri("/query?q=apple")).POST(HttpRequest.BodyPublishers.noBody()).build(),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(405, response.statusCode());
+	}
+
+	@Test
+	public void saturatedServerAnswersServiceUnavailable() throws Exception {
+		try (Socket handled = new Socket(); Socket queued = new Socket()) {
+			// Requests whose headers never end keep the only handling thread
+			// busy and fill the queue.
+			startRequest(handled);
+			Thread.sleep(200);
+			startRequest(queued);
+			Thread.sleep(200);
+
+			HttpResponse<String> response = get("/query?q=apple");
+			assertEquals(503, response.statusCode());
+			assertEquals("1", response.headers().firstValue("Retry-After").orElse(null));
+			assertTrue(response.body().startsWith("{\"error\":"), response.body());
+		}
+	}
+
+	/**
+	 * Connects a socket to the server and sends the start of a request
+	 * without ending its headers.
+	 * 
+	 * @param socket
+	 *            The unconnected socket
+	 * @throws IOException
+	 *             If the socket could not connect or send
+	 */
+	private void startRequest(Socket socket) throws IOException {
+		socket.connect(server.getAddress());
+		OutputStream out = socket.getOutputStream();
+		out.write("GET /query?q=apple HTTP/1.1\r\nHost: localhost\r\n".getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	/**
+	 * Sends a GET request to the server.
+	 * 
+	 * @param pathAndQuery
+	 *            The path and the query of the request URI
+	 * @return The response
+	 * @throws Exception
+	 *             If the request failed or was interrupted
+	 */
+	private HttpResponse<String> get(String pathAndQuery) throws Exception {
+		return client.send(HttpRequest.newBuilder(uri(pathAndQuery)).timeout(Duration.ofSeconds(10)).GET().build(),
+				HttpResponse.BodyHandlers.ofString());
+	}
+
+	/**
+	 * Gets the URI of a request to the server.
+	 * 
+	 * @param pathAndQuery
+	 *            The path and the query of the request URI
+	 * @return The URI
+	 */
+	private URI uri(String pathAndQuery) {
+		return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+				+ pathAndQuery);
+	}
+}
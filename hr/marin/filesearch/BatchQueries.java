@@ -0,0 +1,223 @@
+package hr.marin.filesearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Answers a stream of queries in batches, for offline workloads such as
+ * relevance evaluations. Every line of the input is a query. If the line
+ * contains a tab, the text before the first tab is the id of the query and the
+ * rest is its text, otherwise the id is the number of the line. Empty lines
+ * are skipped. Queries with phrase or proximity constraints (see
+ * {@link PositionalQuery}) are answered one by one after their batch.
+ * </p>
+ * <p>
+ * The queries are scored by a {@link BatchScorer} against one snapshot of the
+ * index of an {@link Environment}, bypassing its query cache, and the results
+ * of every batch are written as soon as it is scored, in one of the
+ * {@link Format formats}.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class BatchQueries {
+	/**
+	 * The output formats of the results.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	public enum Format {
+		/**
+		 * A line for every result, with the query id, the rank, the
+		 * similarity and the path of the document separated by tabs. The
+		 * backslashes, tabs and line breaks of the id and the path are
+		 * escaped with a backslash.
+		 */
+		TSV,
+		/**
+		 * A line for every query, with a JSON object of the query id, its text
+		 * and its results
+		 */
+		JSONL
+	}
+
+	/**
+	 * The environment whose index is queried
+	 */
+	private Environment environment;
+	/**
+	 * The format of the results
+	 */
+	private Format format;
+	/**
+	 * The maximum number of results of a query
+	 */
+	private int maxResults;
+
+	/**
+	 * Creates a new {@link BatchQueries} object.
+	 * 
+	 * @param environment
+	 *            The environment whose index is queried
+	 * @param format
+	 *            The format of the results
+	 * @param maxResults
+	 *            The maximum number of results of a query
+	 */
+	public BatchQueries(Environment environment, Format format, int maxResults) {
+		this.environment = environment;
+		this.format = format;
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * Answers all the queries of the input and writes their results to the
+	 * output.
+	 * 
+	 * @param input
+	 *            The queries, one per line
+	 * @param output
+	 *            The destination of the results
+	 * @return The number of answered queries
+	 * @throws IOException
+	 *             If the queries could not be read or the results could not be
+	 *             written
+	 * @throws IllegalArgumentException
+	 *             If a query has constraints, but the index does not keep the
+	 *             positions of the words
+	 */
+	public long run(BufferedReader input, Writer output) throws IOException {
+		Index snapshot = environment.getIndex();
+		Scorer ranking = environment.getRanking();
+		BatchScorer scorer = new BatchScorer(snapshot);
+		List<String> ids = new ArrayList<>(scorer.getBatchSize());
+		List<String> texts = new ArrayList<>(scorer.getBatchSize());
+		long lineNumber = 0;
+		long queries = 0;
+
+		String line;
+		while ((line = input.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+
+			int tab = line.indexOf('\t');
+			ids.add((tab >= 0) ? line.substring(0, tab) : Long.toString(lineNumber));
+			texts.add((tab >= 0) ? line.substring(tab + 1) : line);
+			if (texts.size() == scorer.getBatchSize()) {
+				queries += answer(snapshot, ranking, scorer, ids, texts, output);
+			}
+		}
+		queries += answer(snapshot, ranking, scorer, ids, texts, output);
+
+		output.flush();
+		return queries;
+	}
+
+	/**
+	 * Answers a batch of queries, writes their results and empties the batch.
+	 * 
+	 * @param snapshot
+	 *            The index the queries are made against
+	 * @param ranking
+	 *            The scorer of the documents. The batch is scored together
+	 *            only by the cosine similarity; other scorers score the
+	 *            queries one by one. If the environment has a
+	 *            {@link ShardCoordinator}, the queries are sent to its shards
+	 *            one by one instead.
+	 * @param scorer
+	 *            The scorer of the batch
+	 * @param ids
+	 *            The ids of the queries
+	 * @param texts
+	 *            The texts of the queries
+	 * @param output
+	 *            The destination of the results
+	 * @return The number of answered queries
+	 * @throws IOException
+	 *             If the results could not be written
+	 */
+	private int answer(Index snapshot, Scorer ranking, BatchScorer scorer, List<String> ids, List<String> texts,
+			Writer output) throws IOException {
+		if (environment.getCoordinator() != null) {
+			for (int query = 0; query < texts.size(); query++) {
+				write(ids.get(query), texts.get(query), environment.query(texts.get(query), maxResults), output);
+			}
+			int answered = texts.size();
+			ids.clear();
+			texts.clear();
+			return answered;
+		}
+
+		List<PositionalQuery> queries = new ArrayList<>(texts.size());
+		List<DocumentVector> vectors = new ArrayList<>(texts.size());
+		for (String text : texts) {
+			PositionalQuery query = PositionalQuery.parse(text, environment.getStopWordsSet());
+			DocumentDictionary queryDictionary = DocumentDictionary.fromString(query.getText(),
+					environment.getStopWordsSet());
+			queries.add(query);
+			vectors.add(new DocumentVector(queryDictionary, snapshot.getTotalDictionary()));
+		}
+
+		boolean cosine = ranking instanceof CosineScorer;
+		TopKCollector[] topK = cosine ? scorer.score(vectors, maxResults) : new TopKCollector[vectors.size()];
+		QueryScorer queryScorer = environment.getScorer();
+		for (int query = 0; query < topK.length; query++) {
+			if (queries.get(query).hasConstraints()) {
+				topK[query] = queryScorer.score(snapshot, vectors.get(query), maxResults,
+						queries.get(query).matches(snapshot), ranking);
+			} else if (!cosine) {
+				topK[query] = queryScorer.score(snapshot, vectors.get(query), maxResults, ranking);
+			}
+		}
+		List<DocumentTerms> documents = snapshot.getDocuments();
+		for (int query = 0; query < topK.length; query++) {
+			List<DocumentInfo> results = new ArrayList<>(topK[query].size());
+			for (int rank = 0; rank < topK[query].size(); rank++) {
+				results.add(new DocumentInfo(documents.get(topK[query].documentAt(rank)).getDocumentPath(),
+						topK[query].scoreAt(rank)));
+			}
+			write(ids.get(query), texts.get(query), results, output);
+		}
+
+		int answered = texts.size();
+		ids.clear();
+		texts.clear();
+		return answered;
+	}
+
+	/**
+	 * Writes the results of a query in the format of this object.
+	 * 
+	 * @param id
+	 *            The id of the query
+	 * @param text
+	 *            The text of the query
+	 * @param results
+	 *            The results of the query
+	 * @param output
+	 *            The destination of the results
+	 * @throws IOException
+	 *             If the results could not be written
+	 */
+	private void write(String id, String text, List<DocumentInfo> results, Writer output) throws IOException {
+		if (format == Format.JSONL) {
+			output.write("{\"id\":" + Utilities.jsonQuote(id) + ",\"query\":" + Utilities.jsonQuote(text)
+					+ ",\"results\":" + Utilities.toJson(results) + "}\n");
+			return;
+		}
+
+		String escapedId = Shard.escape(id);
+		for (int rank = 0; rank < results.size(); rank++) {
+			output.write(escapedId + "\t" + rank + "\t" + results.get(rank).getSimilarity() + "\t"
+					+ Shard.escape(results.get(rank).getPath().toAbsolutePath().toString()) + "\n");
+		}
+	}
+}
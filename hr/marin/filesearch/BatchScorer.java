@@ -0,0 +1,242 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Scores many queries against an {@link Index} together. The queries of a
+ * batch are grouped by their words, so the posting list of a word is traversed
+ * once for all the queries that contain it, instead of once for every query.
+ * </p>
+ * <p>
+ * A posting list is traversed for every query of its group right after the
+ * previous one, while it is still in the processor's cache, so it is read from
+ * memory only once per batch. The partial scores of every query are kept in
+ * their own part of one array, and the array and the other scratch buffers are
+ * allocated once and reused by every batch. Their size is bounded, which
+ * bounds the number of queries of a batch for large indexes. The results are
+ * the same as those of {@link QueryScorer}.
+ * </p>
+ * <p>
+ * A scorer is not thread-safe, but several scorers may score batches against
+ * the same index at the same time.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class BatchScorer {
+	/**
+	 * The maximum number of queries of a batch
+	 */
+	public static final int MAX_BATCH_SIZE = 64;
+	/**
+	 * The maximum number of partial scores kept by a scorer
+	 */
+	private static final int MAX_SCRATCH_SCORES = 1 << 20;
+	/**
+	 * The precision used to compare the similarities with 0
+	 */
+	private static final double PRECISION = 1E-6;
+
+	/**
+	 * The index whose documents are scored
+	 */
+	private Index index;
+	/**
+	 * The maximum number of queries of a batch
+	 */
+	private int batchSize;
+	/**
+	 * The partial scalar products of the documents and the queries of the
+	 * current batch, at position <code>query * documents + document</code>
+	 */
+	private double[] scalarProducts;
+	/**
+	 * Whether a document has a partial score for a query, at the same
+	 * positions as the scalar products
+	 */
+	private boolean[] isCandidate;
+	/**
+	 * The documents with a partial score for every query, in the order they
+	 * were found, starting at position <code>query * documents</code>
+	 */
+	private int[] candidates;
+	/**
+	 * The number of candidate documents of every query
+	 */
+	private int[] numOfCandidates;
+	/**
+	 * The words of all the queries of the batch, each packed with the number
+	 * of its entry in {@link #entryQueries} and {@link #entryWeights}
+	 */
+	private long[] entries;
+	/**
+	 * The query of every entry
+	 */
+	private int[] entryQueries;
+	/**
+	 * The weight of the word in the query of every entry
+	 */
+	private double[] entryWeights;
+
+	/**
+	 * Creates a new scorer of the given index.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 */
+	public BatchScorer(Index index) {
+		int documents = Math.max(1, index.size());
+		this.index = index;
+		this.batchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, MAX_SCRATCH_SCORES / documents));
+		this.scalarProducts = new double[index.size() * batchSize];
+		this.isCandidate = new boolean[index.size() * batchSize];
+		this.candidates = new int[index.size() * batchSize];
+		this.numOfCandidates = new int[batchSize];
+		this.entries = new long[16];
+		this.entryQueries = new int[16];
+		this.entryWeights = new double[16];
+	}
+
+	/**
+	 * Gets the maximum number of queries of a batch.
+	 * 
+	 * @return The maximum number of queries
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Scores the documents against a batch of queries and collects the best
+	 * documents of every query.
+	 * 
+	 * @param queries
+	 *            The vectors of the queries
+	 * @param k
+	 *            The maximum number of documents collected for a query
+	 * @return The sorted collectors of the best documents, parallel to the
+	 *         queries
+	 * @throws IllegalArgumentException
+	 *             If there are more than {@link #getBatchSize()} queries
+	 */
+	public TopKCollector[] score(List<? extends SparseVector> queries, int k) {
+		int n = queries.size();
+		if (n > batchSize) {
+			throw new IllegalArgumentException("Batch is too large: " + n);
+		}
+
+		accumulate(collectEntries(queries));
+
+		int documents = index.size();
+		TopKCollector[] topK = new TopKCollector[n];
+		for (int query = 0; query < n; query++) {
+			topK[query] = new TopKCollector(k);
+			double queryNorm = queries.get(query).norm();
+			int base = query * documents;
+
+			for (int i = 0; i < numOfCandidates[query]; i++) {
+				int docId = candidates[base + i];
+				double scalarProduct = scalarProducts[base + docId];
+				scalarProducts[base + docId] = 0;
+				isCandidate[base + docId] = false;
+
+				double normProduct = index.getNorm(docId) * queryNorm;
+				if (isZero(normProduct)) {
+					continue;
+				}
+				double similarity = scalarProduct / normProduct;
+				if (!isZero(similarity)) {
+					topK[query].offer(docId, similarity);
+				}
+			}
+			numOfCandidates[query] = 0;
+			topK[query].sort();
+		}
+		return topK;
+	}
+
+	/**
+	 * Collects the words of all the queries as entries sorted by word.
+	 * 
+	 * @param queries
+	 *            The vectors of the queries
+	 * @return The number of entries
+	 */
+	private int collectEntries(List<? extends SparseVector> queries) {
+		int numOfEntries = 0;
+		for (int query = 0; query < queries.size(); query++) {
+			SparseVector vector = queries.get(query);
+			for (int i = 0, n = vector.nonZeroCount(); i < n; i++) {
+				if (numOfEntries == entries.length) {
+					entries = Arrays.copyOf(entries, 2 * numOfEntries);
+					entryQueries = Arrays.copyOf(entryQueries, 2 * numOfEntries);
+					entryWeights = Arrays.copyOf(entryWeights, 2 * numOfEntries);
+				}
+				entries[numOfEntries] = ((long) vector.indexAt(i) << 32) | numOfEntries;
+				entryQueries[numOfEntries] = query;
+				entryWeights[numOfEntries] = vector.valueAt(i);
+				numOfEntries++;
+			}
+		}
+		Arrays.sort(entries, 0, numOfEntries);
+		return numOfEntries;
+	}
+
+	/**
+	 * Adds up the partial scalar products of all the entries. The entries of
+	 * a word are processed one after another and its posting list is fetched
+	 * only for the first of them, so a list kept off the heap is copied once
+	 * per batch and every list is read from memory once. The words of every
+	 * query are added in increasing order, just like {@link CosineScorer} adds
+	 * them.
+	 * 
+	 * @param numOfEntries
+	 *            The number of entries
+	 */
+	private void accumulate(int numOfEntries) {
+		InvertedIndex invertedIndex = index.getInvertedIndex();
+		int documents = index.size();
+		int[] postingDocs = null;
+		double[] postingWeights = null;
+		int length = 0;
+
+		for (int i = 0; i < numOfEntries; i++) {
+			int word = (int) (entries[i] >>> 32);
+			int entry = (int) entries[i];
+			int query = entryQueries[entry];
+			double queryWeight = entryWeights[entry];
+			int base = query * documents;
+			int count = numOfCandidates[query];
+
+			if (i == 0 || word != (int) (entries[i - 1] >>> 32)) {
+				length = invertedIndex.getLength(word);
+				postingDocs = invertedIndex.getDocuments(word, postingDocs);
+				postingWeights = invertedIndex.getWeights(word, postingWeights);
+			}
+			for (int j = 0; j < length; j++) {
+				int position = base + postingDocs[j];
+				scalarProducts[position] += queryWeight * postingWeights[j];
+				if (!isCandidate[position]) {
+					isCandidate[position] = true;
+					candidates[base + count++] = postingDocs[j];
+				}
+			}
+			numOfCandidates[query] = count;
+		}
+	}
+
+	/**
+	 * Checks whether a number of type double is zero with the default precision.
+	 * 
+	 * @param num
+	 *            The number that is checked for being equal to zero with the
+	 *            default precision.
+	 * @return True if the number is equal to zero, false otherwise.
+	 */
+	private static boolean isZero(double num) {
+		return Math.abs(num) < PRECISION;
+	}
+}
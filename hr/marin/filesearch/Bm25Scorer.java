@@ -0,0 +1,246 @@
+package hr.marin.filesearch;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Scores documents with the Okapi BM25 ranking function. Every word of the
+ * query contributes idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length /
+ * averageLength)) to the score of a document containing it, where tf is the
+ * number of occurrences of the word in the document and idf is log(1 + (N - df
+ * + 0.5) / (df + 0.5)). Every word of the query is counted once, however many
+ * times it occurs in the query.
+ * </p>
+ * <p>
+ * The inverse document frequencies of all the words are computed once per
+ * index and kept in a primitive array. The length normalization of a document
+ * is computed from its length whenever it is scored, so an index kept off the
+ * heap needs no array with an element for every document, and scoring a
+ * posting is a few multiplications and a division. The scores of a shard
+ * are accumulated in the reused {@link ScoreAccumulator} of the scoring
+ * thread, and the posting lists are read block by block with its
+ * {@link PostingCursor}. The scores are not normalized, so they are not
+ * comparable between indices and are not limited to 1.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Bm25Scorer extends Scorer {
+	/**
+	 * The default saturation of the term frequency.
+	 */
+	public static final double DEFAULT_K1 = 1.2;
+	/**
+	 * The default strength of the document length normalization.
+	 */
+	public static final double DEFAULT_B = 0.75;
+
+	/**
+	 * The saturation of the term frequency
+	 */
+	private double k1;
+	/**
+	 * The strength of the document length normalization, from 0 to 1
+	 */
+	private double b;
+	/**
+	 * The tables of the last scored index
+	 */
+	private volatile Tables lastTables;
+
+	/**
+	 * Creates a new {@link Bm25Scorer} with the default parameters.
+	 */
+	public Bm25Scorer() {
+		this(DEFAULT_K1, DEFAULT_B);
+	}
+
+	/**
+	 * Creates a new {@link Bm25Scorer} with the given parameters.
+	 * 
+	 * @param k1
+	 *            The saturation of the term frequency
+	 * @param b
+	 *            The strength of the document length normalization
+	 * @throws IllegalArgumentException
+	 *             If k1 is negative or b is not between 0 and 1
+	 */
+	public Bm25Scorer(double k1, double b) {
+		if (!(k1 >= 0) || !(b >= 0 && b <= 1)) {
+			throw new IllegalArgumentException("Invalid BM25 parameters: k1=" + k1 + ", b=" + b);
+		}
+		this.k1 = k1;
+		this.b = b;
+	}
+
+	@Override
+	public String getName() {
+		return BM25;
+	}
+
+	@Override
+	TopKCollector scoreShard(Index index, SparseVector query, int k, int from, int to) {
+		Tables tables = tables(index);
+		InvertedIndex invertedIndex = index.getInvertedIndex();
+
+		ScoreAccumulator accumulator = ScoreAccumulator.acquire(to - from);
+		double[] scores = accumulator.scores;
+		boolean[] isCandidate = accumulator.isCandidate;
+		int[] candidates = accumulator.candidates;
+		int numOfCandidates = 0;
+		long postings = 0;
+
+		PostingCursor cursor = accumulator.cursor(0);
+		for (int i = 0, n = query.nonZeroCount(); i < n; i++) {
+			int word = query.indexAt(i);
+			double weight = tables.idf[word] * (k1 + 1);
+			cursor.open(invertedIndex, word, from, to, PostingCursor.FREQUENCIES);
+
+			while (cursor.nextBlock()) {
+				int[] postingDocs = cursor.documents;
+				int[] postingFrequencies = cursor.frequencies;
+				postings += cursor.end - cursor.start;
+				for (int j = cursor.start; j < cursor.end; j++) {
+					int docId = postingDocs[j];
+					int position = docId - from;
+					double frequency = postingFrequencies[j];
+					scores[position] += weight * frequency / (frequency + tables.lengthNorm(docId));
+					if (!isCandidate[position]) {
+						isCandidate[position] = true;
+						candidates[numOfCandidates++] = position;
+					}
+				}
+			}
+		}
+
+		TopKCollector topK = new TopKCollector(k);
+		for (int i = 0; i < numOfCandidates; i++) {
+			double score = scores[candidates[i]];
+			if (!isZero(score)) {
+				topK.offer(from + candidates[i], score);
+			}
+		}
+		accumulator.release(numOfCandidates);
+
+		Metrics.global().recordPostings(postings, postings);
+		return topK;
+	}
+
+	@Override
+	TopKCollector scoreDocuments(Index index, SparseVector query, int k, int[] documents) {
+		Tables tables = tables(index);
+		List<DocumentTerms> terms = index.getDocuments();
+		int n = query.nonZeroCount();
+
+		TopKCollector topK = new TopKCollector(k);
+		for (int docId : documents) {
+			DocumentTerms document = terms.get(docId);
+			double score = 0;
+			for (int i = 0; i < n; i++) {
+				int word = query.indexAt(i);
+				double frequency = document.occurences(word);
+				if (frequency > 0) {
+					score += tables.idf[word] * (k1 + 1) * frequency / (frequency + tables.lengthNorm(docId));
+				}
+			}
+			if (!isZero(score)) {
+				topK.offer(docId, score);
+			}
+		}
+		return topK;
+	}
+
+	/**
+	 * Gets the tables of the given index, computing them if the index is not
+	 * the last one scored.
+	 * 
+	 * @param index
+	 *            The scored index
+	 * @return The tables of the index
+	 * @throws IllegalArgumentException
+	 *             If the index does not keep the numbers of occurrences in its
+	 *             posting lists
+	 */
+	private Tables tables(Index index) {
+		Tables tables = lastTables;
+		if (tables == null || tables.index != index) {
+			tables = new Tables(index, k1, b);
+			lastTables = tables;
+		}
+		return tables;
+	}
+
+	/**
+	 * The inverse document frequencies and the length normalization of the
+	 * documents of a single index.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class Tables {
+		/**
+		 * The index the tables were computed for
+		 */
+		private final Index index;
+		/**
+		 * The inverse document frequency of every word, indexed by the index of
+		 * the word in the total dictionary
+		 */
+		private final double[] idf;
+		/**
+		 * The length normalization k1 * (1 - b) of an empty document
+		 */
+		private final double baseNorm;
+		/**
+		 * The growth k1 * b / averageLength of the length normalization per
+		 * word occurrence
+		 */
+		private final double normPerOccurence;
+
+		/**
+		 * Computes the tables of the given index.
+		 * 
+		 * @param index
+		 *            The index
+		 * @param k1
+		 *            The saturation of the term frequency
+		 * @param b
+		 *            The strength of the document length normalization
+		 * @throws IllegalArgumentException
+		 *             If the index does not keep the numbers of occurrences in
+		 *             its posting lists
+		 */
+		Tables(Index index, double k1, double b) {
+			TotalDictionary dictionary = index.getTotalDictionary();
+			if (!index.getInvertedIndex().hasFrequencies()) {
+				throw new IllegalArgumentException("The index has no word occurrences in its posting lists.");
+			}
+
+			this.index = index;
+			int numberOfDocuments = dictionary.numberOfDocuments();
+			idf = new double[dictionary.size()];
+			for (int word = 0; word < idf.length; word++) {
+				double documentsWithWord = dictionary.numberOfDocumentsWith(word);
+				idf[word] = Math.log(1 + (numberOfDocuments - documentsWithWord + 0.5) / (documentsWithWord + 0.5));
+			}
+
+			double averageLength = index.getAverageLength();
+			baseNorm = (averageLength > 0) ? k1 * (1 - b) : k1;
+			normPerOccurence = (averageLength > 0) ? k1 * b / averageLength : 0;
+		}
+
+		/**
+		 * Computes the length normalization k1 * (1 - b + b * length /
+		 * averageLength) of a document, rearranged to a multiplication and an
+		 * addition.
+		 * 
+		 * @param docId
+		 *            The id of the document
+		 * @return The length normalization of the document
+		 */
+		double lengthNorm(int docId) {
+			return baseNorm + normPerOccurence * index.getLength(docId);
+		}
+	}
+}
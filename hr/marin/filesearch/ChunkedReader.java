@@ -0,0 +1,195 @@
+package hr.marin.filesearch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * A utility class that reads files in fixed-size chunks, so that the memory
+ * needed to read a file does not depend on its size.
+ * </p>
+ * <p>
+ * The bytes are read through a {@link FileChannel} into a direct buffer and
+ * decoded incrementally; a character whose bytes are split between two chunks
+ * is decoded once the whole of it has been read. Malformed input is replaced
+ * just as it is by the {@link String} constructor. The characters are decoded
+ * into a heap buffer, so a consumer can write them straight from its backing
+ * array.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class ChunkedReader {
+	/**
+	 * The size of a chunk in bytes (and the maximum size in characters).
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Reads the given file chunk by chunk and hands every decoded chunk to the
+	 * given consumer. The characters of a chunk are between the position and
+	 * the limit of the buffer, and the buffer is reused for the next chunk
+	 * once the consumer returns.
+	 * 
+	 * @param file
+	 *            The file that is read.
+	 * @param charset
+	 *            The charset used to decode the file.
+	 * @param consumer
+	 *            The consumer of the decoded chunks.
+	 * @return The hash of the content of the file, as calculated by
+	 *         {@link #hash(Path)}.
+	 * @throws IOException
+	 *             If reading was unsuccessful.
+	 */
+	public static long read(Path file, Charset charset, Consumer<CharBuffer> consumer) throws IOException {
+		CRC32 crc = new CRC32();
+		long length = decode(file, charset, consumer, crc);
+		return hash(length, crc);
+	}
+
+	/**
+	 * Reads the given file chunk by chunk like
+	 * {@link #read(Path, Charset, Consumer)}, but without calculating its hash,
+	 * for when the content is only displayed.
+	 * 
+	 * @param file
+	 *            The file that is read.
+	 * @param charset
+	 *            The charset used to decode the file.
+	 * @param consumer
+	 *            The consumer of the decoded chunks.
+	 * @throws IOException
+	 *             If reading was unsuccessful.
+	 */
+	public static void stream(Path file, Charset charset, Consumer<CharBuffer> consumer) throws IOException {
+		decode(file, charset, consumer, null);
+	}
+
+	/**
+	 * Decodes the given file chunk by chunk, updating the given checksum with
+	 * the bytes that are read.
+	 * 
+	 * @param file
+	 *            The file that is read.
+	 * @param charset
+	 *            The charset used to decode the file.
+	 * @param consumer
+	 *            The consumer of the decoded chunks.
+	 * @param crc
+	 *            The checksum of the content, or null if it is not calculated.
+	 * @return The length of the content in bytes.
+	 * @throws IOException
+	 *             If reading was unsuccessful.
+	 */
+	private static long decode(Path file, Charset charset, Consumer<CharBuffer> consumer, CRC32 crc)
+			throws IOException {
+		CharsetDecoder decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+		long length = 0;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			boolean endOfInput = false;
+			while (!endOfInput) {
+				int start = bytes.position();
+				int read = channel.read(bytes);
+				endOfInput = read == -1;
+				if (read > 0) {
+					if (crc != null) {
+						ByteBuffer readBytes = bytes.duplicate();
+						readBytes.flip().position(start);
+						crc.update(readBytes);
+					}
+					length += read;
+				}
+
+				bytes.flip();
+				CoderResult result;
+				do {
+					result = decoder.decode(bytes, chars, endOfInput);
+					drain(chars, consumer);
+				} while (result.isOverflow());
+				bytes.compact();
+			}
+
+			CoderResult result;
+			do {
+				result = decoder.flush(chars);
+				drain(chars, consumer);
+			} while (result.isOverflow());
+		}
+
+		return length;
+	}
+
+	/**
+	 * Calculates the hash of the content of the given file without decoding
+	 * it. The CRC32 checksum and the length of the content are combined into a
+	 * single number.
+	 * 
+	 * @param file
+	 *            The file that is hashed.
+	 * @return The hash of the content of the file.
+	 * @throws IOException
+	 *             If reading was unsuccessful.
+	 */
+	public static long hash(Path file) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		CRC32 crc = new CRC32();
+		long length = 0;
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			int read;
+			while ((read = channel.read(bytes)) != -1) {
+				bytes.flip();
+				crc.update(bytes);
+				bytes.clear();
+				length += read;
+			}
+		}
+
+		return hash(length, crc);
+	}
+
+	/**
+	 * Combines the length and the checksum of a content into its hash.
+	 * 
+	 * @param length
+	 *            The length of the content in bytes.
+	 * @param crc
+	 *            The checksum of the content.
+	 * @return The hash of the content.
+	 */
+	private static long hash(long length, CRC32 crc) {
+		return (length << 32) ^ crc.getValue();
+	}
+
+	/**
+	 * Hands the decoded characters to the consumer and clears the buffer.
+	 * 
+	 * @param chars
+	 *            The buffer containing the decoded characters.
+	 * @param consumer
+	 *            The consumer of the characters.
+	 */
+	private static void drain(CharBuffer chars, Consumer<CharBuffer> consumer) {
+		chars.flip();
+		if (chars.hasRemaining()) {
+			consumer.accept(chars);
+		}
+		chars.clear();
+	}
+}
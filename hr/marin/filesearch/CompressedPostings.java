@@ -0,0 +1,515 @@
+package hr.marin.filesearch;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The format of the compressed posting lists of {@link OffHeapPostings}.
+ * </p>
+ * <p>
+ * A list is split into blocks of {@value #BLOCK_SIZE} postings. The document
+ * ids of a block are stored as the differences between neighbouring ids, and
+ * the differences and the numbers of occurrences are bit-packed with the
+ * width of the largest of them (frame of reference), so a block of a frequent
+ * word, whose differences and counts are small, takes a few bits per posting.
+ * Both are stored less one, so a block of consecutive documents that contain
+ * the word once takes no bits at all. A table in front of the blocks keeps the
+ * last document id and the position of every block, so a reader can skip
+ * whole blocks without decoding them.
+ * </p>
+ * <p>
+ * The weights are not stored when they can be computed exactly from the
+ * numbers of occurrences: the weight of a word in a document is its number of
+ * occurrences times the inverse document frequency of the word, so the list
+ * keeps only that frequency and decoding gives back the very same weights.
+ * The weights of a list that cannot be computed so are kept as they are or,
+ * if asked for, quantized to 16 bits relative to the largest weight of the
+ * list, which changes them by at most half a step of 1/65535 of the largest
+ * weight.
+ * </p>
+ * <p>
+ * A list starts with the factor of its weights and the table of its blocks,
+ * two ints per block, followed by the blocks. A block starts with the bit
+ * widths of its differences and occurrence counts, followed by the packed
+ * differences, the packed occurrence counts, if they are kept, and the
+ * weights, if they are stored.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+final class CompressedPostings {
+	/**
+	 * The number of postings of a block
+	 */
+	static final int BLOCK_SIZE = 128;
+	/**
+	 * The weights of a list are its numbers of occurrences times the factor
+	 * of the list, the inverse document frequency of its word
+	 */
+	static final int COMPUTED_WEIGHTS = 0;
+	/**
+	 * The weights of a list are stored as they are
+	 */
+	static final int EXACT_WEIGHTS = 1;
+	/**
+	 * The weights of a list are stored as 16-bit quanta of the factor of the
+	 * list
+	 */
+	static final int QUANTIZED_WEIGHTS = 2;
+	/**
+	 * The largest quantized weight
+	 */
+	private static final int MAX_QUANTUM = 0xFFFF;
+	/**
+	 * The number of bits of a quantized weight
+	 */
+	private static final int QUANTUM_BITS = 16;
+	/**
+	 * The number of ints of a scratch array used to decode a block
+	 */
+	static final int SCRATCH_INTS = 2 * BLOCK_SIZE;
+
+	/**
+	 * Not instantiated.
+	 */
+	private CompressedPostings() {
+	}
+
+	/**
+	 * Gets the number of blocks of a list.
+	 * 
+	 * @param length
+	 *            The number of postings of the list
+	 * @return The number of blocks
+	 */
+	static int blocks(int length) {
+		return (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	/**
+	 * Chooses how the weights of a list are stored.
+	 * 
+	 * @param weights
+	 *            The weights of the list
+	 * @param frequencies
+	 *            The numbers of occurrences of the list, or null if they are
+	 *            not kept
+	 * @param length
+	 *            The number of postings
+	 * @param idf
+	 *            The inverse document frequency of the word of the list, or
+	 *            NaN if it is not known
+	 * @param quantized
+	 *            Whether weights that cannot be computed may be quantized
+	 * @return {@link #COMPUTED_WEIGHTS} if every weight is exactly the number
+	 *         of occurrences times the inverse document frequency,
+	 *         {@link #QUANTIZED_WEIGHTS} if the weights may be quantized and
+	 *         are all non-negative and finite, {@link #EXACT_WEIGHTS} otherwise
+	 */
+	static int weightFormat(double[] weights, int[] frequencies, int length, double idf, boolean quantized) {
+		if (frequencies != null && !Double.isNaN(idf)) {
+			boolean computed = true;
+			for (int i = 0; i < length && computed; i++) {
+				computed = weights[i] == frequencies[i] * idf;
+			}
+			if (computed) {
+				return COMPUTED_WEIGHTS;
+			}
+		}
+		if (quantized) {
+			for (int i = 0; i < length; i++) {
+				if (!(weights[i] >= 0) || Double.isInfinite(weights[i])) {
+					return EXACT_WEIGHTS;
+				}
+			}
+			return QUANTIZED_WEIGHTS;
+		}
+		return EXACT_WEIGHTS;
+	}
+
+	/**
+	 * Gets the number of bytes a compressed list takes, rounded up to a
+	 * multiple of 8.
+	 * 
+	 * @param documents
+	 *            The document ids of the list
+	 * @param frequencies
+	 *            The numbers of occurrences of the list, or null if they are
+	 *            not kept
+	 * @param length
+	 *            The number of postings
+	 * @param format
+	 *            The format of the weights
+	 * @return The number of bytes of the list
+	 */
+	static long listBytes(int[] documents, int[] frequencies, int length, int format) {
+		int blocks = blocks(length);
+		long bytes = 8 + 8L * blocks;
+		for (int block = 0; block < blocks; block++) {
+			int from = block * BLOCK_SIZE;
+			int count = Math.min(BLOCK_SIZE, length - from);
+			bytes += 4 + 4L * packedInts(count, documentWidth(documents, from, count));
+			if (frequencies != null) {
+				bytes += 4L * packedInts(count, frequencyWidth(frequencies, from, count));
+			}
+			if (format == QUANTIZED_WEIGHTS) {
+				bytes += 4L * packedInts(count, QUANTUM_BITS);
+			} else if (format == EXACT_WEIGHTS) {
+				bytes = ((bytes + 7) & ~7L) + 8L * count;
+			}
+		}
+		return (bytes + 7) & ~7L;
+	}
+
+	/**
+	 * Writes a compressed list. The bytes of the list must be zero.
+	 * 
+	 * @param chunk
+	 *            The buffer the list is written to
+	 * @param ints
+	 *            The int view of the buffer
+	 * @param doubles
+	 *            The double view of the buffer
+	 * @param position
+	 *            The position of the list in the buffer, a multiple of 8
+	 * @param documents
+	 *            The document ids of the list
+	 * @param weights
+	 *            The weights of the list
+	 * @param frequencies
+	 *            The numbers of occurrences of the list, or null if they are
+	 *            not kept
+	 * @param length
+	 *            The number of postings
+	 * @param format
+	 *            The format of the weights
+	 * @param idf
+	 *            The inverse document frequency of the word of the list, used
+	 *            if the weights are computed
+	 * @param scratch
+	 *            An array of at least {@link #SCRATCH_INTS} ints
+	 */
+	static void write(ByteBuffer chunk, IntBuffer ints, DoubleBuffer doubles, int position, int[] documents,
+			double[] weights, int[] frequencies, int length, int format, double idf, int[] scratch) {
+		double factor = 0;
+		if (format == COMPUTED_WEIGHTS) {
+			factor = idf;
+		} else if (format == QUANTIZED_WEIGHTS) {
+			for (int i = 0; i < length; i++) {
+				factor = Math.max(factor, weights[i]);
+			}
+			factor /= MAX_QUANTUM;
+		}
+		chunk.putDouble(position, factor);
+
+		int blocks = blocks(length);
+		int offset = position + 8 + 8 * blocks;
+		int previous = -1;
+		for (int block = 0; block < blocks; block++) {
+			int from = block * BLOCK_SIZE;
+			int count = Math.min(BLOCK_SIZE, length - from);
+			chunk.putInt(position + 8 + 8 * block, documents[from + count - 1]);
+			chunk.putInt(position + 12 + 8 * block, offset - position);
+
+			int documentWidth = documentWidth(documents, from, count);
+			int frequencyWidth = (frequencies != null) ? frequencyWidth(frequencies, from, count) : 0;
+			chunk.putInt(offset, documentWidth | (frequencyWidth << 8));
+			offset += 4;
+
+			for (int i = 0; i < count; i++) {
+				scratch[BLOCK_SIZE + i] = documents[from + i] - previous - 1;
+				previous = documents[from + i];
+			}
+			offset = putPacked(ints, offset, scratch, count, documentWidth);
+			if (frequencies != null) {
+				for (int i = 0; i < count; i++) {
+					scratch[BLOCK_SIZE + i] = frequencies[from + i] - 1;
+				}
+				offset = putPacked(ints, offset, scratch, count, frequencyWidth);
+			}
+			if (format == QUANTIZED_WEIGHTS) {
+				for (int i = 0; i < count; i++) {
+					scratch[BLOCK_SIZE + i] = (factor > 0) ? (int) Math.round(weights[from + i] / factor) : 0;
+				}
+				offset = putPacked(ints, offset, scratch, count, QUANTUM_BITS);
+			} else if (format == EXACT_WEIGHTS) {
+				offset = (offset + 7) & ~7;
+				doubles.put(offset / 8, weights, from, count);
+				offset += 8 * count;
+			}
+		}
+	}
+
+	/**
+	 * Gets the last document id of a block of a compressed list.
+	 * 
+	 * @param chunk
+	 *            The buffer holding the list
+	 * @param position
+	 *            The position of the list in the buffer
+	 * @param block
+	 *            The number of the block
+	 * @return The document id of the last posting of the block
+	 */
+	static int lastDocument(ByteBuffer chunk, int position, int block) {
+		return chunk.getInt(position + 8 + 8 * block);
+	}
+
+	/**
+	 * Decodes a block of a compressed list. The parts of the postings that are
+	 * not needed are given as null arrays and are not decoded.
+	 * 
+	 * @param chunk
+	 *            The buffer holding the list
+	 * @param ints
+	 *            The int view of the buffer
+	 * @param doubles
+	 *            The double view of the buffer
+	 * @param position
+	 *            The position of the list in the buffer
+	 * @param length
+	 *            The number of postings of the list
+	 * @param format
+	 *            The format of the weights of the list
+	 * @param hasFrequencies
+	 *            Whether the list keeps the numbers of occurrences
+	 * @param block
+	 *            The number of the block
+	 * @param documents
+	 *            The array the document ids are decoded into, or null
+	 * @param weights
+	 *            The array the weights are decoded into, or null
+	 * @param frequencies
+	 *            The array the numbers of occurrences are decoded into, or
+	 *            null
+	 * @param offset
+	 *            The position in the arrays the first posting of the block is
+	 *            decoded to
+	 * @param scratch
+	 *            An array of at least {@link #SCRATCH_INTS} ints
+	 * @return The number of postings of the block
+	 */
+	static int readBlock(ByteBuffer chunk, IntBuffer ints, DoubleBuffer doubles, int position, int length,
+			int format, boolean hasFrequencies, int block, int[] documents, double[] weights, int[] frequencies,
+			int offset, int[] scratch) {
+		int count = Math.min(BLOCK_SIZE, length - block * BLOCK_SIZE);
+		int data = position + chunk.getInt(position + 12 + 8 * block);
+		int header = chunk.getInt(data);
+		int documentWidth = header & 0xFF;
+		int frequencyWidth = header >>> 8;
+		data += 4;
+
+		if (documents != null) {
+			getPacked(ints, data, documentWidth, count, scratch, documents, offset);
+			int previous = (block == 0) ? -1 : lastDocument(chunk, position, block - 1);
+			for (int i = offset, end = offset + count; i < end; i++) {
+				previous += documents[i] + 1;
+				documents[i] = previous;
+			}
+		}
+		data += 4 * packedInts(count, documentWidth);
+
+		if (hasFrequencies) {
+			boolean computed = weights != null && format == COMPUTED_WEIGHTS;
+			if (frequencies != null || computed) {
+				int[] counts = (frequencies != null) ? frequencies : scratch;
+				int from = (frequencies != null) ? offset : BLOCK_SIZE;
+				getPacked(ints, data, frequencyWidth, count, scratch, counts, from);
+				for (int i = from, end = from + count; i < end; i++) {
+					counts[i]++;
+				}
+				if (computed) {
+					double idf = chunk.getDouble(position);
+					for (int i = 0; i < count; i++) {
+						weights[offset + i] = counts[from + i] * idf;
+					}
+				}
+			}
+			data += 4 * packedInts(count, frequencyWidth);
+		}
+
+		if (weights != null && format == QUANTIZED_WEIGHTS) {
+			double scale = chunk.getDouble(position);
+			getPacked(ints, data, QUANTUM_BITS, count, scratch, scratch, BLOCK_SIZE);
+			for (int i = 0; i < count; i++) {
+				weights[offset + i] = scratch[BLOCK_SIZE + i] * scale;
+			}
+		} else if (weights != null && format == EXACT_WEIGHTS) {
+			data = (data + 7) & ~7;
+			doubles.get(data / 8, weights, offset, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the number of bits needed for the largest difference of a block,
+	 * less one.
+	 * 
+	 * @param documents
+	 *            The document ids of the posting list
+	 * @param from
+	 *            The position of the first posting of the block
+	 * @param count
+	 *            The number of postings of the block
+	 * @return The bit width of the block, from 0 to 32
+	 */
+	private static int documentWidth(int[] documents, int from, int count) {
+		int previous = (from == 0) ? -1 : documents[from - 1];
+		int bits = 0;
+		for (int i = from, end = from + count; i < end; i++) {
+			bits |= documents[i] - previous - 1;
+			previous = documents[i];
+		}
+		return 32 - Integer.numberOfLeadingZeros(bits);
+	}
+
+	/**
+	 * Gets the number of bits needed for the largest number of occurrences of
+	 * a block, less one.
+	 * 
+	 * @param frequencies
+	 *            The numbers of occurrences of the posting list
+	 * @param from
+	 *            The position of the first posting of the block
+	 * @param count
+	 *            The number of postings of the block
+	 * @return The bit width of the block, from 0 to 32
+	 */
+	private static int frequencyWidth(int[] frequencies, int from, int count) {
+		int bits = 0;
+		for (int i = from, end = from + count; i < end; i++) {
+			bits |= frequencies[i] - 1;
+		}
+		return 32 - Integer.numberOfLeadingZeros(bits);
+	}
+
+	/**
+	 * Gets the number of ints taken by the given number of packed values.
+	 * 
+	 * @param count
+	 *            The number of values
+	 * @param width
+	 *            The number of bits of a value
+	 * @return The number of ints of the packed values
+	 */
+	private static int packedInts(int count, int width) {
+		return (int) (((long) count * width + 31) >>> 5);
+	}
+
+	/**
+	 * Packs the values held after the first {@value #BLOCK_SIZE} ints of the
+	 * scratch array and writes them to a buffer.
+	 * 
+	 * @param ints
+	 *            The int view of the buffer
+	 * @param offset
+	 *            The position of the packed values in the buffer in bytes
+	 * @param scratch
+	 *            The scratch array holding the values
+	 * @param count
+	 *            The number of values
+	 * @param width
+	 *            The number of bits of a value
+	 * @return The position following the packed values in bytes
+	 */
+	private static int putPacked(IntBuffer ints, int offset, int[] scratch, int count, int width) {
+		int packed = packedInts(count, width);
+		Arrays.fill(scratch, 0, packed, 0);
+		pack(scratch, BLOCK_SIZE, count, width, scratch, 0);
+		ints.put(offset / 4, scratch, 0, packed);
+		return offset + 4 * packed;
+	}
+
+	/**
+	 * Reads packed values from a buffer and unpacks them.
+	 * 
+	 * @param ints
+	 *            The int view of the buffer
+	 * @param offset
+	 *            The position of the packed values in the buffer in bytes
+	 * @param width
+	 *            The number of bits of a value
+	 * @param count
+	 *            The number of values
+	 * @param scratch
+	 *            The scratch array, whose first {@value #BLOCK_SIZE} ints the
+	 *            packed values are copied into
+	 * @param values
+	 *            The array the values are unpacked into
+	 * @param from
+	 *            The position of the first unpacked value
+	 */
+	private static void getPacked(IntBuffer ints, int offset, int width, int count, int[] scratch, int[] values,
+			int from) {
+		ints.get(offset / 4, scratch, 0, packedInts(count, width));
+		unpack(scratch, 0, width, count, values, from);
+	}
+
+	/**
+	 * Packs a block of values with the given bit width.
+	 * 
+	 * @param values
+	 *            The array holding the values of the block
+	 * @param first
+	 *            The position of the first value
+	 * @param count
+	 *            The number of values
+	 * @param width
+	 *            The number of bits of a value
+	 * @param out
+	 *            The array the values are packed into
+	 * @param offset
+	 *            The position of the first int of the packed block
+	 */
+	private static void pack(int[] values, int first, int count, int width, int[] out, int offset) {
+		if (width == 0) {
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			int value = values[first + i];
+			long bit = (long) i * width;
+			int index = offset + (int) (bit >>> 5);
+			int shift = (int) (bit & 31);
+			out[index] |= value << shift;
+			if (shift + width > 32) {
+				out[index + 1] |= value >>> (32 - shift);
+			}
+		}
+	}
+
+	/**
+	 * Unpacks a block of values with the given bit width.
+	 * 
+	 * @param in
+	 *            The array of packed blocks
+	 * @param offset
+	 *            The position of the first int of the packed block
+	 * @param width
+	 *            The number of bits of a value
+	 * @param count
+	 *            The number of values
+	 * @param values
+	 *            The array the values are unpacked into
+	 * @param from
+	 *            The position of the first unpacked value
+	 */
+	private static void unpack(int[] in, int offset, int width, int count, int[] values, int from) {
+		long mask = (1L << width) - 1;
+		long buffer = 0;
+		int bits = 0;
+		int position = offset;
+		for (int i = from, end = from + count; i < end; i++) {
+			if (bits < width) {
+				buffer |= (in[position++] & 0xFFFFFFFFL) << bits;
+				bits += 32;
+			}
+			values[i] = (int) (buffer & mask);
+			buffer >>>= width;
+			bits -= width;
+		}
+	}
+}
@@ -1,16 +1,23 @@
 package hr.marin.filesearch;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
+import java.util.Collections;
 import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.management.JMException;
 
 /**
  * <p>
@@ -27,7 +34,7 @@ import java.util.Set;
  * @author Marin
  *
  */
-public class Conzola {
+public class Console {
 	/**
 	 * The default charset used to read files
 	 */
@@ -37,6 +44,120 @@ public class Conzola {
 	 * language
 	 */
 	private static final String STOPWORDS_FILE = "hrvatski_stoprijeci.txt";
+	/**
+	 * The system property containing the maximum number of results returned by
+	 * a query
+	 */
+	private static final String RESULTS_PROPERTY = "filesearch.results";
+	/**
+	 * The system property containing the number of threads used to read the
+	 * documents
+	 */
+	private static final String THREADS_PROPERTY = "filesearch.threads";
+	/**
+	 * The system property containing the number of threads used to score a
+	 * query
+	 */
+	private static final String QUERY_THREADS_PROPERTY = "filesearch.queryThreads";
+	/**
+	 * The system property containing the maximum number of cached query
+	 * results
+	 */
+	private static final String CACHE_ENTRIES_PROPERTY = "filesearch.cacheEntries";
+	/**
+	 * The system property containing the maximum approximate size of the cached
+	 * query results in bytes
+	 */
+	private static final String CACHE_BYTES_PROPERTY = "filesearch.cacheBytes";
+	/**
+	 * The system property containing the path of the index file. If the file
+	 * exists, the index is loaded from it instead of reading the documents,
+	 * otherwise the built index is written to it.
+	 */
+	private static final String INDEX_PROPERTY = "filesearch.index";
+	/**
+	 * The system property that enables watching the documents for changes. Its
+	 * value is the debounce interval in milliseconds.
+	 */
+	private static final String WATCH_PROPERTY = "filesearch.watch";
+	/**
+	 * The system property that enables exporting the runtime metrics through
+	 * JMX
+	 */
+	private static final String JMX_PROPERTY = "filesearch.jmx";
+	/**
+	 * The system property containing the port of the HTTP server. If it is
+	 * set, the queries are answered over HTTP instead of the console.
+	 */
+	private static final String SERVER_PROPERTY = "filesearch.server";
+	/**
+	 * The system property containing the number of threads handling HTTP
+	 * requests
+	 */
+	private static final String SERVER_THREADS_PROPERTY = "filesearch.serverThreads";
+	/**
+	 * The system property containing the maximum number of HTTP requests
+	 * waiting for a thread
+	 */
+	private static final String SERVER_QUEUE_PROPERTY = "filesearch.serverQueue";
+	/**
+	 * The system property containing the maximum number of queries scored at
+	 * the same time by the HTTP server
+	 */
+	private static final String SERVER_QUERIES_PROPERTY = "filesearch.serverQueries";
+	/**
+	 * The system property containing the path of a file of queries, or "-" for
+	 * the standard input. If it is set, the queries are answered in batches and
+	 * the program exits.
+	 */
+	private static final String BATCH_PROPERTY = "filesearch.batch";
+	/**
+	 * The system property containing the format of the batch results, "tsv"
+	 * (the default) or "jsonl"
+	 */
+	private static final String BATCH_FORMAT_PROPERTY = "filesearch.batchFormat";
+	/**
+	 * The system property that enables recording the positions of the words,
+	 * which phrase and NEAR queries need
+	 */
+	private static final String POSITIONS_PROPERTY = "filesearch.positions";
+	/**
+	 * The system property that sets the ranking function, "tfidf" or "bm25"
+	 */
+	private static final String SCORER_PROPERTY = "filesearch.scorer";
+	/**
+	 * The system property containing the shard indexed by this program, as
+	 * its number and the number of shards separated by a slash. The shard
+	 * answers its coordinator through the HTTP server, so the server must be
+	 * enabled as well.
+	 */
+	private static final String SHARD_PROPERTY = "filesearch.shard";
+	/**
+	 * The system property containing the comma-separated addresses of the
+	 * shards. If it is set, the program indexes no documents and sends the
+	 * queries to the shards instead.
+	 */
+	private static final String SHARDS_PROPERTY = "filesearch.shards";
+	/**
+	 * The system property containing the longest time the shards are waited
+	 * for, in milliseconds
+	 */
+	private static final String SHARD_TIMEOUT_PROPERTY = "filesearch.shardTimeout";
+	/**
+	 * The system property containing the interval between synchronizations of
+	 * the shards in seconds, or 0 if they are synchronized only at the start
+	 */
+	private static final String SHARD_SYNC_PROPERTY = "filesearch.shardSync";
+	/**
+	 * The system property that keeps the posting lists of the index in direct
+	 * memory outside the heap
+	 */
+	private static final String OFF_HEAP_PROPERTY = "filesearch.offHeap";
+	/**
+	 * The system property that keeps the posting lists of the index
+	 * compressed in direct memory outside the heap
+	 */
+	private static final String COMPRESSED_PROPERTY = "filesearch.compressed";
 
 	/**
 	 * This method is called once the program is run.
@@ -47,7 +168,8 @@ public class Conzola {
 	 *            contain documents that will be analyzed.
 	 */
 	public static void main(String[] args) {
-		Path dir = obtainPath(args);
+		boolean coordinator = System.getProperty(SHARDS_PROPERTY) != null;
+		Path dir = coordinator ? null : obtainPath(args);
 
 		Set<String> stopWordsSet = null;
 		try {
@@ -57,20 +179,52 @@ public class Conzola {
 			return;
 		}
 
-		List<DocumentDictionary> docDicts = null;
+		Environment environment = coordinator ? coordinate(stopWordsSet) : index(dir, stopWordsSet);
+		if (environment == null) {
+			return;
+		}
+
+		DirectoryWatcher watcher = null;
+		if (System.getProperty(WATCH_PROPERTY) != null && environment.getIndexer() != null) {
+			try {
+				watcher = new DirectoryWatcher(environment, intProperty(WATCH_PROPERTY, 0));
+				watcher.start();
+			} catch (IOException e) {
+				System.err.println("Failed to watch the directory: " + e.getMessage());
+			}
+		}
+		environment.setMaxResults(intProperty(RESULTS_PROPERTY, Environment.DEFAULT_MAX_RESULTS));
+		environment.setQueryThreads(intProperty(QUERY_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
 		try {
-			docDicts = Utilities.createDocumentDictionaries(dir, stopWordsSet, CHARSET);
-		} catch (IOException e) {
-			System.err.println("Failed to read a file: " + e.getMessage());
+			environment.setRanking(Scorer.forName(System.getProperty(SCORER_PROPERTY, Scorer.TF_IDF)));
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown scorer: " + System.getProperty(SCORER_PROPERTY));
+			System.exit(1);
+		}
+		environment.setQueryCache(new QueryCache(intProperty(CACHE_ENTRIES_PROPERTY, QueryCache.DEFAULT_MAX_ENTRIES),
+				longProperty(CACHE_BYTES_PROPERTY, QueryCache.DEFAULT_MAX_BYTES)));
+		if (System.getProperty(JMX_PROPERTY) != null) {
+			try {
+				new Stats(environment).register();
+			} catch (JMException e) {
+				System.err.println("Failed to register the metrics with JMX: " + e.getMessage());
+			}
+		}
+
+		if (System.getProperty(BATCH_PROPERTY) != null) {
+			batch(environment, System.getProperty(BATCH_PROPERTY));
 			return;
 		}
 
-		TotalDictionary dictionary = new TotalDictionary(docDicts);
-		Environment environment = new Environment(dictionary, docDicts, stopWordsSet);
+		if (System.getProperty(SERVER_PROPERTY) != null) {
+			serve(environment, watcher);
+			return;
+		}
 
 		BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
 
-		System.out.println("Veličina rječnika je " + dictionary.size() + " riječi.");
+		System.out.println("Veličina rječnika je " + environment.getTotalDictionary().size() + " riječi.");
+		Session session = environment.newSession();
 
 		while (true) {
 			System.out.print("Enter command > ");
@@ -78,17 +232,213 @@ public class Conzola {
 			String commandName = CommandParser.getCommandName(line);
 			String commandArguments = CommandParser.getCommandArguments(line);
 
-			if (environment.execute(commandName, commandArguments) == CommandStatus.STOP) {
+			if (session.execute(commandName, commandArguments) == CommandStatus.STOP) {
 				break;
 			}
 		}
 
 		try {
 			reader.close();
+			if (watcher != null) {
+				watcher.close();
+			}
 		} catch (IOException ignorable) {
 		}
 	}
 
+	/**
+	 * Builds or loads the index of the documents of the given directory, or of
+	 * the documents of the shard given by the system properties.
+	 * 
+	 * @param dir
+	 *            The root directory of the documents
+	 * @param stopWordsSet
+	 *            The stop words
+	 * @return The environment of the index, or null if the documents could not
+	 *         be read
+	 */
+	private static Environment index(Path dir, Set<String> stopWordsSet) {
+		boolean positions = System.getProperty(POSITIONS_PROPERTY) != null;
+		Predicate<Path> filter = document -> true;
+		Shard shard = null;
+		if (System.getProperty(SHARD_PROPERTY) != null) {
+			if (System.getProperty(SERVER_PROPERTY) == null) {
+				System.err.println("The property " + SHARD_PROPERTY + " requires " + SERVER_PROPERTY + ".");
+				System.exit(1);
+			}
+			try {
+				shard = Shard.parse(System.getProperty(SHARD_PROPERTY));
+				filter = shard.filter(dir);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+		}
+		Indexer indexer = new Indexer(dir, stopWordsSet, CHARSET,
+				intProperty(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()), positions, filter);
+
+		Index index = null;
+		String indexFile = System.getProperty(INDEX_PROPERTY);
+		if (indexFile != null && Files.isRegularFile(Paths.get(indexFile))) {
+			try {
+				index = IndexFile.read(Paths.get(indexFile), dir, shard);
+			} catch (IOException e) {
+				System.err.println("Failed to load the index, rebuilding it: " + e.getMessage());
+			}
+			if (index != null && positions && !index.hasPositions()) {
+				System.err.println("The index has no word positions, rebuilding it.");
+				index = null;
+			}
+		}
+
+		if (index == null) {
+			try {
+				index = indexer.build();
+			} catch (IOException e) {
+				System.err.println("Failed to read a file: " + e.getMessage());
+				return null;
+			}
+
+			if (indexFile != null) {
+				try {
+					IndexFile.write(Paths.get(indexFile), dir, shard, index);
+				} catch (IOException e) {
+					System.err.println("Failed to write the index: " + e.getMessage());
+				}
+			}
+		}
+
+		InvertedIndex.Format format = InvertedIndex.Format.HEAP;
+		if (System.getProperty(COMPRESSED_PROPERTY) != null) {
+			format = InvertedIndex.Format.COMPRESSED;
+		} else if (System.getProperty(OFF_HEAP_PROPERTY) != null) {
+			format = InvertedIndex.Format.OFF_HEAP;
+		}
+		if (format != InvertedIndex.Format.HEAP) {
+			try {
+				index = index.withFormat(format);
+			} catch (IllegalArgumentException | OutOfMemoryError e) {
+				System.err.println("Failed to move the index off the heap: " + e.getMessage());
+			}
+		}
+
+		Environment environment = new Environment(index, stopWordsSet);
+		environment.setIndexer(indexer);
+		return environment;
+	}
+
+	/**
+	 * Connects to the shards given by the system properties and synchronizes
+	 * them. The returned environment sends its queries to the shards and its
+	 * index contains only the dictionary of the whole collection.
+	 * 
+	 * @param stopWordsSet
+	 *            The stop words
+	 * @return The environment of the shards
+	 */
+	private static Environment coordinate(Set<String> stopWordsSet) {
+		ShardCoordinator coordinator = null;
+		try {
+			coordinator = new ShardCoordinator(ShardCoordinator.parseAddresses(System.getProperty(SHARDS_PROPERTY)),
+					Math.max(1, intProperty(SHARD_TIMEOUT_PROPERTY, (int) ShardCoordinator.DEFAULT_TIMEOUT_MILLIS)));
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+
+		TotalDictionary dictionary = null;
+		try {
+			dictionary = coordinator.synchronize();
+		} catch (IOException e) {
+			System.err.println("Failed to synchronize the shards: " + e.getMessage());
+			System.exit(1);
+		}
+
+		Environment environment = new Environment(new Index(dictionary, Collections.emptyList()), stopWordsSet);
+		environment.setCoordinator(coordinator);
+		int seconds = intProperty(SHARD_SYNC_PROPERTY, 60);
+		if (seconds > 0) {
+			coordinator.synchronizeEvery(seconds,
+					global -> environment.setIndex(new Index(global, Collections.emptyList())));
+		}
+		System.out.println("Upiti se šalju na " + coordinator.getShardCount() + " dijelova indeksa.");
+		return environment;
+	}
+
+	/**
+	 * Answers the queries of the given file in batches, writes their results
+	 * to the standard output and reports the throughput to the standard error.
+	 * 
+	 * @param environment
+	 *            The environment whose index is queried
+	 * @param source
+	 *            The path of the file of queries, or "-" for the standard
+	 *            input
+	 */
+	private static void batch(Environment environment, String source) {
+		BatchQueries.Format format = null;
+		try {
+			format = BatchQueries.Format.valueOf(System.getProperty(BATCH_FORMAT_PROPERTY, "tsv").toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.err.println("Unknown batch format: " + System.getProperty(BATCH_FORMAT_PROPERTY));
+			System.exit(1);
+		}
+
+		BatchQueries batch = new BatchQueries(environment, format, environment.getMaxResults());
+		long start = System.nanoTime();
+		long queries = 0;
+		try (BufferedReader input = "-".equals(source) ? new BufferedReader(new InputStreamReader(System.in, CHARSET))
+				: Files.newBufferedReader(Paths.get(source), CHARSET)) {
+			Writer output = new BufferedWriter(new OutputStreamWriter(System.out, CHARSET));
+			queries = batch.run(input, output);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Failed to answer the queries: " + e.getMessage());
+			System.exit(1);
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.format("Odgovoreno na %d upita u %.2f s (%.1f upita/s).%n", queries, seconds, queries / seconds);
+	}
+
+	/**
+	 * Starts the HTTP server of the given environment. The server keeps the
+	 * program running until it is stopped.
+	 * 
+	 * @param environment
+	 *            The environment the requests are answered from
+	 * @param watcher
+	 *            The watcher of the documents, or null if they are not watched
+	 */
+	private static void serve(Environment environment, DirectoryWatcher watcher) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		QueryServer server = null;
+		try {
+			server = new QueryServer(environment, new InetSocketAddress(intProperty(SERVER_PROPERTY, 8080)),
+					Math.max(1, intProperty(SERVER_THREADS_PROPERTY, 4 * processors)),
+					Math.max(1, intProperty(SERVER_QUEUE_PROPERTY, 256)),
+					Math.max(1, intProperty(SERVER_QUERIES_PROPERTY, processors)));
+		} catch (IOException e) {
+			System.err.println("Failed to start the server: " + e.getMessage());
+			System.exit(1);
+		}
+
+		QueryServer started = server;
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			started.close();
+			try {
+				if (watcher != null) {
+					watcher.close();
+				}
+			} catch (IOException ignorable) {
+			}
+		}));
+		if (System.getProperty(SHARD_PROPERTY) != null) {
+			server.addShardEndpoints();
+		}
+		server.start();
+		System.out.println("Poslužitelj sluša na " + server.getAddress() + ".");
+	}
+
 	/**
 	 * Checks whether argument given via the command line is a path to an
 	 * existing directory and returns that path.
@@ -119,6 +469,66 @@ public class Conzola {
 		return path;
 	}
 
+	/**
+	 * Reads a non-negative integer from the system property with the given
+	 * name.
+	 * 
+	 * @param name
+	 *            The name of the system property.
+	 * @param defaultValue
+	 *            The value returned if the property is not set.
+	 * @return The value of the property, or the default value if it is not
+	 *         set.
+	 */
+	private static int intProperty(String name, int defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			int number = Integer.parseInt(value.trim());
+			if (number >= 0) {
+				return number;
+			}
+		} catch (NumberFormatException ignorable) {
+		}
+
+		System.err.println("The property " + name + " must be a non-negative integer: " + value);
+		System.exit(1);
+		return defaultValue;
+	}
+
+	/**
+	 * Reads a non-negative long integer from the system property with the
+	 * given name.
+	 * 
+	 * @param name
+	 *            The name of the system property.
+	 * @param defaultValue
+	 *            The value returned if the property is not set.
+	 * @return The value of the property, or the default value if it is not
+	 *         set.
+	 */
+	private static long longProperty(String name, long defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			long number = Long.parseLong(value.trim());
+			if (number >= 0) {
+				return number;
+			}
+		} catch (NumberFormatException ignorable) {
+		}
+
+		System.err.println("The property " + name + " must be a non-negative integer: " + value);
+		System.exit(1);
+		return defaultValue;
+	}
+
 	/**
 	 * Method used to read a line from a {@link BufferedReader}.
 	 * 
@@ -0,0 +1,344 @@
+package hr.marin.filesearch;
+
+import java.util.List;
+
+/**
+ * <p>
+ * Scores documents by the cosine similarity of their tf-idf vectors to the
+ * query vector.
+ * </p>
+ * <p>
+ * Queries of a few words are scored document by document with the MaxScore
+ * algorithm whenever the upper bounds of their posting lists are known. The
+ * lists whose bounds add up to less than the score a document has to beat
+ * cannot bring in a new document on their own, so only the other, essential
+ * lists are traversed, and the rest are only probed for documents that may
+ * still make it. The lists are read with {@link PostingCursor}s, so probing a
+ * list skips the blocks that end before the probed document without reading
+ * them. A document is scored by adding up its weights in the same order as
+ * exhaustive scoring does, so pruning never changes the results.
+ * Single words cannot be pruned, and long queries keep too many lists
+ * essential for the skipping to pay off, so both are scored exhaustively, term
+ * by term through the posting lists.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class CosineScorer extends Scorer {
+	/**
+	 * The relative margin added to the upper bounds of the similarities to
+	 * make up for rounding errors.
+	 */
+	private static final double BOUND_MARGIN = 1E-9;
+	/**
+	 * The smallest number of words of a query scored with pruning.
+	 */
+	private static final int MIN_PRUNED_WORDS = 2;
+	/**
+	 * The largest number of words of a query scored with pruning.
+	 */
+	private static final int MAX_PRUNED_WORDS = 4;
+
+	@Override
+	public String getName() {
+		return TF_IDF;
+	}
+
+	@Override
+	TopKCollector scoreShard(Index index, SparseVector query, int k, int from, int to) {
+		return canPrune(index.getInvertedIndex(), query, k) ? pruneShard(index, query, k, from, to)
+				: exhaustiveShard(index, query, k, from, to);
+	}
+
+	@Override
+	TopKCollector scoreDocuments(Index index, SparseVector query, int k, int[] documents) {
+		List<DocumentVector> vectors = index.getVectors();
+		List<DocumentTerms> docTerms = index.getDocuments();
+		TotalDictionary totalDict = index.getTotalDictionary();
+		double queryNorm = query.norm();
+
+		TopKCollector topK = new TopKCollector(k);
+		for (int docId : documents) {
+			double normProduct = index.getNorm(docId) * queryNorm;
+			if (isZero(normProduct)) {
+				continue;
+			}
+			double scalarProduct = (vectors != null) ? query.scalarProduct(vectors.get(docId))
+					: scalarProduct(query, docTerms.get(docId), totalDict);
+			double similarity = scalarProduct / normProduct;
+			if (!isZero(similarity)) {
+				topK.offer(docId, similarity);
+			}
+		}
+		return topK;
+	}
+
+	/**
+	 * Calculates the scalar product of the query vector and the vector of a
+	 * document from the word occurrences of the document, without creating
+	 * the vector. The products are added up in the order of the word indices,
+	 * like {@link SparseVector#scalarProduct(AbstractVector)} does, so the
+	 * result is the same.
+	 * 
+	 * @param query
+	 *            The vector of the query
+	 * @param terms
+	 *            The word occurrences of the document
+	 * @param totalDict
+	 *            The dictionary whose inverse document frequencies weigh the
+	 *            occurrences
+	 * @return The scalar product of the query and the document
+	 */
+	private static double scalarProduct(SparseVector query, DocumentTerms terms, TotalDictionary totalDict) {
+		double sumOfProducts = 0.0;
+		for (int i = 0, n = query.nonZeroCount(); i < n; i++) {
+			int word = query.indexAt(i);
+			int occurences = terms.occurences(word);
+			if (occurences != 0) {
+				sumOfProducts += query.valueAt(i) * (occurences * totalDict.idf(word));
+			}
+		}
+		return sumOfProducts;
+	}
+
+	/**
+	 * Checks whether the documents should be scored against the given query
+	 * with pruning, which needs the upper bounds of all its posting lists and
+	 * non-negative query weights.
+	 * 
+	 * @param invertedIndex
+	 *            The inverted index of the documents
+	 * @param query
+	 *            The vector of the query
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @return True if the query has a suitable number of words and pruning
+	 *         gives the same results as exhaustive scoring
+	 */
+	private static boolean canPrune(InvertedIndex invertedIndex, SparseVector query, int k) {
+		int words = query.nonZeroCount();
+		if (k == 0 || words < MIN_PRUNED_WORDS || words > MAX_PRUNED_WORDS) {
+			return false;
+		}
+		for (int i = 0, n = query.nonZeroCount(); i < n; i++) {
+			double queryWeight = query.valueAt(i);
+			if (!(queryWeight >= 0) || Double.isInfinite(queryWeight)
+					|| Double.isNaN(invertedIndex.getUpperBound(query.indexAt(i)))) {
+				return false;
+			}
+		}
+		double queryNorm = query.norm();
+		return queryNorm > 0 && !Double.isInfinite(queryNorm);
+	}
+
+	/**
+	 * Scores the documents with ids from the given range with the MaxScore
+	 * algorithm, skipping the documents whose upper bound cannot beat the
+	 * collected ones.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param from
+	 *            The first document id of the shard, inclusive
+	 * @param to
+	 *            The last document id of the shard, exclusive
+	 * @return The unsorted collector of the best documents of the shard
+	 */
+	static TopKCollector pruneShard(Index index, SparseVector query, int k, int from, int to) {
+		InvertedIndex invertedIndex = index.getInvertedIndex();
+		double queryNorm = query.norm();
+		int n = query.nonZeroCount();
+
+		ScoreAccumulator accumulator = ScoreAccumulator.acquire(0);
+		PostingCursor[] cursors = new PostingCursor[n];
+		double[] queryWeights = new double[n];
+		double[] bounds = new double[n];
+		long postings = 0;
+
+		for (int i = 0; i < n; i++) {
+			int word = query.indexAt(i);
+			cursors[i] = accumulator.cursor(i);
+			cursors[i].open(invertedIndex, word, from, to, PostingCursor.WEIGHTS);
+			postings += cursors[i].count();
+			cursors[i].nextDocument();
+			queryWeights[i] = query.valueAt(i);
+			bounds[i] = queryWeights[i] * invertedIndex.getUpperBound(word) / queryNorm;
+		}
+
+		int[] byBound = sortByBound(bounds);
+		double[] boundSums = new double[n];
+		for (int i = 0; i < n; i++) {
+			boundSums[i] = ((i > 0) ? boundSums[i - 1] : 0) + bounds[byBound[i]];
+		}
+
+		TopKCollector topK = new TopKCollector(k);
+		double[] contributions = new double[n];
+		boolean[] matches = new boolean[n];
+		double required = Double.NaN;
+		int firstEssential = 0;
+		long scored = 0;
+
+		while (true) {
+			double threshold = Math.max(topK.threshold(), PRECISION);
+			if (threshold != required) {
+				required = threshold;
+				while (firstEssential < n && boundSums[firstEssential] * (1 + BOUND_MARGIN) < required) {
+					firstEssential++;
+				}
+			}
+
+			int docId = PostingCursor.NO_DOCUMENT;
+			for (int i = firstEssential; i < n; i++) {
+				docId = Math.min(docId, cursors[byBound[i]].document());
+			}
+			if (docId == PostingCursor.NO_DOCUMENT) {
+				break;
+			}
+
+			double scalarProduct = 0;
+			for (int i = firstEssential; i < n; i++) {
+				int list = byBound[i];
+				PostingCursor cursor = cursors[list];
+				if (cursor.document() == docId) {
+					contributions[list] = queryWeights[list] * cursor.weights[cursor.position];
+					matches[list] = true;
+					scalarProduct += contributions[list];
+					cursor.nextDocument();
+					scored++;
+				}
+			}
+
+			double normProduct = index.getNorm(docId) * queryNorm;
+			boolean skipped = isZero(normProduct);
+			for (int i = firstEssential - 1; i >= 0 && !skipped; i--) {
+				if ((scalarProduct / normProduct + boundSums[i]) * (1 + BOUND_MARGIN) < required) {
+					skipped = true;
+					break;
+				}
+				int list = byBound[i];
+				PostingCursor cursor = cursors[list];
+				if (cursor.advance(docId) == docId) {
+					contributions[list] = queryWeights[list] * cursor.weights[cursor.position];
+					matches[list] = true;
+					scalarProduct += contributions[list];
+					cursor.nextDocument();
+					scored++;
+				}
+			}
+
+			scalarProduct = 0;
+			for (int i = 0; i < n; i++) {
+				if (matches[i]) {
+					scalarProduct += contributions[i];
+					matches[i] = false;
+				}
+			}
+			if (skipped) {
+				continue;
+			}
+			double similarity = scalarProduct / normProduct;
+			if (!isZero(similarity)) {
+				topK.offer(docId, similarity);
+			}
+		}
+
+		accumulator.release(0);
+
+		Metrics.global().recordPostings(postings, scored);
+		return topK;
+	}
+
+	/**
+	 * Sorts the numbers of the posting lists by their upper bounds.
+	 * 
+	 * @param bounds
+	 *            The upper bounds of the posting lists
+	 * @return The numbers of the posting lists, from the lowest to the highest
+	 *         bound
+	 */
+	private static int[] sortByBound(double[] bounds) {
+		int[] order = new int[bounds.length];
+		for (int i = 0; i < order.length; i++) {
+			int list = i;
+			int j = i - 1;
+			while (j >= 0 && bounds[order[j]] > bounds[list]) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = list;
+		}
+		return order;
+	}
+
+	/**
+	 * Scores all the documents with ids from the given range that contain a
+	 * word of the query, accumulating their scores in the
+	 * {@link ScoreAccumulator} of the calling thread.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param from
+	 *            The first document id of the shard, inclusive
+	 * @param to
+	 *            The last document id of the shard, exclusive
+	 * @return The unsorted collector of the best documents of the shard
+	 */
+	static TopKCollector exhaustiveShard(Index index, SparseVector query, int k, int from, int to) {
+		InvertedIndex invertedIndex = index.getInvertedIndex();
+		double queryNorm = query.norm();
+
+		ScoreAccumulator accumulator = ScoreAccumulator.acquire(to - from);
+		double[] scalarProducts = accumulator.scores;
+		boolean[] isCandidate = accumulator.isCandidate;
+		int[] candidates = accumulator.candidates;
+		int numOfCandidates = 0;
+		long postings = 0;
+
+		PostingCursor cursor = accumulator.cursor(0);
+		for (int i = 0, n = query.nonZeroCount(); i < n; i++) {
+			double queryWeight = query.valueAt(i);
+			cursor.open(invertedIndex, query.indexAt(i), from, to, PostingCursor.WEIGHTS);
+
+			while (cursor.nextBlock()) {
+				int[] postingDocs = cursor.documents;
+				double[] postingWeights = cursor.weights;
+				postings += cursor.end - cursor.start;
+				for (int j = cursor.start; j < cursor.end; j++) {
+					int position = postingDocs[j] - from;
+					scalarProducts[position] += queryWeight * postingWeights[j];
+					if (!isCandidate[position]) {
+						isCandidate[position] = true;
+						candidates[numOfCandidates++] = position;
+					}
+				}
+			}
+		}
+
+		TopKCollector topK = new TopKCollector(k);
+
+		for (int i = 0; i < numOfCandidates; i++) {
+			int docId = from + candidates[i];
+			double normProduct = index.getNorm(docId) * queryNorm;
+			if (isZero(normProduct)) {
+				continue;
+			}
+			double similarity = scalarProducts[candidates[i]] / normProduct;
+			if (!isZero(similarity)) {
+				topK.offer(docId, similarity);
+			}
+		}
+		accumulator.release(numOfCandidates);
+
+		Metrics.global().recordPostings(postings, postings);
+		return topK;
+	}
+}
@@ -0,0 +1,197 @@
+package hr.marin.filesearch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Watches the directory structure of an {@link Environment}'s indexer with a
+ * {@link WatchService} and applies the created, modified and deleted files to
+ * the environment's index in the background.
+ * </p>
+ * <p>
+ * Events are debounced: after an event the watcher keeps collecting events
+ * until none arrives for the debounce interval, and then updates the index
+ * once for the whole batch through {@link Environment#refreshIndex}. Commands
+ * keep being served from the previous index until the updated one replaces
+ * it. If the watch service loses events, the whole directory structure is
+ * refreshed.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class DirectoryWatcher implements Runnable, Closeable {
+	/**
+	 * The longest time a batch is collected, as a multiple of the debounce
+	 * interval, so a constant stream of events still updates the index
+	 */
+	private static final int MAX_DELAY_FACTOR = 10;
+
+	/**
+	 * The environment whose index is updated
+	 */
+	private Environment environment;
+	/**
+	 * The watch service the directories are registered with
+	 */
+	private WatchService watchService;
+	/**
+	 * A map that pairs watch keys with the directories they were registered
+	 * for
+	 */
+	private Map<WatchKey, Path> directories;
+	/**
+	 * The time without events after which a batch is applied, in milliseconds
+	 */
+	private long debounceMillis;
+
+	/**
+	 * Creates a new {@link DirectoryWatcher} and registers the root directory
+	 * of the environment's indexer and all its subdirectories.
+	 * 
+	 * @param environment
+	 *            The environment whose index is updated. It must have an
+	 *            indexer.
+	 * @param debounceMillis
+	 *            The time without events after which a batch is applied, in
+	 *            milliseconds
+	 * @throws IOException
+	 *             If the directories could not be registered
+	 * @throws IllegalArgumentException
+	 *             If the environment has no indexer
+	 */
+	public DirectoryWatcher(Environment environment, long debounceMillis) throws IOException {
+		if (environment.getIndexer() == null) {
+			throw new IllegalArgumentException("Environment has no indexer.");
+		}
+
+		this.environment = environment;
+		this.debounceMillis = debounceMillis;
+		this.directories = new HashMap<>();
+		this.watchService = FileSystems.getDefault().newWatchService();
+		registerAll(environment.getIndexer().getRoot());
+	}
+
+	/**
+	 * Starts watching on a new daemon thread.
+	 * 
+	 * @return The started thread
+	 */
+	public Thread start() {
+		Thread thread = new Thread(this, "directory-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<>();
+				boolean overflow = collect(watchService.take(), changed);
+
+				long deadline = System.currentTimeMillis() + MAX_DELAY_FACTOR * debounceMillis;
+				WatchKey key;
+				while (System.currentTimeMillis() < deadline
+						&& (key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+					overflow |= collect(key, changed);
+				}
+
+				try {
+					environment.refreshIndex(overflow ? null : changed);
+				} catch (IOException | RuntimeException e) {
+					System.err.println("Failed to update the index: " + e.getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException ignorable) {
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * Collects the paths of all the events of the given key and resets it.
+	 * Newly created directories are registered as well.
+	 * 
+	 * @param key
+	 *            The signalled key
+	 * @param changed
+	 *            The set the changed paths are added to
+	 * @return True if events were lost, false otherwise
+	 */
+	private boolean collect(WatchKey key, Set<Path> changed) {
+		Path dir = directories.get(key);
+		boolean overflow = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+				overflow = true;
+				continue;
+			}
+
+			Path path = dir.resolve((Path) event.context());
+			changed.add(path);
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+				try {
+					registerAll(path);
+				} catch (IOException e) {
+					overflow = true;
+				}
+			}
+		}
+
+		if (!key.reset()) {
+			directories.remove(key);
+		}
+		return overflow;
+	}
+
+	/**
+	 * Registers the given directory and all its subdirectories with the watch
+	 * service.
+	 * 
+	 * @param start
+	 *            The root of the registered directory structure
+	 * @throws IOException
+	 *             If a directory could not be registered
+	 */
+	private void registerAll(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				directories.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -4,36 +4,52 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
  * The dictionary containing all the words of a single document or a single
- * string.
+ * string. The occurrences of the words are counted in a {@link WordCounter},
+ * and can be iterated by going through its slots with {@link #capacity()},
+ * {@link #wordAt(int)} and {@link #occurencesAt(int)}. If the dictionary was
+ * created with positions, the positions of the words in the document can be
+ * found with {@link #positionsAt(int)}.
  * 
  * @author Marin
  *
  */
 public class DocumentDictionary {
 	/**
-	 * A map that pairs the words of this dictionary with their number of
-	 * occurrences in the document or string.
+	 * The words of this dictionary with their number of occurrences in the
+	 * document or string.
 	 */
-	private Map<String, Integer> wordMap;
+	private WordCounter words;
+	/**
+	 * The positions of the words, indexed by the ids of the words in
+	 * {@link #words}, or null if the positions were not recorded.
+	 */
+	private int[][] positions;
 	/**
 	 * The document from which the dictionary has been generated. Null if the
 	 * dictionary has been generated from a string.
 	 */
 	private Path document;
+	/**
+	 * The state of the document at the time it was read. Null if the
+	 * dictionary has been generated from a string.
+	 */
+	private FileFingerprint fingerprint;
 
 	/**
 	 * Creates an empty new {@link DocumentDictionary}.
 	 */
 	private DocumentDictionary() {
-		wordMap = new HashMap<>();
+		words = new WordCounter();
+		positions = null;
 		document = null;
+		fingerprint = null;
 	}
 
 	/**
@@ -44,11 +60,74 @@ public class DocumentDictionary {
 	 * @return The number of occurrences of the given word
 	 */
 	public int occurences(String wordString) {
-		Integer number = wordMap.get(wordString);
-		if (number == null) {
-			return 0;
+		char[] chars = wordString.toCharArray();
+		return words.count(chars, 0, chars.length);
+	}
+
+	/**
+	 * Gets the number of different words in the dictionary.
+	 * 
+	 * @return The number of words.
+	 */
+	public int size() {
+		return words.size();
+	}
+
+	/**
+	 * Gets the number of slots of the dictionary. Words can be iterated by going
+	 * through all the slots and skipping the empty ones.
+	 * 
+	 * @return The number of slots.
+	 */
+	public int capacity() {
+		return words.capacity();
+	}
+
+	/**
+	 * Gets the word in the given slot.
+	 * 
+	 * @param slot
+	 *            The slot, from 0 to {@link #capacity()} - 1.
+	 * @return The word in the slot, or null if the slot is empty.
+	 */
+	public String wordAt(int slot) {
+		return words.wordAt(slot);
+	}
+
+	/**
+	 * Gets the number of occurrences of the word in the given slot.
+	 * 
+	 * @param slot
+	 *            The slot, from 0 to {@link #capacity()} - 1.
+	 * @return The number of occurrences of the word, or 0 if the slot is empty.
+	 */
+	public int occurencesAt(int slot) {
+		return words.countAt(slot);
+	}
+
+	/**
+	 * Checks whether the positions of the words were recorded.
+	 * 
+	 * @return True if the dictionary has the positions of the words.
+	 */
+	public boolean hasPositions() {
+		return positions != null;
+	}
+
+	/**
+	 * Gets the positions of the word in the given slot. The position of a word
+	 * is the number of words before it, stop words included.
+	 * 
+	 * @param slot
+	 *            The slot, from 0 to {@link #capacity()} - 1.
+	 * @return The ascending positions of the word, or null if the slot is
+	 *         empty or the positions were not recorded.
+	 */
+	public int[] positionsAt(int slot) {
+		if (positions == null || words.wordAt(slot) == null) {
+			return null;
 		}
-		return number;
+		return positions[words.idAt(slot)];
 	}
 
 	/**
@@ -65,34 +144,59 @@ public class DocumentDictionary {
 	 * @return The created dictionary.
 	 */
 	public static DocumentDictionary fromString(String text, Set<String> stopWords) {
-		DocumentDictionary dict = new DocumentDictionary();
+		return fromString(text, stopWords, false);
+	}
 
-		String[] words = text.trim().toLowerCase().split("\\P{L}+");
+	/**
+	 * Creates a new {@link DocumentDictionary} from a given string and a set of
+	 * stop words, optionally recording the positions of the words.
+	 * 
+	 * @param text
+	 *            The text containing the words that will be contained in the
+	 *            dictionary.
+	 * @param stopWords
+	 *            The words that will not be put to the dictionary if they are
+	 *            found in the text.
+	 * @param positions
+	 *            Whether the positions of the words are recorded.
+	 * @return The created dictionary.
+	 */
+	public static DocumentDictionary fromString(String text, Set<String> stopWords, boolean positions) {
+		Tokenizer tokenizer = new Tokenizer(stopWords, positions);
+		tokenizer.feed(text, 0, text.length());
 
-		Integer occurences = null;
-		for (String word : words) {
-			word = word.trim();
-			if (stopWords.contains(word)) {
-				continue;
-			}
-			occurences = dict.wordMap.get(word);
-			if (occurences != null) {
-				dict.wordMap.put(word, occurences + 1);
-			} else {
-				dict.wordMap.put(word, 1);
-			}
-		}
+		return fromTokenizer(tokenizer);
+	}
 
+	/**
+	 * Creates a new {@link DocumentDictionary} containing the words found by
+	 * the given tokenizer, which has not been finished yet.
+	 * 
+	 * @param tokenizer
+	 *            The tokenizer of the text.
+	 * @return The created dictionary.
+	 */
+	private static DocumentDictionary fromTokenizer(Tokenizer tokenizer) {
+		DocumentDictionary dict = new DocumentDictionary();
+		dict.words = tokenizer.finish();
+		dict.positions = tokenizer.positions();
 		return dict;
 	}
 
 	/**
-	 * Gets a set of all the words in the {@link Dictionary}.
+	 * Gets a set of all the words in the {@link Dictionary}. A new set is
+	 * created on every call.
 	 * 
 	 * @return A set of all the words in the {@link Dictionary}.
 	 */
 	public Set<String> getWordSet() {
-		return wordMap.keySet();
+		Set<String> wordSet = new HashSet<>(words.size() * 4 / 3 + 1);
+		for (int slot = 0, capacity = words.capacity(); slot < capacity; slot++) {
+			if (words.wordAt(slot) != null) {
+				wordSet.add(words.wordAt(slot));
+			}
+		}
+		return wordSet;
 	}
 
 	/**
@@ -106,10 +210,23 @@ public class DocumentDictionary {
 		return document;
 	}
 
+	/**
+	 * Gets the state the document had when the dictionary was created from it.
+	 * Returns null if a string was used to create the dictionary.
+	 * 
+	 * @return The fingerprint of the document, or null if a string was used.
+	 */
+	public FileFingerprint getFingerprint() {
+		return fingerprint;
+	}
+
 	/**
 	 * Creates a new {@link DocumentDictionary} from a given document and a set
 	 * of stop words. The dictionary will contain all the words in the document
-	 * except for the stop words.
+	 * except for the stop words.<br>
+	 * The document is read and tokenized in chunks of
+	 * {@link ChunkedReader#CHUNK_SIZE} bytes, so documents of any size can be
+	 * read without loading them into memory.
 	 * 
 	 * @param doc
 	 *            The document containing the words that will be contained in
@@ -124,12 +241,41 @@ public class DocumentDictionary {
 	 *             If file reading was unsuccessful.
 	 */
 	public static DocumentDictionary fromDocument(Path doc, Set<String> stopWords, Charset charset) throws IOException {
+		return fromDocument(doc, stopWords, charset, false);
+	}
+
+	/**
+	 * Creates a new {@link DocumentDictionary} from a given document and a set
+	 * of stop words, optionally recording the positions of the words. The
+	 * document is read in chunks, like in
+	 * {@link #fromDocument(Path, Set, Charset)}.
+	 * 
+	 * @param doc
+	 *            The document containing the words that will be contained in
+	 *            the dictionary.
+	 * @param stopWords
+	 *            The words that will not be put to the dictionary if they are
+	 *            found in the text.
+	 * @param charset
+	 *            The charset used to read the document.
+	 * @param positions
+	 *            Whether the positions of the words are recorded.
+	 * @return The created dictionary.
+	 * @throws IOException
+	 *             If file reading was unsuccessful.
+	 */
+	public static DocumentDictionary fromDocument(Path doc, Set<String> stopWords, Charset charset, boolean positions)
+			throws IOException {
 		checkPath(doc);
 
-		String file = new String(Files.readAllBytes(doc), charset);
+		BasicFileAttributes attributes = Files.readAttributes(doc, BasicFileAttributes.class);
+
+		Tokenizer tokenizer = new Tokenizer(stopWords, positions);
+		long hash = ChunkedReader.read(doc, charset, chunk -> tokenizer.feed(chunk, 0, chunk.remaining()));
 
-		DocumentDictionary dict = fromString(file, stopWords);
+		DocumentDictionary dict = fromTokenizer(tokenizer);
 		dict.document = doc;
+		dict.fingerprint = new FileFingerprint(attributes.size(), attributes.lastModifiedTime().toMillis(), hash);
 
 		return dict;
 	}
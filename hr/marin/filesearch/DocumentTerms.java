@@ -0,0 +1,493 @@
+package hr.marin.filesearch;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The number of occurrences of every word of a single indexed document, keyed
+ * by the index of the word in the {@link TotalDictionary}.
+ * </p>
+ * <p>
+ * The counts are kept as two parallel arrays sorted by word index, so a
+ * document costs two primitive arrays instead of a map of strings, and a count
+ * is found by binary search. Unlike a {@link DocumentDictionary}, the
+ * {@link DocumentTerms} of a document are only meaningful together with the
+ * dictionary whose indices they use.
+ * </p>
+ * <p>
+ * Optionally, the positions of the words in the document are kept too. The
+ * positions of every word are delta-encoded as variable-length ints (seven
+ * bits per byte), one word after another in the order of the word indices,
+ * so most positions take a single byte.
+ * </p>
+ * <p>
+ * The words of a document of an index kept off the heap are not held by this
+ * object at all: it keeps only the path and the fingerprint of the document
+ * and reads the words, their occurrences and positions from the
+ * {@link OffHeapDocuments} of the index.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class DocumentTerms {
+	/**
+	 * The positions of a word the document does not contain
+	 */
+	private static final int[] NO_POSITIONS = new int[0];
+
+	/**
+	 * The document whose words are counted
+	 */
+	private Path document;
+	/**
+	 * The state of the document at the time it was read, or null if it is not
+	 * known
+	 */
+	private FileFingerprint fingerprint;
+	/**
+	 * The indices of the words of the document, in ascending order
+	 */
+	private int[] terms;
+	/**
+	 * The numbers of occurrences of the words, parallel to {@link #terms}
+	 */
+	private int[] occurences;
+	/**
+	 * The encoded positions of all the words, or null if they are not kept
+	 */
+	private byte[] positions;
+	/**
+	 * The offset of the first encoded position of every word in
+	 * {@link #positions}, with one more element for the end of the last word,
+	 * or null if the positions are not kept
+	 */
+	private int[] positionOffsets;
+	/**
+	 * The store the words of the document are read from, or null if they are
+	 * kept in the arrays of this object
+	 */
+	private OffHeapDocuments store;
+	/**
+	 * The id of the document in {@link #store}
+	 */
+	private int docId;
+
+	/**
+	 * Creates a new {@link DocumentTerms} object from already counted
+	 * occurrences. The arrays are used directly and must not be modified
+	 * afterwards.
+	 * 
+	 * @param document
+	 *            The document whose words are counted
+	 * @param fingerprint
+	 *            The state of the document at the time it was read, or null
+	 *            if it is not known
+	 * @param terms
+	 *            The indices of the words of the document, in ascending order
+	 * @param occurences
+	 *            The numbers of occurrences of the words, parallel to the
+	 *            indices
+	 * @throws IllegalArgumentException
+	 *             If the arrays differ in length
+	 */
+	public DocumentTerms(Path document, FileFingerprint fingerprint, int[] terms, int[] occurences) {
+		this(document, fingerprint, terms, occurences, null);
+	}
+
+	/**
+	 * Creates a new {@link DocumentTerms} object from already counted
+	 * occurrences and encoded positions. The arrays are used directly and must
+	 * not be modified afterwards.
+	 * 
+	 * @param document
+	 *            The document whose words are counted
+	 * @param fingerprint
+	 *            The state of the document at the time it was read, or null
+	 *            if it is not known
+	 * @param terms
+	 *            The indices of the words of the document, in ascending order
+	 * @param occurences
+	 *            The numbers of occurrences of the words, parallel to the
+	 *            indices
+	 * @param positions
+	 *            The encoded positions of the words, as returned by
+	 *            {@link #getEncodedPositions()}, or null if they are not kept
+	 * @throws IllegalArgumentException
+	 *             If the arrays differ in length or the positions do not match
+	 *             the occurrences
+	 */
+	public DocumentTerms(Path document, FileFingerprint fingerprint, int[] terms, int[] occurences,
+			byte[] positions) {
+		if (terms.length != occurences.length) {
+			throw new IllegalArgumentException("Index and occurrence arrays differ in length.");
+		}
+
+		this.document = document;
+		this.fingerprint = fingerprint;
+		this.terms = terms;
+		this.occurences = occurences;
+		if (positions != null) {
+			this.positions = positions;
+			this.positionOffsets = positionOffsets(positions, occurences);
+		}
+	}
+
+	/**
+	 * Creates a new {@link DocumentTerms} object whose words are kept off the
+	 * heap.
+	 * 
+	 * @param document
+	 *            The document whose words are counted
+	 * @param fingerprint
+	 *            The state of the document at the time it was read, or null
+	 *            if it is not known
+	 * @param store
+	 *            The store the words of the document are read from
+	 * @param docId
+	 *            The id of the document in the store
+	 */
+	DocumentTerms(Path document, FileFingerprint fingerprint, OffHeapDocuments store, int docId) {
+		this.document = document;
+		this.fingerprint = fingerprint;
+		this.store = store;
+		this.docId = docId;
+	}
+
+	/**
+	 * Finds where the encoded positions of every word start.
+	 * 
+	 * @param positions
+	 *            The encoded positions of all the words
+	 * @param occurences
+	 *            The numbers of occurrences of the words, which are also the
+	 *            numbers of their positions
+	 * @return The offsets of the positions of the words, with one more element
+	 *         for the end of the last word
+	 * @throws IllegalArgumentException
+	 *             If the positions do not match the occurrences
+	 */
+	private static int[] positionOffsets(byte[] positions, int[] occurences) {
+		int[] offsets = new int[occurences.length + 1];
+		int offset = 0;
+		for (int i = 0; i < occurences.length; i++) {
+			offsets[i] = offset;
+			for (int j = 0; j < occurences[i]; j++) {
+				while (offset < positions.length && positions[offset] < 0) {
+					offset++;
+				}
+				if (offset++ >= positions.length) {
+					throw new IllegalArgumentException("Positions do not match the occurrences.");
+				}
+			}
+		}
+		if (offset != positions.length) {
+			throw new IllegalArgumentException("Positions do not match the occurrences.");
+		}
+		offsets[occurences.length] = offset;
+		return offsets;
+	}
+
+	/**
+	 * Creates the {@link DocumentTerms} of the given document dictionary with
+	 * the indices of the given total dictionary. Words that are not in the
+	 * total dictionary are left out.
+	 * 
+	 * @param docDict
+	 *            The dictionary of the document
+	 * @param totalDict
+	 *            The dictionary whose indices are used
+	 * @return The created object
+	 */
+	public static DocumentTerms of(DocumentDictionary docDict, TotalDictionary totalDict) {
+		long[] entries = new long[docDict.size()];
+		int count = 0;
+
+		for (int slot = 0, capacity = docDict.capacity(); slot < capacity; slot++) {
+			String word = docDict.wordAt(slot);
+			if (word == null) {
+				continue;
+			}
+			int index = totalDict.indexOf(word);
+			if (index != -1) {
+				entries[count++] = ((long) index << 32) | slot;
+			}
+		}
+		Arrays.sort(entries, 0, count);
+
+		int[] terms = new int[count];
+		int[] occurences = new int[count];
+		PositionWriter writer = docDict.hasPositions() ? new PositionWriter() : null;
+		for (int i = 0; i < count; i++) {
+			int slot = (int) entries[i];
+			terms[i] = (int) (entries[i] >>> 32);
+			occurences[i] = docDict.occurencesAt(slot);
+			if (writer != null) {
+				writer.write(docDict.positionsAt(slot));
+			}
+		}
+
+		return new DocumentTerms(docDict.getDocumentPath(), docDict.getFingerprint(), terms, occurences,
+				(writer != null) ? writer.toByteArray() : null);
+	}
+
+	/**
+	 * Creates a copy of this object whose word indices are translated by the
+	 * given mapping, for example after words were removed from the dictionary.
+	 * The mapping must keep the order of the indices of this document.
+	 * 
+	 * @param newIndices
+	 *            The new index of every old word index
+	 * @return The translated copy
+	 */
+	public DocumentTerms remap(int[] newIndices) {
+		if (store != null) {
+			return onHeap().remap(newIndices);
+		}
+		int[] newTerms = new int[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			newTerms[i] = newIndices[terms[i]];
+		}
+		return new DocumentTerms(document, fingerprint, newTerms, occurences, positions);
+	}
+
+	/**
+	 * Gets the words of the document kept on the heap, copying them if they
+	 * are kept off the heap.
+	 * 
+	 * @return This object, or a copy of it with the words on the heap
+	 */
+	DocumentTerms onHeap() {
+		if (store == null) {
+			return this;
+		}
+		int size = store.numberOfTerms(docId);
+		int[] newTerms = new int[size];
+		int[] newOccurences = new int[size];
+		store.copyTerms(docId, newTerms, newOccurences);
+		return new DocumentTerms(document, fingerprint, newTerms, newOccurences, store.encodedPositions(docId));
+	}
+
+	/**
+	 * Creates a copy of this object with the given fingerprint, for a document
+	 * whose attributes changed but whose content did not.
+	 * 
+	 * @param fingerprint
+	 *            The new fingerprint of the document
+	 * @return The copy with the new fingerprint
+	 */
+	public DocumentTerms withFingerprint(FileFingerprint fingerprint) {
+		if (store != null) {
+			return new DocumentTerms(document, fingerprint, store, docId);
+		}
+		return new DocumentTerms(document, fingerprint, terms, occurences, positions);
+	}
+
+	/**
+	 * Gets the number of different words of the document.
+	 * 
+	 * @return The number of words
+	 */
+	public int size() {
+		return (store != null) ? store.numberOfTerms(docId) : terms.length;
+	}
+
+	/**
+	 * Gets the index of the word at the given position.
+	 * 
+	 * @param position
+	 *            The position, from 0 to {@link #size()} - 1
+	 * @return The index of the word in the total dictionary
+	 */
+	public int termAt(int position) {
+		return (store != null) ? store.termAt(docId, position) : terms[position];
+	}
+
+	/**
+	 * Gets the number of occurrences of the word at the given position.
+	 * 
+	 * @param position
+	 *            The position, from 0 to {@link #size()} - 1
+	 * @return The number of occurrences of the word
+	 */
+	public int occurencesAt(int position) {
+		return (store != null) ? store.occurencesAt(docId, position) : occurences[position];
+	}
+
+	/**
+	 * Gets the number of occurrences of the word with the given index.
+	 * 
+	 * @param term
+	 *            The index of the word in the total dictionary
+	 * @return The number of occurrences of the word, or 0 if the document does
+	 *         not contain it
+	 */
+	public int occurences(int term) {
+		if (store != null) {
+			return store.occurences(docId, term);
+		}
+		int position = Arrays.binarySearch(terms, term);
+		return (position >= 0) ? occurences[position] : 0;
+	}
+
+	/**
+	 * Computes the weights of the words of the document, the numbers of their
+	 * occurrences times their idf in the given dictionary, in the order of the
+	 * word indices.
+	 * 
+	 * @param totalDict
+	 *            The dictionary whose idf values are used
+	 * @param buffer
+	 *            An array the weights are written into if it is large enough,
+	 *            or null
+	 * @return The given array, or a new one if it is too small, with the
+	 *         weight of every word from 0 to {@link #size()} - 1
+	 */
+	public double[] weights(TotalDictionary totalDict, double[] buffer) {
+		int size = size();
+		double[] weights = (buffer != null && buffer.length >= size) ? buffer : new double[size];
+		for (int i = 0; i < size; i++) {
+			weights[i] = occurencesAt(i) * totalDict.idf(termAt(i));
+		}
+		return weights;
+	}
+
+	/**
+	 * Checks whether the positions of the words are kept.
+	 * 
+	 * @return True if the positions of the words are known
+	 */
+	public boolean hasPositions() {
+		return (store != null) ? store.hasPositions(docId) : positions != null;
+	}
+
+	/**
+	 * Decodes the positions of the word with the given index.
+	 * 
+	 * @param term
+	 *            The index of the word in the total dictionary
+	 * @return The ascending positions of the word, or an empty array if the
+	 *         document does not contain it or the positions are not kept
+	 */
+	public int[] positions(int term) {
+		if (store != null) {
+			return store.positions(docId, term);
+		}
+		int position = Arrays.binarySearch(terms, term);
+		if (positions == null || position < 0) {
+			return NO_POSITIONS;
+		}
+
+		int[] decoded = new int[occurences[position]];
+		int offset = positionOffsets[position];
+		int previous = 0;
+		for (int i = 0; i < decoded.length; i++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = positions[offset++];
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			previous += delta;
+			decoded[i] = previous;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Gets the encoded positions of all the words. The returned array must not
+	 * be modified. The positions of a document kept off the heap are copied.
+	 * 
+	 * @return The encoded positions, or null if they are not kept
+	 */
+	public byte[] getEncodedPositions() {
+		return (store != null) ? store.encodedPositions(docId) : positions;
+	}
+
+	/**
+	 * Estimates the heap memory used by the word occurrences and positions.
+	 * The words of a document kept off the heap are not counted.
+	 * 
+	 * @return The approximate size in bytes
+	 */
+	public long estimatedBytes() {
+		if (store != null) {
+			return 48;
+		}
+		long bytes = 64 + 8L * terms.length;
+		if (positions != null) {
+			bytes += 32 + positions.length + 4L * positionOffsets.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the path of the document whose words are counted.
+	 * 
+	 * @return The path of the document
+	 */
+	public Path getDocumentPath() {
+		return document;
+	}
+
+	/**
+	 * Gets the state the document had when it was read.
+	 * 
+	 * @return The fingerprint of the document, or null if it is not known
+	 */
+	public FileFingerprint getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Encodes the positions of the words one word after another.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class PositionWriter {
+		/**
+		 * The encoded positions
+		 */
+		private byte[] bytes = new byte[64];
+		/**
+		 * The number of encoded bytes
+		 */
+		private int size;
+
+		/**
+		 * Encodes the positions of a word, the first one as it is and every
+		 * other one as the difference from the previous one.
+		 * 
+		 * @param wordPositions
+		 *            The ascending positions of the word
+		 */
+		void write(int[] wordPositions) {
+			int previous = 0;
+			for (int position : wordPositions) {
+				int delta = position - previous;
+				previous = position;
+				if (size + 5 > bytes.length) {
+					bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+				}
+				while ((delta & ~0x7F) != 0) {
+					bytes[size++] = (byte) ((delta & 0x7F) | 0x80);
+					delta >>>= 7;
+				}
+				bytes[size++] = (byte) delta;
+			}
+		}
+
+		/**
+		 * Gets the encoded positions.
+		 * 
+		 * @return A copy of the encoded positions
+		 */
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+}
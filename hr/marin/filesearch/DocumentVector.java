@@ -8,7 +8,7 @@ import java.nio.file.Path;
  * @author Marin
  *
  */
-public class DocumentVector extends Vector {
+public class DocumentVector extends SparseVector {
 	/**
 	 * The document represented by this vector.
 	 */
@@ -25,18 +25,70 @@ public class DocumentVector extends Vector {
 	 *            The total dictionary representing all the documents.
 	 */
 	public DocumentVector(DocumentDictionary docDict, TotalDictionary totalDict) {
-		super(totalDict.size());
-		this.document = docDict.getDocumentPath();
-
-		int index;
-		int totalSize = totalDict.size();
-		for (String word : docDict.getWordSet()) {
-			index = totalDict.indexOf(word);
-			if (index == -1) {
-				continue;
-			}
-			set(index, Utilities.tfIdf(docDict.occurences(word), totalSize, totalDict.numberOfDocumentsWith(word)));
+		this(DocumentTerms.of(docDict, totalDict), totalDict);
+	}
+
+	/**
+	 * Creates a new {@link DocumentVector} from the word occurrences of a
+	 * document, counted with the indices of the given total dictionary.
+	 * 
+	 * @param terms
+	 *            The word occurrences of a single document.
+	 * @param totalDict
+	 *            The total dictionary representing all the documents.
+	 */
+	public DocumentVector(DocumentTerms terms, TotalDictionary totalDict) {
+		super(totalDict.size(), termIndices(terms), termWeights(terms, totalDict), terms.size());
+		this.document = terms.getDocumentPath();
+	}
+
+	/**
+	 * Creates a new {@link DocumentVector} of the given document from already
+	 * calculated components. The arrays are used directly and must be sorted
+	 * by ascending word index.
+	 * 
+	 * @param document
+	 *            The document represented by the vector.
+	 * @param dimension
+	 *            The number of words in the total dictionary.
+	 * @param indices
+	 *            Sorted indices of the words contained in the document.
+	 * @param weights
+	 *            The tf-idf weights of the words, parallel to the indices.
+	 */
+	public DocumentVector(Path document, int dimension, int[] indices, double[] weights) {
+		super(dimension, indices, weights, indices.length);
+		this.document = document;
+	}
+
+	/**
+	 * Gets the indices of all the words of the given document.
+	 * 
+	 * @param terms
+	 *            The word occurrences of a single document.
+	 * @return The sorted indices of the words.
+	 */
+	private static int[] termIndices(DocumentTerms terms) {
+		int[] indices = new int[terms.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = terms.termAt(i);
 		}
+		return indices;
+	}
+
+	/**
+	 * Gets the tf-idf weights of all the words of the given document, using
+	 * the inverse document frequencies precomputed by the total dictionary.
+	 * 
+	 * @param terms
+	 *            The word occurrences of a single document.
+	 * @param totalDict
+	 *            The total dictionary representing all the documents.
+	 * @return The weights of the words, parallel to the result of
+	 *         {@link #termIndices(DocumentTerms)}.
+	 */
+	private static double[] termWeights(DocumentTerms terms, TotalDictionary totalDict) {
+		return terms.weights(totalDict, null);
 	}
 
 	/**
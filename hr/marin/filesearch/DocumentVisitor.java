@@ -6,8 +6,11 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * <p>
@@ -15,6 +18,12 @@ import java.util.List;
  * in the visited directory structure to a list that can then be retrieved from
  * the object.
  * </p>
+ * <p>
+ * The attributes of every added file are recorded as well, so the size and the
+ * modification time of a file can be compared to the ones it had when it was
+ * indexed. A filter may restrict the added files to a part of the directory
+ * structure, for example to the documents owned by one {@link Shard}.
+ * </p>
  * 
  * @author Marin
  *
@@ -25,12 +34,34 @@ public class DocumentVisitor implements FileVisitor<Path> {
 	 * structure
 	 */
 	private List<Path> documents;
+	/**
+	 * A map that pairs the paths of all the documents with their attributes
+	 * read while visiting
+	 */
+	private Map<Path, BasicFileAttributes> attributes;
+	/**
+	 * The filter a file has to pass to be added
+	 */
+	private Predicate<Path> filter;
 
 	/**
 	 * Creates a new empty {@link DocumentVisitor}.
 	 */
 	public DocumentVisitor() {
+		this(document -> true);
+	}
+
+	/**
+	 * Creates a new empty {@link DocumentVisitor} that adds only the files
+	 * accepted by the given filter.
+	 * 
+	 * @param filter
+	 *            The filter a file has to pass to be added
+	 */
+	public DocumentVisitor(Predicate<Path> filter) {
 		documents = new LinkedList<Path>();
+		attributes = new HashMap<>();
+		this.filter = filter;
 	}
 
 	/**
@@ -44,6 +75,19 @@ public class DocumentVisitor implements FileVisitor<Path> {
 		return documents;
 	}
 
+	/**
+	 * Retrieves the attributes the document with the given path had when it
+	 * was visited.
+	 * 
+	 * @param document
+	 *            The path of the document
+	 * @return The attributes of the document, or null if the document was not
+	 *         visited
+	 */
+	public BasicFileAttributes getAttributes(Path document) {
+		return attributes.get(document);
+	}
+
 	@Override
 	public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
 		return FileVisitResult.CONTINUE;
@@ -51,8 +95,9 @@ public class DocumentVisitor implements FileVisitor<Path> {
 
 	@Override
 	public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-		if (Files.isReadable(file)) {
+		if (Files.isReadable(file) && filter.test(file)) {
 			documents.add(file);
+			attributes.put(file, attrs);
 		}
 		return FileVisitResult.CONTINUE;
 	}
@@ -1,15 +1,28 @@
 package hr.marin.filesearch;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>
  * The class represents an environment for the commands of the document analyzer
- * program {@link Konzola} to execute in.
+ * program {@link Console} to execute in.
+ * </p>
+ * <p>
+ * The environment holds only the state shared by all the users: the index,
+ * the configuration and the commands. The state of a single user lives in a
+ * {@link Session}, so one environment can serve many sessions on many threads.
+ * The index is immutable and published through an atomic reference together
+ * with an increasing version number: queries read the current version without
+ * any locks, while refreshes build a new version aside and swap it in.
  * </p>
  * 
  * @author Marin
@@ -17,25 +30,51 @@ import java.util.Set;
  */
 public class Environment {
 	/**
-	 * The dictionary of all the words in all the documents that are analyzed
+	 * The default maximum number of results returned by a query
+	 */
+	public static final int DEFAULT_MAX_RESULTS = 10;
+
+	/**
+	 * The index of all the documents that are analyzed and its version.
+	 * Replaced as a whole when the documents change, so a command that reads
+	 * it once always works on a consistent snapshot.
+	 */
+	private final AtomicReference<Published> index;
+	/**
+	 * The indexer used to refresh the index, or null if refreshing is not
+	 * supported
 	 */
-	private TotalDictionary totalDictionary;
+	private volatile Indexer indexer;
 	/**
-	 * The list of vectors representing all the documents that are analyzed
+	 * The coordinator of the shards queries are sent to, or null if the
+	 * queries are answered from the index
 	 */
-	private List<DocumentVector> vectors;
+	private volatile ShardCoordinator coordinator;
 	/**
 	 * The set of all the stop words (words that are omitted from the
 	 * dictionary)
 	 */
 	private Set<String> stopWordsSet;
 	/**
-	 * A list of results of the last query operation
+	 * The maximum number of results returned by a query
+	 */
+	private volatile int maxResults = DEFAULT_MAX_RESULTS;
+	/**
+	 * The scorer used to score queries against the index
+	 */
+	private volatile QueryScorer scorer = new QueryScorer(1);
+	/**
+	 * The ranking function of the documents
+	 */
+	private volatile Scorer ranking = new CosineScorer();
+	/**
+	 * The cache of query results, invalidated whenever the index changes
 	 */
-	private List<DocumentInfo> results;
+	private volatile QueryCache queryCache = new QueryCache(QueryCache.DEFAULT_MAX_ENTRIES,
+			QueryCache.DEFAULT_MAX_BYTES);
 	/**
 	 * A map that pairs command names with their {@link ICommand}
-	 * implementations.
+	 * implementations. It is not modified after the environment is created.
 	 */
 	private Map<String, ICommand> commands;
 
@@ -54,8 +93,21 @@ public class Environment {
 	 *            dictionary)
 	 */
 	public Environment(TotalDictionary totalDictionary, List<DocumentDictionary> docDictList, Set<String> stopWords) {
-		this.totalDictionary = totalDictionary;
-		this.vectors = docDictsToDocVectors(docDictList, totalDictionary);
+		this(new Index(totalDictionary, docDictList), stopWords);
+	}
+
+	/**
+	 * Creates a new {@link Environment} object with the given index and set of
+	 * stop words.
+	 * 
+	 * @param index
+	 *            The index of all the documents that are analyzed
+	 * @param stopWords
+	 *            The set of all the stop words (words that are omitted from the
+	 *            dictionary)
+	 */
+	public Environment(Index index, Set<String> stopWords) {
+		this.index = new AtomicReference<>(new Published(index, 0));
 		this.stopWordsSet = stopWords;
 		initCommands();
 	}
@@ -68,69 +120,285 @@ public class Environment {
 		commands.put("query", new QueryCommand());
 		commands.put("results", new ResultsCommand());
 		commands.put("type", new TypeCommand());
+		commands.put("refresh", new RefreshCommand());
+		commands.put("stats", new StatsCommand());
 		commands.put("exit", new ExitCommand());
 	}
 
 	/**
-	 * Methods creates a list of docVectors using the given list of document
-	 * dictionaries and the total dictionary.
+	 * Gets the command with the given name.
 	 * 
-	 * @param docDicts
-	 *            A list of {@link DocumentDictionary} objects of all the
-	 *            documents that are analyzed
-	 * @param totalDict
-	 *            The dictionary of all the words in all the documents that are
-	 *            analyzed
-	 * @return A list of vectors representing all the documents that are
-	 *         analyzed
+	 * @param commandName
+	 *            The name of the command
+	 * @return The command, or null if there is no command with the given name
+	 */
+	public ICommand getCommand(String commandName) {
+		return commands.get(commandName);
+	}
+
+	/**
+	 * Creates a new session of this environment.
+	 * 
+	 * @return The new session
+	 */
+	public Session newSession() {
+		return new Session(this);
+	}
+
+	/**
+	 * Finds the documents most similar to the given query in the current
+	 * index. The query may contain phrase and proximity constraints (see
+	 * {@link PositionalQuery}) if the index keeps the positions of the words.
+	 * The method does not change the environment and may be called by any
+	 * number of threads at the same time. If the environment has a
+	 * {@link ShardCoordinator}, the query is answered by its shards instead.
+	 * 
+	 * @param query
+	 *            The text of the query
+	 * @param maxResults
+	 *            The maximum number of results
+	 * @return An unmodifiable list of the most similar documents, from the
+	 *         most to the least similar
+	 * @throws IllegalArgumentException
+	 *             If the query has constraints, but the index does not keep
+	 *             the positions of the words
 	 */
-	private List<DocumentVector> docDictsToDocVectors(List<DocumentDictionary> docDicts, TotalDictionary totalDict) {
-		List<DocumentVector> docVectors = new LinkedList<>();
+	public List<DocumentInfo> query(String query, int maxResults) {
+		Metrics metrics = Metrics.global();
+		long start = System.nanoTime();
+
+		ShardCoordinator coordinator = this.coordinator;
+		if (coordinator != null) {
+			List<DocumentInfo> docInfos = coordinator.query(query, maxResults);
+			metrics.recordSince(Metrics.Stage.QUERY, start);
+			return docInfos;
+		}
+
+		Published published = index.get();
+		Index snapshot = published.index;
+		PositionalQuery parsed = PositionalQuery.parse(query, stopWordsSet);
+		if (parsed.hasConstraints() && !snapshot.hasPositions()) {
+			throw new IllegalArgumentException("The index has no word positions for phrase and NEAR queries.");
+		}
+		DocumentDictionary queryDictionary = DocumentDictionary.fromString(parsed.getText(), stopWordsSet);
+		QueryCache cache = queryCache;
+		boolean cached = cache.isEnabled();
+		Scorer ranking = this.ranking;
+		String key = cached
+				? ranking.getName() + ':' + QueryCache.key(queryDictionary, maxResults) + parsed.constraintKey()
+				: null;
+		metrics.recordSince(Metrics.Stage.QUERY_PARSE, start);
 
-		for (DocumentDictionary docDict : docDicts) {
-			docVectors.add(new DocumentVector(docDict, totalDict));
+		List<DocumentInfo> docInfos = cached ? cache.get(published.version, key) : null;
+		if (docInfos == null) {
+			long scoringStart = System.nanoTime();
+			DocumentVector queryVector = new DocumentVector(queryDictionary, snapshot.getTotalDictionary());
+
+			List<DocumentTerms> documents = snapshot.getDocuments();
+			TopKCollector topK = parsed.hasConstraints()
+					? scorer.score(snapshot, queryVector, maxResults, parsed.matches(snapshot), ranking)
+					: scorer.score(snapshot, queryVector, maxResults, ranking);
+			metrics.recordSince(Metrics.Stage.SCORING, scoringStart);
+
+			long rankingStart = System.nanoTime();
+			docInfos = new ArrayList<>(topK.size());
+			for (int rank = 0; rank < topK.size(); rank++) {
+				docInfos.add(
+						new DocumentInfo(documents.get(topK.documentAt(rank)).getDocumentPath(), topK.scoreAt(rank)));
+			}
+			docInfos = cached ? cache.put(published.version, key, docInfos)
+					: Collections.unmodifiableList(docInfos);
+			metrics.recordSince(Metrics.Stage.RANKING, rankingStart);
 		}
+		metrics.recordSince(Metrics.Stage.QUERY, start);
 
-		return docVectors;
+		return docInfos;
 	}
 
 	/**
-	 * Method executes the command with the given command name using the given
-	 * command arguments.
+	 * Gets the maximum number of results returned by a query.
 	 * 
-	 * @param commandName
-	 *            The name of the command that is to be executed
-	 * @param commandArguments
-	 *            The arguments of the command that is to be executed
-	 * @return The status after the command execution
-	 */
-	public CommandStatus execute(String commandName, String commandArguments) {
-		ICommand command = commands.get(commandName);
-		if (command == null) {
-			System.out.println("Ne postoji naredba: " + commandName);
-			return CommandStatus.CONTINUE;
+	 * @return The maximum number of results returned by a query
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+	/**
+	 * Sets the maximum number of results returned by a query.
+	 * 
+	 * @param maxResults
+	 *            The new maximum number of results returned by a query
+	 * @throws IllegalArgumentException
+	 *             If the given number is negative
+	 */
+	public void setMaxResults(int maxResults) {
+		if (maxResults < 0) {
+			throw new IllegalArgumentException("Number of results must not be negative: " + maxResults);
 		}
+		this.maxResults = maxResults;
+	}
+
+	/**
+	 * Gets the scorer used to score queries against the index.
+	 * 
+	 * @return The scorer used by this environment
+	 */
+	public QueryScorer getScorer() {
+		return scorer;
+	}
+
+	/**
+	 * Gets the ranking function of the documents.
+	 * 
+	 * @return The scorer of the documents
+	 */
+	public Scorer getRanking() {
+		return ranking;
+	}
 
-		return command.execute(commandArguments, this);
+	/**
+	 * Sets the ranking function of the documents. Cached results of the
+	 * previous ranking function are not returned for it.
+	 * 
+	 * @param ranking
+	 *            The new scorer of the documents
+	 */
+	public void setRanking(Scorer ranking) {
+		this.ranking = ranking;
 	}
 
 	/**
-	 * Gets the list of results of the last query operation.
+	 * Sets the number of threads used to score a single query. The threads of
+	 * the previous scorer are stopped.
 	 * 
-	 * @return The list of results of the last query operation
+	 * @param threads
+	 *            The number of threads. If less than 2, queries are scored on
+	 *            the calling thread.
 	 */
-	public List<DocumentInfo> getResults() {
-		return results;
+	public void setQueryThreads(int threads) {
+		QueryScorer old = scorer;
+		scorer = new QueryScorer(threads);
+		old.shutdown();
 	}
 
 	/**
-	 * Sets the results of the last query operation.
+	 * Gets the cache of query results.
 	 * 
-	 * @param results
-	 *            The new results of the last query operation
+	 * @return The query cache used by this environment
 	 */
-	public void setResults(List<DocumentInfo> results) {
-		this.results = results;
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+
+	/**
+	 * Replaces the cache of query results, for example to change its bounds.
+	 * 
+	 * @param queryCache
+	 *            The new query cache
+	 */
+	public void setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	/**
+	 * Gets the index of all the documents analyzed in this environment.
+	 * 
+	 * @return The index used by this environment
+	 */
+	public Index getIndex() {
+		return index.get().index;
+	}
+
+	/**
+	 * Replaces the index used by this environment, for example after the
+	 * documents have been refreshed.
+	 * 
+	 * @param index
+	 *            The new index
+	 */
+	public void setIndex(Index index) {
+		this.index.updateAndGet(old -> new Published(index, old.version + 1));
+	}
+
+	/**
+	 * Refreshes the index of this environment using its indexer and replaces
+	 * it with the refreshed one. Refreshes are serialized with each other,
+	 * while queries keep reading the previous index without waiting until the
+	 * new one replaces it.
+	 * 
+	 * @param paths
+	 *            The paths that may have changed, or null if all the documents
+	 *            should be checked
+	 * @return The result of the refresh
+	 * @throws IOException
+	 *             If there was an error while reading the documents
+	 * @throws IllegalStateException
+	 *             If this environment has no indexer
+	 */
+	public synchronized Indexer.Refresh refreshIndex(Collection<Path> paths) throws IOException {
+		if (indexer == null) {
+			throw new IllegalStateException("Environment has no indexer.");
+		}
+
+		Index old = getIndex();
+		Indexer.Refresh refresh = (paths == null) ? indexer.refresh(old) : indexer.update(old, paths);
+		setIndex(refresh.getIndex());
+		return refresh;
+	}
+
+	/**
+	 * Replaces the index of this environment with one whose dictionary counts
+	 * the documents of the other shards as well (see
+	 * {@link Shard#withRemoteStatistics(Index, Shard.Statistics)}). It is
+	 * serialized with refreshes, so neither loses the changes of the other.
+	 * 
+	 * @param remote
+	 *            The statistics of the documents of all the other shards
+	 */
+	public synchronized void setRemoteStatistics(Shard.Statistics remote) {
+		setIndex(Shard.withRemoteStatistics(getIndex(), remote));
+	}
+
+	/**
+	 * Gets the coordinator of the shards queries are sent to.
+	 * 
+	 * @return The coordinator, or null if the queries are answered from the
+	 *         index
+	 */
+	public ShardCoordinator getCoordinator() {
+		return coordinator;
+	}
+
+	/**
+	 * Sets the coordinator of the shards queries are sent to. Their results
+	 * are not cached, since the shards change independently.
+	 * 
+	 * @param coordinator
+	 *            The coordinator, or null if the queries should be answered
+	 *            from the index
+	 */
+	public void setCoordinator(ShardCoordinator coordinator) {
+		this.coordinator = coordinator;
+	}
+
+	/**
+	 * Gets the indexer used to refresh the index of this environment.
+	 * 
+	 * @return The indexer, or null if refreshing is not supported
+	 */
+	public Indexer getIndexer() {
+		return indexer;
+	}
+
+	/**
+	 * Sets the indexer used to refresh the index of this environment.
+	 * 
+	 * @param indexer
+	 *            The indexer, or null if refreshing is not supported
+	 */
+	public void setIndexer(Indexer indexer) {
+		this.indexer = indexer;
 	}
 
 	/**
@@ -139,16 +407,42 @@ public class Environment {
 	 * @return The total dictionary used by this environment
 	 */
 	public TotalDictionary getTotalDictionary() {
-		return totalDictionary;
+		return getIndex().getTotalDictionary();
 	}
 
 	/**
-	 * Gets the all the document vectors used in this environment.
+	 * Gets the all the document vectors used in this environment. An index
+	 * kept off the heap keeps no vectors.
 	 * 
-	 * @return A list of document vectors used in this environment
+	 * @return A list of document vectors used in this environment, or null if
+	 *         the index is kept off the heap
 	 */
 	public List<DocumentVector> getVectors() {
-		return vectors;
+		return getIndex().getVectors();
+	}
+
+	/**
+	 * Gets the precomputed norm of a document vector used in this
+	 * environment.
+	 * 
+	 * @param docId
+	 *            The id of the document (its position in
+	 *            {@link Index#getDocuments()})
+	 * @return The norm of the vector of the document
+	 */
+	public double getNorm(int docId) {
+		return getIndex().getNorm(docId);
+	}
+
+	/**
+	 * Gets the inverted index of all the document vectors used in this
+	 * environment. Document ids in the index are positions in
+	 * {@link #getVectors()}.
+	 * 
+	 * @return The inverted index used in this environment
+	 */
+	public InvertedIndex getInvertedIndex() {
+		return getIndex().getInvertedIndex();
 	}
 
 	/**
@@ -159,4 +453,36 @@ public class Environment {
 	public Set<String> getStopWordsSet() {
 		return stopWordsSet;
 	}
+
+	/**
+	 * An index together with the version it was published as. Every index
+	 * replacing the previous one gets the next version, so of two snapshots
+	 * the one with the greater version is the newer one.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static final class Published {
+		/**
+		 * The published index
+		 */
+		private final Index index;
+		/**
+		 * The version of the index
+		 */
+		private final long version;
+
+		/**
+		 * Creates a new published version of an index.
+		 * 
+		 * @param index
+		 *            The published index
+		 * @param version
+		 *            The version of the index
+		 */
+		Published(Index index, long version) {
+			this.index = index;
+			this.version = version;
+		}
+	}
 }
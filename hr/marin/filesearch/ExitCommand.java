@@ -12,7 +12,7 @@ package hr.marin.filesearch;
 public class ExitCommand implements ICommand {
 
 	@Override
-	public CommandStatus execute(String arguments, Environment environment) {
+	public CommandStatus execute(String arguments, Session session) {
 		return CommandStatus.STOP;
 	}
 
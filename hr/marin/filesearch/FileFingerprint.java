@@ -0,0 +1,84 @@
+package hr.marin.filesearch;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A simple data structure describing the state of a file at the time it was
+ * read - its size, its last modification time and a hash of its content. It is
+ * used to find the documents that have changed since they were indexed.
+ * 
+ * @author Marin
+ *
+ */
+public class FileFingerprint {
+	/**
+	 * The size of the file in bytes
+	 */
+	private long size;
+	/**
+	 * The last modification time of the file in milliseconds since the epoch
+	 */
+	private long lastModified;
+	/**
+	 * The hash of the content of the file
+	 */
+	private long hash;
+
+	/**
+	 * Creates a new {@link FileFingerprint} object with the given arguments.
+	 * 
+	 * @param size
+	 *            The size of the file in bytes
+	 * @param lastModified
+	 *            The last modification time of the file in milliseconds since
+	 *            the epoch
+	 * @param hash
+	 *            The hash of the content of the file
+	 */
+	public FileFingerprint(long size, long lastModified, long hash) {
+		this.size = size;
+		this.lastModified = lastModified;
+		this.hash = hash;
+	}
+
+	/**
+	 * Checks whether the given file attributes have the same size and last
+	 * modification time as this fingerprint. If they do, the file is assumed
+	 * not to have changed and its content is not hashed again.
+	 * 
+	 * @param attributes
+	 *            The current attributes of the file
+	 * @return True if the size and the modification time match, false
+	 *         otherwise
+	 */
+	public boolean matches(BasicFileAttributes attributes) {
+		return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+	}
+
+	/**
+	 * Gets the size of the file.
+	 * 
+	 * @return The size of the file in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the last modification time of the file.
+	 * 
+	 * @return The last modification time in milliseconds since the epoch
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Gets the hash of the content of the file.
+	 * 
+	 * @return The hash of the content of the file
+	 */
+	public long getHash() {
+		return hash;
+	}
+}
@@ -12,13 +12,13 @@ package hr.marin.filesearch;
 public interface ICommand {
 	/**
 	 * The method that is called when the command is executed. It performs this
-	 * commands operation using the given arguments and environment.
+	 * commands operation using the given arguments and session.
 	 * 
 	 * @param arguments
 	 *            The arguments given by the user when calling this command.
-	 * @param environment
-	 *            The environment where the command executes.
+	 * @param session
+	 *            The session where the command executes.
 	 * @return The status after the execution of the command.
 	 */
-	public CommandStatus execute(String arguments, Environment environment);
+	public CommandStatus execute(String arguments, Session session);
 }
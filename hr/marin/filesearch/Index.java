@@ -0,0 +1,502 @@
+package hr.marin.filesearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ * The index of all the analyzed documents: the total dictionary, the word
+ * occurrences, vector, norm and length of every document and the inverted
+ * index of the vectors.
+ * </p>
+ * <p>
+ * The id of a document is its position in {@link #getDocuments()}; the same id
+ * is used in {@link #getVectors()}, {@link #getNorm(int)},
+ * {@link #getLength(int)} and the posting lists of the {@link InvertedIndex}.
+ * An index is never changed once it has been created; a changed document
+ * collection is represented by a new index.
+ * </p>
+ * <p>
+ * An index may keep its posting lists off the heap (see
+ * {@link OffHeapPostings}), optionally compressed. Such an index keeps the
+ * word occurrences, norms and lengths of its documents off the heap as well
+ * (see {@link OffHeapDocuments}) and no document vectors at all, so the heap
+ * holds only the dictionary and the paths and fingerprints of the documents.
+ * The weights of the vectors are the numbers of occurrences of the words
+ * times their inverse document frequencies, so scorers compute them from the
+ * word occurrences.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Index {
+	/**
+	 * The dictionary of all the words in all the documents
+	 */
+	private TotalDictionary totalDictionary;
+	/**
+	 * The word occurrences of all the documents, indexed by document id
+	 */
+	private List<DocumentTerms> documents;
+	/**
+	 * The vectors representing all the documents, indexed by document id, or
+	 * null if the index is kept off the heap
+	 */
+	private List<DocumentVector> vectors;
+	/**
+	 * The norms of all the document vectors, indexed by document id, or null
+	 * if the index is kept off the heap
+	 */
+	private double[] norms;
+	/**
+	 * The lengths of all the documents (the total number of occurrences of
+	 * their words), indexed by document id, or null if the index is kept off
+	 * the heap
+	 */
+	private int[] lengths;
+	/**
+	 * The word occurrences, norms and lengths of all the documents kept off
+	 * the heap, or null if they are kept on the heap
+	 */
+	private OffHeapDocuments store;
+	/**
+	 * The average length of a document
+	 */
+	private double averageLength;
+	/**
+	 * The inverted index of all the document vectors
+	 */
+	private InvertedIndex invertedIndex;
+	/**
+	 * Whether the positions of the words of every document are kept
+	 */
+	private boolean positions;
+
+	/**
+	 * Creates a new {@link Index} of the given documents, calculating their
+	 * vectors and norms.
+	 * 
+	 * @param totalDictionary
+	 *            The dictionary of all the words in all the documents
+	 * @param documents
+	 *            The dictionaries of all the documents
+	 */
+	public Index(TotalDictionary totalDictionary, List<DocumentDictionary> documents) {
+		this(totalDictionary, docDictsToDocTerms(documents, totalDictionary), null, null);
+	}
+
+	/**
+	 * Creates a new {@link Index} of the given documents from their already
+	 * calculated vectors and norms.
+	 * 
+	 * @param totalDictionary
+	 *            The dictionary of all the words in all the documents
+	 * @param documents
+	 *            The word occurrences of all the documents
+	 * @param vectors
+	 *            The vectors of the documents, parallel to the word
+	 *            occurrences, or null if they should be calculated
+	 * @param norms
+	 *            The norms of the vectors, or null if they should be
+	 *            calculated
+	 * @throws IllegalArgumentException
+	 *             If the numbers of documents, vectors and norms differ
+	 */
+	public Index(TotalDictionary totalDictionary, List<DocumentTerms> documents, List<DocumentVector> vectors,
+			double[] norms) {
+		this(totalDictionary, documents, vectors, norms, false);
+	}
+
+	/**
+	 * Creates a new {@link Index} of the given documents from their already
+	 * calculated vectors and norms, keeping the posting lists on or off the
+	 * heap.
+	 * 
+	 * @param totalDictionary
+	 *            The dictionary of all the words in all the documents
+	 * @param documents
+	 *            The word occurrences of all the documents
+	 * @param vectors
+	 *            The vectors of the documents, parallel to the word
+	 *            occurrences, or null if they should be calculated. An index
+	 *            kept off the heap only reads them to calculate missing norms.
+	 * @param norms
+	 *            The norms of the vectors, or null if they should be
+	 *            calculated
+	 * @param offHeap
+	 *            Whether the posting lists are kept in direct memory outside
+	 *            the heap
+	 * @throws IllegalArgumentException
+	 *             If the numbers of documents, vectors and norms differ
+	 */
+	public Index(TotalDictionary totalDictionary, List<DocumentTerms> documents, List<DocumentVector> vectors,
+			double[] norms, boolean offHeap) {
+		this(totalDictionary, documents, vectors, norms, offHeap ? InvertedIndex.Format.OFF_HEAP
+				: InvertedIndex.Format.HEAP);
+	}
+
+	/**
+	 * Creates a new {@link Index} of the given documents from their already
+	 * calculated vectors and norms, keeping the posting lists in the given
+	 * format.
+	 * 
+	 * @param totalDictionary
+	 *            The dictionary of all the words in all the documents
+	 * @param documents
+	 *            The word occurrences of all the documents
+	 * @param vectors
+	 *            The vectors of the documents, parallel to the word
+	 *            occurrences, or null if they should be calculated. An index
+	 *            kept off the heap only reads them to calculate missing norms.
+	 * @param norms
+	 *            The norms of the vectors, or null if they should be
+	 *            calculated
+	 * @param format
+	 *            The way the posting lists are kept
+	 * @throws IllegalArgumentException
+	 *             If the numbers of documents, vectors and norms differ
+	 */
+	public Index(TotalDictionary totalDictionary, List<DocumentTerms> documents, List<DocumentVector> vectors,
+			double[] norms, InvertedIndex.Format format) {
+		if ((vectors != null && documents.size() != vectors.size())
+				|| (norms != null && norms.length != documents.size())) {
+			throw new IllegalArgumentException("Numbers of documents, vectors and norms differ.");
+		}
+
+		this.totalDictionary = totalDictionary;
+		int[] documentLengths = new int[documents.size()];
+		this.positions = true;
+		long totalLength = 0;
+		for (int docId = 0; docId < documentLengths.length; docId++) {
+			DocumentTerms terms = documents.get(docId);
+			for (int i = 0, n = terms.size(); i < n; i++) {
+				documentLengths[docId] += terms.occurencesAt(i);
+			}
+			totalLength += documentLengths[docId];
+			this.positions &= terms.hasPositions();
+		}
+		this.averageLength = (documentLengths.length > 0) ? (double) totalLength / documentLengths.length : 0;
+
+		if (format != InvertedIndex.Format.HEAP) {
+			if (norms == null) {
+				norms = (vectors != null) ? documentNorms(vectors) : termNorms(documents, totalDictionary);
+			}
+			this.store = new OffHeapDocuments(documents, norms, documentLengths);
+			List<DocumentTerms> shells = new ArrayList<>(documents.size());
+			for (int docId = 0; docId < documents.size(); docId++) {
+				DocumentTerms terms = documents.get(docId);
+				shells.add(new DocumentTerms(terms.getDocumentPath(), terms.getFingerprint(), store, docId));
+			}
+			this.documents = Collections.unmodifiableList(shells);
+			this.invertedIndex = new InvertedIndex(documents, norms, totalDictionary, format);
+			return;
+		}
+
+		List<DocumentTerms> heapDocuments = new ArrayList<>(documents.size());
+		for (DocumentTerms terms : documents) {
+			heapDocuments.add(terms.onHeap());
+		}
+		this.documents = Collections.unmodifiableList(heapDocuments);
+		if (vectors == null) {
+			vectors = docTermsToDocVectors(this.documents, totalDictionary);
+		}
+		this.vectors = Collections.unmodifiableList(new ArrayList<>(vectors));
+		this.norms = (norms != null) ? norms : documentNorms(vectors);
+		this.lengths = documentLengths;
+		this.invertedIndex = new InvertedIndex(vectors, this.documents, this.norms, totalDictionary.size(),
+				totalDictionary, format);
+	}
+
+	/**
+	 * Creates a copy of the given index with other posting lists of the same
+	 * documents, for example lists built from vectors whose weights are not
+	 * the numbers of occurrences times the inverse document frequencies.
+	 * 
+	 * @param index
+	 *            The index whose documents are copied
+	 * @param invertedIndex
+	 *            The posting lists of the documents of the index
+	 */
+	Index(Index index, InvertedIndex invertedIndex) {
+		this.totalDictionary = index.totalDictionary;
+		this.documents = index.documents;
+		this.vectors = index.vectors;
+		this.norms = index.norms;
+		this.lengths = index.lengths;
+		this.store = index.store;
+		this.averageLength = index.averageLength;
+		this.positions = index.positions;
+		this.invertedIndex = invertedIndex;
+	}
+
+	/**
+	 * Method counts the word occurrences of all the given document
+	 * dictionaries with the indices of the total dictionary.
+	 * 
+	 * @param docDicts
+	 *            A list of {@link DocumentDictionary} objects of all the
+	 *            documents that are analyzed
+	 * @param totalDict
+	 *            The dictionary of all the words in all the documents that are
+	 *            analyzed
+	 * @return A list of the word occurrences of all the documents
+	 */
+	private static List<DocumentTerms> docDictsToDocTerms(List<DocumentDictionary> docDicts,
+			TotalDictionary totalDict) {
+		List<DocumentTerms> docTerms = new ArrayList<>(docDicts.size());
+
+		for (DocumentDictionary docDict : docDicts) {
+			docTerms.add(DocumentTerms.of(docDict, totalDict));
+		}
+
+		return docTerms;
+	}
+
+	/**
+	 * Methods creates a list of docVectors using the given word occurrences of
+	 * the documents and the total dictionary.
+	 * 
+	 * @param docTerms
+	 *            The word occurrences of all the documents that are analyzed
+	 * @param totalDict
+	 *            The dictionary of all the words in all the documents that are
+	 *            analyzed
+	 * @return A list of vectors representing all the documents that are
+	 *         analyzed
+	 */
+	private static List<DocumentVector> docTermsToDocVectors(List<DocumentTerms> docTerms,
+			TotalDictionary totalDict) {
+		List<DocumentVector> docVectors = new ArrayList<>(docTerms.size());
+
+		for (DocumentTerms terms : docTerms) {
+			docVectors.add(new DocumentVector(terms, totalDict));
+		}
+
+		return docVectors;
+	}
+
+	/**
+	 * Calculates the norms of the vectors of the given documents from their
+	 * word occurrences, without creating the vectors.
+	 * 
+	 * @param docTerms
+	 *            The word occurrences of the documents
+	 * @param totalDict
+	 *            The dictionary of all the words in all the documents
+	 * @return An array of norms, indexed by the position of the occurrences
+	 *         in the given list
+	 */
+	private static double[] termNorms(List<DocumentTerms> docTerms, TotalDictionary totalDict) {
+		double[] docNorms = new double[docTerms.size()];
+		double[] weights = null;
+
+		int docId = 0;
+		for (DocumentTerms terms : docTerms) {
+			weights = terms.weights(totalDict, weights);
+			docNorms[docId++] = Math.sqrt(VectorKernels.sumOfSquares(weights, terms.size()));
+		}
+
+		return docNorms;
+	}
+
+	/**
+	 * Method calculates the norms of all the given document vectors.
+	 * 
+	 * @param docVectors
+	 *            A list of vectors representing all the documents that are
+	 *            analyzed
+	 * @return An array of norms, indexed by the position of the vector in the
+	 *         given list
+	 */
+	private static double[] documentNorms(List<DocumentVector> docVectors) {
+		double[] docNorms = new double[docVectors.size()];
+
+		int docId = 0;
+		for (DocumentVector docVector : docVectors) {
+			docNorms[docId++] = docVector.norm();
+		}
+
+		return docNorms;
+	}
+
+	/**
+	 * Gets the number of documents in the index.
+	 * 
+	 * @return The number of documents in the index
+	 */
+	public int size() {
+		return documents.size();
+	}
+
+	/**
+	 * Estimates the heap memory used by the index: the total dictionary, the
+	 * word occurrences, positions and vectors of the documents, their norms
+	 * and lengths and the posting lists. What an index kept off the heap
+	 * keeps in direct memory is not counted. The sizes of the objects are
+	 * approximated, so the result is only meant to show the order of
+	 * magnitude and the trend.
+	 * 
+	 * @return The approximate size of the index on the heap in bytes
+	 */
+	public long estimatedBytes() {
+		long bytes = totalDictionary.estimatedBytes() + invertedIndex.estimatedBytes();
+		if (vectors != null) {
+			bytes += 12L * norms.length;
+		}
+		for (int docId = 0; docId < documents.size(); docId++) {
+			if (vectors != null) {
+				bytes += 96 + 12L * vectors.get(docId).nonZeroCount();
+			}
+			bytes += documents.get(docId).estimatedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of bytes of direct memory taken by the posting lists and
+	 * the documents of the index. They are not included in
+	 * {@link #estimatedBytes()}.
+	 * 
+	 * @return The off-heap size of the index in bytes, 0 if it is kept on the
+	 *         heap
+	 */
+	public long offHeapBytes() {
+		return invertedIndex.offHeapBytes() + ((store != null) ? store.offHeapBytes() : 0);
+	}
+
+	/**
+	 * Checks whether the posting lists of the index are kept off the heap.
+	 * 
+	 * @return True if the index is kept in direct memory
+	 */
+	public boolean isOffHeap() {
+		return invertedIndex.isOffHeap();
+	}
+
+	/**
+	 * Creates a copy of this index whose posting lists are kept off the heap,
+	 * for example after the index was built or loaded on the heap.
+	 * 
+	 * @return The copy kept off the heap, or this index if it already is
+	 */
+	public Index toOffHeap() {
+		return isOffHeap() ? this : withFormat(InvertedIndex.Format.OFF_HEAP);
+	}
+
+	/**
+	 * Gets the way the posting lists of the index are kept.
+	 * 
+	 * @return The format of the posting lists
+	 */
+	public InvertedIndex.Format getFormat() {
+		return invertedIndex.getFormat();
+	}
+
+	/**
+	 * Creates a copy of this index whose posting lists are kept in the given
+	 * format, for example compressed after the index was built or loaded on
+	 * the heap.
+	 * 
+	 * @param format
+	 *            The way the posting lists are kept
+	 * @return The copy in the given format, or this index if it already is
+	 */
+	public Index withFormat(InvertedIndex.Format format) {
+		if (getFormat() == format) {
+			return this;
+		}
+		double[] documentNorms = norms;
+		if (documentNorms == null) {
+			documentNorms = new double[size()];
+			for (int docId = 0; docId < documentNorms.length; docId++) {
+				documentNorms[docId] = store.norm(docId);
+			}
+		}
+		return new Index(totalDictionary, documents, vectors, documentNorms, format);
+	}
+
+	/**
+	 * Checks whether the positions of the words of all the documents are
+	 * kept, so the index can answer phrase and proximity queries.
+	 * 
+	 * @return True if every document has the positions of its words
+	 */
+	public boolean hasPositions() {
+		return positions;
+	}
+
+	/**
+	 * Gets the dictionary of all the words in all the documents.
+	 * 
+	 * @return The total dictionary of the index
+	 */
+	public TotalDictionary getTotalDictionary() {
+		return totalDictionary;
+	}
+
+	/**
+	 * Gets the word occurrences of all the documents, indexed by document id.
+	 * 
+	 * @return An unmodifiable list of the word occurrences of the documents
+	 */
+	public List<DocumentTerms> getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Gets the vectors of all the documents, indexed by document id. An index
+	 * kept off the heap keeps no vectors; the weights of a document are the
+	 * numbers of occurrences of its words times their inverse document
+	 * frequencies (see {@link DocumentTerms#weights(TotalDictionary, double[])}).
+	 * 
+	 * @return An unmodifiable list of document vectors, or null if the index
+	 *         is kept off the heap
+	 */
+	public List<DocumentVector> getVectors() {
+		return vectors;
+	}
+
+	/**
+	 * Gets the norm of the vector of a document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @return The norm of the vector of the document
+	 */
+	public double getNorm(int docId) {
+		return (norms != null) ? norms[docId] : store.norm(docId);
+	}
+
+	/**
+	 * Gets the length of a document, the total number of occurrences of its
+	 * words.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @return The length of the document
+	 */
+	public int getLength(int docId) {
+		return (lengths != null) ? lengths[docId] : store.length(docId);
+	}
+
+	/**
+	 * Gets the average length of a document of the index.
+	 * 
+	 * @return The average number of word occurrences in a document, or 0 if
+	 *         the index is empty
+	 */
+	public double getAverageLength() {
+		return averageLength;
+	}
+
+	/**
+	 * Gets the inverted index of all the document vectors.
+	 * 
+	 * @return The inverted index of the document vectors
+	 */
+	public InvertedIndex getInvertedIndex() {
+		return invertedIndex;
+	}
+}
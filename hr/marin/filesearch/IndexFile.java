@@ -0,0 +1,401 @@
+package hr.marin.filesearch;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A utility class that writes an {@link Index} to a binary file and loads it
+ * back, so the documents do not have to be read and
+ * tokenized again on every start.
+ * </p>
+ * <p>
+ * The file contains, in order: a header (magic number, format version, the
+ * root directory of the indexed documents and the number of the shard and the
+ * number of shards, 0 and 1 for the whole collection), the total dictionary (every word
+ * with its number of documents, ordered by word index) and the document table
+ * (for every document its path, fingerprint, norm, the sorted word indices,
+ * weights and occurrence counts of its vector and the encoded positions of its
+ * words, if they are kept). The posting lists are rebuilt from the vectors on
+ * load. All numbers are big-endian.
+ * </p>
+ * <p>
+ * The file is read through memory-mapped windows of a {@link FileChannel}, so
+ * loading does not copy the file through the Java heap. A file written for
+ * another directory or another {@link Shard} is rejected, so a shard never
+ * serves documents it does not own.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class IndexFile {
+	/**
+	 * The magic number at the start of every index file ("FSIX").
+	 */
+	private static final int MAGIC = 0x46534958;
+	/**
+	 * The version of the file format written by this class.
+	 */
+	private static final int VERSION = 5;
+	/**
+	 * The size of the memory-mapped window used to read the file.
+	 */
+	private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Writes the given index to the given file. The file is
+	 * first written to a temporary file next to it and then moved in place, so
+	 * an interrupted write never leaves a broken index behind.
+	 * 
+	 * @param file
+	 *            The file the index is written to.
+	 * @param root
+	 *            The root directory of the indexed documents.
+	 * @param shard
+	 *            The shard of the indexed documents, or null if they are the
+	 *            whole collection.
+	 * @param index
+	 *            The index that is written.
+	 * @throws IOException
+	 *             If writing the file was unsuccessful.
+	 */
+	public static void write(Path file, Path root, Shard shard, Index index) throws IOException {
+		Path absolute = file.toAbsolutePath();
+		Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, root.toAbsolutePath().normalize().toString());
+			out.writeInt((shard != null) ? shard.getNumber() : 0);
+			out.writeInt((shard != null) ? shard.getCount() : 1);
+
+			TotalDictionary dictionary = index.getTotalDictionary();
+			out.writeInt(dictionary.size());
+			for (int word = 0, size = dictionary.size(); word < size; word++) {
+				writeString(out, dictionary.wordAt(word));
+				out.writeInt(dictionary.numberOfDocumentsWith(word));
+			}
+
+			List<DocumentTerms> documents = index.getDocuments();
+			List<DocumentVector> vectors = index.getVectors();
+			double[] weights = null;
+			out.writeInt(documents.size());
+			for (int docId = 0, size = documents.size(); docId < size; docId++) {
+				DocumentTerms document = documents.get(docId);
+				writeString(out, document.getDocumentPath().toString());
+				FileFingerprint fingerprint = document.getFingerprint();
+				out.writeLong((fingerprint != null) ? fingerprint.getSize() : -1);
+				out.writeLong((fingerprint != null) ? fingerprint.getLastModified() : -1);
+				out.writeLong((fingerprint != null) ? fingerprint.getHash() : 0);
+				out.writeDouble(index.getNorm(docId));
+				int nonZero = document.size();
+				out.writeInt(nonZero);
+				for (int i = 0; i < nonZero; i++) {
+					out.writeInt(document.termAt(i));
+				}
+				if (vectors != null) {
+					DocumentVector vector = vectors.get(docId);
+					for (int i = 0; i < nonZero; i++) {
+						out.writeDouble(vector.valueAt(i));
+					}
+				} else {
+					weights = document.weights(dictionary, weights);
+					for (int i = 0; i < nonZero; i++) {
+						out.writeDouble(weights[i]);
+					}
+				}
+				for (int i = 0; i < nonZero; i++) {
+					out.writeInt(document.occurencesAt(i));
+				}
+				byte[] positions = document.getEncodedPositions();
+				out.writeInt((positions != null) ? positions.length : -1);
+				if (positions != null) {
+					out.write(positions);
+				}
+			}
+		}
+
+		Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Loads an index from the given file.
+	 * 
+	 * @param file
+	 *            The file the index is read from.
+	 * @param root
+	 *            The root directory of the documents. It must be the same
+	 *            directory the index was written for.
+	 * @param shard
+	 *            The shard of the documents, or null if they are the whole
+	 *            collection. It must be the same shard the index was written
+	 *            for.
+	 * @return The loaded index.
+	 * @throws IOException
+	 *             If reading the file was unsuccessful, the file is not a valid
+	 *             index file or it was written for a different directory or
+	 *             shard.
+	 */
+	public static Index read(Path file, Path root, Shard shard) throws IOException {
+		try (MappedInput in = new MappedInput(file)) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not an index file: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported index file version: " + version);
+			}
+			String indexedRoot = in.readString();
+			if (!indexedRoot.equals(root.toAbsolutePath().normalize().toString())) {
+				throw new IOException("Index file " + file + " was written for a different directory: " + indexedRoot);
+			}
+			int number = in.readInt();
+			int count = in.readInt();
+			int expectedNumber = (shard != null) ? shard.getNumber() : 0;
+			int expectedCount = (shard != null) ? shard.getCount() : 1;
+			if (number != expectedNumber || count != expectedCount) {
+				throw new IOException("Index file " + file + " was written for shard " + number + "/" + count
+						+ ", not " + expectedNumber + "/" + expectedCount);
+			}
+
+			int numberOfWords = in.readInt();
+			String[] words = new String[numberOfWords];
+			int[] numbersOfDocuments = new int[numberOfWords];
+			for (int i = 0; i < numberOfWords; i++) {
+				words[i] = in.readString();
+				numbersOfDocuments[i] = in.readInt();
+			}
+
+			int numberOfDocuments = in.readInt();
+			TotalDictionary dictionary = new TotalDictionary(words, numbersOfDocuments, numberOfDocuments);
+			List<DocumentTerms> documents = new ArrayList<>(numberOfDocuments);
+			List<DocumentVector> vectors = new ArrayList<>(numberOfDocuments);
+			double[] norms = new double[numberOfDocuments];
+			for (int docId = 0; docId < numberOfDocuments; docId++) {
+				Path document = Paths.get(in.readString());
+				long size = in.readLong();
+				long lastModified = in.readLong();
+				long hash = in.readLong();
+				FileFingerprint fingerprint = (size >= 0) ? new FileFingerprint(size, lastModified, hash) : null;
+				norms[docId] = in.readDouble();
+				int[] indices = new int[in.readInt()];
+				double[] weights = new double[indices.length];
+				int[] occurences = new int[indices.length];
+				in.readInts(indices);
+				in.readDoubles(weights);
+				in.readInts(occurences);
+				int numOfPositionBytes = in.readInt();
+				byte[] positions = null;
+				if (numOfPositionBytes >= 0) {
+					positions = new byte[numOfPositionBytes];
+					in.readBytes(positions);
+				}
+
+				documents.add(new DocumentTerms(document, fingerprint, indices, occurences, positions));
+				vectors.add(new DocumentVector(document, numberOfWords, indices, weights));
+			}
+
+			return new Index(dictionary, documents, vectors, norms);
+		} catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+				| NegativeArraySizeException e) {
+			throw new IOException("Corrupt index file: " + file, e);
+		}
+	}
+
+	/**
+	 * Writes a string as its length in UTF-8 bytes followed by the bytes.
+	 * 
+	 * @param out
+	 *            The stream the string is written to.
+	 * @param string
+	 *            The string that is written.
+	 * @throws IOException
+	 *             If writing was unsuccessful.
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Sequential reader of a file through memory-mapped windows. A window is
+	 * remapped whenever fewer bytes remain in it than the next read needs.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class MappedInput implements AutoCloseable {
+		/**
+		 * The channel of the file that is read.
+		 */
+		private FileChannel channel;
+		/**
+		 * The currently mapped window of the file.
+		 */
+		private ByteBuffer window;
+		/**
+		 * The position in the file at which the current window starts.
+		 */
+		private long windowStart;
+
+		/**
+		 * Opens the given file for reading.
+		 * 
+		 * @param file
+		 *            The file that is read.
+		 * @throws IOException
+		 *             If the file could not be opened.
+		 */
+		MappedInput(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			window = ByteBuffer.allocate(0);
+			windowStart = 0;
+		}
+
+		/**
+		 * Makes sure that at least the given number of bytes, or all the
+		 * remaining bytes of the file if there are fewer, can be read from the
+		 * current window.
+		 * 
+		 * @param bytes
+		 *            The number of bytes needed.
+		 * @throws IOException
+		 *             If mapping was unsuccessful.
+		 */
+		private void ensure(int bytes) throws IOException {
+			if (window.remaining() >= bytes) {
+				return;
+			}
+			long position = windowStart + window.position();
+			long size = Math.min(Math.max(WINDOW_SIZE, bytes), channel.size() - position);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+			windowStart = position;
+		}
+
+		/**
+		 * Reads a big-endian int.
+		 * 
+		 * @return The read number.
+		 * @throws IOException
+		 *             If reading was unsuccessful.
+		 */
+		int readInt() throws IOException {
+			ensure(Integer.BYTES);
+			return window.getInt();
+		}
+
+		/**
+		 * Reads a big-endian long.
+		 * 
+		 * @return The read number.
+		 * @throws IOException
+		 *             If reading was unsuccessful.
+		 */
+		long readLong() throws IOException {
+			ensure(Long.BYTES);
+			return window.getLong();
+		}
+
+		/**
+		 * Reads a big-endian double.
+		 * 
+		 * @return The read number.
+		 * @throws IOException
+		 *             If reading was unsuccessful.
+		 */
+		double readDouble() throws IOException {
+			ensure(Double.BYTES);
+			return window.getDouble();
+		}
+
+		/**
+		 * Reads a string written by {@link IndexFile#writeString}.
+		 * 
+		 * @return The read string.
+		 * @throws IOException
+		 *             If reading was unsuccessful.
+		 */
+		String readString() throws IOException {
+			byte[] bytes = new byte[readInt()];
+			readBytes(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Fills the given array with bytes.
+		 * 
+		 * @param array
+		 *            The array that is filled.
+		 * @throws IOException
+		 *             If reading was unsuccessful.
+		 */
+		void readBytes(byte[] array) throws IOException {
+			ensure(array.length);
+			window.get(array);
+		}
+
+		/**
+		 * Fills the given array with big-endian ints.
+		 * 
+		 * @param array
+		 *            The array that is filled.
+		 * @throws IOException
+		 *             If reading was unsuccessful.
+		 */
+		void readInts(int[] array) throws IOException {
+			int offset = 0;
+			while (offset < array.length) {
+				ensure(Integer.BYTES);
+				int count = Math.min(array.length - offset, window.remaining() / Integer.BYTES);
+				if (count == 0) {
+					throw new BufferUnderflowException();
+				}
+				window.asIntBuffer().get(array, offset, count);
+				window.position(window.position() + count * Integer.BYTES);
+				offset += count;
+			}
+		}
+
+		/**
+		 * Fills the given array with big-endian doubles.
+		 * 
+		 * @param array
+		 *            The array that is filled.
+		 * @throws IOException
+		 *             If reading was unsuccessful.
+		 */
+		void readDoubles(double[] array) throws IOException {
+			int offset = 0;
+			while (offset < array.length) {
+				ensure(Double.BYTES);
+				int count = Math.min(array.length - offset, window.remaining() / Double.BYTES);
+				if (count == 0) {
+					throw new BufferUnderflowException();
+				}
+				window.asDoubleBuffer().get(array, offset, count);
+				window.position(window.position() + count * Double.BYTES);
+				offset += count;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,797 @@
+package hr.marin.filesearch;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * Creates the {@link Index} of all the documents in a directory structure and
+ * keeps it up to date with the changes of the documents.
+ * </p>
+ * <p>
+ * A refresh visits the directory structure again and re-reads only the
+ * documents that were added or whose size or modification time changed. The
+ * document counts of the words in the {@link TotalDictionary} are patched with
+ * the words of the added, changed and deleted documents, and only the vectors
+ * of the documents containing a word whose document count changed are
+ * calculated again. When documents are added or removed every weight changes
+ * (the tf-idf weights depend on the number of documents), and when words are
+ * added to or removed from the dictionary the indices of the words change, so
+ * in both cases all the vectors are recalculated from the kept word
+ * occurrences, still without reading any unchanged document.
+ * </p>
+ * <p>
+ * An indexer may be limited to the documents accepted by a filter, so several
+ * indexers share the documents of one directory structure (see
+ * {@link Shard}). The number of documents kept in the dictionary is then
+ * patched just like the document counts of the words, so the documents of
+ * the other shards added to the dictionary stay counted.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Indexer {
+	/**
+	 * The numbers of documents affected by a refresh together with the
+	 * refreshed index.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	public static class Refresh {
+		/**
+		 * The refreshed index
+		 */
+		private Index index;
+		/**
+		 * The number of added documents
+		 */
+		private int added;
+		/**
+		 * The number of documents whose content changed
+		 */
+		private int changed;
+		/**
+		 * The number of deleted documents
+		 */
+		private int removed;
+
+		/**
+		 * Creates a new {@link Refresh} object with the given arguments.
+		 * 
+		 * @param index
+		 *            The refreshed index
+		 * @param added
+		 *            The number of added documents
+		 * @param changed
+		 *            The number of documents whose content changed
+		 * @param removed
+		 *            The number of deleted documents
+		 */
+		Refresh(Index index, int added, int changed, int removed) {
+			this.index = index;
+			this.added = added;
+			this.changed = changed;
+			this.removed = removed;
+		}
+
+		/**
+		 * Gets the refreshed index.
+		 * 
+		 * @return The refreshed index
+		 */
+		public Index getIndex() {
+			return index;
+		}
+
+		/**
+		 * Gets the number of added documents.
+		 * 
+		 * @return The number of added documents
+		 */
+		public int getAdded() {
+			return added;
+		}
+
+		/**
+		 * Gets the number of documents whose content changed.
+		 * 
+		 * @return The number of changed documents
+		 */
+		public int getChanged() {
+			return changed;
+		}
+
+		/**
+		 * Gets the number of deleted documents.
+		 * 
+		 * @return The number of deleted documents
+		 */
+		public int getRemoved() {
+			return removed;
+		}
+
+		/**
+		 * Checks whether the refresh found any change.
+		 * 
+		 * @return True if a document was added, changed or deleted
+		 */
+		public boolean hasChanges() {
+			return added + changed + removed > 0;
+		}
+	}
+
+	/**
+	 * The root directory of the indexed directory structure
+	 */
+	private Path root;
+	/**
+	 * The set of all the stop words
+	 */
+	private Set<String> stopWordsSet;
+	/**
+	 * The charset used to read the documents
+	 */
+	private Charset charset;
+	/**
+	 * The number of threads used to read the documents
+	 */
+	private int threads;
+	/**
+	 * Whether the positions of the words are recorded
+	 */
+	private boolean positions;
+	/**
+	 * The filter a document has to pass to be indexed
+	 */
+	private Predicate<Path> documentFilter;
+
+	/**
+	 * Creates a new {@link Indexer} of the given directory structure.
+	 * 
+	 * @param root
+	 *            The root directory of the indexed directory structure
+	 * @param stopWordsSet
+	 *            The set of all the stop words
+	 * @param charset
+	 *            The charset used to read the documents
+	 * @param threads
+	 *            The number of threads used to read the documents
+	 */
+	public Indexer(Path root, Set<String> stopWordsSet, Charset charset, int threads) {
+		this(root, stopWordsSet, charset, threads, false);
+	}
+
+	/**
+	 * Creates a new {@link Indexer} of the given directory structure that
+	 * optionally records the positions of the words, for phrase and proximity
+	 * queries.
+	 * 
+	 * @param root
+	 *            The root directory of the indexed directory structure
+	 * @param stopWordsSet
+	 *            The set of all the stop words
+	 * @param charset
+	 *            The charset used to read the documents
+	 * @param threads
+	 *            The number of threads used to read the documents
+	 * @param positions
+	 *            Whether the positions of the words are recorded
+	 */
+	public Indexer(Path root, Set<String> stopWordsSet, Charset charset, int threads, boolean positions) {
+		this(root, stopWordsSet, charset, threads, positions, document -> true);
+	}
+
+	/**
+	 * Creates a new {@link Indexer} of the documents of the given directory
+	 * structure that are accepted by the given filter.
+	 * 
+	 * @param root
+	 *            The root directory of the indexed directory structure
+	 * @param stopWordsSet
+	 *            The set of all the stop words
+	 * @param charset
+	 *            The charset used to read the documents
+	 * @param threads
+	 *            The number of threads used to read the documents
+	 * @param positions
+	 *            Whether the positions of the words are recorded
+	 * @param documentFilter
+	 *            The filter a document has to pass to be indexed
+	 */
+	public Indexer(Path root, Set<String> stopWordsSet, Charset charset, int threads, boolean positions,
+			Predicate<Path> documentFilter) {
+		this.root = root;
+		this.stopWordsSet = stopWordsSet;
+		this.charset = charset;
+		this.threads = threads;
+		this.positions = positions;
+		this.documentFilter = documentFilter;
+	}
+
+	/**
+	 * Gets the root directory of the indexed directory structure.
+	 * 
+	 * @return The root directory
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Checks whether the positions of the words are recorded.
+	 * 
+	 * @return True if the created indexes keep the positions of the words
+	 */
+	public boolean hasPositions() {
+		return positions;
+	}
+
+	/**
+	 * Reads all the documents and creates their index.
+	 * 
+	 * @return The index of all the documents
+	 * @throws IOException
+	 *             If there was an error while reading the documents
+	 */
+	public Index build() throws IOException {
+		long start = System.nanoTime();
+		DocumentVisitor visitor = new DocumentVisitor(documentFilter);
+		Files.walkFileTree(root, visitor);
+		Metrics.global().recordSince(Metrics.Stage.CRAWL, start);
+		List<DocumentDictionary> docDicts = Utilities.readDocuments(visitor.getList(), stopWordsSet, charset, threads,
+				positions);
+
+		start = System.nanoTime();
+		TotalDictionary dictionary = new TotalDictionary(docDicts);
+		Metrics.global().recordSince(Metrics.Stage.DICTIONARY, start);
+
+		start = System.nanoTime();
+		Index index = new Index(dictionary, docDicts);
+		Metrics.global().recordSince(Metrics.Stage.VECTORS, start);
+		return index;
+	}
+
+	/**
+	 * Brings the given index up to date with the current state of the
+	 * documents. Unchanged documents keep their relative order, and added
+	 * documents are appended in the order in which they were visited.
+	 * 
+	 * @param old
+	 *            The index that is refreshed
+	 * @return The refreshed index and the numbers of affected documents
+	 * @throws IOException
+	 *             If there was an error while reading the documents
+	 */
+	public Refresh refresh(Index old) throws IOException {
+		long start = System.nanoTime();
+		DocumentVisitor visitor = new DocumentVisitor(documentFilter);
+		Files.walkFileTree(root, visitor);
+		Metrics.global().recordSince(Metrics.Stage.CRAWL, start);
+
+		List<DocumentTerms> oldDocs = old.getDocuments();
+		Map<Path, Integer> oldIds = documentIds(old);
+
+		List<Path> toRead = new ArrayList<>();
+		List<Integer> toReadOldIds = new ArrayList<>();
+		boolean[] kept = new boolean[oldDocs.size()];
+		FileFingerprint[] touched = new FileFingerprint[oldDocs.size()];
+
+		for (Path path : visitor.getList()) {
+			Integer docId = oldIds.get(path);
+			if (docId != null) {
+				kept[docId] = true;
+			}
+			checkDocument(old, path, docId, visitor.getAttributes(path), toRead, toReadOldIds, touched);
+		}
+
+		return apply(old, kept, touched, toRead, toReadOldIds);
+	}
+
+	/**
+	 * Brings the given index up to date with the current state of the given
+	 * paths only, for example the paths reported by a watch service. A path
+	 * may be a document or a directory; a directory is visited and all its
+	 * documents are checked. A path that no longer exists removes the
+	 * document, or all the documents of the directory, it denoted.
+	 * 
+	 * @param old
+	 *            The index that is updated
+	 * @param paths
+	 *            The paths that may have changed
+	 * @return The updated index and the numbers of affected documents
+	 * @throws IOException
+	 *             If there was an error while reading the documents
+	 */
+	public Refresh update(Index old, Collection<Path> paths) throws IOException {
+		List<DocumentTerms> oldDocs = old.getDocuments();
+		Map<Path, Integer> oldIds = documentIds(old);
+
+		List<Path> toRead = new ArrayList<>();
+		List<Integer> toReadOldIds = new ArrayList<>();
+		boolean[] kept = new boolean[oldDocs.size()];
+		Arrays.fill(kept, true);
+		FileFingerprint[] touched = new FileFingerprint[oldDocs.size()];
+		Set<Path> checked = new HashSet<>();
+
+		for (Path path : paths) {
+			if (Files.isDirectory(path)) {
+				DocumentVisitor visitor = new DocumentVisitor(documentFilter);
+				Files.walkFileTree(path, visitor);
+				for (Path document : visitor.getList()) {
+					if (checked.add(document)) {
+						checkDocument(old, document, oldIds.get(document), visitor.getAttributes(document), toRead,
+								toReadOldIds, touched);
+					}
+				}
+			} else if (Files.isRegularFile(path) && Files.isReadable(path)) {
+				if (documentFilter.test(path) && checked.add(path)) {
+					BasicFileAttributes attributes = null;
+					try {
+						attributes = Files.readAttributes(path, BasicFileAttributes.class);
+					} catch (IOException e) {
+						continue;
+					}
+					checkDocument(old, path, oldIds.get(path), attributes, toRead, toReadOldIds, touched);
+				}
+			} else {
+				Integer docId = oldIds.get(path);
+				if (docId != null) {
+					kept[docId] = false;
+				} else {
+					for (int id = 0; id < oldDocs.size(); id++) {
+						if (oldDocs.get(id).getDocumentPath().startsWith(path)) {
+							kept[id] = false;
+						}
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < toRead.size(); i++) {
+			int docId = toReadOldIds.get(i);
+			if (docId != -1 && !kept[docId]) {
+				toRead.remove(i);
+				toReadOldIds.remove(i);
+				i--;
+			}
+		}
+
+		return apply(old, kept, touched, toRead, toReadOldIds);
+	}
+
+	/**
+	 * Maps the paths of all the documents of the given index to their ids.
+	 * 
+	 * @param index
+	 *            The index
+	 * @return A map that pairs document paths with document ids
+	 */
+	private static Map<Path, Integer> documentIds(Index index) {
+		List<DocumentTerms> docs = index.getDocuments();
+		Map<Path, Integer> ids = new HashMap<>(docs.size() * 4 / 3 + 1);
+		for (int docId = 0; docId < docs.size(); docId++) {
+			ids.put(docs.get(docId).getDocumentPath(), docId);
+		}
+		return ids;
+	}
+
+	/**
+	 * Adds the given document to the documents that have to be read if it is
+	 * not in the index or its attributes differ from the ones it had when it
+	 * was indexed. A document whose size did not change is hashed first, and
+	 * if its content did not change either, only its new fingerprint is
+	 * recorded.
+	 * 
+	 * @param old
+	 *            The index that is refreshed
+	 * @param path
+	 *            The path of the document
+	 * @param docId
+	 *            The id of the document in the index, or null if it is new
+	 * @param attributes
+	 *            The current attributes of the document
+	 * @param toRead
+	 *            The paths of the documents that have to be read
+	 * @param toReadOldIds
+	 *            The ids of the documents that have to be read, -1 for new
+	 *            documents
+	 * @param touched
+	 *            The new fingerprints of the documents whose attributes
+	 *            changed but whose content did not, indexed by document id
+	 */
+	private static void checkDocument(Index old, Path path, Integer docId, BasicFileAttributes attributes,
+			List<Path> toRead, List<Integer> toReadOldIds, FileFingerprint[] touched) {
+		if (docId == null) {
+			toRead.add(path);
+			toReadOldIds.add(-1);
+			return;
+		}
+		FileFingerprint fingerprint = old.getDocuments().get(docId).getFingerprint();
+		if (fingerprint != null && fingerprint.matches(attributes)) {
+			return;
+		}
+		if (fingerprint != null && fingerprint.getSize() == attributes.size()) {
+			try {
+				long hash = ChunkedReader.hash(path);
+				if (hash == fingerprint.getHash()) {
+					touched[docId] = new FileFingerprint(attributes.size(), attributes.lastModifiedTime().toMillis(),
+							hash);
+					return;
+				}
+			} catch (IOException ignorable) {
+			}
+		}
+		toRead.add(path);
+		toReadOldIds.add(docId);
+	}
+
+	/**
+	 * Creates a new index from the given one by removing the documents that
+	 * are not kept and reading the given documents. The new index keeps its
+	 * posting lists in the same format as the old one.
+	 * 
+	 * @param old
+	 *            The index that is refreshed
+	 * @param kept
+	 *            For every document of the old index, whether it still exists
+	 * @param touched
+	 *            The new fingerprints of the documents whose attributes
+	 *            changed but whose content did not, indexed by document id
+	 * @param toRead
+	 *            The paths of the added and possibly changed documents
+	 * @param toReadOldIds
+	 *            The ids of the documents that have to be read, -1 for new
+	 *            documents
+	 * @return The refreshed index and the numbers of affected documents
+	 * @throws IOException
+	 *             If there was an error while reading the documents
+	 */
+	private Refresh apply(Index old, boolean[] kept, FileFingerprint[] touched, List<Path> toRead,
+			List<Integer> toReadOldIds) throws IOException {
+		List<DocumentTerms> oldDocs = old.getDocuments();
+		boolean anyChanged = !toRead.isEmpty();
+		for (int docId = 0; docId < oldDocs.size(); docId++) {
+			anyChanged |= !kept[docId] || touched[docId] != null;
+		}
+		if (!anyChanged) {
+			return new Refresh(old, 0, 0, 0);
+		}
+
+		List<DocumentDictionary> read = Utilities.readDocuments(toRead, stopWordsSet, charset, threads, positions);
+
+		long start = System.nanoTime();
+		DictionaryPatch patch = new DictionaryPatch(old.getTotalDictionary());
+		DocumentDictionary[] replaced = new DocumentDictionary[oldDocs.size()];
+		List<DocumentDictionary> added = new ArrayList<>();
+		int removed = 0;
+		int changed = 0;
+
+		for (int docId = 0; docId < oldDocs.size(); docId++) {
+			if (!kept[docId]) {
+				patch.remove(oldDocs.get(docId));
+				removed++;
+			}
+		}
+
+		for (int i = 0; i < read.size(); i++) {
+			DocumentDictionary docDict = read.get(i);
+			int docId = toReadOldIds.get(i);
+			if (docId == -1) {
+				patch.add(docDict);
+				added.add(docDict);
+				continue;
+			}
+			FileFingerprint oldFingerprint = oldDocs.get(docId).getFingerprint();
+			if (oldFingerprint != null && docDict.getFingerprint().getHash() == oldFingerprint.getHash()) {
+				touched[docId] = docDict.getFingerprint();
+				continue;
+			}
+			patch.remove(oldDocs.get(docId));
+			patch.add(docDict);
+			replaced[docId] = docDict;
+			changed++;
+		}
+
+		int size = oldDocs.size() - removed + added.size();
+		int oldNumberOfDocuments = old.getTotalDictionary().numberOfDocuments();
+		int numberOfDocuments = oldNumberOfDocuments - oldDocs.size() + size;
+		TotalDictionary dictionary = patch.toDictionary(numberOfDocuments);
+		Metrics.global().recordSince(Metrics.Stage.DICTIONARY, start);
+
+		start = System.nanoTime();
+		int[] newIndices = patch.newIndices();
+		boolean reweightAll = patch.changesSize() || numberOfDocuments != oldNumberOfDocuments;
+		boolean[] reweight = new boolean[oldDocs.size()];
+		if (!reweightAll) {
+			InvertedIndex oldPostings = old.getInvertedIndex();
+			for (int word : patch.changedWords()) {
+				for (int docId : oldPostings.getDocuments(word)) {
+					reweight[docId] = true;
+				}
+			}
+		}
+
+		InvertedIndex.Format format = old.getFormat();
+		boolean offHeap = format != InvertedIndex.Format.HEAP;
+		List<DocumentTerms> docTerms = new ArrayList<>(size);
+		List<DocumentVector> vectors = offHeap ? null : new ArrayList<>(size);
+		double[] norms = new double[size];
+		double[] weights = null;
+
+		for (int docId = 0; docId < oldDocs.size(); docId++) {
+			if (!kept[docId]) {
+				continue;
+			}
+			DocumentTerms terms;
+			if (replaced[docId] != null) {
+				terms = DocumentTerms.of(replaced[docId], dictionary);
+			} else {
+				terms = oldDocs.get(docId);
+				if (newIndices != null) {
+					terms = terms.remap(newIndices);
+				}
+				if (touched[docId] != null) {
+					terms = terms.withFingerprint(touched[docId]);
+				}
+			}
+			int newId = docTerms.size();
+			docTerms.add(terms);
+			if (reweightAll || reweight[docId] || replaced[docId] != null) {
+				if (vectors != null) {
+					DocumentVector vector = new DocumentVector(terms, dictionary);
+					norms[newId] = vector.norm();
+					vectors.add(vector);
+				} else {
+					weights = terms.weights(dictionary, weights);
+					norms[newId] = Math.sqrt(VectorKernels.sumOfSquares(weights, terms.size()));
+				}
+			} else {
+				norms[newId] = old.getNorm(docId);
+				if (vectors != null) {
+					vectors.add(old.getVectors().get(docId));
+				}
+			}
+		}
+		for (DocumentDictionary docDict : added) {
+			DocumentTerms terms = DocumentTerms.of(docDict, dictionary);
+			if (vectors != null) {
+				DocumentVector vector = new DocumentVector(terms, dictionary);
+				norms[docTerms.size()] = vector.norm();
+				vectors.add(vector);
+			} else {
+				weights = terms.weights(dictionary, weights);
+				norms[docTerms.size()] = Math.sqrt(VectorKernels.sumOfSquares(weights, terms.size()));
+			}
+			docTerms.add(terms);
+		}
+
+		Index index = new Index(dictionary, docTerms, vectors, norms, format);
+		Metrics.global().recordSince(Metrics.Stage.VECTORS, start);
+		return new Refresh(index, added.size(), changed, removed);
+	}
+
+	/**
+	 * The document counts of the words of a {@link TotalDictionary} that are
+	 * being changed by a refresh. Words that are no longer contained in any
+	 * document are dropped when the new dictionary is created, and the
+	 * remaining words keep their relative order. A word is identified by its
+	 * index in the patched dictionary, and the added words get the indices
+	 * following the last one of the patched dictionary.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class DictionaryPatch {
+		/**
+		 * The dictionary that is patched
+		 */
+		private TotalDictionary dictionary;
+		/**
+		 * The words that are not in the patched dictionary
+		 */
+		private TermTable addedWords;
+		/**
+		 * The document counts of the words of the patched dictionary followed
+		 * by the added words
+		 */
+		private int[] numbersOfDocuments;
+		/**
+		 * Whether the document count of each word changed, parallel to
+		 * {@link #numbersOfDocuments}
+		 */
+		private boolean[] changed;
+		/**
+		 * The number of words whose document count changed
+		 */
+		private int numberOfChanged;
+
+		/**
+		 * Creates a new patch of the given dictionary.
+		 * 
+		 * @param dictionary
+		 *            The dictionary that is patched
+		 */
+		DictionaryPatch(TotalDictionary dictionary) {
+			this.dictionary = dictionary;
+			addedWords = new TermTable();
+			numbersOfDocuments = new int[Math.max(16, dictionary.size())];
+			for (int i = 0; i < dictionary.size(); i++) {
+				numbersOfDocuments[i] = dictionary.numberOfDocumentsWith(i);
+			}
+			changed = new boolean[numbersOfDocuments.length];
+		}
+
+		/**
+		 * Counts the words of the given document.
+		 * 
+		 * @param docDict
+		 *            The added document
+		 */
+		void add(DocumentDictionary docDict) {
+			for (int slot = 0, capacity = docDict.capacity(); slot < capacity; slot++) {
+				String word = docDict.wordAt(slot);
+				if (word == null) {
+					continue;
+				}
+				int index = dictionary.indexOf(word);
+				if (index == -1) {
+					index = dictionary.size() + addedWords.add(word);
+					if (index == numbersOfDocuments.length) {
+						numbersOfDocuments = Arrays.copyOf(numbersOfDocuments, index * 2);
+						changed = Arrays.copyOf(changed, index * 2);
+					}
+				}
+				numbersOfDocuments[index]++;
+				markChanged(index);
+			}
+		}
+
+		/**
+		 * Stops counting the words of the given document.
+		 * 
+		 * @param terms
+		 *            The word occurrences of the removed document
+		 */
+		void remove(DocumentTerms terms) {
+			for (int i = 0, size = terms.size(); i < size; i++) {
+				int index = terms.termAt(i);
+				numbersOfDocuments[index]--;
+				markChanged(index);
+			}
+		}
+
+		/**
+		 * Marks the document count of the given word as changed.
+		 * 
+		 * @param index
+		 *            The index of the word
+		 */
+		private void markChanged(int index) {
+			if (!changed[index]) {
+				changed[index] = true;
+				numberOfChanged++;
+			}
+		}
+
+		/**
+		 * Gets the total number of words of the patched dictionary and the
+		 * added words.
+		 * 
+		 * @return The number of words
+		 */
+		private int size() {
+			return dictionary.size() + addedWords.size();
+		}
+
+		/**
+		 * Checks whether the patch adds or removes any word, which changes the
+		 * size of the dictionary and the indices of the words.
+		 * 
+		 * @return True if the size of the dictionary changes
+		 */
+		boolean changesSize() {
+			if (addedWords.size() > 0) {
+				return true;
+			}
+			for (int index = 0, size = size(); index < size; index++) {
+				if (changed[index] && numbersOfDocuments[index] == 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Gets the indices of the words of the patched dictionary whose
+		 * document count changed. Only meaningful if the patch does not change
+		 * the size of the dictionary.
+		 * 
+		 * @return The indices of the changed words
+		 */
+		int[] changedWords() {
+			int[] words = new int[numberOfChanged];
+			int count = 0;
+			for (int index = 0, size = size(); index < size; index++) {
+				if (changed[index]) {
+					words[count++] = index;
+				}
+			}
+			return words;
+		}
+
+		/**
+		 * Gets the index in the patched dictionary of every word of the
+		 * dictionary that is patched.
+		 * 
+		 * @return An array containing the new index of the word with old index
+		 *         i at position i (-1 for removed words), or null if no word is
+		 *         removed and so every word keeps its index
+		 */
+		int[] newIndices() {
+			int oldSize = dictionary.size();
+			int[] indices = null;
+			int index = 0;
+			for (int i = 0; i < oldSize; i++) {
+				if (numbersOfDocuments[i] > 0) {
+					if (indices != null) {
+						indices[i] = index;
+					}
+					index++;
+				} else if (indices == null) {
+					indices = new int[oldSize];
+					for (int j = 0; j < i; j++) {
+						indices[j] = j;
+					}
+					indices[i] = -1;
+				} else {
+					indices[i] = -1;
+				}
+			}
+			return indices;
+		}
+
+		/**
+		 * Creates the patched dictionary.
+		 * 
+		 * @param numberOfDocuments
+		 *            The number of all the documents after the refresh
+		 * @return The patched dictionary
+		 */
+		TotalDictionary toDictionary(int numberOfDocuments) {
+			int oldSize = dictionary.size();
+			int size = 0;
+			for (int i = 0, total = size(); i < total; i++) {
+				if (numbersOfDocuments[i] > 0) {
+					size++;
+				}
+			}
+
+			String[] newWords = new String[size];
+			int[] newNumbers = new int[size];
+			int index = 0;
+			for (int i = 0, total = size(); i < total; i++) {
+				if (numbersOfDocuments[i] > 0) {
+					newWords[index] = (i < oldSize) ? dictionary.wordAt(i) : addedWords.wordAt(i - oldSize);
+					newNumbers[index] = numbersOfDocuments[i];
+					index++;
+				}
+			}
+
+			return new TotalDictionary(newWords, newNumbers, numberOfDocuments);
+		}
+	}
+}
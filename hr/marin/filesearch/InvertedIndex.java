@@ -0,0 +1,585 @@
+package hr.marin.filesearch;
+
+import java.util.List;
+
+/**
+ * <p>
+ * An inverted index over a list of {@link DocumentVector} objects. For every
+ * word of the {@link TotalDictionary} the index keeps a posting list - the ids
+ * of all the documents containing the word, in ascending order, together with
+ * the tf-idf weight of the word in each of those documents. If the index is
+ * built with the word occurrences of the documents, the number of occurrences
+ * of the word in each document is kept as well, so scorers other than the
+ * cosine similarity can compute their own weights.
+ * </p>
+ * <p>
+ * Every posting list also stores an upper bound of the contribution of its
+ * word to the cosine similarity of a document: the largest weight of the word
+ * divided by the norm of its document. Scorers use the bounds to skip
+ * documents that cannot make it into the best results.
+ * </p>
+ * <p>
+ * The id of a document is its position in the list of vectors the index was
+ * built from.
+ * </p>
+ * <p>
+ * The posting lists are kept either in arrays on the heap or in direct memory
+ * outside it (see {@link OffHeapPostings}), where they may also be compressed
+ * (see {@link CompressedPostings}). Off the heap, the lists cost the garbage
+ * collector nothing, but the arrays returned by the getters are copies made
+ * on every call, so scorers read the lists block by block with a
+ * {@link PostingCursor} instead.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class InvertedIndex {
+	/**
+	 * The ways the posting lists can be kept.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	public enum Format {
+		/**
+		 * In arrays on the heap
+		 */
+		HEAP,
+		/**
+		 * In direct memory outside the heap
+		 */
+		OFF_HEAP,
+		/**
+		 * Compressed in direct memory, with the weights computed from the
+		 * numbers of occurrences, or kept as they are if that is not possible
+		 */
+		COMPRESSED,
+		/**
+		 * Compressed in direct memory, with the weights that cannot be
+		 * computed from the numbers of occurrences quantized to 16 bits
+		 */
+		QUANTIZED
+	}
+
+	/**
+	 * An empty posting list shared by all the words that no document contains.
+	 */
+	private static final int[] NO_DOCUMENTS = new int[0];
+	/**
+	 * Weights of an empty posting list.
+	 */
+	private static final double[] NO_WEIGHTS = new double[0];
+	/**
+	 * Occurrence counts of an empty posting list.
+	 */
+	private static final int[] NO_FREQUENCIES = new int[0];
+
+	/**
+	 * Document ids of the posting list of every word, indexed by the index of
+	 * the word in the total dictionary.
+	 */
+	private int[][] documents;
+	/**
+	 * Weights of the posting list of every word, parallel to
+	 * {@link #documents}.
+	 */
+	private double[][] weights;
+	/**
+	 * Numbers of occurrences of the word in the documents of its posting list,
+	 * parallel to {@link #documents}, or null if they are not kept.
+	 */
+	private int[][] frequencies;
+	/**
+	 * The largest weight divided by the document norm of the posting list of
+	 * every word, or NaN if the list has a negative or non-finite weight.
+	 */
+	private double[] upperBounds;
+	/**
+	 * The posting lists kept off the heap, or null if they are kept in the
+	 * arrays above
+	 */
+	private OffHeapPostings offHeap;
+	/**
+	 * The way the posting lists are kept
+	 */
+	private Format format;
+
+	/**
+	 * Creates a new {@link InvertedIndex} from the given document vectors.
+	 * 
+	 * @param vectors
+	 *            The vectors of all the documents. The position of a vector in
+	 *            the list is used as the id of its document.
+	 * @param numberOfWords
+	 *            The number of words in the total dictionary (the dimension of
+	 *            the vectors).
+	 */
+	public InvertedIndex(List<DocumentVector> vectors, int numberOfWords) {
+		this(vectors, norms(vectors), numberOfWords);
+	}
+
+	/**
+	 * Creates a new {@link InvertedIndex} from the given document vectors and
+	 * their precomputed norms.
+	 * 
+	 * @param vectors
+	 *            The vectors of all the documents. The position of a vector in
+	 *            the list is used as the id of its document.
+	 * @param norms
+	 *            The norms of the vectors, indexed by document id.
+	 * @param numberOfWords
+	 *            The number of words in the total dictionary (the dimension of
+	 *            the vectors).
+	 */
+	public InvertedIndex(List<DocumentVector> vectors, double[] norms, int numberOfWords) {
+		this(vectors, null, norms, numberOfWords);
+	}
+
+	/**
+	 * Creates a new {@link InvertedIndex} from the given document vectors,
+	 * their word occurrences and their precomputed norms.
+	 * 
+	 * @param vectors
+	 *            The vectors of all the documents. The position of a vector in
+	 *            the list is used as the id of its document.
+	 * @param occurences
+	 *            The word occurrences of the documents, parallel to the
+	 *            vectors, or null if the numbers of occurrences should not be
+	 *            kept.
+	 * @param norms
+	 *            The norms of the vectors, indexed by document id.
+	 * @param numberOfWords
+	 *            The number of words in the total dictionary (the dimension of
+	 *            the vectors).
+	 */
+	public InvertedIndex(List<DocumentVector> vectors, List<DocumentTerms> occurences, double[] norms,
+			int numberOfWords) {
+		this(vectors, occurences, norms, numberOfWords, false);
+	}
+
+	/**
+	 * Creates a new {@link InvertedIndex} from the given document vectors,
+	 * their word occurrences and their precomputed norms, keeping the posting
+	 * lists on or off the heap.
+	 * 
+	 * @param vectors
+	 *            The vectors of all the documents. The position of a vector in
+	 *            the list is used as the id of its document.
+	 * @param occurences
+	 *            The word occurrences of the documents, parallel to the
+	 *            vectors, or null if the numbers of occurrences should not be
+	 *            kept.
+	 * @param norms
+	 *            The norms of the vectors, indexed by document id.
+	 * @param numberOfWords
+	 *            The number of words in the total dictionary (the dimension of
+	 *            the vectors).
+	 * @param offHeap
+	 *            Whether the posting lists are kept in direct memory outside
+	 *            the heap
+	 */
+	public InvertedIndex(List<DocumentVector> vectors, List<DocumentTerms> occurences, double[] norms,
+			int numberOfWords, boolean offHeap) {
+		this(vectors, occurences, norms, numberOfWords, null, offHeap ? Format.OFF_HEAP : Format.HEAP);
+	}
+
+	/**
+	 * Creates a new {@link InvertedIndex} from the given document vectors,
+	 * their word occurrences and their precomputed norms, keeping the posting
+	 * lists in the given format.
+	 * 
+	 * @param vectors
+	 *            The vectors of all the documents. The position of a vector in
+	 *            the list is used as the id of its document.
+	 * @param occurences
+	 *            The word occurrences of the documents, parallel to the
+	 *            vectors, or null if the numbers of occurrences should not be
+	 *            kept.
+	 * @param norms
+	 *            The norms of the vectors, indexed by document id.
+	 * @param numberOfWords
+	 *            The number of words in the total dictionary (the dimension of
+	 *            the vectors).
+	 * @param dictionary
+	 *            The dictionary whose inverse document frequencies the weights
+	 *            of the vectors were computed with, or null if they are not
+	 *            known. Compressed lists use it to compute their weights.
+	 * @param format
+	 *            The way the posting lists are kept
+	 */
+	public InvertedIndex(List<DocumentVector> vectors, List<DocumentTerms> occurences, double[] norms,
+			int numberOfWords, TotalDictionary dictionary, Format format) {
+		this.format = format;
+		if (format != Format.HEAP) {
+			OffHeapPostings lists = new OffHeapPostings(vectors, occurences, norms, numberOfWords);
+			this.offHeap = (format == Format.OFF_HEAP) ? lists
+					: new OffHeapPostings(lists, norms, dictionary, format == Format.QUANTIZED);
+			return;
+		}
+
+		int[] lengths = new int[numberOfWords];
+		for (DocumentVector vector : vectors) {
+			for (int i = 0, n = vector.nonZeroCount(); i < n; i++) {
+				lengths[vector.indexAt(i)]++;
+			}
+		}
+
+		documents = new int[numberOfWords][];
+		weights = new double[numberOfWords][];
+		frequencies = (occurences != null) ? new int[numberOfWords][] : null;
+		for (int word = 0; word < numberOfWords; word++) {
+			documents[word] = (lengths[word] == 0) ? NO_DOCUMENTS : new int[lengths[word]];
+			weights[word] = (lengths[word] == 0) ? NO_WEIGHTS : new double[lengths[word]];
+			if (frequencies != null) {
+				frequencies[word] = (lengths[word] == 0) ? NO_FREQUENCIES : new int[lengths[word]];
+			}
+			lengths[word] = 0;
+		}
+
+		int docId = 0;
+		int word;
+		for (DocumentVector vector : vectors) {
+			for (int i = 0, n = vector.nonZeroCount(); i < n; i++) {
+				word = vector.indexAt(i);
+				documents[word][lengths[word]] = docId;
+				weights[word][lengths[word]] = vector.valueAt(i);
+				if (frequencies != null) {
+					frequencies[word][lengths[word]] = occurencesOf(occurences.get(docId), i, word);
+				}
+				lengths[word]++;
+			}
+			docId++;
+		}
+
+		upperBounds = new double[numberOfWords];
+		for (word = 0; word < numberOfWords; word++) {
+			upperBounds[word] = upperBound(documents[word], weights[word], norms);
+		}
+	}
+
+	/**
+	 * Creates a new {@link InvertedIndex} from the given word occurrences and
+	 * the precomputed norms of the vectors of the documents, keeping the
+	 * posting lists in the given format. The weights of the postings are the
+	 * numbers of occurrences of the words times their inverse document
+	 * frequencies, the weights of the vectors of the documents, so the
+	 * vectors need not exist.
+	 * 
+	 * @param documents
+	 *            The word occurrences of all the documents. The position of
+	 *            the occurrences in the list is used as the id of their
+	 *            document.
+	 * @param norms
+	 *            The norms of the vectors, indexed by document id.
+	 * @param dictionary
+	 *            The dictionary whose indices and inverse document frequencies
+	 *            are used
+	 * @param format
+	 *            The way the posting lists are kept
+	 */
+	public InvertedIndex(List<DocumentTerms> documents, double[] norms, TotalDictionary dictionary, Format format) {
+		this.format = format;
+		int numberOfWords = dictionary.size();
+		if (format != Format.HEAP) {
+			OffHeapPostings lists = new OffHeapPostings(documents, norms, dictionary);
+			this.offHeap = (format == Format.OFF_HEAP) ? lists
+					: new OffHeapPostings(lists, norms, dictionary, format == Format.QUANTIZED);
+			return;
+		}
+
+		int[] lengths = new int[numberOfWords];
+		for (DocumentTerms terms : documents) {
+			for (int i = 0, n = terms.size(); i < n; i++) {
+				lengths[terms.termAt(i)]++;
+			}
+		}
+
+		this.documents = new int[numberOfWords][];
+		weights = new double[numberOfWords][];
+		frequencies = new int[numberOfWords][];
+		for (int word = 0; word < numberOfWords; word++) {
+			this.documents[word] = (lengths[word] == 0) ? NO_DOCUMENTS : new int[lengths[word]];
+			weights[word] = (lengths[word] == 0) ? NO_WEIGHTS : new double[lengths[word]];
+			frequencies[word] = (lengths[word] == 0) ? NO_FREQUENCIES : new int[lengths[word]];
+			lengths[word] = 0;
+		}
+
+		for (int docId = 0; docId < documents.size(); docId++) {
+			DocumentTerms terms = documents.get(docId);
+			for (int i = 0, n = terms.size(); i < n; i++) {
+				int word = terms.termAt(i);
+				int j = lengths[word]++;
+				this.documents[word][j] = docId;
+				weights[word][j] = terms.occurencesAt(i) * dictionary.idf(word);
+				frequencies[word][j] = terms.occurencesAt(i);
+			}
+		}
+
+		upperBounds = new double[numberOfWords];
+		for (int word = 0; word < numberOfWords; word++) {
+			upperBounds[word] = upperBound(this.documents[word], weights[word], norms);
+		}
+	}
+
+	/**
+	 * Calculates the norms of the given vectors.
+	 * 
+	 * @param vectors
+	 *            The vectors.
+	 * @return The norms of the vectors, in the same order.
+	 */
+	private static double[] norms(List<DocumentVector> vectors) {
+		double[] norms = new double[vectors.size()];
+		for (int docId = 0; docId < norms.length; docId++) {
+			norms[docId] = vectors.get(docId).norm();
+		}
+		return norms;
+	}
+
+	/**
+	 * Gets the number of occurrences of a word in a document. The words of a
+	 * vector are usually in the same order as the word occurrences of its
+	 * document, so the position in the vector is tried first.
+	 * 
+	 * @param terms
+	 *            The word occurrences of the document.
+	 * @param position
+	 *            The position of the word in the vector of the document.
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The number of occurrences of the word in the document.
+	 */
+	static int occurencesOf(DocumentTerms terms, int position, int word) {
+		if (position < terms.size() && terms.termAt(position) == word) {
+			return terms.occurencesAt(position);
+		}
+		return terms.occurences(word);
+	}
+
+	/**
+	 * Calculates the upper bound of a posting list. Documents with a zero norm
+	 * are never scored, so they are left out.
+	 * 
+	 * @param postingDocs
+	 *            The document ids of the posting list.
+	 * @param postingWeights
+	 *            The weights of the posting list.
+	 * @param norms
+	 *            The norms of all the documents.
+	 * @return The largest weight divided by the document norm, or NaN if a
+	 *         weight is negative or not finite.
+	 */
+	static double upperBound(int[] postingDocs, double[] postingWeights, double[] norms) {
+		double bound = 0;
+		for (int j = 0; j < postingDocs.length; j++) {
+			double weight = postingWeights[j];
+			if (!(weight >= 0) || Double.isInfinite(weight)) {
+				return Double.NaN;
+			}
+			double norm = norms[postingDocs[j]];
+			if (norm > 0) {
+				bound = Math.max(bound, weight / norm);
+			}
+		}
+		return bound;
+	}
+
+	/**
+	 * Estimates the heap memory used by the posting lists.
+	 * 
+	 * @return The approximate size of the posting lists on the heap in bytes.
+	 */
+	public long estimatedBytes() {
+		if (offHeap != null) {
+			return 0;
+		}
+		long bytes = 0;
+		for (int word = 0; word < documents.length; word++) {
+			bytes += 24 + 12L * documents[word].length;
+			if (frequencies != null) {
+				bytes += 16 + 4L * frequencies[word].length;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of bytes of direct memory taken by the posting lists.
+	 * 
+	 * @return The off-heap size of the posting lists in bytes, 0 if they are
+	 *         kept on the heap.
+	 */
+	public long offHeapBytes() {
+		return (offHeap != null) ? offHeap.offHeapBytes() : 0;
+	}
+
+	/**
+	 * Checks whether the posting lists are kept outside the heap.
+	 * 
+	 * @return True if the posting lists are kept in direct memory.
+	 */
+	public boolean isOffHeap() {
+		return offHeap != null;
+	}
+
+	/**
+	 * Gets the way the posting lists are kept.
+	 * 
+	 * @return The format of the posting lists.
+	 */
+	public Format getFormat() {
+		return format;
+	}
+
+	/**
+	 * Gets the posting lists kept off the heap, which {@link PostingCursor}
+	 * reads block by block.
+	 * 
+	 * @return The posting lists kept off the heap, or null if they are kept
+	 *         on the heap.
+	 */
+	OffHeapPostings getOffHeapPostings() {
+		return offHeap;
+	}
+
+	/**
+	 * Checks whether the posting lists keep the numbers of occurrences of the
+	 * words, without reading any list.
+	 * 
+	 * @return True if {@link #getFrequencies(int)} returns the occurrence
+	 *         counts, false if it returns null.
+	 */
+	public boolean hasFrequencies() {
+		return (offHeap != null) ? offHeap.hasFrequencies() : frequencies != null;
+	}
+
+	/**
+	 * Gets the number of words the index was built for.
+	 * 
+	 * @return The number of words in the index.
+	 */
+	public int numberOfWords() {
+		return (offHeap != null) ? offHeap.numberOfWords() : documents.length;
+	}
+
+	/**
+	 * Gets the number of documents containing the word with the given index,
+	 * without copying its posting list.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The length of the posting list of the word.
+	 */
+	public int getLength(int word) {
+		return (offHeap != null) ? offHeap.length(word) : documents[word].length;
+	}
+
+	/**
+	 * Gets the ids of all the documents containing the word with the given
+	 * index, in ascending order. The returned array must not be modified.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The document ids of the posting list of the word.
+	 */
+	public int[] getDocuments(int word) {
+		return (offHeap != null) ? offHeap.getDocuments(word) : documents[word];
+	}
+
+	/**
+	 * Gets the weights of the word with the given index in all the documents
+	 * containing it, parallel to {@link #getDocuments(int)}. The returned array
+	 * must not be modified.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The weights of the posting list of the word.
+	 */
+	public double[] getWeights(int word) {
+		return (offHeap != null) ? offHeap.getWeights(word) : weights[word];
+	}
+
+	/**
+	 * Gets the numbers of occurrences of the word with the given index in all
+	 * the documents containing it, parallel to {@link #getDocuments(int)}. The
+	 * returned array must not be modified.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The occurrence counts of the posting list of the word, or null if
+	 *         the index was built without the word occurrences.
+	 */
+	public int[] getFrequencies(int word) {
+		if (offHeap != null) {
+			return offHeap.getFrequencies(word);
+		}
+		return (frequencies != null) ? frequencies[word] : null;
+	}
+
+	/**
+	 * Gets the ids of all the documents containing the word with the given
+	 * index, like {@link #getDocuments(int)}, but copies them into the given
+	 * array when the lists are kept off the heap and the array is long enough,
+	 * so a scorer can reuse one array for all the words of a query. Only the
+	 * first {@link #getLength(int)} elements of the returned array are valid,
+	 * and it must not be modified.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param buffer
+	 *            The array returned for the previous word, or null
+	 * @return The array holding the document ids of the posting list.
+	 */
+	public int[] getDocuments(int word, int[] buffer) {
+		return (offHeap != null) ? offHeap.getDocuments(word, buffer) : documents[word];
+	}
+
+	/**
+	 * Gets the weights of the word with the given index, reusing the given
+	 * array like {@link #getDocuments(int, int[])}.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param buffer
+	 *            The array returned for the previous word, or null
+	 * @return The array holding the weights of the posting list.
+	 */
+	public double[] getWeights(int word, double[] buffer) {
+		return (offHeap != null) ? offHeap.getWeights(word, buffer) : weights[word];
+	}
+
+	/**
+	 * Gets the numbers of occurrences of the word with the given index,
+	 * reusing the given array like {@link #getDocuments(int, int[])}.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param buffer
+	 *            The array returned for the previous word, or null
+	 * @return The array holding the occurrence counts of the posting list, or
+	 *         null if the index was built without the word occurrences.
+	 */
+	public int[] getFrequencies(int word, int[] buffer) {
+		if (offHeap != null) {
+			return offHeap.getFrequencies(word, buffer);
+		}
+		return (frequencies != null) ? frequencies[word] : null;
+	}
+
+	/**
+	 * Gets the upper bound of the contribution of the word with the given
+	 * index to the cosine similarity of any document: the largest weight of
+	 * the word divided by the norm of its document. A query weight times the
+	 * bound divided by the query norm is never smaller than the part of a
+	 * document's similarity that comes from the word.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The upper bound of the word, or NaN if the posting list has a
+	 *         negative or non-finite weight and no bound can be given.
+	 */
+	public double getUpperBound(int word) {
+		return (offHeap != null) ? offHeap.getUpperBound(word) : upperBounds[word];
+	}
+}
@@ -0,0 +1,180 @@
+package hr.marin.filesearch;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * A histogram of durations in nanoseconds that can be recorded concurrently
+ * without locks.
+ * </p>
+ * <p>
+ * Durations are counted in log-linear buckets: every power-of-two range is
+ * split into {@value #SUB_BUCKETS} equal buckets, so a percentile is known to
+ * within about 6 % of its value while the whole range of a long takes less
+ * than a thousand counters. Recording a duration costs a few atomic
+ * increments and allocates nothing.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class LatencyHistogram {
+	/**
+	 * The number of bits of the value that select a bucket within its
+	 * power-of-two range
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+	/**
+	 * The number of buckets of every power-of-two range
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * The total number of buckets
+	 */
+	private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+	/**
+	 * The number of recorded durations in every bucket
+	 */
+	private AtomicLongArray counts;
+	/**
+	 * The number of recorded durations
+	 */
+	private LongAdder count;
+	/**
+	 * The sum of the recorded durations
+	 */
+	private LongAdder total;
+	/**
+	 * The longest recorded duration
+	 */
+	private LongAccumulator max;
+
+	/**
+	 * Creates a new empty {@link LatencyHistogram}.
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		total = new LongAdder();
+		max = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Records a duration. Negative durations are recorded as 0.
+	 * 
+	 * @param nanos
+	 *            The duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(nanos));
+		count.increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Gets the number of recorded durations.
+	 * 
+	 * @return The number of recorded durations
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+	/**
+	 * Gets the sum of the recorded durations.
+	 * 
+	 * @return The sum of the durations in nanoseconds
+	 */
+	public long totalNanos() {
+		return total.sum();
+	}
+
+	/**
+	 * Gets the longest recorded duration.
+	 * 
+	 * @return The longest duration in nanoseconds, or 0 if nothing was
+	 *         recorded
+	 */
+	public long maxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean of the recorded durations.
+	 * 
+	 * @return The mean duration in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double meanNanos() {
+		long n = count();
+		return (n > 0) ? totalNanos() / (double) n : 0;
+	}
+
+	/**
+	 * Gets the given percentile of the recorded durations, as the highest
+	 * duration of the bucket it falls into.
+	 * 
+	 * @param percentile
+	 *            The percentile, from 0 to 100
+	 * @return The percentile in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			snapshot[bucket] = counts.get(bucket);
+			n += snapshot[bucket];
+		}
+		if (n == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += snapshot[bucket];
+			if (seen >= rank) {
+				return Math.min(highestValue(bucket), maxNanos());
+			}
+		}
+		return maxNanos();
+	}
+
+	/**
+	 * Gets the bucket of the given value.
+	 * 
+	 * @param value
+	 *            The non-negative value
+	 * @return The index of the bucket
+	 */
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Gets the highest value counted in the given bucket.
+	 * 
+	 * @param bucket
+	 *            The index of the bucket
+	 * @return The highest value of the bucket
+	 */
+	private static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + subBucket) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
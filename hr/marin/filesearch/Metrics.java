@@ -0,0 +1,264 @@
+package hr.marin.filesearch;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Process-wide counters and latency histograms of the hot paths of the
+ * document analyzer: visiting the directory structure, reading and tokenizing
+ * the documents, building the total dictionary and the document vectors, and
+ * parsing, scoring and ranking queries.
+ * </p>
+ * <p>
+ * Recording is lock-free and allocates nothing, so the instrumented code can
+ * record every operation. The numbers are shown by the {@link StatsCommand}
+ * and can be exported through JMX with {@link Stats}.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Metrics {
+	/**
+	 * The instrumented stages.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	public enum Stage {
+		/**
+		 * Visiting the directory structure to find the documents
+		 */
+		CRAWL("crawl"),
+		/**
+		 * Reading and tokenizing a single document
+		 */
+		TOKENIZE("tokenize"),
+		/**
+		 * Building or patching the total dictionary
+		 */
+		DICTIONARY("dictionary"),
+		/**
+		 * Building the document vectors and the inverted index
+		 */
+		VECTORS("vectors"),
+		/**
+		 * Tokenizing a query and creating its cache key
+		 */
+		QUERY_PARSE("query parse"),
+		/**
+		 * Scoring the documents against a query and collecting the best ones
+		 */
+		SCORING("scoring"),
+		/**
+		 * Creating the ranked results of a query
+		 */
+		RANKING("ranking"),
+		/**
+		 * Executing a whole query command, including cache hits
+		 */
+		QUERY("query");
+
+		/**
+		 * The name of the stage shown to the user
+		 */
+		private String label;
+
+		/**
+		 * Creates a new stage with the given name.
+		 * 
+		 * @param label
+		 *            The name of the stage shown to the user
+		 */
+		Stage(String label) {
+			this.label = label;
+		}
+
+		/**
+		 * Gets the name of the stage shown to the user.
+		 * 
+		 * @return The name of the stage
+		 */
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	/**
+	 * The metrics of the whole process
+	 */
+	private static final Metrics GLOBAL = new Metrics();
+
+	/**
+	 * The latency histograms of the stages
+	 */
+	private Map<Stage, LatencyHistogram> histograms;
+	/**
+	 * The number of read documents
+	 */
+	private LongAdder documentsIngested;
+	/**
+	 * The number of bytes of the read documents
+	 */
+	private LongAdder bytesIngested;
+	/**
+	 * The wall-clock time spent reading documents, in nanoseconds
+	 */
+	private LongAdder ingestNanos;
+	/**
+	 * The number of postings of the queries' words
+	 */
+	private LongAdder postings;
+	/**
+	 * The number of postings that were actually scored
+	 */
+	private LongAdder scoredPostings;
+
+	/**
+	 * Creates a new {@link Metrics} object with all the numbers at 0.
+	 */
+	public Metrics() {
+		histograms = new EnumMap<>(Stage.class);
+		for (Stage stage : Stage.values()) {
+			histograms.put(stage, new LatencyHistogram());
+		}
+		documentsIngested = new LongAdder();
+		bytesIngested = new LongAdder();
+		ingestNanos = new LongAdder();
+		postings = new LongAdder();
+		scoredPostings = new LongAdder();
+	}
+
+	/**
+	 * Gets the metrics of the whole process.
+	 * 
+	 * @return The process-wide metrics
+	 */
+	public static Metrics global() {
+		return GLOBAL;
+	}
+
+	/**
+	 * Records the duration of a stage.
+	 * 
+	 * @param stage
+	 *            The stage
+	 * @param nanos
+	 *            The duration in nanoseconds
+	 */
+	public void record(Stage stage, long nanos) {
+		histograms.get(stage).record(nanos);
+	}
+
+	/**
+	 * Records the duration of a stage that started at the given time.
+	 * 
+	 * @param stage
+	 *            The stage
+	 * @param startNanos
+	 *            The value of {@link System#nanoTime()} when the stage started
+	 */
+	public void recordSince(Stage stage, long startNanos) {
+		record(stage, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Gets the latency histogram of a stage.
+	 * 
+	 * @param stage
+	 *            The stage
+	 * @return The histogram of the stage
+	 */
+	public LatencyHistogram histogram(Stage stage) {
+		return histograms.get(stage);
+	}
+
+	/**
+	 * Records a batch of read documents.
+	 * 
+	 * @param documents
+	 *            The number of documents
+	 * @param bytes
+	 *            The total size of the documents in bytes
+	 * @param nanos
+	 *            The wall-clock time spent reading the batch, in nanoseconds
+	 */
+	public void recordIngest(int documents, long bytes, long nanos) {
+		documentsIngested.add(documents);
+		bytesIngested.add(bytes);
+		ingestNanos.add(nanos);
+	}
+
+	/**
+	 * Records the postings of a scored query.
+	 * 
+	 * @param postings
+	 *            The number of postings of the query's words
+	 * @param scored
+	 *            The number of those postings that were scored, the rest
+	 *            having been skipped by pruning
+	 */
+	public void recordPostings(long postings, long scored) {
+		this.postings.add(postings);
+		scoredPostings.add(scored);
+	}
+
+	/**
+	 * Gets the number of postings of the queries' words.
+	 * 
+	 * @return The number of postings
+	 */
+	public long getPostings() {
+		return postings.sum();
+	}
+
+	/**
+	 * Gets the number of postings that were actually scored.
+	 * 
+	 * @return The number of scored postings
+	 */
+	public long getScoredPostings() {
+		return scoredPostings.sum();
+	}
+
+	/**
+	 * Gets the share of the postings of the queries' words that were skipped
+	 * by pruning.
+	 * 
+	 * @return The pruning ratio from 0 to 1, or 0 if nothing was scored
+	 */
+	public double getPruningRatio() {
+		long total = getPostings();
+		return (total > 0) ? 1 - getScoredPostings() / (double) total : 0;
+	}
+
+	/**
+	 * Gets the number of read documents.
+	 * 
+	 * @return The number of documents
+	 */
+	public long getDocumentsIngested() {
+		return documentsIngested.sum();
+	}
+
+	/**
+	 * Gets the number of bytes of the read documents.
+	 * 
+	 * @return The number of bytes
+	 */
+	public long getBytesIngested() {
+		return bytesIngested.sum();
+	}
+
+	/**
+	 * Gets the average number of documents read per second of reading.
+	 * 
+	 * @return The number of documents per second, or 0 if nothing was read
+	 */
+	public double getDocumentsPerSecond() {
+		long nanos = ingestNanos.sum();
+		return (nanos > 0) ? getDocumentsIngested() * 1e9 / nanos : 0;
+	}
+}
@@ -0,0 +1,384 @@
+package hr.marin.filesearch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The word occurrences, norms and lengths of the documents of an
+ * {@link Index} kept in direct memory outside the Java heap, the counterpart
+ * of {@link OffHeapPostings} for the other direction of the index.
+ * </p>
+ * <p>
+ * The words of a document are stored contiguously in one buffer: the indices
+ * of the words, the numbers of their occurrences and, if they are kept, the
+ * offsets of the encoded positions of every word followed by the encoded
+ * positions themselves (see {@link DocumentTerms}). A directory with a
+ * fixed-size entry for every document - the buffer, the position, the number
+ * of words and the number of bytes of the positions of its words, its norm and
+ * its length - is kept in a direct buffer as well. Documents are packed into
+ * buffers of up to {@value OffHeapPostings#CHUNK_BYTES} bytes.
+ * </p>
+ * <p>
+ * A {@link DocumentTerms} object of a document kept here holds only the path
+ * and the fingerprint of the document and reads everything else from the
+ * buffers, so scorers can look up the occurrences of a word in a document
+ * without copying or computing anything else.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class OffHeapDocuments {
+	/**
+	 * The number of bytes of an entry of the directory: the buffer, the
+	 * position in bytes, the number of words, the number of bytes of the
+	 * positions or -1, the norm, the length and padding.
+	 */
+	private static final int ENTRY_BYTES = 32;
+	/**
+	 * The positions of a word the document does not contain
+	 */
+	private static final int[] NO_POSITIONS = new int[0];
+
+	/**
+	 * The entries of all the documents, indexed by document id
+	 */
+	private ByteBuffer directory;
+	/**
+	 * The buffers holding the words of the documents
+	 */
+	private ByteBuffer[] chunks;
+	/**
+	 * The int views of the buffers
+	 */
+	private IntBuffer[] ints;
+	/**
+	 * The number of allocated bytes
+	 */
+	private long bytes;
+
+	/**
+	 * Copies the word occurrences, norms and lengths of the given documents.
+	 * 
+	 * @param documents
+	 *            The word occurrences of all the documents, indexed by
+	 *            document id
+	 * @param norms
+	 *            The norms of the vectors of the documents
+	 * @param lengths
+	 *            The lengths of the documents
+	 * @throws IllegalArgumentException
+	 *             If there are too many documents or a document is too long
+	 *             for a buffer
+	 */
+	public OffHeapDocuments(List<DocumentTerms> documents, double[] norms, int[] lengths) {
+		int size = documents.size();
+		if ((long) size * ENTRY_BYTES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many documents for an off-heap index: " + size);
+		}
+
+		directory = ByteBuffer.allocateDirect(size * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+		bytes = directory.capacity();
+		List<Integer> chunkSizes = new ArrayList<>();
+		int chunk = -1;
+		int chunkSize = 0;
+		for (int docId = 0; docId < size; docId++) {
+			DocumentTerms terms = documents.get(docId);
+			byte[] positions = terms.getEncodedPositions();
+			long documentBytes = 8L * terms.size();
+			if (positions != null) {
+				documentBytes += 4L * (terms.size() + 1) + ((positions.length + 3) & ~3);
+			}
+			if (documentBytes > OffHeapPostings.CHUNK_BYTES) {
+				throw new IllegalArgumentException("Document too long for an off-heap index: " + terms.size());
+			}
+			if (chunk == -1 || chunkSize + documentBytes > OffHeapPostings.CHUNK_BYTES) {
+				chunkSizes.add(0);
+				chunk++;
+				chunkSize = 0;
+			}
+			int entry = docId * ENTRY_BYTES;
+			directory.putInt(entry, chunk);
+			directory.putInt(entry + 4, chunkSize);
+			directory.putInt(entry + 8, terms.size());
+			directory.putInt(entry + 12, (positions != null) ? positions.length : -1);
+			directory.putDouble(entry + 16, norms[docId]);
+			directory.putInt(entry + 24, lengths[docId]);
+			chunkSize += (int) documentBytes;
+			chunkSizes.set(chunk, chunkSize);
+		}
+
+		chunks = new ByteBuffer[chunkSizes.size()];
+		ints = new IntBuffer[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect(chunkSizes.get(i)).order(ByteOrder.nativeOrder());
+			ints[i] = chunks[i].asIntBuffer();
+			bytes += chunks[i].capacity();
+		}
+
+		for (int docId = 0; docId < size; docId++) {
+			DocumentTerms terms = documents.get(docId);
+			int entry = docId * ENTRY_BYTES;
+			ByteBuffer buffer = chunks[directory.getInt(entry)];
+			int position = directory.getInt(entry + 4);
+			int n = terms.size();
+			for (int i = 0; i < n; i++) {
+				buffer.putInt(position + 4 * i, terms.termAt(i));
+				buffer.putInt(position + 4 * (n + i), terms.occurencesAt(i));
+			}
+			byte[] positions = terms.getEncodedPositions();
+			if (positions != null) {
+				int offsets = position + 8 * n;
+				int offset = 0;
+				for (int i = 0; i < n; i++) {
+					buffer.putInt(offsets + 4 * i, offset);
+					offset = skipPositions(positions, offset, terms.occurencesAt(i));
+				}
+				buffer.putInt(offsets + 4 * n, offset);
+				buffer.put(offsets + 4 * (n + 1), positions);
+			}
+		}
+	}
+
+	/**
+	 * Skips the encoded positions of a word.
+	 * 
+	 * @param positions
+	 *            The encoded positions of all the words
+	 * @param offset
+	 *            The offset of the first encoded position of the word
+	 * @param count
+	 *            The number of positions of the word
+	 * @return The offset following the positions of the word
+	 */
+	private static int skipPositions(byte[] positions, int offset, int count) {
+		for (int j = 0; j < count; j++) {
+			while (positions[offset] < 0) {
+				offset++;
+			}
+			offset++;
+		}
+		return offset;
+	}
+
+	/**
+	 * Gets the number of documents.
+	 * 
+	 * @return The number of documents
+	 */
+	public int size() {
+		return directory.capacity() / ENTRY_BYTES;
+	}
+
+	/**
+	 * Gets the norm of the vector of a document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @return The norm of the vector of the document
+	 */
+	public double norm(int docId) {
+		return directory.getDouble(docId * ENTRY_BYTES + 16);
+	}
+
+	/**
+	 * Gets the length of a document, the total number of occurrences of its
+	 * words.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @return The length of the document
+	 */
+	public int length(int docId) {
+		return directory.getInt(docId * ENTRY_BYTES + 24);
+	}
+
+	/**
+	 * Gets the number of different words of a document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @return The number of words
+	 */
+	int numberOfTerms(int docId) {
+		return directory.getInt(docId * ENTRY_BYTES + 8);
+	}
+
+	/**
+	 * Gets the index of the word at the given position of a document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @param position
+	 *            The position, from 0 to the number of words - 1
+	 * @return The index of the word in the total dictionary
+	 */
+	int termAt(int docId, int position) {
+		int entry = docId * ENTRY_BYTES;
+		return chunks[directory.getInt(entry)].getInt(directory.getInt(entry + 4) + 4 * position);
+	}
+
+	/**
+	 * Gets the number of occurrences of the word at the given position of a
+	 * document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @param position
+	 *            The position, from 0 to the number of words - 1
+	 * @return The number of occurrences of the word
+	 */
+	int occurencesAt(int docId, int position) {
+		int entry = docId * ENTRY_BYTES;
+		int n = directory.getInt(entry + 8);
+		return chunks[directory.getInt(entry)].getInt(directory.getInt(entry + 4) + 4 * (n + position));
+	}
+
+	/**
+	 * Finds the position of a word in a document by binary search.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @param term
+	 *            The index of the word in the total dictionary
+	 * @return The position of the word, or a negative number if the document
+	 *         does not contain it
+	 */
+	int find(int docId, int term) {
+		int entry = docId * ENTRY_BYTES;
+		ByteBuffer buffer = chunks[directory.getInt(entry)];
+		int position = directory.getInt(entry + 4);
+		int low = 0;
+		int high = directory.getInt(entry + 8) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int value = buffer.getInt(position + 4 * middle);
+			if (value < term) {
+				low = middle + 1;
+			} else if (value > term) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of occurrences of a word in a document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @param term
+	 *            The index of the word in the total dictionary
+	 * @return The number of occurrences of the word, or 0 if the document
+	 *         does not contain it
+	 */
+	int occurences(int docId, int term) {
+		int position = find(docId, term);
+		return (position >= 0) ? occurencesAt(docId, position) : 0;
+	}
+
+	/**
+	 * Copies the indices and the numbers of occurrences of the words of a
+	 * document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @param terms
+	 *            The array the indices of the words are copied into
+	 * @param occurences
+	 *            The array the numbers of occurrences are copied into
+	 */
+	void copyTerms(int docId, int[] terms, int[] occurences) {
+		int entry = docId * ENTRY_BYTES;
+		IntBuffer buffer = ints[directory.getInt(entry)];
+		int index = directory.getInt(entry + 4) / 4;
+		int n = directory.getInt(entry + 8);
+		buffer.get(index, terms, 0, n);
+		buffer.get(index + n, occurences, 0, n);
+	}
+
+	/**
+	 * Checks whether the positions of the words of a document are kept.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @return True if the positions of the words are known
+	 */
+	boolean hasPositions(int docId) {
+		return directory.getInt(docId * ENTRY_BYTES + 12) >= 0;
+	}
+
+	/**
+	 * Decodes the positions of a word in a document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @param term
+	 *            The index of the word in the total dictionary
+	 * @return The ascending positions of the word, or an empty array if the
+	 *         document does not contain it or the positions are not kept
+	 */
+	int[] positions(int docId, int term) {
+		int position = find(docId, term);
+		if (position < 0 || !hasPositions(docId)) {
+			return NO_POSITIONS;
+		}
+
+		int entry = docId * ENTRY_BYTES;
+		ByteBuffer buffer = chunks[directory.getInt(entry)];
+		int n = directory.getInt(entry + 8);
+		int offsets = directory.getInt(entry + 4) + 8 * n;
+		int offset = offsets + 4 * (n + 1) + buffer.getInt(offsets + 4 * position);
+		int[] decoded = new int[occurencesAt(docId, position)];
+		int previous = 0;
+		for (int i = 0; i < decoded.length; i++) {
+			int delta = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buffer.get(offset++);
+				delta |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+			previous += delta;
+			decoded[i] = previous;
+		}
+		return decoded;
+	}
+
+	/**
+	 * Copies the encoded positions of all the words of a document.
+	 * 
+	 * @param docId
+	 *            The id of the document
+	 * @return A new array with the encoded positions, or null if they are not
+	 *         kept
+	 */
+	byte[] encodedPositions(int docId) {
+		int entry = docId * ENTRY_BYTES;
+		int length = directory.getInt(entry + 12);
+		if (length < 0) {
+			return null;
+		}
+		int n = directory.getInt(entry + 8);
+		byte[] positions = new byte[length];
+		chunks[directory.getInt(entry)].get(directory.getInt(entry + 4) + 12 * n + 4, positions);
+		return positions;
+	}
+
+	/**
+	 * Gets the number of bytes of direct memory taken by the documents and
+	 * the directory.
+	 * 
+	 * @return The allocated off-heap bytes
+	 */
+	public long offHeapBytes() {
+		return bytes;
+	}
+}
@@ -0,0 +1,680 @@
+package hr.marin.filesearch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * The posting lists of an {@link InvertedIndex} kept in direct memory outside
+ * the Java heap. All the lists are packed into a few large buffers, so the
+ * garbage collector sees a handful of small objects however many words and
+ * postings the index has, and never copies or scans the postings themselves.
+ * </p>
+ * <p>
+ * The list of a word is stored contiguously in one buffer: the weights,
+ * followed by the document ids and the numbers of occurrences, if they are
+ * kept. A directory with a fixed-size entry for every word - the buffer, the
+ * position and the length of its list and its upper bound - is kept in a
+ * direct buffer as well. Lists are packed into buffers of up to
+ * {@value #CHUNK_BYTES} bytes, since a buffer is indexed by an int; a longer
+ * list gets a buffer of its own.
+ * </p>
+ * <p>
+ * The lists may also be compressed (see {@link CompressedPostings}): the
+ * document ids and the numbers of occurrences are bit-packed in blocks of
+ * {@value CompressedPostings#BLOCK_SIZE} postings and the weights are
+ * computed from the numbers of occurrences, so the directory entry of a word
+ * also keeps how the weights of its list are stored.
+ * </p>
+ * <p>
+ * The lists are read with absolute bulk copies, either into new arrays, which
+ * are short-lived and die young, or into arrays the caller reuses for all the
+ * words of a query. Compressed blocks are decoded through a scratch array
+ * kept by every thread. The lists can also be read block by block, so a
+ * {@link PostingCursor} reads only the blocks it needs.
+ * </p>
+ * <p>
+ * The memory is released when the object becomes unreachable and is
+ * collected, so the limit of the direct memory
+ * (<code>-XX:MaxDirectMemorySize</code>, by default the size of the heap) must
+ * leave room for the postings of two indices while one replaces the other.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class OffHeapPostings {
+	/**
+	 * The largest number of bytes of a buffer holding several lists.
+	 */
+	static final int CHUNK_BYTES = 1 << 30;
+	/**
+	 * The number of bytes of an entry of the directory: the buffer, the
+	 * position in bytes, the length, the format of the weights of a
+	 * compressed list and the upper bound.
+	 */
+	private static final int ENTRY_BYTES = 24;
+	/**
+	 * An empty posting list.
+	 */
+	private static final int[] NO_DOCUMENTS = new int[0];
+	/**
+	 * Weights of an empty posting list.
+	 */
+	private static final double[] NO_WEIGHTS = new double[0];
+	/**
+	 * The array every thread decodes compressed blocks of whole lists with
+	 */
+	private static final ThreadLocal<int[]> SCRATCH = ThreadLocal
+			.withInitial(() -> new int[CompressedPostings.SCRATCH_INTS]);
+
+	/**
+	 * The entries of all the words, indexed by the index of the word
+	 */
+	private ByteBuffer directory;
+	/**
+	 * The buffers holding the lists
+	 */
+	private ByteBuffer[] chunks;
+	/**
+	 * The int views of the buffers
+	 */
+	private IntBuffer[] ints;
+	/**
+	 * The double views of the buffers
+	 */
+	private DoubleBuffer[] doubles;
+	/**
+	 * The number of words
+	 */
+	private int numberOfWords;
+	/**
+	 * Whether the numbers of occurrences are kept
+	 */
+	private boolean frequencies;
+	/**
+	 * Whether the lists are compressed
+	 */
+	private boolean compressed;
+	/**
+	 * The number of allocated bytes
+	 */
+	private long bytes;
+
+	/**
+	 * Creates the posting lists of the given document vectors. The vectors are
+	 * read twice, once to count the postings of every word and once to write
+	 * them, so they may be computed on demand.
+	 * 
+	 * @param vectors
+	 *            The vectors of all the documents. The position of a vector in
+	 *            the list is used as the id of its document.
+	 * @param occurences
+	 *            The word occurrences of the documents, parallel to the
+	 *            vectors, or null if the numbers of occurrences should not be
+	 *            kept.
+	 * @param norms
+	 *            The norms of the vectors, indexed by document id.
+	 * @param numberOfWords
+	 *            The number of words in the total dictionary (the dimension of
+	 *            the vectors).
+	 * @throws IllegalArgumentException
+	 *             If there are too many words or a list is too long for a
+	 *             buffer
+	 */
+	public OffHeapPostings(List<DocumentVector> vectors, List<DocumentTerms> occurences, double[] norms,
+			int numberOfWords) {
+		if ((long) numberOfWords * ENTRY_BYTES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many words for an off-heap index: " + numberOfWords);
+		}
+		this.numberOfWords = numberOfWords;
+		this.frequencies = occurences != null;
+
+		int[] lengths = new int[numberOfWords];
+		for (DocumentVector vector : vectors) {
+			for (int i = 0, n = vector.nonZeroCount(); i < n; i++) {
+				lengths[vector.indexAt(i)]++;
+			}
+		}
+		allocateLists(lengths);
+
+		int[] filled = new int[numberOfWords];
+		int docId = 0;
+		for (DocumentVector vector : vectors) {
+			for (int i = 0, n = vector.nonZeroCount(); i < n; i++) {
+				int word = vector.indexAt(i);
+				put(word, filled[word]++, docId, vector.valueAt(i),
+						frequencies ? InvertedIndex.occurencesOf(occurences.get(docId), i, word) : 0);
+			}
+			docId++;
+		}
+		putUpperBounds(norms);
+	}
+
+	/**
+	 * Creates the posting lists of the given word occurrences, with the
+	 * numbers of occurrences of the words times their inverse document
+	 * frequencies as the weights, which are the weights of the vectors of the
+	 * documents.
+	 * 
+	 * @param documents
+	 *            The word occurrences of all the documents. The position of
+	 *            the occurrences in the list is used as the id of their
+	 *            document.
+	 * @param norms
+	 *            The norms of the vectors of the documents, indexed by
+	 *            document id.
+	 * @param dictionary
+	 *            The dictionary whose indices and inverse document frequencies
+	 *            are used
+	 * @throws IllegalArgumentException
+	 *             If there are too many words or a list is too long for a
+	 *             buffer
+	 */
+	public OffHeapPostings(List<DocumentTerms> documents, double[] norms, TotalDictionary dictionary) {
+		this.numberOfWords = dictionary.size();
+		if ((long) numberOfWords * ENTRY_BYTES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many words for an off-heap index: " + numberOfWords);
+		}
+		this.frequencies = true;
+
+		int[] lengths = new int[numberOfWords];
+		for (DocumentTerms terms : documents) {
+			for (int i = 0, n = terms.size(); i < n; i++) {
+				lengths[terms.termAt(i)]++;
+			}
+		}
+		allocateLists(lengths);
+
+		int[] filled = new int[numberOfWords];
+		int docId = 0;
+		for (DocumentTerms terms : documents) {
+			for (int i = 0, n = terms.size(); i < n; i++) {
+				int word = terms.termAt(i);
+				int occurences = terms.occurencesAt(i);
+				put(word, filled[word]++, docId, occurences * dictionary.idf(word), occurences);
+			}
+			docId++;
+		}
+		putUpperBounds(norms);
+	}
+
+	/**
+	 * Allocates plain lists of the given lengths and writes the lengths to
+	 * the directory.
+	 * 
+	 * @param lengths
+	 *            The number of postings of every word
+	 * @throws IllegalArgumentException
+	 *             If a list is too long for a buffer
+	 */
+	private void allocateLists(int[] lengths) {
+		long[] sizes = new long[numberOfWords];
+		for (int word = 0; word < numberOfWords; word++) {
+			sizes[word] = listBytes(lengths[word]);
+			if (sizes[word] > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Posting list too long for an off-heap index: " + lengths[word]);
+			}
+		}
+		allocate(sizes);
+		for (int word = 0; word < numberOfWords; word++) {
+			directory.putInt(word * ENTRY_BYTES + 8, lengths[word]);
+		}
+	}
+
+	/**
+	 * Writes a posting to a plain list.
+	 * 
+	 * @param word
+	 *            The index of the word of the list
+	 * @param j
+	 *            The position of the posting in the list
+	 * @param docId
+	 *            The id of the document
+	 * @param weight
+	 *            The weight of the word in the document
+	 * @param occurences
+	 *            The number of occurrences of the word in the document, written
+	 *            only if the numbers of occurrences are kept
+	 */
+	private void put(int word, int j, int docId, double weight, int occurences) {
+		int entry = word * ENTRY_BYTES;
+		ByteBuffer list = chunks[directory.getInt(entry)];
+		int position = directory.getInt(entry + 4);
+		int length = directory.getInt(entry + 8);
+		list.putDouble(position + 8 * j, weight);
+		list.putInt(position + 8 * length + 4 * j, docId);
+		if (frequencies) {
+			list.putInt(position + 12 * length + 4 * j, occurences);
+		}
+	}
+
+	/**
+	 * Computes the upper bounds of all the plain lists and writes them to the
+	 * directory.
+	 * 
+	 * @param norms
+	 *            The norms of the vectors of the documents, indexed by
+	 *            document id
+	 */
+	private void putUpperBounds(double[] norms) {
+		for (int word = 0; word < numberOfWords; word++) {
+			directory.putDouble(word * ENTRY_BYTES + 16,
+					InvertedIndex.upperBound(getDocuments(word), getWeights(word), norms));
+		}
+	}
+
+	/**
+	 * Creates a compressed copy of the given posting lists. The weights of a
+	 * list are computed from its numbers of occurrences whenever that gives
+	 * exactly the same weights; the weights of the other lists are kept as
+	 * they are or quantized. The upper bound of a quantized list is computed
+	 * again from the weights it keeps, since rounding them may make them
+	 * slightly larger.
+	 * 
+	 * @param lists
+	 *            The posting lists that are compressed
+	 * @param norms
+	 *            The norms of the vectors of the documents, indexed by
+	 *            document id
+	 * @param dictionary
+	 *            The dictionary whose inverse document frequencies the
+	 *            weights were computed with, or null if they are not known
+	 * @param quantized
+	 *            Whether the weights that cannot be computed are quantized to
+	 *            16 bits, which changes them slightly
+	 * @throws IllegalArgumentException
+	 *             If a compressed list is too long for a buffer
+	 */
+	public OffHeapPostings(OffHeapPostings lists, double[] norms, TotalDictionary dictionary, boolean quantized) {
+		this.numberOfWords = lists.numberOfWords;
+		this.frequencies = lists.frequencies;
+		this.compressed = true;
+
+		int maxLength = 0;
+		for (int word = 0; word < numberOfWords; word++) {
+			maxLength = Math.max(maxLength, lists.length(word));
+		}
+		int[] documents = new int[maxLength];
+		double[] weights = new double[maxLength];
+		int[] occurences = frequencies ? new int[maxLength] : null;
+		int[] formats = new int[numberOfWords];
+		long[] sizes = new long[numberOfWords];
+		for (int word = 0; word < numberOfWords; word++) {
+			int length = lists.read(word, documents, weights, occurences);
+			double idf = (dictionary != null) ? dictionary.idf(word) : Double.NaN;
+			formats[word] = CompressedPostings.weightFormat(weights, occurences, length, idf, quantized);
+			sizes[word] = CompressedPostings.listBytes(documents, occurences, length, formats[word]);
+			if (sizes[word] > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException("Posting list too long for an off-heap index: " + length);
+			}
+		}
+		allocate(sizes);
+
+		int[] scratch = new int[CompressedPostings.SCRATCH_INTS];
+		for (int word = 0; word < numberOfWords; word++) {
+			int length = lists.read(word, documents, weights, occurences);
+			int entry = word * ENTRY_BYTES;
+			int chunk = directory.getInt(entry);
+			directory.putInt(entry + 8, length);
+			directory.putInt(entry + 12, formats[word]);
+			directory.putDouble(entry + 16, lists.getUpperBound(word));
+			CompressedPostings.write(chunks[chunk], ints[chunk], doubles[chunk], directory.getInt(entry + 4),
+					documents, weights, occurences, length, formats[word],
+					(dictionary != null) ? dictionary.idf(word) : Double.NaN, scratch);
+			if (formats[word] == CompressedPostings.QUANTIZED_WEIGHTS) {
+				directory.putDouble(entry + 16, InvertedIndex.upperBound(getDocuments(word), getWeights(word), norms));
+			}
+		}
+	}
+
+	/**
+	 * Allocates the directory and the buffers for lists of the given sizes
+	 * and writes the buffer and the position of every list to the directory.
+	 * 
+	 * @param sizes
+	 *            The number of bytes of the list of every word, a multiple of
+	 *            8
+	 */
+	private void allocate(long[] sizes) {
+		directory = ByteBuffer.allocateDirect(numberOfWords * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+		bytes = directory.capacity();
+		List<Integer> chunkSizes = new ArrayList<>();
+		int chunk = -1;
+		int chunkSize = 0;
+		for (int word = 0; word < numberOfWords; word++) {
+			if (chunk == -1 || chunkSize + sizes[word] > CHUNK_BYTES) {
+				chunkSizes.add(0);
+				chunk++;
+				chunkSize = 0;
+			}
+			int entry = word * ENTRY_BYTES;
+			directory.putInt(entry, chunk);
+			directory.putInt(entry + 4, chunkSize);
+			chunkSize += (int) sizes[word];
+			chunkSizes.set(chunk, chunkSize);
+		}
+
+		chunks = new ByteBuffer[chunkSizes.size()];
+		ints = new IntBuffer[chunks.length];
+		doubles = new DoubleBuffer[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect(chunkSizes.get(i)).order(ByteOrder.nativeOrder());
+			ints[i] = chunks[i].asIntBuffer();
+			doubles[i] = chunks[i].asDoubleBuffer();
+			bytes += chunks[i].capacity();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes a list with the given number of postings takes,
+	 * rounded up to a multiple of 8, so the weights of every list are aligned.
+	 * 
+	 * @param length
+	 *            The number of postings
+	 * @return The number of bytes of the list
+	 */
+	private long listBytes(int length) {
+		long listBytes = (frequencies ? 16L : 12L) * length;
+		return (listBytes + 7) & ~7L;
+	}
+
+	/**
+	 * Gets the number of words the lists were built for.
+	 * 
+	 * @return The number of words.
+	 */
+	public int numberOfWords() {
+		return numberOfWords;
+	}
+
+	/**
+	 * Checks whether the numbers of occurrences of the words are kept.
+	 * 
+	 * @return True if the lists keep the occurrence counts.
+	 */
+	public boolean hasFrequencies() {
+		return frequencies;
+	}
+
+	/**
+	 * Checks whether the lists are compressed.
+	 * 
+	 * @return True if the lists are kept in the format of
+	 *         {@link CompressedPostings}.
+	 */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	/**
+	 * Gets the number of postings of the word with the given index.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The length of the posting list of the word.
+	 */
+	public int length(int word) {
+		return directory.getInt(word * ENTRY_BYTES + 8);
+	}
+
+	/**
+	 * Copies the ids of all the documents containing the word with the given
+	 * index, in ascending order.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return A new array with the document ids of the posting list.
+	 */
+	public int[] getDocuments(int word) {
+		return getDocuments(word, NO_DOCUMENTS);
+	}
+
+	/**
+	 * Copies the ids of all the documents containing the word with the given
+	 * index into the given array, if it is long enough, or into a new array.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param buffer
+	 *            The array to copy the ids into, or null
+	 * @return The array holding the document ids in its first
+	 *         {@link #length(int)} elements.
+	 */
+	public int[] getDocuments(int word, int[] buffer) {
+		int entry = word * ENTRY_BYTES;
+		int length = directory.getInt(entry + 8);
+		int[] documents = reuse(buffer, length);
+		read(word, documents, null, null);
+		return documents;
+	}
+
+	/**
+	 * Copies the weights of the word with the given index in all the
+	 * documents containing it, parallel to {@link #getDocuments(int)}.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return A new array with the weights of the posting list.
+	 */
+	public double[] getWeights(int word) {
+		return getWeights(word, NO_WEIGHTS);
+	}
+
+	/**
+	 * Copies the weights of the word with the given index into the given
+	 * array, if it is long enough, or into a new array.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param buffer
+	 *            The array to copy the weights into, or null
+	 * @return The array holding the weights in its first {@link #length(int)}
+	 *         elements.
+	 */
+	public double[] getWeights(int word, double[] buffer) {
+		int entry = word * ENTRY_BYTES;
+		int length = directory.getInt(entry + 8);
+		double[] weights = (buffer != null && buffer.length >= length) ? buffer : new double[length];
+		read(word, null, weights, null);
+		return weights;
+	}
+
+	/**
+	 * Copies the numbers of occurrences of the word with the given index in
+	 * all the documents containing it, parallel to {@link #getDocuments(int)}.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return A new array with the occurrence counts of the posting list, or
+	 *         null if they are not kept.
+	 */
+	public int[] getFrequencies(int word) {
+		return getFrequencies(word, NO_DOCUMENTS);
+	}
+
+	/**
+	 * Copies the numbers of occurrences of the word with the given index into
+	 * the given array, if it is long enough, or into a new array.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param buffer
+	 *            The array to copy the occurrence counts into, or null
+	 * @return The array holding the occurrence counts in its first
+	 *         {@link #length(int)} elements, or null if they are not kept.
+	 */
+	public int[] getFrequencies(int word, int[] buffer) {
+		if (!frequencies) {
+			return null;
+		}
+		int entry = word * ENTRY_BYTES;
+		int length = directory.getInt(entry + 8);
+		int[] occurences = reuse(buffer, length);
+		read(word, null, null, occurences);
+		return occurences;
+	}
+
+	/**
+	 * Reads the whole posting list of a word into the given arrays. The parts
+	 * of the postings that are not needed are given as null arrays.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param documents
+	 *            The array the document ids are copied into, or null
+	 * @param weights
+	 *            The array the weights are copied into, or null
+	 * @param occurences
+	 *            The array the occurrence counts are copied into, or null;
+	 *            ignored if they are not kept
+	 * @return The length of the posting list.
+	 */
+	private int read(int word, int[] documents, double[] weights, int[] occurences) {
+		int entry = word * ENTRY_BYTES;
+		int chunk = directory.getInt(entry);
+		int position = directory.getInt(entry + 4);
+		int length = directory.getInt(entry + 8);
+		if (compressed) {
+			int[] scratch = SCRATCH.get();
+			for (int block = 0, blocks = CompressedPostings.blocks(length); block < blocks; block++) {
+				CompressedPostings.readBlock(chunks[chunk], ints[chunk], doubles[chunk], position, length,
+						directory.getInt(entry + 12), frequencies, block, documents, weights, occurences,
+						block * CompressedPostings.BLOCK_SIZE, scratch);
+			}
+			return length;
+		}
+
+		if (documents != null) {
+			ints[chunk].get((position + 8 * length) / 4, documents, 0, length);
+		}
+		if (weights != null) {
+			doubles[chunk].get(position / 8, weights, 0, length);
+		}
+		if (occurences != null && frequencies) {
+			ints[chunk].get((position + 12 * length) / 4, occurences, 0, length);
+		}
+		return length;
+	}
+
+	/**
+	 * Gets the number of blocks of {@value CompressedPostings#BLOCK_SIZE}
+	 * postings of the list of a word. The lists that are not compressed are
+	 * split into blocks of the same size.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The number of blocks of the posting list.
+	 */
+	int blocks(int word) {
+		return CompressedPostings.blocks(length(word));
+	}
+
+	/**
+	 * Gets the id of the last document of a block of the list of a word,
+	 * without reading the block.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param block
+	 *            The number of the block
+	 * @return The document id of the last posting of the block.
+	 */
+	int lastDocument(int word, int block) {
+		int entry = word * ENTRY_BYTES;
+		ByteBuffer chunk = chunks[directory.getInt(entry)];
+		int position = directory.getInt(entry + 4);
+		if (compressed) {
+			return CompressedPostings.lastDocument(chunk, position, block);
+		}
+		int length = directory.getInt(entry + 8);
+		int last = Math.min(length, (block + 1) * CompressedPostings.BLOCK_SIZE) - 1;
+		return chunk.getInt(position + 8 * length + 4 * last);
+	}
+
+	/**
+	 * Reads a block of the list of a word into the first elements of the given
+	 * arrays. The parts of the postings that are not needed are given as null
+	 * arrays.
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @param block
+	 *            The number of the block
+	 * @param documents
+	 *            The array the document ids are copied into, or null
+	 * @param weights
+	 *            The array the weights are copied into, or null
+	 * @param occurences
+	 *            The array the occurrence counts are copied into, or null;
+	 *            ignored if they are not kept
+	 * @param scratch
+	 *            An array of at least {@link CompressedPostings#SCRATCH_INTS}
+	 *            ints used to decode a compressed block
+	 * @return The number of postings of the block.
+	 */
+	int readBlock(int word, int block, int[] documents, double[] weights, int[] occurences, int[] scratch) {
+		int entry = word * ENTRY_BYTES;
+		int chunk = directory.getInt(entry);
+		int position = directory.getInt(entry + 4);
+		int length = directory.getInt(entry + 8);
+		if (compressed) {
+			return CompressedPostings.readBlock(chunks[chunk], ints[chunk], doubles[chunk], position, length,
+					directory.getInt(entry + 12), frequencies, block, documents, weights, occurences, 0, scratch);
+		}
+
+		int from = block * CompressedPostings.BLOCK_SIZE;
+		int count = Math.min(CompressedPostings.BLOCK_SIZE, length - from);
+		if (documents != null) {
+			ints[chunk].get((position + 8 * length) / 4 + from, documents, 0, count);
+		}
+		if (weights != null) {
+			doubles[chunk].get(position / 8 + from, weights, 0, count);
+		}
+		if (occurences != null && frequencies) {
+			ints[chunk].get((position + 12 * length) / 4 + from, occurences, 0, count);
+		}
+		return count;
+	}
+
+	/**
+	 * Gets the given array if it has room for the given number of elements, or
+	 * a new array of exactly that length.
+	 * 
+	 * @param buffer
+	 *            The array to reuse, or null
+	 * @param length
+	 *            The number of elements
+	 * @return The array to copy the elements into
+	 */
+	private static int[] reuse(int[] buffer, int length) {
+		return (buffer != null && buffer.length >= length) ? buffer : new int[length];
+	}
+
+	/**
+	 * Gets the upper bound of the contribution of the word with the given
+	 * index to the cosine similarity of any document (see
+	 * {@link InvertedIndex#getUpperBound(int)}).
+	 * 
+	 * @param word
+	 *            The index of the word in the total dictionary.
+	 * @return The upper bound of the word, or NaN if no bound can be given.
+	 */
+	public double getUpperBound(int word) {
+		return directory.getDouble(word * ENTRY_BYTES + 16);
+	}
+
+	/**
+	 * Gets the number of bytes of direct memory taken by the lists and the
+	 * directory.
+	 * 
+	 * @return The allocated off-heap bytes
+	 */
+	public long offHeapBytes() {
+		return bytes;
+	}
+}
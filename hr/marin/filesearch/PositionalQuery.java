@@ -0,0 +1,488 @@
+package hr.marin.filesearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * A query with phrase and proximity constraints. A phrase is written in
+ * double quotes (<code>"narodne novine"</code>) and matches the documents
+ * containing its words one right after another. A proximity constraint is
+ * written as <code>zagreb NEAR/3 grad</code> and matches the documents in
+ * which the two words are at most the given number of positions apart, in any
+ * order. The operands of NEAR are the single words right before and after it.
+ * </p>
+ * <p>
+ * All the words of the query, inside and outside of the constraints, are
+ * scored as usual; the constraints only decide which documents may be
+ * returned. They are evaluated on the word positions kept by an index built
+ * with positions: the posting lists of the constrained words are intersected
+ * with galloping search, skipping the blocks of the lists kept off the heap
+ * that cannot contain a match, and only the positions of the remaining
+ * documents are decoded. No document is read at query time.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class PositionalQuery {
+	/**
+	 * The proximity operator and its distance
+	 */
+	private static final Pattern NEAR = Pattern.compile("\\bNEAR/(\\d+)\\b");
+
+	/**
+	 * A single phrase or proximity constraint.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class Constraint {
+		/**
+		 * The words of the constraint
+		 */
+		final String[] words;
+		/**
+		 * The positions of the words within a phrase, or null for a proximity
+		 * constraint
+		 */
+		final int[] offsets;
+		/**
+		 * The largest distance of the words of a proximity constraint
+		 */
+		final int distance;
+
+		/**
+		 * Creates a new {@link Constraint}.
+		 * 
+		 * @param words
+		 *            The words of the constraint
+		 * @param offsets
+		 *            The positions of the words within a phrase, or null for a
+		 *            proximity constraint
+		 * @param distance
+		 *            The largest distance of the words of a proximity
+		 *            constraint
+		 */
+		Constraint(String[] words, int[] offsets, int distance) {
+			this.words = words;
+			this.offsets = offsets;
+			this.distance = distance;
+		}
+
+		@Override
+		public String toString() {
+			if (offsets == null) {
+				return words[0] + " NEAR/" + distance + " " + words[1];
+			}
+			StringBuilder string = new StringBuilder("\"");
+			for (int i = 0; i < words.length; i++) {
+				string.append((i > 0) ? " " : "").append(words[i]).append('@').append(offsets[i] - offsets[0]);
+			}
+			return string.append('"').toString();
+		}
+	}
+
+	/**
+	 * The text of all the scored words of the query, without the quotes and
+	 * operators
+	 */
+	private String text;
+	/**
+	 * The constraints of the query
+	 */
+	private List<Constraint> constraints;
+
+	/**
+	 * Creates a new {@link PositionalQuery} object.
+	 * 
+	 * @param text
+	 *            The text of the scored words
+	 * @param constraints
+	 *            The constraints of the query
+	 */
+	private PositionalQuery(String text, List<Constraint> constraints) {
+		this.text = text;
+		this.constraints = constraints;
+	}
+
+	/**
+	 * Parses the given query. Phrases are tokenized like the documents, so a
+	 * stop word inside a phrase is not scored, but still has to be between
+	 * its neighbours in a matching document. A phrase or an operand that
+	 * consists of stop words only is ignored.
+	 * 
+	 * @param query
+	 *            The text of the query
+	 * @param stopWords
+	 *            The stop words
+	 * @return The parsed query
+	 */
+	public static PositionalQuery parse(String query, Set<String> stopWords) {
+		StringBuilder text = new StringBuilder(query.length());
+		List<Constraint> constraints = new ArrayList<>();
+
+		int start = 0;
+		while (start < query.length()) {
+			int open = query.indexOf('"', start);
+			if (open < 0) {
+				parsePlain(query.substring(start), stopWords, text, constraints);
+				break;
+			}
+			parsePlain(query.substring(start, open), stopWords, text, constraints);
+
+			int close = query.indexOf('"', open + 1);
+			if (close < 0) {
+				close = query.length();
+			}
+			String phrase = query.substring(open + 1, close);
+			text.append(' ').append(phrase).append(' ');
+			String[] words = tokens(phrase, stopWords);
+			int count = 0;
+			for (String word : words) {
+				count += (word != null) ? 1 : 0;
+			}
+			if (count >= 2) {
+				String[] phraseWords = new String[count];
+				int[] offsets = new int[count];
+				count = 0;
+				for (int position = 0; position < words.length; position++) {
+					if (words[position] != null) {
+						phraseWords[count] = words[position];
+						offsets[count++] = position;
+					}
+				}
+				constraints.add(new Constraint(phraseWords, offsets, 0));
+			}
+			start = close + 1;
+		}
+
+		return new PositionalQuery(text.toString(), constraints);
+	}
+
+	/**
+	 * Parses a part of the query outside of quotes, which may contain
+	 * proximity operators.
+	 * 
+	 * @param part
+	 *            The part of the query
+	 * @param stopWords
+	 *            The stop words
+	 * @param text
+	 *            The text of the scored words the words of the part are
+	 *            appended to
+	 * @param constraints
+	 *            The constraints the proximity constraints are added to
+	 */
+	private static void parsePlain(String part, Set<String> stopWords, StringBuilder text,
+			List<Constraint> constraints) {
+		Matcher matcher = NEAR.matcher(part);
+		List<String> pieces = new ArrayList<>();
+		List<Integer> distances = new ArrayList<>();
+		int start = 0;
+		while (matcher.find()) {
+			pieces.add(part.substring(start, matcher.start()));
+			distances.add(parseDistance(matcher.group(1)));
+			start = matcher.end();
+		}
+		pieces.add(part.substring(start));
+
+		for (String piece : pieces) {
+			text.append(' ').append(piece).append(' ');
+		}
+		for (int i = 0; i < distances.size(); i++) {
+			String[] left = tokens(pieces.get(i), stopWords);
+			String[] right = tokens(pieces.get(i + 1), stopWords);
+			String leftWord = null;
+			for (int position = left.length - 1; position >= 0 && leftWord == null; position--) {
+				leftWord = left[position];
+			}
+			String rightWord = null;
+			for (int position = 0; position < right.length && rightWord == null; position++) {
+				rightWord = right[position];
+			}
+			if (leftWord != null && rightWord != null) {
+				constraints.add(new Constraint(new String[] { leftWord, rightWord }, null, distances.get(i)));
+			}
+		}
+	}
+
+	/**
+	 * Parses the distance of a proximity operator.
+	 * 
+	 * @param digits
+	 *            The digits of the distance
+	 * @return The distance, or {@link Integer#MAX_VALUE} if it is too large
+	 */
+	private static int parseDistance(String digits) {
+		try {
+			return Integer.parseInt(digits);
+		} catch (NumberFormatException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Tokenizes a part of the query like a document.
+	 * 
+	 * @param part
+	 *            The part of the query
+	 * @param stopWords
+	 *            The stop words
+	 * @return The words of the part indexed by their positions, with null at
+	 *         the positions of the stop words
+	 */
+	private static String[] tokens(String part, Set<String> stopWords) {
+		DocumentDictionary dictionary = DocumentDictionary.fromString(part, stopWords, true);
+		int length = 0;
+		for (int slot = 0, capacity = dictionary.capacity(); slot < capacity; slot++) {
+			int[] positions = dictionary.positionsAt(slot);
+			if (positions != null) {
+				length = Math.max(length, positions[positions.length - 1] + 1);
+			}
+		}
+
+		String[] words = new String[length];
+		for (int slot = 0, capacity = dictionary.capacity(); slot < capacity; slot++) {
+			int[] positions = dictionary.positionsAt(slot);
+			if (positions != null) {
+				for (int position : positions) {
+					words[position] = dictionary.wordAt(slot);
+				}
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Gets the text of all the scored words of the query, without the quotes
+	 * and operators.
+	 * 
+	 * @return The text of the scored words
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Checks whether the query has any phrase or proximity constraint.
+	 * 
+	 * @return True if the query has constraints
+	 */
+	public boolean hasConstraints() {
+		return !constraints.isEmpty();
+	}
+
+	/**
+	 * Gets a canonical description of the constraints, which tells apart
+	 * queries with the same words but different constraints.
+	 * 
+	 * @return The description of the constraints, or an empty string if there
+	 *         are none
+	 */
+	public String constraintKey() {
+		StringBuilder key = new StringBuilder();
+		for (Constraint constraint : constraints) {
+			key.append(" | ").append(constraint);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Finds the documents of the given index that satisfy all the constraints.
+	 * 
+	 * @param index
+	 *            The index, which must keep the positions of the words
+	 * @return The ascending ids of the matching documents
+	 * @throws IllegalArgumentException
+	 *             If the index does not keep the positions of the words
+	 */
+	public int[] matches(Index index) {
+		if (!index.hasPositions()) {
+			throw new IllegalArgumentException("The index has no word positions.");
+		}
+
+		TotalDictionary dictionary = index.getTotalDictionary();
+		int[][] terms = new int[constraints.size()][];
+		int[] distinct = new int[0];
+		for (int i = 0; i < terms.length; i++) {
+			String[] words = constraints.get(i).words;
+			terms[i] = new int[words.length];
+			for (int j = 0; j < words.length; j++) {
+				terms[i][j] = dictionary.indexOf(words[j]);
+				if (terms[i][j] == -1) {
+					return new int[0];
+				}
+			}
+			distinct = union(distinct, terms[i]);
+		}
+
+		int[] candidates = intersect(index.getInvertedIndex(), distinct);
+		List<DocumentTerms> documents = index.getDocuments();
+		int count = 0;
+		for (int docId : candidates) {
+			boolean matches = true;
+			for (int i = 0; i < terms.length && matches; i++) {
+				matches = satisfies(constraints.get(i), terms[i], documents.get(docId));
+			}
+			if (matches) {
+				candidates[count++] = docId;
+			}
+		}
+		return Arrays.copyOf(candidates, count);
+	}
+
+	/**
+	 * Adds the given terms to a sorted set of distinct terms.
+	 * 
+	 * @param distinct
+	 *            The sorted distinct terms
+	 * @param terms
+	 *            The added terms
+	 * @return The sorted distinct terms of both arrays
+	 */
+	private static int[] union(int[] distinct, int[] terms) {
+		int[] all = Arrays.copyOf(distinct, distinct.length + terms.length);
+		System.arraycopy(terms, 0, all, distinct.length, terms.length);
+		return Arrays.stream(all).sorted().distinct().toArray();
+	}
+
+	/**
+	 * Intersects the posting lists of the given words, starting from the
+	 * shortest one and advancing through the longer ones with a
+	 * {@link PostingCursor}, which skips the blocks of a list that cannot
+	 * contain a document of the intersection without reading them.
+	 * 
+	 * @param invertedIndex
+	 *            The inverted index
+	 * @param terms
+	 *            The distinct indices of the words
+	 * @return The ascending ids of the documents containing all the words
+	 */
+	private static int[] intersect(InvertedIndex invertedIndex, int[] terms) {
+		Integer[] order = new Integer[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			order[i] = terms[i];
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(invertedIndex.getLength(a), invertedIndex.getLength(b)));
+
+		PostingCursor cursor = new PostingCursor();
+		int[] result = new int[invertedIndex.getLength(order[0])];
+		int count = 0;
+		cursor.open(invertedIndex, order[0], 0, Integer.MAX_VALUE, 0);
+		while (cursor.nextBlock()) {
+			System.arraycopy(cursor.documents, cursor.start, result, count, cursor.end - cursor.start);
+			count += cursor.end - cursor.start;
+		}
+
+		for (int i = 1; i < order.length && count > 0; i++) {
+			cursor.open(invertedIndex, order[i], 0, Integer.MAX_VALUE, 0);
+			int kept = 0;
+			for (int j = 0; j < count; j++) {
+				int document = cursor.advance(result[j]);
+				if (document == PostingCursor.NO_DOCUMENT) {
+					break;
+				}
+				if (document == result[j]) {
+					result[kept++] = result[j];
+				}
+			}
+			count = kept;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Checks whether a document satisfies a constraint.
+	 * 
+	 * @param constraint
+	 *            The constraint
+	 * @param terms
+	 *            The indices of the words of the constraint
+	 * @param document
+	 *            The word occurrences and positions of the document
+	 * @return True if the document satisfies the constraint
+	 */
+	private static boolean satisfies(Constraint constraint, int[] terms, DocumentTerms document) {
+		int[][] positions = new int[terms.length][];
+		for (int i = 0; i < terms.length; i++) {
+			positions[i] = document.positions(terms[i]);
+		}
+		return (constraint.offsets != null) ? containsPhrase(positions, constraint.offsets)
+				: containsNear(positions[0], positions[1], terms[0] == terms[1], constraint.distance);
+	}
+
+	/**
+	 * Checks whether the words of a phrase occur at the given offsets from
+	 * each other.
+	 * 
+	 * @param positions
+	 *            The ascending positions of every word of the phrase
+	 * @param offsets
+	 *            The positions of the words within the phrase
+	 * @return True if the phrase occurs in the document
+	 */
+	private static boolean containsPhrase(int[][] positions, int[] offsets) {
+		int[] pointers = new int[positions.length];
+		for (int first : positions[0]) {
+			boolean found = true;
+			for (int i = 1; i < positions.length && found; i++) {
+				long target = (long) first + offsets[i] - offsets[0];
+				int[] list = positions[i];
+				while (pointers[i] < list.length && list[pointers[i]] < target) {
+					pointers[i]++;
+				}
+				if (pointers[i] == list.length) {
+					return false;
+				}
+				found = list[pointers[i]] == target;
+			}
+			if (found) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether two words occur at most the given distance apart.
+	 * 
+	 * @param first
+	 *            The ascending positions of the first word
+	 * @param second
+	 *            The ascending positions of the second word
+	 * @param same
+	 *            Whether both are the same word, which then has to occur twice
+	 * @param distance
+	 *            The largest distance
+	 * @return True if the words are close enough
+	 */
+	private static boolean containsNear(int[] first, int[] second, boolean same, int distance) {
+		if (same) {
+			for (int i = 1; i < first.length; i++) {
+				if ((long) first[i] - first[i - 1] <= distance) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		int i = 0;
+		int j = 0;
+		while (i < first.length && j < second.length) {
+			if (Math.abs((long) first[i] - second[j]) <= distance) {
+				return true;
+			}
+			if (first[i] < second[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,343 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Reads the part of a posting list of an {@link InvertedIndex} that belongs to
+ * the documents of a shard, block by block.
+ * </p>
+ * <p>
+ * A list kept on the heap is read in place, as a single block. A list kept off
+ * the heap is read in blocks of {@value CompressedPostings#BLOCK_SIZE}
+ * postings, copied or decoded into arrays the cursor reuses for all the lists
+ * it reads, so reading a list allocates nothing. The blocks that end before
+ * the shard are skipped by their last document id without being read, and
+ * the reading stops at the first block past the shard.
+ * </p>
+ * <p>
+ * A cursor is opened for a word with
+ * {@link #open(InvertedIndex, int, int, int, int)} and every call to
+ * {@link #nextBlock()} makes the postings from {@link #start} to {@link #end}
+ * of the arrays {@link #documents}, {@link #weights} and
+ * {@link #frequencies} the next block of the list. Only the parts of the
+ * postings asked for are read.
+ * </p>
+ * <p>
+ * A list can also be read document by document with {@link #nextDocument()}
+ * and {@link #advance(int)}. Advancing to a document skips the blocks ending
+ * before it by their last document ids and gallops through the block
+ * containing it, so intersecting a short list with a long one reads only
+ * the blocks of the long list that may contain the documents of the short
+ * one. The block API and the document API must not be mixed for a list.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+final class PostingCursor {
+	/**
+	 * The current document of a list whose documents have all been read
+	 */
+	static final int NO_DOCUMENT = Integer.MAX_VALUE;
+	/**
+	 * Read the weights of the postings
+	 */
+	static final int WEIGHTS = 1;
+	/**
+	 * Read the numbers of occurrences of the postings
+	 */
+	static final int FREQUENCIES = 2;
+
+	/**
+	 * The document ids of the current block
+	 */
+	int[] documents;
+	/**
+	 * The weights of the current block, if they are read
+	 */
+	double[] weights;
+	/**
+	 * The numbers of occurrences of the current block, if they are read and
+	 * kept
+	 */
+	int[] frequencies;
+	/**
+	 * The position of the first posting of the current block in the arrays
+	 */
+	int start;
+	/**
+	 * The position following the last posting of the current block in the
+	 * arrays
+	 */
+	int end;
+
+	/**
+	 * The position of the current posting in the arrays, when the list is read
+	 * document by document
+	 */
+	int position;
+
+	/**
+	 * The array the document ids of a block off the heap are read into
+	 */
+	private final int[] documentBuffer = new int[CompressedPostings.BLOCK_SIZE];
+	/**
+	 * The array the weights of a block off the heap are read into
+	 */
+	private final double[] weightBuffer = new double[CompressedPostings.BLOCK_SIZE];
+	/**
+	 * The array the numbers of occurrences of a block off the heap are read
+	 * into
+	 */
+	private final int[] frequencyBuffer = new int[CompressedPostings.BLOCK_SIZE];
+	/**
+	 * The scratch array compressed blocks are decoded with
+	 */
+	private final int[] scratch = new int[CompressedPostings.SCRATCH_INTS];
+	/**
+	 * The posting lists kept off the heap, or null if the list is read in
+	 * place
+	 */
+	private OffHeapPostings postings;
+	/**
+	 * The index of the word of the list
+	 */
+	private int word;
+	/**
+	 * The first document id of the shard, inclusive
+	 */
+	private int from;
+	/**
+	 * The last document id of the shard, exclusive
+	 */
+	private int to;
+	/**
+	 * The number of the next block
+	 */
+	private int next;
+	/**
+	 * The number of blocks of the list
+	 */
+	private int blocks;
+	/**
+	 * The current document, when the list is read document by document
+	 */
+	private int document;
+
+	/**
+	 * Opens the cursor for the posting list of a word, before its first block
+	 * with a document of the given shard.
+	 * 
+	 * @param invertedIndex
+	 *            The inverted index
+	 * @param word
+	 *            The index of the word in the total dictionary
+	 * @param from
+	 *            The first document id of the shard, inclusive
+	 * @param to
+	 *            The last document id of the shard, exclusive
+	 * @param parts
+	 *            The parts of the postings read besides the document ids, any
+	 *            of {@link #WEIGHTS} and {@link #FREQUENCIES}
+	 */
+	void open(InvertedIndex invertedIndex, int word, int from, int to, int parts) {
+		this.word = word;
+		this.from = from;
+		this.to = to;
+		this.next = 0;
+		this.start = 0;
+		this.end = 0;
+		this.position = 0;
+		this.document = -1;
+		postings = invertedIndex.getOffHeapPostings();
+		if (postings == null) {
+			documents = invertedIndex.getDocuments(word);
+			weights = ((parts & WEIGHTS) != 0) ? invertedIndex.getWeights(word) : null;
+			frequencies = ((parts & FREQUENCIES) != 0) ? invertedIndex.getFrequencies(word) : null;
+			blocks = (documents.length > 0) ? 1 : 0;
+			return;
+		}
+
+		documents = documentBuffer;
+		weights = ((parts & WEIGHTS) != 0) ? weightBuffer : null;
+		frequencies = ((parts & FREQUENCIES) != 0 && postings.hasFrequencies()) ? frequencyBuffer : null;
+		blocks = postings.blocks(word);
+		if (from > 0) {
+			skipBlocks(from, blocks);
+		}
+	}
+
+	/**
+	 * Moves {@link #next} to the first block whose last document is not
+	 * smaller than the given one, searching the blocks before the given
+	 * limit.
+	 * 
+	 * @param docId
+	 *            The document id
+	 * @param high
+	 *            The number of the last block searched, exclusive
+	 */
+	private void skipBlocks(int docId, int high) {
+		while (next < high) {
+			int middle = (next + high) >>> 1;
+			if (postings.lastDocument(word, middle) < docId) {
+				next = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+	}
+
+	/**
+	 * Counts the postings of the list with documents of the shard. Only the
+	 * document ids of the first and the last block of the shard are read. It
+	 * must be called right after the cursor is opened, before the list is
+	 * read.
+	 * 
+	 * @return The number of postings of the shard
+	 */
+	int count() {
+		if (postings == null) {
+			return Scorer.firstPosition(documents, to) - Scorer.firstPosition(documents, from);
+		}
+		return postingsBefore(to) - postingsBefore(from);
+	}
+
+	/**
+	 * Counts the postings of the off-heap list whose documents are smaller
+	 * than the given one, reading the document ids of a single block.
+	 * 
+	 * @param docId
+	 *            The document id
+	 * @return The number of postings before the document
+	 */
+	private int postingsBefore(int docId) {
+		if (docId == 0) {
+			return 0;
+		}
+		int low = 0;
+		int high = blocks;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (postings.lastDocument(word, middle) < docId) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		if (low == blocks) {
+			return postings.length(word);
+		}
+		int count = postings.readBlock(word, low, documentBuffer, null, null, scratch);
+		return low * CompressedPostings.BLOCK_SIZE + Scorer.firstPosition(documentBuffer, count, docId);
+	}
+
+	/**
+	 * Moves to the next block of the list with documents of the shard.
+	 * 
+	 * @return True if there is such a block, false if the documents of the
+	 *         shard in the list have all been read
+	 */
+	boolean nextBlock() {
+		if (next >= blocks) {
+			return false;
+		}
+		int count = (postings == null) ? documents.length
+				: postings.readBlock(word, next, documents, weights, frequencies, scratch);
+		next++;
+
+		start = (documents[0] < from) ? Scorer.firstPosition(documents, count, from) : 0;
+		end = count;
+		if (documents[count - 1] >= to) {
+			end = Scorer.firstPosition(documents, count, to);
+			next = blocks;
+		}
+		return start < end;
+	}
+
+	/**
+	 * Gets the current document, when the list is read document by document.
+	 * 
+	 * @return The id of the current document, -1 before the first one or
+	 *         {@link #NO_DOCUMENT} after the last one
+	 */
+	int document() {
+		return document;
+	}
+
+	/**
+	 * Moves to the next document of the list.
+	 * 
+	 * @return The id of the next document, or {@link #NO_DOCUMENT} if the
+	 *         documents of the shard in the list have all been read
+	 */
+	int nextDocument() {
+		if (document == NO_DOCUMENT) {
+			return NO_DOCUMENT;
+		}
+		if (document != -1 && ++position < end) {
+			return document = documents[position];
+		}
+		if (!nextBlock()) {
+			return document = NO_DOCUMENT;
+		}
+		position = start;
+		return document = documents[position];
+	}
+
+	/**
+	 * Moves to the first document of the list not smaller than the given one.
+	 * The blocks ending before the document are skipped without being read.
+	 * 
+	 * @param docId
+	 *            The document id
+	 * @return The id of the first document not smaller than the given one, or
+	 *         {@link #NO_DOCUMENT} if there is none in the shard
+	 */
+	int advance(int docId) {
+		if (document >= docId) {
+			return document;
+		}
+		if (document == -1 || documents[end - 1] < docId) {
+			if (postings != null && next < blocks) {
+				skipBlocks(docId, blocks);
+			}
+			if (!nextBlock()) {
+				return document = NO_DOCUMENT;
+			}
+			position = start;
+		}
+
+		position = gallop(documents, position, end, docId);
+		return document = (position < end) ? documents[position] : NO_DOCUMENT;
+	}
+
+	/**
+	 * Advances through the document ids of a block to the first one not
+	 * smaller than the given one, galloping ahead from the current position.
+	 * 
+	 * @param postingDocs
+	 *            The document ids of the block
+	 * @param position
+	 *            The current position
+	 * @param end
+	 *            The end position of the block, exclusive
+	 * @param docId
+	 *            The document id
+	 * @return The new position
+	 */
+	private static int gallop(int[] postingDocs, int position, int end, int docId) {
+		if (position >= end || postingDocs[position] >= docId) {
+			return position;
+		}
+
+		int step = 1;
+		while (position + step < end && postingDocs[position + step] < docId) {
+			position += step;
+			step <<= 1;
+		}
+		int found = Arrays.binarySearch(postingDocs, position + 1, Math.min(end, position + step + 1), docId);
+		return (found >= 0) ? found : -found - 1;
+	}
+}
@@ -0,0 +1,392 @@
+package hr.marin.filesearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * A bounded cache of query results with approximate least-recently-used
+ * eviction.
+ * </p>
+ * <p>
+ * A query is identified by the multiset of its words after tokenization and
+ * stop word removal, together with the number of requested results, so queries
+ * that differ only in the order, case or spacing of their words share an
+ * entry. The cache is bounded both by the number of entries and by their
+ * approximate size in bytes. When a bound is exceeded, the least recently used
+ * entries are evicted until the entries take at most
+ * {@value #EVICTION_TARGET_PERCENT}% of both bounds, so the cost of finding
+ * them is shared by many insertions.
+ * </p>
+ * <p>
+ * The entries belong to a single version of the index, identified by the
+ * increasing number the {@link Environment} publishes it with. As soon as the
+ * cache is used with a newer version, for example after a refresh, all the
+ * entries are dropped, so a cached result is never served for a changed index.
+ * A query still reading an older version, published before the current one,
+ * neither uses nor changes the entries.
+ * </p>
+ * <p>
+ * All the methods are thread-safe, and looking up a query takes no lock: the
+ * entries of a version are kept in a {@link ConcurrentHashMap}, a hit only
+ * records the time the entry was used, and the counters are
+ * {@link LongAdder}s. Only one thread at a time evicts entries, while the
+ * others go on.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class QueryCache {
+	/**
+	 * The default maximum number of entries
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 1024;
+	/**
+	 * The default maximum approximate size of all the entries in bytes
+	 */
+	public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+	/**
+	 * The part of the bounds the entries are evicted down to, in percent
+	 */
+	private static final int EVICTION_TARGET_PERCENT = 90;
+	/**
+	 * The approximate size of the objects of a cache entry in bytes, not
+	 * counting the characters of the key
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+	/**
+	 * The approximate size of the objects of a single result in bytes, not
+	 * counting the characters of the path
+	 */
+	private static final int RESULT_OVERHEAD = 64;
+
+	/**
+	 * The cached results of a query.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class Cached {
+		/**
+		 * The results of the query
+		 */
+		final List<DocumentInfo> results;
+		/**
+		 * The approximate size of the entry in bytes
+		 */
+		final long size;
+		/**
+		 * The time the entry was last used, from {@link System#nanoTime()}
+		 */
+		volatile long lastUsed;
+
+		/**
+		 * Creates a new entry used now.
+		 * 
+		 * @param results
+		 *            The results of the query
+		 * @param size
+		 *            The approximate size of the entry in bytes
+		 */
+		Cached(List<DocumentInfo> results, long size) {
+			this.results = results;
+			this.size = size;
+			this.lastUsed = System.nanoTime();
+		}
+	}
+
+	/**
+	 * The entries of one version of the index.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class Generation {
+		/**
+		 * The version of the index the entries belong to, or -1 if the cache
+		 * has not been used yet
+		 */
+		final long version;
+		/**
+		 * The cached results by the keys of their queries
+		 */
+		final ConcurrentHashMap<String, Cached> entries = new ConcurrentHashMap<>();
+		/**
+		 * The approximate size of all the entries in bytes
+		 */
+		final AtomicLong bytes = new AtomicLong();
+
+		/**
+		 * Creates a new generation without entries.
+		 * 
+		 * @param version
+		 *            The version of the index the entries belong to
+		 */
+		Generation(long version) {
+			this.version = version;
+		}
+	}
+
+	/**
+	 * The entries of the newest version of the index the cache was used with
+	 */
+	private final AtomicReference<Generation> current = new AtomicReference<>(new Generation(-1));
+	/**
+	 * Held by the thread evicting entries
+	 */
+	private final ReentrantLock eviction = new ReentrantLock();
+	/**
+	 * The maximum number of entries
+	 */
+	private final int maxEntries;
+	/**
+	 * The maximum approximate size of all the entries in bytes
+	 */
+	private final long maxBytes;
+	/**
+	 * The number of lookups that found a result
+	 */
+	private final LongAdder hits = new LongAdder();
+	/**
+	 * The number of lookups that did not find a result
+	 */
+	private final LongAdder misses = new LongAdder();
+	/**
+	 * The number of entries evicted to stay within the bounds
+	 */
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a new empty {@link QueryCache} with the given bounds.
+	 * 
+	 * @param maxEntries
+	 *            The maximum number of entries. If 0, nothing is cached.
+	 * @param maxBytes
+	 *            The maximum approximate size of all the entries in bytes
+	 * @throws IllegalArgumentException
+	 *             If a bound is negative
+	 */
+	public QueryCache(int maxEntries, long maxBytes) {
+		if (maxEntries < 0 || maxBytes < 0) {
+			throw new IllegalArgumentException("Cache bounds must not be negative.");
+		}
+
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Checks whether the cache can keep any results at all. The results of a
+	 * disabled cache need not be looked up or offered.
+	 * 
+	 * @return False if a bound is 0, true otherwise
+	 */
+	public boolean isEnabled() {
+		return maxEntries > 0 && maxBytes > 0;
+	}
+
+	/**
+	 * Creates the cache key of a query.
+	 * 
+	 * @param query
+	 *            The dictionary of the query's words
+	 * @param maxResults
+	 *            The maximum number of results of the query
+	 * @return The key identifying the query
+	 */
+	public static String key(DocumentDictionary query, int maxResults) {
+		String[] words = new String[query.size()];
+		int count = 0;
+		for (int slot = 0, capacity = query.capacity(); slot < capacity; slot++) {
+			if (query.wordAt(slot) != null) {
+				words[count++] = query.wordAt(slot);
+			}
+		}
+		Arrays.sort(words, 0, count);
+
+		StringBuilder key = new StringBuilder().append(maxResults);
+		for (int i = 0; i < count; i++) {
+			key.append(' ').append(words[i]).append(' ').append(query.occurences(words[i]));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Gets the cached results of the query with the given key. If the given
+	 * version of the index is newer than the one the entries belong to, all
+	 * the entries are dropped first; if it is older, nothing is found and the
+	 * entries are kept.
+	 * 
+	 * @param version
+	 *            The version of the index the query is made against
+	 * @param key
+	 *            The key of the query
+	 * @return An unmodifiable list of the cached results, or null if they are
+	 *         not cached
+	 */
+	public List<DocumentInfo> get(long version, String key) {
+		Generation generation = generation(version);
+		Cached entry = (generation != null) ? generation.entries.get(key) : null;
+		if (entry == null) {
+			misses.increment();
+			return null;
+		}
+		entry.lastUsed = System.nanoTime();
+		hits.increment();
+		return entry.results;
+	}
+
+	/**
+	 * Gets the entries of the given version of the index, dropping the
+	 * entries of an older version.
+	 * 
+	 * @param version
+	 *            The version of the index
+	 * @return The entries of the version, or null if a newer version has
+	 *         already been used
+	 */
+	private Generation generation(long version) {
+		Generation generation = current.get();
+		while (version > generation.version) {
+			Generation newer = new Generation(version);
+			if (current.compareAndSet(generation, newer)) {
+				return newer;
+			}
+			generation = current.get();
+		}
+		return (version == generation.version) ? generation : null;
+	}
+
+	/**
+	 * Caches the results of the query with the given key, evicting the least
+	 * recently used entries if the bounds are exceeded. Results of a version
+	 * of the index other than the one the entries belong to are not cached.
+	 * 
+	 * @param version
+	 *            The version of the index the query was made against
+	 * @param key
+	 *            The key of the query
+	 * @param results
+	 *            The results of the query
+	 * @return An unmodifiable view of the given results
+	 */
+	public List<DocumentInfo> put(long version, String key, List<DocumentInfo> results) {
+		results = Collections.unmodifiableList(results);
+		Generation generation = current.get();
+		if (generation.version != version || !isEnabled()) {
+			return results;
+		}
+
+		long size = ENTRY_OVERHEAD + 2L * key.length();
+		for (DocumentInfo result : results) {
+			size += RESULT_OVERHEAD + 2L * result.getPath().toString().length();
+		}
+		if (size > maxBytes) {
+			return results;
+		}
+
+		Cached replaced = generation.entries.put(key, new Cached(results, size));
+		long bytes = generation.bytes.addAndGet((replaced != null) ? size - replaced.size : size);
+		if ((generation.entries.size() > maxEntries || bytes > maxBytes) && eviction.tryLock()) {
+			try {
+				evict(generation);
+			} finally {
+				eviction.unlock();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Evicts the least recently used entries of a generation until they take
+	 * at most {@value #EVICTION_TARGET_PERCENT}% of both bounds.
+	 * 
+	 * @param generation
+	 *            The entries
+	 */
+	private void evict(Generation generation) {
+		long targetEntries = (long) maxEntries * EVICTION_TARGET_PERCENT / 100;
+		long targetBytes = (long) (maxBytes * (EVICTION_TARGET_PERCENT / 100.0));
+		List<Map.Entry<String, Cached>> entries = new ArrayList<>(generation.entries.entrySet());
+		long[] lastUsed = new long[entries.size()];
+		Integer[] byAge = new Integer[entries.size()];
+		for (int i = 0; i < byAge.length; i++) {
+			lastUsed[i] = entries.get(i).getValue().lastUsed;
+			byAge[i] = i;
+		}
+		Arrays.sort(byAge, (a, b) -> Long.compare(lastUsed[a], lastUsed[b]));
+
+		for (int i = 0; i < byAge.length
+				&& (generation.entries.size() > targetEntries || generation.bytes.get() > targetBytes); i++) {
+			Map.Entry<String, Cached> oldest = entries.get(byAge[i]);
+			if (generation.entries.remove(oldest.getKey(), oldest.getValue())) {
+				generation.bytes.addAndGet(-oldest.getValue().size);
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Drops all the entries. The counters are kept.
+	 */
+	public void clear() {
+		Generation generation = current.get();
+		while (!current.compareAndSet(generation, new Generation(generation.version))) {
+			generation = current.get();
+		}
+	}
+
+	/**
+	 * Gets the number of cached entries.
+	 * 
+	 * @return The number of entries
+	 */
+	public int size() {
+		return current.get().entries.size();
+	}
+
+	/**
+	 * Gets the approximate size of all the cached entries.
+	 * 
+	 * @return The size of the entries in bytes
+	 */
+	public long bytes() {
+		return current.get().bytes.get();
+	}
+
+	/**
+	 * Gets the number of lookups that found a result.
+	 * 
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Gets the number of lookups that did not find a result.
+	 * 
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Gets the number of entries evicted to stay within the bounds.
+	 * 
+	 * @return The number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+}
@@ -0,0 +1,231 @@
+package hr.marin.filesearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * <p>
+ * Scores the documents of an {@link Index} against a query vector with a
+ * {@link Scorer} and collects the best ones. Unless a scorer is given, the
+ * documents are scored by their cosine similarity to the query.
+ * </p>
+ * <p>
+ * The documents are scored term by term through the posting lists of the
+ * inverted index. When a query touches enough postings, the documents are
+ * split into shards of consecutive document ids and every shard is scored on
+ * a fork-join pool into its own {@link TopKCollector}; the collectors of the
+ * shards are merged at the end. Since ties are broken by document id, the
+ * results are the same as those of scoring on a single thread.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class QueryScorer {
+	/**
+	 * The smallest number of postings worth scoring as a separate shard.
+	 */
+	public static final int MIN_SHARD_POSTINGS = 32 * 1024;
+	/**
+	 * The scorer used when none is given.
+	 */
+	private static final Scorer COSINE = new CosineScorer();
+
+	/**
+	 * The number of threads used to score a query
+	 */
+	private int threads;
+	/**
+	 * The pool the shards are scored on, or null if queries are scored on the
+	 * calling thread
+	 */
+	private volatile ForkJoinPool pool;
+
+	/**
+	 * Creates a new {@link QueryScorer} that scores queries with the given
+	 * number of threads.
+	 * 
+	 * @param threads
+	 *            The number of threads. If less than 2, queries are scored on
+	 *            the calling thread.
+	 */
+	public QueryScorer(int threads) {
+		this.threads = Math.max(threads, 1);
+		this.pool = (threads >= 2) ? new ForkJoinPool(threads) : null;
+	}
+
+	/**
+	 * Gets the number of threads used to score a query.
+	 * 
+	 * @return The number of threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Scores the documents of the given index by their cosine similarity to
+	 * the query and collects the best k of those whose similarity is greater
+	 * than 0.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query, with the dimension of the index's
+	 *            total dictionary
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @return The sorted collector of the best documents
+	 */
+	public TopKCollector score(Index index, SparseVector query, int k) {
+		return score(index, query, k, COSINE);
+	}
+
+	/**
+	 * Scores the documents of the given index with the given scorer and
+	 * collects the best k of those whose score is greater than 0.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query, with the dimension of the index's
+	 *            total dictionary
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param scorer
+	 *            The scorer of the documents
+	 * @return The sorted collector of the best documents
+	 */
+	public TopKCollector score(Index index, SparseVector query, int k, Scorer scorer) {
+		InvertedIndex invertedIndex = index.getInvertedIndex();
+		long postings = 0;
+		for (int i = 0, n = query.nonZeroCount(); i < n; i++) {
+			postings += invertedIndex.getLength(query.indexAt(i));
+		}
+
+		ForkJoinPool pool = this.pool;
+		int shards = (int) Math.min(threads, Math.max(1, postings / MIN_SHARD_POSTINGS));
+		TopKCollector topK;
+		if (shards < 2 || pool == null) {
+			topK = scorer.scoreShard(index, query, k, 0, index.size());
+		} else {
+			try {
+				topK = scoreShards(pool, index, query, k, shards, scorer);
+			} catch (RejectedExecutionException e) {
+				topK = scorer.scoreShard(index, query, k, 0, index.size());
+			}
+		}
+
+		topK.sort();
+		return topK;
+	}
+
+	/**
+	 * Scores only the given documents of the index, for example those that
+	 * satisfy the constraints of a {@link PositionalQuery}, and collects the
+	 * best k of those whose similarity to the query is greater than 0. The
+	 * similarities are the same as those computed by
+	 * {@link #score(Index, SparseVector, int)}.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query, with the dimension of the index's
+	 *            total dictionary
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param documents
+	 *            The ids of the scored documents
+	 * @return The sorted collector of the best documents
+	 */
+	public TopKCollector score(Index index, SparseVector query, int k, int[] documents) {
+		return score(index, query, k, documents, COSINE);
+	}
+
+	/**
+	 * Scores only the given documents of the index with the given scorer and
+	 * collects the best k of those whose score is greater than 0. The scores
+	 * are the same as those computed by
+	 * {@link #score(Index, SparseVector, int, Scorer)}.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query, with the dimension of the index's
+	 *            total dictionary
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param documents
+	 *            The ids of the scored documents
+	 * @param scorer
+	 *            The scorer of the documents
+	 * @return The sorted collector of the best documents
+	 */
+	public TopKCollector score(Index index, SparseVector query, int k, int[] documents, Scorer scorer) {
+		TopKCollector topK = scorer.scoreDocuments(index, query, k, documents);
+		topK.sort();
+		return topK;
+	}
+
+	/**
+	 * Scores the documents in the given number of shards on the pool and
+	 * merges their collectors.
+	 * 
+	 * @param pool
+	 *            The pool the shards are scored on
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param shards
+	 *            The number of shards
+	 * @param scorer
+	 *            The scorer of the documents
+	 * @return The unsorted collector of the best documents
+	 */
+	private static TopKCollector scoreShards(ForkJoinPool pool, Index index, SparseVector query, int k, int shards,
+			Scorer scorer) {
+		int size = index.size();
+		List<Callable<TopKCollector>> tasks = new ArrayList<>(shards);
+		for (int shard = 0; shard < shards; shard++) {
+			int from = (int) ((long) size * shard / shards);
+			int to = (int) ((long) size * (shard + 1) / shards);
+			tasks.add(() -> scorer.scoreShard(index, query, k, from, to));
+		}
+
+		TopKCollector topK = new TopKCollector(k);
+		try {
+			for (Future<TopKCollector> future : pool.invokeAll(tasks)) {
+				topK.merge(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while scoring the query.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException("Failed to score the query.", cause);
+		}
+		return topK;
+	}
+
+	/**
+	 * Stops the threads of the pool. Queries that are being scored are
+	 * finished, and later queries are scored on the calling thread.
+	 */
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+}
@@ -0,0 +1,638 @@
+package hr.marin.filesearch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * An HTTP server that answers the query, results and type commands of an
+ * {@link Environment} with JSON responses:
+ * </p>
+ * <ul>
+ * <li><code>GET /query?q=&lt;text&gt;[&amp;n=&lt;max results&gt;][&amp;session=&lt;id&gt;]</code>
+ * finds the documents most similar to the text and makes them the results of
+ * the session, creating a new session if none is given,</li>
+ * <li><code>GET /results?session=&lt;id&gt;</code> returns the results of the
+ * last query of the session,</li>
+ * <li><code>GET /type?session=&lt;id&gt;&amp;rank=&lt;rank&gt;</code> returns
+ * the content of the document with the given rank in the results of the
+ * session.</li>
+ * </ul>
+ * <p>
+ * A server of a {@link Shard} also answers the internal endpoints of the
+ * {@link ShardCoordinator} once they are added with
+ * {@link #addShardEndpoints()}.
+ * </p>
+ * <p>
+ * Requests are handled by a fixed number of threads with a bounded queue. When
+ * the queue is full, a request is rejected with
+ * <code>503 Service Unavailable</code> and a <code>Retry-After</code> header
+ * by the thread accepting connections, which does no other work for it. The
+ * number of queries scored at the same time is limited as well: a query that
+ * cannot start scoring within {@link #QUERY_WAIT_MILLIS} is rejected the same
+ * way, so the clients back off instead of piling up behind a saturated scorer.
+ * A query may ask for at most {@link #MAX_RESULTS} results.
+ * Connections are kept alive, and the requests sent over one connection are
+ * answered in the order they were sent.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class QueryServer implements Closeable {
+	/**
+	 * The longest time a query waits for a free scoring slot, in milliseconds
+	 */
+	public static final long QUERY_WAIT_MILLIS = 100;
+	/**
+	 * The maximum number of sessions kept. The least recently used sessions
+	 * are dropped first.
+	 */
+	public static final int MAX_SESSIONS = 10000;
+	/**
+	 * The largest number of results a query may ask for
+	 */
+	public static final int MAX_RESULTS = 10000;
+	/**
+	 * The number of seconds a rejected client is asked to wait before retrying
+	 */
+	private static final String RETRY_AFTER_SECONDS = "1";
+	/**
+	 * Set on the thread accepting connections while it rejects a request the
+	 * handling threads have no room for
+	 */
+	private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+
+	/**
+	 * The environment the requests are answered from
+	 */
+	private Environment environment;
+	/**
+	 * The underlying HTTP server
+	 */
+	private HttpServer server;
+	/**
+	 * The threads handling the requests
+	 */
+	private ThreadPoolExecutor executor;
+	/**
+	 * The free scoring slots
+	 */
+	private Semaphore queries;
+	/**
+	 * The sessions of the clients by their ids, from the least to the most
+	 * recently used
+	 */
+	private Map<String, Session> sessions;
+
+	/**
+	 * Creates a new server of the given environment bound to the given
+	 * address. The server does not answer requests until it is started.
+	 * 
+	 * @param environment
+	 *            The environment the requests are answered from
+	 * @param address
+	 *            The address the server listens on
+	 * @param threads
+	 *            The number of threads handling the requests
+	 * @param queueCapacity
+	 *            The maximum number of requests waiting for a thread
+	 * @param maxQueries
+	 *            The maximum number of queries scored at the same time
+	 * @throws IOException
+	 *             If the server could not be bound to the address
+	 * @throws IllegalArgumentException
+	 *             If a limit is not positive
+	 */
+	public QueryServer(Environment environment, InetSocketAddress address, int threads, int queueCapacity,
+			int maxQueries) throws IOException {
+		if (threads < 1 || queueCapacity < 1 || maxQueries < 1) {
+			throw new IllegalArgumentException("Server limits must be positive.");
+		}
+
+		this.environment = environment;
+		this.queries = new Semaphore(maxQueries);
+		this.sessions = new LinkedHashMap<String, Session>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+				return size() > MAX_SESSIONS;
+			}
+		};
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), task -> {
+					Thread thread = new Thread(task, "query-server-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+
+		this.server = HttpServer.create(address, 0);
+		server.setExecutor(task -> {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				OVERLOADED.set(Boolean.TRUE);
+				try {
+					task.run();
+				} finally {
+					OVERLOADED.remove();
+				}
+			}
+		});
+		server.createContext("/query", exchange -> handle(exchange, "GET", this::query));
+		server.createContext("/results", exchange -> handle(exchange, "GET", this::results));
+		server.createContext("/type", exchange -> handle(exchange, "GET", this::type));
+	}
+
+	/**
+	 * Adds the endpoints a {@link ShardCoordinator} uses to synchronize and
+	 * query the shard whose index this server answers from. They must be added
+	 * before the server is started.
+	 */
+	public void addShardEndpoints() {
+		server.createContext(ShardCoordinator.STATISTICS_PATH, exchange -> handle(exchange, "GET", this::statistics));
+		server.createContext(ShardCoordinator.DICTIONARY_PATH, exchange -> handle(exchange, "POST", this::dictionary));
+		server.createContext(ShardCoordinator.SEARCH_PATH, exchange -> handle(exchange, "GET", this::search));
+	}
+
+	/**
+	 * Starts answering requests in the background.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Gets the address the server listens on.
+	 * 
+	 * @return The address of the server
+	 */
+	public InetSocketAddress getAddress() {
+		return server.getAddress();
+	}
+
+	/**
+	 * Stops the server. Requests that are being answered are given a second to
+	 * finish.
+	 */
+	@Override
+	public void close() {
+		server.stop(1);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * An endpoint of the server.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private interface Endpoint {
+		/**
+		 * Answers a request.
+		 * 
+		 * @param exchange
+		 *            The exchange of the request
+		 * @param parameters
+		 *            The decoded query parameters of the request
+		 * @throws IOException
+		 *             If the response could not be sent
+		 */
+		void answer(HttpExchange exchange, Map<String, String> parameters) throws IOException;
+	}
+
+	/**
+	 * Answers a request with the given endpoint, or with an error if the
+	 * server is overloaded, the request does not use the method of the
+	 * endpoint or the endpoint fails.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param method
+	 *            The request method of the endpoint
+	 * @param endpoint
+	 *            The endpoint answering the request
+	 */
+	private void handle(HttpExchange exchange, String method, Endpoint endpoint) {
+		try {
+			if (OVERLOADED.get() != null) {
+				exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+				sendError(exchange, 503, "Too many requests, try again later.");
+			} else if (!method.equals(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", method);
+				sendError(exchange, 405, "Only " + method + " requests are supported.");
+			} else {
+				endpoint.answer(exchange, parameters(exchange.getRequestURI().getRawQuery()));
+			}
+		} catch (IllegalArgumentException e) {
+			sendErrorQuietly(exchange, 400, e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			sendErrorQuietly(exchange, 500, String.valueOf(e.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Answers a query request.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param parameters
+	 *            The parameters of the request
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private void query(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+		String text = parameters.get("q");
+		if (text == null) {
+			throw new IllegalArgumentException("Missing parameter: q");
+		}
+		int maxResults = parameters.containsKey("n") ? intParameter(parameters, "n", MAX_RESULTS)
+				: environment.getMaxResults();
+
+		String sessionId = parameters.get("session");
+		Session session = (sessionId != null) ? getSession(sessionId) : null;
+		if (session == null) {
+			sessionId = (sessionId != null) ? sessionId : UUID.randomUUID().toString();
+			session = environment.newSession();
+			synchronized (sessions) {
+				sessions.put(sessionId, session);
+			}
+		}
+
+		List<DocumentInfo> results = limitedQuery(exchange, text, maxResults);
+		if (results == null) {
+			return;
+		}
+		session.setResults(results);
+
+		sendJson(exchange, 200, "{\"session\":" + Utilities.jsonQuote(sessionId) + ",\"results\":" + Utilities.toJson(results) + "}");
+	}
+
+	/**
+	 * Answers the query of a {@link ShardCoordinator} with the documents of
+	 * this shard, one line per document with its similarity and its escaped
+	 * path separated by a tab.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param parameters
+	 *            The parameters of the request
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private void search(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+		String text = parameters.get("q");
+		if (text == null) {
+			throw new IllegalArgumentException("Missing parameter: q");
+		}
+
+		List<DocumentInfo> results = limitedQuery(exchange, text, intParameter(parameters, "n", MAX_RESULTS));
+		if (results == null) {
+			return;
+		}
+
+		StringBuilder body = new StringBuilder();
+		for (DocumentInfo info : results) {
+			body.append(Double.toString(info.getSimilarity())).append('\t')
+					.append(Shard.escape(info.getPath().toAbsolutePath().toString())).append('\n');
+		}
+		sendText(exchange, 200, body.toString());
+	}
+
+	/**
+	 * Answers a statistics request of a {@link ShardCoordinator} with the
+	 * word counts of the documents of this shard.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param parameters
+	 *            The parameters of the request
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private void statistics(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+		Shard.Statistics statistics = Shard.Statistics.of(environment.getIndex());
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, 0);
+		statistics.write(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Answers a dictionary request of a {@link ShardCoordinator} by adding the
+	 * word counts of the other shards in its body to the index.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param parameters
+	 *            The parameters of the request
+	 * @throws IOException
+	 *             If the body could not be read or the response could not be
+	 *             sent
+	 */
+	private void dictionary(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+		Shard.Statistics remote = Shard.Statistics
+				.read(new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8)));
+		environment.setRemoteStatistics(remote);
+		sendText(exchange, 200, "");
+	}
+
+	/**
+	 * Finds the documents most similar to a query, unless too many queries are
+	 * being scored already, in which case the request is rejected with
+	 * <code>503 Service Unavailable</code>.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param text
+	 *            The text of the query
+	 * @param maxResults
+	 *            The maximum number of results
+	 * @return The results of the query, or null if the request was rejected
+	 * @throws IOException
+	 *             If the rejection could not be sent
+	 */
+	private List<DocumentInfo> limitedQuery(HttpExchange exchange, String text, int maxResults) throws IOException {
+		boolean acquired = false;
+		try {
+			acquired = queries.tryAcquire(QUERY_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!acquired) {
+			exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+			sendError(exchange, 503, "Too many queries, try again later.");
+			return null;
+		}
+
+		try {
+			return environment.query(text, maxResults);
+		} finally {
+			queries.release();
+		}
+	}
+
+	/**
+	 * Answers a results request.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param parameters
+	 *            The parameters of the request
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private void results(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+		List<DocumentInfo> results = sessionResults(exchange, parameters);
+		if (results != null) {
+			sendJson(exchange, 200, "{\"session\":" + Utilities.jsonQuote(parameters.get("session")) + ",\"results\":"
+					+ Utilities.toJson(results) + "}");
+		}
+	}
+
+	/**
+	 * Answers a type request. The content of the document is read and sent in
+	 * chunks, so its size does not matter.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param parameters
+	 *            The parameters of the request
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private void type(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+		List<DocumentInfo> results = sessionResults(exchange, parameters);
+		if (results == null) {
+			return;
+		}
+
+		int rank = intParameter(parameters, "rank", Integer.MAX_VALUE);
+		if (rank >= results.size()) {
+			sendError(exchange, 404, "No result with rank " + rank);
+			return;
+		}
+
+		Path document = results.get(rank).getPath().toAbsolutePath();
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(200, 0);
+		Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8);
+		writer.write("{\"path\":" + Utilities.jsonQuote(document.toString()) + ",\"content\":\"");
+		try {
+			ChunkedReader.stream(document, StandardCharsets.UTF_8, chunk -> {
+				try {
+					Utilities.jsonEscape(chunk, writer);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		writer.write("\"}");
+		writer.flush();
+	}
+
+	/**
+	 * Gets the results of the session given by the parameters of a request. If
+	 * the session or its results do not exist, an error is sent instead.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param parameters
+	 *            The parameters of the request
+	 * @return The results of the session, or null if an error was sent
+	 * @throws IOException
+	 *             If the error could not be sent
+	 */
+	private List<DocumentInfo> sessionResults(HttpExchange exchange, Map<String, String> parameters)
+			throws IOException {
+		String sessionId = parameters.get("session");
+		if (sessionId == null) {
+			throw new IllegalArgumentException("Missing parameter: session");
+		}
+
+		Session session = getSession(sessionId);
+		if (session == null || session.getResults() == null) {
+			sendError(exchange, 404, "No results for session " + sessionId);
+			return null;
+		}
+		return session.getResults();
+	}
+
+	/**
+	 * Gets the session with the given id.
+	 * 
+	 * @param sessionId
+	 *            The id of the session
+	 * @return The session, or null if there is no session with the given id
+	 */
+	private Session getSession(String sessionId) {
+		synchronized (sessions) {
+			return sessions.get(sessionId);
+		}
+	}
+
+	/**
+	 * Decodes the query parameters of a request.
+	 * 
+	 * @param rawQuery
+	 *            The raw query of the request URI, or null if it has none
+	 * @return The parameters by their names
+	 */
+	private static Map<String, String> parameters(String rawQuery) {
+		Map<String, String> parameters = new HashMap<>();
+		if (rawQuery == null) {
+			return parameters;
+		}
+
+		for (String pair : rawQuery.split("&")) {
+			int equals = pair.indexOf('=');
+			String name = (equals >= 0) ? pair.substring(0, equals) : pair;
+			String value = (equals >= 0) ? pair.substring(equals + 1) : "";
+			try {
+				parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Gets a non-negative integer parameter of a request.
+	 * 
+	 * @param parameters
+	 *            The parameters of the request
+	 * @param name
+	 *            The name of the parameter
+	 * @param max
+	 *            The largest allowed value of the parameter
+	 * @return The value of the parameter
+	 * @throws IllegalArgumentException
+	 *             If the parameter is missing, is not a non-negative integer or
+	 *             is larger than the allowed value
+	 */
+	private static int intParameter(Map<String, String> parameters, String name, int max) {
+		String value = parameters.get(name);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing parameter: " + name);
+		}
+
+		try {
+			int number = Integer.parseInt(value.trim());
+			if (number > max) {
+				throw new IllegalArgumentException("Parameter " + name + " must not be larger than " + max + ": " + value);
+			}
+			if (number >= 0) {
+				return number;
+			}
+		} catch (NumberFormatException ignorable) {
+		}
+		throw new IllegalArgumentException("Parameter " + name + " is not a non-negative integer: " + value);
+	}
+
+	/**
+	 * Sends a JSON response.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param status
+	 *            The status code of the response
+	 * @param json
+	 *            The body of the response
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	/**
+	 * Sends a plain text response.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param status
+	 *            The status code of the response
+	 * @param text
+	 *            The body of the response
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+		byte[] body = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, (body.length > 0) ? body.length : -1);
+		exchange.getResponseBody().write(body);
+	}
+
+	/**
+	 * Sends a JSON error response.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param status
+	 *            The status code of the response
+	 * @param message
+	 *            The description of the error
+	 * @throws IOException
+	 *             If the response could not be sent
+	 */
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		sendJson(exchange, status, "{\"error\":" + Utilities.jsonQuote(message) + "}");
+	}
+
+	/**
+	 * Sends a JSON error response, unless the headers of a response were
+	 * already sent, and ignores any error while sending it.
+	 * 
+	 * @param exchange
+	 *            The exchange of the request
+	 * @param status
+	 *            The status code of the response
+	 * @param message
+	 *            The description of the error
+	 */
+	private static void sendErrorQuietly(HttpExchange exchange, int status, String message) {
+		if (exchange.getResponseCode() != -1) {
+			return;
+		}
+		try {
+			sendError(exchange, status, message);
+		} catch (IOException ignorable) {
+		}
+	}
+}
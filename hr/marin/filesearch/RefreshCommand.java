@@ -0,0 +1,46 @@
+package hr.marin.filesearch;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * An implementation of the {@link ICommand} interface that represents the
+ * refresh command of the console.<br>
+ * The command brings the index of the environment up to date with the current
+ * state of the documents, reading again only the documents that were added or
+ * changed since they were indexed. The results of the last query are
+ * discarded if anything changed.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class RefreshCommand implements ICommand {
+
+	@Override
+	public CommandStatus execute(String arguments, Session session) {
+		Environment environment = session.getEnvironment();
+		if (environment.getIndexer() == null) {
+			System.out.println("Osvježavanje indeksa nije podržano.");
+			return CommandStatus.CONTINUE;
+		}
+
+		Indexer.Refresh refresh = null;
+		try {
+			refresh = environment.refreshIndex(null);
+		} catch (IOException e) {
+			System.out.println("Greška prilikom osvježavanja indeksa: " + e.getMessage());
+			return CommandStatus.CONTINUE;
+		}
+
+		if (refresh.hasChanges()) {
+			session.setResults(null);
+		}
+
+		System.out.format("Dodano: %d, promijenjeno: %d, obrisano: %d dokumenata.%n", refresh.getAdded(),
+				refresh.getChanged(), refresh.getRemoved());
+
+		return CommandStatus.CONTINUE;
+	}
+
+}
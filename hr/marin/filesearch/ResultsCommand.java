@@ -17,8 +17,8 @@ import java.util.List;
 public class ResultsCommand implements ICommand {
 
 	@Override
-	public CommandStatus execute(String arguments, Environment environment) {
-		List<DocumentInfo> results = environment.getResults();
+	public CommandStatus execute(String arguments, Session session) {
+		List<DocumentInfo> results = session.getResults();
 		if (results == null) {
 			System.out.println("Ovu narebu nema smisla pozivati ako nije prethodno pozvan query (nema rezultata).");
 			return CommandStatus.CONTINUE;
@@ -0,0 +1,126 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The partial scores of the documents of a shard while its posting lists are
+ * traversed term by term, together with the list of the documents that have
+ * received a score (the candidates).
+ * </p>
+ * <p>
+ * The scores are kept in arrays indexed by the position of a document in the
+ * shard, so adding a posting is a single array access. The arrays are
+ * allocated once per thread and grow with the largest shard the thread has
+ * scored; after a query only the entries of its candidates are reset, so
+ * scoring a query takes time proportional to the number of its postings, not
+ * to the number of documents, and allocates nothing. The accumulator also
+ * keeps the {@link PostingCursor} objects the posting lists are read with, so
+ * their arrays are reused by all the queries of the thread.
+ * </p>
+ * <p>
+ * An accumulator is taken with {@link #acquire(int)} and handed back with
+ * {@link #release(int)}. If scoring fails in between, the next acquisition
+ * clears the whole arrays.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+final class ScoreAccumulator {
+	/**
+	 * The accumulator of every thread
+	 */
+	private static final ThreadLocal<ScoreAccumulator> ACCUMULATORS = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+	/**
+	 * The partial scores, indexed by the position of a document in the shard
+	 */
+	double[] scores = new double[0];
+	/**
+	 * Whether a document has received a score, indexed by its position in the
+	 * shard
+	 */
+	boolean[] isCandidate = new boolean[0];
+	/**
+	 * The positions of the documents that have received a score, in the order
+	 * they have received it
+	 */
+	int[] candidates = new int[0];
+	/**
+	 * The number of candidates of the last query, or -1 while the accumulator
+	 * is in use
+	 */
+	private int numOfCandidates;
+	/**
+	 * The cursors the posting lists are read with
+	 */
+	private PostingCursor[] cursors = new PostingCursor[0];
+
+	/**
+	 * Takes the accumulator of the calling thread, with all the scores zero
+	 * and no candidates, and with room for a shard of the given size.
+	 * 
+	 * @param size
+	 *            The number of documents of the shard
+	 * @return The accumulator of the calling thread
+	 */
+	static ScoreAccumulator acquire(int size) {
+		ScoreAccumulator accumulator = ACCUMULATORS.get();
+		accumulator.reset();
+		if (accumulator.scores.length < size) {
+			accumulator.scores = new double[size];
+			accumulator.isCandidate = new boolean[size];
+			accumulator.candidates = new int[size];
+		}
+		accumulator.numOfCandidates = -1;
+		return accumulator;
+	}
+
+	/**
+	 * Hands the accumulator back after a query.
+	 * 
+	 * @param numOfCandidates
+	 *            The number of candidates added to {@link #candidates}
+	 */
+	void release(int numOfCandidates) {
+		this.numOfCandidates = numOfCandidates;
+	}
+
+	/**
+	 * Resets the scores and the flags of the candidates of the last query, or
+	 * of all the documents if its number of candidates is unknown.
+	 */
+	private void reset() {
+		if (numOfCandidates < 0) {
+			Arrays.fill(scores, 0);
+			Arrays.fill(isCandidate, false);
+		} else {
+			for (int i = 0; i < numOfCandidates; i++) {
+				scores[candidates[i]] = 0;
+				isCandidate[candidates[i]] = false;
+			}
+		}
+		numOfCandidates = 0;
+	}
+
+	/**
+	 * Gets a cursor to read a posting list with. The cursors are reused by all
+	 * the queries of the thread, so scoring several lists at once takes a
+	 * cursor with a different number for every list.
+	 * 
+	 * @param number
+	 *            The number of the cursor, from 0
+	 * @return The cursor with the given number
+	 */
+	PostingCursor cursor(int number) {
+		if (number >= cursors.length) {
+			PostingCursor[] grown = Arrays.copyOf(cursors, number + 1);
+			for (int i = cursors.length; i < grown.length; i++) {
+				grown[i] = new PostingCursor();
+			}
+			cursors = grown;
+		}
+		return cursors[number];
+	}
+}
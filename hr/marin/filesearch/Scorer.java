@@ -0,0 +1,157 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * The ranking function used to score the documents of an {@link Index}
+ * against a query.
+ * </p>
+ * <p>
+ * A scorer is called once per shard of consecutive document ids (see
+ * {@link QueryScorer}) and scores the whole shard in a single loop over the
+ * primitive arrays of the index, so no method is called per document. The
+ * weights a scorer needs besides those of the document vectors are computed
+ * from the tables the index already keeps - the inverse document frequencies
+ * of the {@link TotalDictionary}, the document lengths and the numbers of
+ * occurrences in the posting lists - so switching scorers never rebuilds the
+ * vectors.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public abstract class Scorer {
+	/**
+	 * The name of the tf-idf cosine similarity scorer.
+	 */
+	public static final String TF_IDF = "tfidf";
+	/**
+	 * The name of the BM25 scorer.
+	 */
+	public static final String BM25 = "bm25";
+	/**
+	 * The default precision with which double numbers are compared.
+	 */
+	static final double PRECISION = 1E-6;
+
+	/**
+	 * Creates the scorer with the given name.
+	 * 
+	 * @param name
+	 *            The name of the scorer, {@value #TF_IDF} or {@value #BM25}
+	 * @return The new scorer
+	 * @throws IllegalArgumentException
+	 *             If there is no scorer with the given name
+	 */
+	public static Scorer forName(String name) {
+		switch (name.trim().toLowerCase()) {
+		case TF_IDF:
+			return new CosineScorer();
+		case BM25:
+			return new Bm25Scorer();
+		default:
+			throw new IllegalArgumentException("Unknown scorer: " + name);
+		}
+	}
+
+	/**
+	 * Gets the name of the scorer. Results of different scorers are cached
+	 * under different keys, so the name must be unique.
+	 * 
+	 * @return The name of the scorer
+	 */
+	public abstract String getName();
+
+	/**
+	 * Scores the documents with ids from the given range and records the
+	 * number of scored postings in the {@link Metrics}.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query, with the dimension of the index's
+	 *            total dictionary
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param from
+	 *            The first document id of the shard, inclusive
+	 * @param to
+	 *            The last document id of the shard, exclusive
+	 * @return The unsorted collector of the best documents of the shard whose
+	 *         score is greater than 0
+	 */
+	abstract TopKCollector scoreShard(Index index, SparseVector query, int k, int from, int to);
+
+	/**
+	 * Scores only the given documents of the index. The scores are the same
+	 * as those computed by
+	 * {@link #scoreShard(Index, SparseVector, int, int, int)}.
+	 * 
+	 * @param index
+	 *            The index whose documents are scored
+	 * @param query
+	 *            The vector of the query, with the dimension of the index's
+	 *            total dictionary
+	 * @param k
+	 *            The maximum number of collected documents
+	 * @param documents
+	 *            The ids of the scored documents
+	 * @return The unsorted collector of the best documents whose score is
+	 *         greater than 0
+	 */
+	abstract TopKCollector scoreDocuments(Index index, SparseVector query, int k, int[] documents);
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * Finds the first position of a posting list whose document id is at
+	 * least the given one.
+	 * 
+	 * @param postingDocs
+	 *            The document ids of the posting list
+	 * @param docId
+	 *            The document id
+	 * @return The first position with a document id not smaller than the
+	 *         given one
+	 */
+	static int firstPosition(int[] postingDocs, int docId) {
+		return firstPosition(postingDocs, postingDocs.length, docId);
+	}
+
+	/**
+	 * Finds the first position of a posting list held in the first elements of
+	 * an array whose document id is at least the given one.
+	 * 
+	 * @param postingDocs
+	 *            The array holding the document ids of the posting list
+	 * @param length
+	 *            The length of the posting list
+	 * @param docId
+	 *            The document id
+	 * @return The first position with a document id not smaller than the
+	 *         given one
+	 */
+	static int firstPosition(int[] postingDocs, int length, int docId) {
+		if (docId == 0) {
+			return 0;
+		}
+		int position = Arrays.binarySearch(postingDocs, 0, length, docId);
+		return (position >= 0) ? position : -position - 1;
+	}
+
+	/**
+	 * Checks whether a number of type double is zero with the default precision.
+	 * 
+	 * @param num
+	 *            The number that is checked for being equal to zero with the
+	 *            default precision.
+	 * @return True if the number is equal to zero, false otherwise.
+	 */
+	static boolean isZero(double num) {
+		return Math.abs(num) < PRECISION;
+	}
+}
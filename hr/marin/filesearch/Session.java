@@ -0,0 +1,89 @@
+package hr.marin.filesearch;
+
+import java.util.List;
+
+/**
+ * <p>
+ * The state of a single user of an {@link Environment}: the results of the
+ * user's last query. Commands are executed within a session, so any number of
+ * sessions can work with the same environment at the same time without seeing
+ * each other's results.
+ * </p>
+ * <p>
+ * A session is meant to be used by one user at a time, while the environment
+ * it belongs to may be shared by all of them. The results are published
+ * safely, so the requests of a user may be handled by different threads.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Session {
+	/**
+	 * The environment the session belongs to
+	 */
+	private Environment environment;
+	/**
+	 * A list of results of the last query operation
+	 */
+	private volatile List<DocumentInfo> results;
+
+	/**
+	 * Creates a new {@link Session} of the given environment without any
+	 * results.
+	 * 
+	 * @param environment
+	 *            The environment the session belongs to
+	 */
+	public Session(Environment environment) {
+		this.environment = environment;
+	}
+
+	/**
+	 * Method executes the command with the given command name using the given
+	 * command arguments within this session.
+	 * 
+	 * @param commandName
+	 *            The name of the command that is to be executed
+	 * @param commandArguments
+	 *            The arguments of the command that is to be executed
+	 * @return The status after the command execution
+	 */
+	public CommandStatus execute(String commandName, String commandArguments) {
+		ICommand command = environment.getCommand(commandName);
+		if (command == null) {
+			System.out.println("Ne postoji naredba: " + commandName);
+			return CommandStatus.CONTINUE;
+		}
+
+		return command.execute(commandArguments, this);
+	}
+
+	/**
+	 * Gets the environment the session belongs to.
+	 * 
+	 * @return The environment of this session
+	 */
+	public Environment getEnvironment() {
+		return environment;
+	}
+
+	/**
+	 * Gets the list of results of the last query operation.
+	 * 
+	 * @return The list of results of the last query operation
+	 */
+	public List<DocumentInfo> getResults() {
+		return results;
+	}
+
+	/**
+	 * Sets the results of the last query operation.
+	 * 
+	 * @param results
+	 *            The new results of the last query operation
+	 */
+	public void setResults(List<DocumentInfo> results) {
+		this.results = results;
+	}
+}
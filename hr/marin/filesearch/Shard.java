@@ -0,0 +1,454 @@
+package hr.marin.filesearch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * One of several parts of a sharded index. Every shard indexes only the
+ * documents it owns: a document belongs to the shard whose number is the hash
+ * of its path relative to the root directory modulo the number of shards, so
+ * shards walking the same directory structure split it without talking to
+ * each other.
+ * </p>
+ * <p>
+ * The weights of the words depend on the number of documents and the document
+ * counts of the words in the whole collection. A shard therefore reports the
+ * {@link Statistics} of its own documents, and the {@link ShardCoordinator}
+ * sends back the sum of the statistics of all the other shards, which the
+ * shard adds to the counts of its dictionary (see
+ * {@link #withRemoteStatistics(Index, Statistics)}). Every shard then weights
+ * its documents and queries exactly like a single index of the whole
+ * collection, so the similarities of the shards can be merged directly. The
+ * remote counts are patched by later refreshes like the local ones, so they
+ * are only as old as the last synchronization.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Shard {
+	/**
+	 * The document counts of the words of a part of a collection, together
+	 * with the number of its documents. They are exchanged as text: a line
+	 * with the number of documents followed by a line with a word, a tab and
+	 * its count for every word.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	public static class Statistics {
+		/**
+		 * The number of documents
+		 */
+		private int documents;
+		/**
+		 * The counted words
+		 */
+		private TermTable words;
+		/**
+		 * The number of documents containing each word, indexed by its id in
+		 * the table of words
+		 */
+		private int[] counts;
+
+		/**
+		 * Creates new statistics of the given number of documents and no
+		 * words.
+		 * 
+		 * @param documents
+		 *            The number of documents
+		 */
+		public Statistics(int documents) {
+			this.documents = documents;
+			this.words = new TermTable();
+			this.counts = new int[16];
+		}
+
+		/**
+		 * Counts the words of the documents of the given index. The counts
+		 * come from the word occurrences of the documents, not from the
+		 * dictionary, so they do not include the counts of other shards added
+		 * to it.
+		 * 
+		 * @param index
+		 *            The index
+		 * @return The statistics of the documents of the index
+		 */
+		public static Statistics of(Index index) {
+			TotalDictionary dictionary = index.getTotalDictionary();
+			int[] localCounts = localCounts(index);
+			Statistics statistics = new Statistics(index.size());
+			for (int word = 0; word < localCounts.length; word++) {
+				if (localCounts[word] > 0) {
+					statistics.add(dictionary.wordAt(word), localCounts[word]);
+				}
+			}
+			return statistics;
+		}
+
+		/**
+		 * Gets the number of documents.
+		 * 
+		 * @return The number of documents
+		 */
+		public int getDocuments() {
+			return documents;
+		}
+
+		/**
+		 * Gets the number of counted words.
+		 * 
+		 * @return The number of words
+		 */
+		public int size() {
+			return words.size();
+		}
+
+		/**
+		 * Gets the word with the given id, from 0 to {@link #size()} - 1.
+		 * 
+		 * @param id
+		 *            The id of the word
+		 * @return The word
+		 */
+		public String wordAt(int id) {
+			return words.wordAt(id);
+		}
+
+		/**
+		 * Gets the number of documents containing the word with the given id.
+		 * 
+		 * @param id
+		 *            The id of the word
+		 * @return The number of documents containing the word
+		 */
+		public int countAt(int id) {
+			return counts[id];
+		}
+
+		/**
+		 * Gets the number of documents containing the given word.
+		 * 
+		 * @param word
+		 *            The word
+		 * @return The number of documents containing the word, 0 if it is not
+		 *         counted
+		 */
+		public int count(String word) {
+			int id = words.indexOf(word);
+			return (id >= 0) ? counts[id] : 0;
+		}
+
+		/**
+		 * Adds the given number of documents to the count of a word.
+		 * 
+		 * @param word
+		 *            The word
+		 * @param count
+		 *            The number of documents added to its count
+		 */
+		public void add(String word, int count) {
+			int id = words.add(word);
+			if (id == counts.length) {
+				counts = Arrays.copyOf(counts, 2 * id);
+			}
+			counts[id] += count;
+		}
+
+		/**
+		 * Adds the documents and the word counts of the given statistics to
+		 * these.
+		 * 
+		 * @param other
+		 *            The added statistics
+		 */
+		public void add(Statistics other) {
+			documents += other.documents;
+			for (int id = 0; id < other.size(); id++) {
+				add(other.wordAt(id), other.countAt(id));
+			}
+		}
+
+		/**
+		 * Creates the statistics of the documents counted in these, but not in
+		 * the given part of them. Words that are left in no document are
+		 * dropped.
+		 * 
+		 * @param part
+		 *            The statistics of a part of the documents counted in these
+		 * @return The statistics of the remaining documents
+		 */
+		public Statistics without(Statistics part) {
+			Statistics rest = new Statistics(documents - part.documents);
+			for (int id = 0; id < size(); id++) {
+				String word = wordAt(id);
+				int count = counts[id] - part.count(word);
+				if (count > 0) {
+					rest.add(word, count);
+				}
+			}
+			return rest;
+		}
+
+		/**
+		 * Writes the statistics as text.
+		 * 
+		 * @param out
+		 *            The destination of the statistics
+		 * @throws IOException
+		 *             If writing was unsuccessful
+		 */
+		public void write(Writer out) throws IOException {
+			out.write(Integer.toString(documents));
+			out.write('\n');
+			for (int id = 0; id < size(); id++) {
+				out.write(wordAt(id));
+				out.write('\t');
+				out.write(Integer.toString(counts[id]));
+				out.write('\n');
+			}
+			out.flush();
+		}
+
+		/**
+		 * Reads statistics written by {@link #write(Writer)}.
+		 * 
+		 * @param in
+		 *            The source of the statistics
+		 * @return The read statistics
+		 * @throws IOException
+		 *             If reading was unsuccessful or the text is not valid
+		 */
+		public static Statistics read(BufferedReader in) throws IOException {
+			try {
+				String line = in.readLine();
+				if (line == null) {
+					throw new IOException("Missing number of documents.");
+				}
+				Statistics statistics = new Statistics(Integer.parseInt(line.trim()));
+				while ((line = in.readLine()) != null) {
+					int tab = line.indexOf('\t');
+					if (tab <= 0) {
+						throw new IOException("Invalid word count: " + line);
+					}
+					statistics.add(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1)));
+				}
+				return statistics;
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid statistics: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * The number of this shard, from 0 to {@link #count} - 1
+	 */
+	private int number;
+	/**
+	 * The number of shards
+	 */
+	private int count;
+
+	/**
+	 * Creates a new {@link Shard} with the given number.
+	 * 
+	 * @param number
+	 *            The number of the shard, from 0 to count - 1
+	 * @param count
+	 *            The number of shards
+	 * @throws IllegalArgumentException
+	 *             If the number is not a valid shard number
+	 */
+	public Shard(int number, int count) {
+		if (count < 1 || number < 0 || number >= count) {
+			throw new IllegalArgumentException("Invalid shard: " + number + "/" + count);
+		}
+		this.number = number;
+		this.count = count;
+	}
+
+	/**
+	 * Parses a shard given as its number and the number of shards separated
+	 * by a slash, for example "0/3".
+	 * 
+	 * @param text
+	 *            The text of the shard
+	 * @return The shard
+	 * @throws IllegalArgumentException
+	 *             If the text is not a valid shard
+	 */
+	public static Shard parse(String text) {
+		int slash = text.indexOf('/');
+		try {
+			if (slash > 0) {
+				return new Shard(Integer.parseInt(text.substring(0, slash).trim()),
+						Integer.parseInt(text.substring(slash + 1).trim()));
+			}
+		} catch (NumberFormatException ignorable) {
+		}
+		throw new IllegalArgumentException("Invalid shard: " + text);
+	}
+
+	/**
+	 * Gets the number of this shard.
+	 * 
+	 * @return The number of this shard, from 0 to {@link #getCount()} - 1
+	 */
+	public int getNumber() {
+		return number;
+	}
+
+	/**
+	 * Gets the number of shards.
+	 * 
+	 * @return The number of shards
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Checks whether the given document belongs to this shard.
+	 * 
+	 * @param root
+	 *            The absolute, normalized root directory of the documents
+	 * @param document
+	 *            The path of the document
+	 * @return True if the document is indexed by this shard
+	 */
+	public boolean owns(Path root, Path document) {
+		String relative = root.relativize(document.toAbsolutePath().normalize()).toString();
+		return Math.floorMod(relative.replace(File.separatorChar, '/').hashCode(), count) == number;
+	}
+
+	/**
+	 * Creates a filter of the documents of the given directory structure that
+	 * belong to this shard, for an {@link Indexer}.
+	 * 
+	 * @param root
+	 *            The root directory of the documents
+	 * @return The filter accepting the documents of this shard
+	 */
+	public Predicate<Path> filter(Path root) {
+		Path absoluteRoot = root.toAbsolutePath().normalize();
+		return document -> owns(absoluteRoot, document);
+	}
+
+	@Override
+	public String toString() {
+		return number + "/" + count;
+	}
+
+	/**
+	 * Creates an index of the documents of the given one whose dictionary
+	 * counts the documents of the other shards as well. The document counts of
+	 * the words are the counts of the documents of the index plus the remote
+	 * ones, and the words contained only in other shards are added, so the
+	 * queries are weighted like in a single index of the whole collection.
+	 * Counts of other shards added by an earlier call are replaced.
+	 * 
+	 * @param local
+	 *            The index of the documents of this shard
+	 * @param remote
+	 *            The statistics of the documents of all the other shards
+	 * @return The index with the counts of the whole collection
+	 */
+	public static Index withRemoteStatistics(Index local, Statistics remote) {
+		TotalDictionary dictionary = local.getTotalDictionary();
+		int[] localCounts = localCounts(local);
+
+		TermTable words = new TermTable();
+		int[] counts = new int[Math.max(16, dictionary.size() + remote.size())];
+		int[] newIndices = new int[dictionary.size()];
+		for (int word = 0; word < dictionary.size(); word++) {
+			String text = dictionary.wordAt(word);
+			int count = localCounts[word] + remote.count(text);
+			newIndices[word] = -1;
+			if (count > 0) {
+				newIndices[word] = words.add(text);
+				counts[newIndices[word]] = count;
+			}
+		}
+		for (int id = 0; id < remote.size(); id++) {
+			String text = remote.wordAt(id);
+			if (dictionary.indexOf(text) == -1) {
+				counts[words.add(text)] = remote.countAt(id);
+			}
+		}
+
+		String[] wordArray = new String[words.size()];
+		for (int id = 0; id < wordArray.length; id++) {
+			wordArray[id] = words.wordAt(id);
+		}
+		TotalDictionary merged = new TotalDictionary(wordArray, Arrays.copyOf(counts, wordArray.length),
+				local.size() + remote.getDocuments());
+
+		List<DocumentTerms> documents = new ArrayList<>(local.size());
+		for (DocumentTerms terms : local.getDocuments()) {
+			documents.add(terms.remap(newIndices));
+		}
+		return new Index(merged, documents, null, null, local.getFormat());
+	}
+
+	/**
+	 * Counts the documents of the given index containing each word of its
+	 * dictionary.
+	 * 
+	 * @param index
+	 *            The index
+	 * @return The number of documents of the index containing each word,
+	 *         indexed by the index of the word
+	 */
+	private static int[] localCounts(Index index) {
+		int[] counts = new int[index.getTotalDictionary().size()];
+		for (DocumentTerms terms : index.getDocuments()) {
+			for (int i = 0, size = terms.size(); i < size; i++) {
+				counts[terms.termAt(i)]++;
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Escapes the backslashes, tabs and line breaks of a text, so it can be
+	 * written as a field of a tab-separated line.
+	 * 
+	 * @param text
+	 *            The text
+	 * @return The escaped text
+	 */
+	static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	/**
+	 * Reverses {@link #escape(String)}.
+	 * 
+	 * @param text
+	 *            The escaped text
+	 * @return The original text
+	 */
+	static String unescape(String text) {
+		if (text.indexOf('\\') < 0) {
+			return text;
+		}
+		StringBuilder builder = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length()) {
+				char next = text.charAt(++i);
+				c = (next == 't') ? '\t' : (next == 'n') ? '\n' : (next == 'r') ? '\r' : next;
+			}
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+}
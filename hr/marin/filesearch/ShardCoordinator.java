@@ -0,0 +1,386 @@
+package hr.marin.filesearch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * Answers queries by scattering them to the {@link QueryServer}s of several
+ * {@link Shard}s and gathering their results. The shards answer the internal
+ * endpoints of the coordinator:
+ * </p>
+ * <ul>
+ * <li><code>GET {@value #STATISTICS_PATH}</code> returns the
+ * {@link Shard.Statistics} of the documents of the shard,</li>
+ * <li><code>POST {@value #DICTIONARY_PATH}</code> sends the statistics of all
+ * the other shards to the shard, which adds them to its dictionary,</li>
+ * <li><code>GET {@value #SEARCH_PATH}?q=&lt;text&gt;&amp;n=&lt;max
+ * results&gt;</code> returns the best documents of the shard, a line with the
+ * similarity, a tab and the escaped path for every document.</li>
+ * </ul>
+ * <p>
+ * Once the shards are synchronized, all of them weight the words with the
+ * document counts of the whole collection, so the similarities they return
+ * are comparable and the best documents of the collection are the best of the
+ * merged results. A query is sent to all the shards at the same time and the
+ * results are gathered until a deadline. A shard that fails or does not answer
+ * in time is left out of the results instead of failing the query, so the
+ * results are partial while a shard is down.
+ * </p>
+ * <p>
+ * All the shards must use the same ranking function. The document lengths of
+ * BM25 are averaged over the documents of each shard, so its scores differ
+ * slightly from those of a single index unless the shards are balanced.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class ShardCoordinator implements Closeable {
+	/**
+	 * The path of the statistics endpoint of a shard
+	 */
+	public static final String STATISTICS_PATH = "/shard/statistics";
+	/**
+	 * The path of the dictionary endpoint of a shard
+	 */
+	public static final String DICTIONARY_PATH = "/shard/dictionary";
+	/**
+	 * The path of the search endpoint of a shard
+	 */
+	public static final String SEARCH_PATH = "/shard/search";
+	/**
+	 * The default longest time the shards are waited for, in milliseconds
+	 */
+	public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * The base URIs of the shards
+	 */
+	private List<URI> shards;
+	/**
+	 * The longest time the shards are waited for, in milliseconds
+	 */
+	private long timeoutMillis;
+	/**
+	 * The threads of the HTTP client
+	 */
+	private ExecutorService executor;
+	/**
+	 * The client sending the requests to the shards
+	 */
+	private HttpClient client;
+	/**
+	 * The thread synchronizing the shards periodically, or null if they are
+	 * synchronized only on demand
+	 */
+	private ScheduledExecutorService scheduler;
+	/**
+	 * The number of requests to the shards that failed or timed out
+	 */
+	private AtomicLong failedRequests = new AtomicLong();
+
+	/**
+	 * Creates a new coordinator of the shards listening on the given
+	 * addresses.
+	 * 
+	 * @param shards
+	 *            The addresses of the HTTP servers of the shards
+	 * @param timeoutMillis
+	 *            The longest time the shards are waited for, in milliseconds
+	 * @throws IllegalArgumentException
+	 *             If there are no shards or the timeout is not positive
+	 */
+	public ShardCoordinator(List<InetSocketAddress> shards, long timeoutMillis) {
+		if (shards.isEmpty() || timeoutMillis < 1) {
+			throw new IllegalArgumentException("A coordinator needs shards and a positive timeout.");
+		}
+
+		this.shards = new ArrayList<>(shards.size());
+		for (InetSocketAddress address : shards) {
+			this.shards.add(URI.create("http://" + address.getHostString() + ":" + address.getPort()));
+		}
+		this.timeoutMillis = timeoutMillis;
+
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "shard-client-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.client = HttpClient.newBuilder().executor(executor).connectTimeout(Duration.ofMillis(timeoutMillis))
+				.build();
+	}
+
+	/**
+	 * Parses a comma-separated list of shard addresses, each given as a host
+	 * and a port separated by a colon, for example
+	 * "localhost:8081,localhost:8082".
+	 * 
+	 * @param text
+	 *            The list of addresses
+	 * @return The addresses, in the order they are listed
+	 * @throws IllegalArgumentException
+	 *             If an address is not valid
+	 */
+	public static List<InetSocketAddress> parseAddresses(String text) {
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for (String address : text.split(",")) {
+			address = address.trim();
+			int colon = address.lastIndexOf(':');
+			try {
+				if (colon > 0) {
+					addresses.add(InetSocketAddress.createUnresolved(address.substring(0, colon),
+							Integer.parseInt(address.substring(colon + 1))));
+					continue;
+				}
+			} catch (IllegalArgumentException ignorable) {
+			}
+			throw new IllegalArgumentException("Invalid shard address: " + address);
+		}
+		return addresses;
+	}
+
+	/**
+	 * Gets the number of shards.
+	 * 
+	 * @return The number of shards
+	 */
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * Gets the number of requests to the shards that failed or timed out
+	 * since the coordinator was created.
+	 * 
+	 * @return The number of failed requests
+	 */
+	public long getFailedRequests() {
+		return failedRequests.get();
+	}
+
+	/**
+	 * Collects the statistics of all the shards and sends every shard the sum
+	 * of the statistics of the others, so all of them weight the words like a
+	 * single index of the whole collection.
+	 * 
+	 * @return The dictionary of the whole collection
+	 * @throws IOException
+	 *             If a shard could not be synchronized. The shards that were
+	 *             synchronized before keep the new statistics.
+	 */
+	public synchronized TotalDictionary synchronize() throws IOException {
+		List<CompletableFuture<HttpResponse<InputStream>>> requests = new ArrayList<>(shards.size());
+		for (URI shard : shards) {
+			requests.add(client.sendAsync(request(shard, STATISTICS_PATH).GET().build(),
+					HttpResponse.BodyHandlers.ofInputStream()));
+		}
+
+		List<Shard.Statistics> statistics = new ArrayList<>(shards.size());
+		Shard.Statistics global = new Shard.Statistics(0);
+		for (int i = 0; i < shards.size(); i++) {
+			HttpResponse<InputStream> response = await(requests.get(i), shards.get(i));
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+				statistics.add(Shard.Statistics.read(reader));
+			}
+			global.add(statistics.get(i));
+		}
+
+		for (int i = 0; i < shards.size(); i++) {
+			StringWriter body = new StringWriter();
+			global.without(statistics.get(i)).write(body);
+			HttpRequest request = request(shards.get(i), DICTIONARY_PATH)
+					.header("Content-Type", "text/plain; charset=utf-8")
+					.POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8)).build();
+			await(client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()), shards.get(i)).body()
+					.close();
+		}
+
+		String[] words = new String[global.size()];
+		int[] counts = new int[global.size()];
+		for (int id = 0; id < words.length; id++) {
+			words[id] = global.wordAt(id);
+			counts[id] = global.countAt(id);
+		}
+		return new TotalDictionary(words, counts, global.getDocuments());
+	}
+
+	/**
+	 * Synchronizes the shards in the background every given number of
+	 * seconds, so the statistics of documents changed by refreshes reach the
+	 * other shards. Failed synchronizations are reported to the standard error
+	 * and retried at the next interval.
+	 * 
+	 * @param seconds
+	 *            The interval between synchronizations
+	 * @param listener
+	 *            Receives the dictionary of the whole collection after every
+	 *            successful synchronization
+	 * @throws IllegalStateException
+	 *             If the shards are already synchronized periodically
+	 */
+	public synchronized void synchronizeEvery(long seconds, Consumer<TotalDictionary> listener) {
+		if (scheduler != null) {
+			throw new IllegalStateException("The shards are already synchronized periodically.");
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "shard-synchronizer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				listener.accept(synchronize());
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Failed to synchronize the shards: " + e.getMessage());
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Finds the documents most similar to the given query in all the shards.
+	 * The query is sent to the shards at the same time and their results are
+	 * merged by similarity. Shards that fail or do not answer before the
+	 * deadline are left out and reported to the standard error.
+	 * 
+	 * @param query
+	 *            The text of the query
+	 * @param maxResults
+	 *            The maximum number of results
+	 * @return An unmodifiable list of the most similar documents of the
+	 *         shards that answered, from the most to the least similar
+	 */
+	public List<DocumentInfo> query(String query, int maxResults) {
+		String parameters = "?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&n=" + maxResults;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+		List<CompletableFuture<HttpResponse<String>>> requests = new ArrayList<>(shards.size());
+		for (URI shard : shards) {
+			requests.add(client.sendAsync(request(shard, SEARCH_PATH + parameters).GET().build(),
+					HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)));
+		}
+
+		List<DocumentInfo> results = new ArrayList<>();
+		for (int i = 0; i < shards.size(); i++) {
+			try {
+				long remaining = Math.max(0, deadline - System.nanoTime());
+				HttpResponse<String> response = requests.get(i).get(remaining, TimeUnit.NANOSECONDS);
+				if (response.statusCode() != 200) {
+					throw new IOException("Status " + response.statusCode());
+				}
+				// A shard whose body does not parse is left out as a whole.
+				List<DocumentInfo> shardResults = new ArrayList<>();
+				for (String line : response.body().split("\n")) {
+					int tab = line.indexOf('\t');
+					if (tab > 0) {
+						shardResults.add(new DocumentInfo(Paths.get(Shard.unescape(line.substring(tab + 1))),
+								Double.parseDouble(line.substring(0, tab))));
+					}
+				}
+				results.addAll(shardResults);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException | TimeoutException | IOException | RuntimeException e) {
+				requests.get(i).cancel(true);
+				failedRequests.incrementAndGet();
+				System.err.println("Shard " + shards.get(i) + " did not answer: "
+						+ ((e instanceof ExecutionException) ? e.getCause() : e));
+			}
+		}
+
+		results.sort(Comparator.comparingDouble(DocumentInfo::getSimilarity).reversed()
+				.thenComparing(info -> info.getPath().toString()));
+		return Collections.unmodifiableList(
+				new ArrayList<>(results.subList(0, Math.min(maxResults, results.size()))));
+	}
+
+	/**
+	 * Stops the periodic synchronization and the threads of the client.
+	 */
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Starts building a request to an endpoint of a shard.
+	 * 
+	 * @param shard
+	 *            The base URI of the shard
+	 * @param path
+	 *            The path and the query of the endpoint
+	 * @return The builder of the request
+	 */
+	private HttpRequest.Builder request(URI shard, String path) {
+		return HttpRequest.newBuilder(shard.resolve(path)).timeout(Duration.ofMillis(timeoutMillis));
+	}
+
+	/**
+	 * Waits for the response of a shard and checks that it succeeded.
+	 * 
+	 * @param request
+	 *            The sent request
+	 * @param shard
+	 *            The base URI of the shard
+	 * @return The successful response
+	 * @throws IOException
+	 *             If the request failed, timed out or was not successful
+	 */
+	private <T> HttpResponse<T> await(CompletableFuture<HttpResponse<T>> request, URI shard) throws IOException {
+		HttpResponse<T> response;
+		try {
+			response = request.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for shard " + shard, e);
+		} catch (ExecutionException | TimeoutException e) {
+			request.cancel(true);
+			failedRequests.incrementAndGet();
+			throw new IOException("Shard " + shard + " did not answer: "
+					+ ((e instanceof ExecutionException) ? e.getCause() : e), e);
+		}
+
+		if (response.statusCode() != 200) {
+			if (response.body() instanceof Closeable) {
+				((Closeable) response.body()).close();
+			}
+			failedRequests.incrementAndGet();
+			throw new IOException("Shard " + shard + " answered with status " + response.statusCode());
+		}
+		return response;
+	}
+}
@@ -0,0 +1,87 @@
+package hr.marin.filesearch;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * <p>
+ * The kernels of {@link VectorKernels} computed with the JDK Vector API, on
+ * the widest SIMD registers of the processor. The loops process a register of
+ * components at a time and add the remaining components one by one.
+ * </p>
+ * <p>
+ * The class uses the incubating module <code>jdk.incubator.vector</code>, so
+ * it is compiled and loaded only with <code>--add-modules
+ * jdk.incubator.vector</code>. It is never loaded if the module is absent, so
+ * the rest of the program runs without it.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+final class SimdKernels {
+	/**
+	 * The widest vector shape of doubles supported by the processor.
+	 */
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * Disables creating instances of this class.
+	 */
+	private SimdKernels() {
+	}
+
+	/**
+	 * Gets the number of doubles in a register.
+	 * 
+	 * @return The number of lanes of the vectors
+	 */
+	static int lanes() {
+		return SPECIES.length();
+	}
+
+	/**
+	 * Calculates the scalar product of the first components of two arrays.
+	 * 
+	 * @param a
+	 *            The first array
+	 * @param b
+	 *            The second array
+	 * @param length
+	 *            The number of components
+	 * @return The scalar product
+	 */
+	static double dot(double[] a, double[] b, int length) {
+		DoubleVector sum = DoubleVector.zero(SPECIES);
+		int i = 0;
+		for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+			sum = sum.add(DoubleVector.fromArray(SPECIES, a, i).mul(DoubleVector.fromArray(SPECIES, b, i)));
+		}
+		double result = sum.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++) {
+			result += a[i] * b[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Multiplies the first components of an array by a number, in place.
+	 * 
+	 * @param a
+	 *            The array
+	 * @param length
+	 *            The number of components
+	 * @param factor
+	 *            The number the components are multiplied by
+	 */
+	static void scale(double[] a, int length, double factor) {
+		int i = 0;
+		for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+			DoubleVector.fromArray(SPECIES, a, i).mul(factor).intoArray(a, i);
+		}
+		for (; i < length; i++) {
+			a[i] *= factor;
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Class represents a sparse implementation of the {@link AbstractVector} class.
+ * Only the non-zero components are stored, as a pair of parallel arrays sorted
+ * by the component index.
+ * </p>
+ * <p>
+ * Operations such as {@link #norm()} and {@link #scalarProduct(AbstractVector)}
+ * run in time proportional to the number of non-zero components instead of the
+ * dimension of the vector, and work on the whole arrays at once with the
+ * kernels of {@link VectorKernels}.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class SparseVector extends AbstractVector {
+	/**
+	 * The initial capacity of the component arrays of an empty vector.
+	 */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * Sorted indices of the non-zero components.
+	 */
+	private int[] indices;
+	/**
+	 * Values of the non-zero components, parallel to {@link #indices}.
+	 */
+	private double[] values;
+	/**
+	 * The number of stored (non-zero) components.
+	 */
+	private int size;
+	/**
+	 * Number of elements of the vector.
+	 */
+	private int dimension;
+
+	/**
+	 * Creates a new sparse vector with the given dimension and all elements
+	 * initialized to 0.
+	 * 
+	 * @param dimension
+	 *            The dimension of the new vector.
+	 */
+	public SparseVector(int dimension) {
+		this(dimension, new int[INITIAL_CAPACITY], new double[INITIAL_CAPACITY], 0);
+	}
+
+	/**
+	 * Creates a new sparse vector with the given dimension and the given
+	 * non-zero components. The arrays are copied and do not need to be sorted.
+	 * 
+	 * @param dimension
+	 *            The dimension of the new vector.
+	 * @param indices
+	 *            The indices of the non-zero components.
+	 * @param values
+	 *            The values of the non-zero components.
+	 * @throws IllegalArgumentException
+	 *             If the arrays differ in length, or an index is out of range
+	 *             or repeated.
+	 */
+	public SparseVector(int dimension, int[] indices, double[] values) {
+		if (indices.length != values.length) {
+			throw new IllegalArgumentException("Index and value arrays differ in length.");
+		}
+
+		this.dimension = dimension;
+		this.indices = Arrays.copyOf(indices, indices.length);
+		this.values = Arrays.copyOf(values, values.length);
+		this.size = indices.length;
+
+		sortByIndex(this.indices, this.values, size);
+
+		for (int i = 0; i < size; i++) {
+			if (this.indices[i] < 0 || this.indices[i] >= dimension || (i > 0 && this.indices[i] == this.indices[i - 1])) {
+				throw new IllegalArgumentException("Invalid component index: " + this.indices[i]);
+			}
+		}
+	}
+
+	/**
+	 * Creates a new sparse vector that takes the references of the given
+	 * arrays, which must already be sorted by index.
+	 * 
+	 * @param dimension
+	 *            The dimension of the new vector.
+	 * @param indices
+	 *            Sorted indices of the non-zero components.
+	 * @param values
+	 *            The values of the non-zero components.
+	 * @param size
+	 *            The number of used elements of the arrays.
+	 */
+	protected SparseVector(int dimension, int[] indices, double[] values, int size) {
+		this.dimension = dimension;
+		this.indices = indices;
+		this.values = values;
+		this.size = size;
+	}
+
+	@Override
+	public double get(int index) {
+		checkIndex(index);
+		int position = Arrays.binarySearch(indices, 0, size, index);
+		return (position >= 0) ? values[position] : 0.0;
+	}
+
+	@Override
+	public AbstractVector set(int index, double value) {
+		checkIndex(index);
+		int position = Arrays.binarySearch(indices, 0, size, index);
+
+		if (position >= 0) {
+			values[position] = value;
+			return this;
+		}
+
+		if (value == 0.0) {
+			return this;
+		}
+
+		position = -position - 1;
+		if (size == indices.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			indices = Arrays.copyOf(indices, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		System.arraycopy(indices, position, indices, position + 1, size - position);
+		System.arraycopy(values, position, values, position + 1, size - position);
+		indices[position] = index;
+		values[position] = value;
+		size++;
+
+		return this;
+	}
+
+	@Override
+	public int getDimension() {
+		return dimension;
+	}
+
+	@Override
+	public AbstractVector copy() {
+		return new SparseVector(dimension, Arrays.copyOf(indices, size), Arrays.copyOf(values, size), size);
+	}
+
+	/**
+	 * Gets the number of stored (non-zero) components of this vector.
+	 * 
+	 * @return The number of stored components.
+	 */
+	public int nonZeroCount() {
+		return size;
+	}
+
+	/**
+	 * Gets the index of the stored component at the given position. Positions
+	 * are ordered by ascending component index.
+	 * 
+	 * @param position
+	 *            The position of the stored component, from 0 to
+	 *            {@link #nonZeroCount()} - 1.
+	 * @return The index of the stored component.
+	 */
+	public int indexAt(int position) {
+		return indices[position];
+	}
+
+	/**
+	 * Gets the value of the stored component at the given position.
+	 * 
+	 * @param position
+	 *            The position of the stored component, from 0 to
+	 *            {@link #nonZeroCount()} - 1.
+	 * @return The value of the stored component.
+	 */
+	public double valueAt(int position) {
+		return values[position];
+	}
+
+	@Override
+	public AbstractVector scalarMultiply(double byValue) {
+		VectorKernels.scale(values, size, byValue);
+		return this;
+	}
+
+	@Override
+	public double norm() {
+		return Math.sqrt(VectorKernels.sumOfSquares(values, size));
+	}
+
+	@Override
+	public AbstractVector normalize() {
+		VectorKernels.scale(values, size, 1 / norm());
+
+		return this;
+	}
+
+	@Override
+	public double scalarProduct(AbstractVector other) {
+		if (this.getDimension() != other.getDimension()) {
+			throw new IllegalArgumentException();
+		}
+
+		double sumOfProducts = 0.0;
+
+		if (other instanceof SparseVector) {
+			SparseVector sparse = (SparseVector) other;
+			int i = 0;
+			int j = 0;
+			while (i < size && j < sparse.size) {
+				if (indices[i] == sparse.indices[j]) {
+					sumOfProducts += values[i++] * sparse.values[j++];
+				} else if (indices[i] < sparse.indices[j]) {
+					i++;
+				} else {
+					j++;
+				}
+			}
+		} else if (other instanceof Vector) {
+			sumOfProducts = VectorKernels.gatherDot(values, indices, size, ((Vector) other).elements());
+		} else {
+			for (int i = 0; i < size; i++) {
+				sumOfProducts += values[i] * other.get(indices[i]);
+			}
+		}
+
+		return sumOfProducts;
+	}
+
+	/**
+	 * Checks that the given index is a valid component index of this vector.
+	 * 
+	 * @param index
+	 *            The checked index.
+	 * @throws IndexOutOfBoundsException
+	 *             If the index is out of range.
+	 */
+	private void checkIndex(int index) {
+		if (index < 0 || index >= dimension) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", dimension: " + dimension);
+		}
+	}
+
+	/**
+	 * Sorts the first <code>size</code> elements of the parallel index and
+	 * value arrays by ascending index.
+	 * 
+	 * @param indices
+	 *            The component indices.
+	 * @param values
+	 *            The component values.
+	 * @param size
+	 *            The number of elements to sort.
+	 */
+	private static void sortByIndex(int[] indices, double[] values, int size) {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) indices[i] << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		double[] original = Arrays.copyOf(values, size);
+		for (int i = 0; i < size; i++) {
+			indices[i] = (int) (keys[i] >>> 32);
+			values[i] = original[(int) keys[i]];
+		}
+	}
+}
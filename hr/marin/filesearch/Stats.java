@@ -0,0 +1,110 @@
+package hr.marin.filesearch;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Exports the {@link Metrics} of the process and the state of an
+ * {@link Environment} through JMX, so they can be watched with tools like
+ * JConsole while the program runs.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Stats implements StatsMBean {
+	/**
+	 * The name the bean is registered under
+	 */
+	public static final String OBJECT_NAME = "hr.marin.filesearch:type=Stats";
+
+	/**
+	 * The environment whose index and query cache are exported
+	 */
+	private Environment environment;
+	/**
+	 * The exported metrics
+	 */
+	private Metrics metrics;
+
+	/**
+	 * Creates a new {@link Stats} object exporting the given environment and
+	 * the process-wide metrics.
+	 * 
+	 * @param environment
+	 *            The exported environment
+	 */
+	public Stats(Environment environment) {
+		this.environment = environment;
+		this.metrics = Metrics.global();
+	}
+
+	/**
+	 * Registers this object with the platform MBean server under
+	 * {@link #OBJECT_NAME}.
+	 * 
+	 * @throws JMException
+	 *             If the object could not be registered
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+	}
+
+	@Override
+	public long getQueryCount() {
+		return metrics.histogram(Metrics.Stage.QUERY).count();
+	}
+
+	@Override
+	public double getQueryLatencyP50Millis() {
+		return metrics.histogram(Metrics.Stage.QUERY).percentile(50) / 1e6;
+	}
+
+	@Override
+	public double getQueryLatencyP99Millis() {
+		return metrics.histogram(Metrics.Stage.QUERY).percentile(99) / 1e6;
+	}
+
+	@Override
+	public double getPruningRatio() {
+		return metrics.getPruningRatio();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return environment.getQueryCache().getHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return environment.getQueryCache().getMisses();
+	}
+
+	@Override
+	public long getDocumentsIngested() {
+		return metrics.getDocumentsIngested();
+	}
+
+	@Override
+	public double getDocumentsPerSecond() {
+		return metrics.getDocumentsPerSecond();
+	}
+
+	@Override
+	public int getIndexDocuments() {
+		return environment.getIndex().size();
+	}
+
+	@Override
+	public long getIndexBytes() {
+		return environment.getIndex().estimatedBytes();
+	}
+
+	@Override
+	public long getIndexOffHeapBytes() {
+		return environment.getIndex().offHeapBytes();
+	}
+}
@@ -0,0 +1,73 @@
+package hr.marin.filesearch;
+
+/**
+ * <p>
+ * An implementation of the {@link ICommand} interface that represents the
+ * stats command of the console.<br>
+ * The command displays the runtime metrics of the program: the latency
+ * percentiles of the queries and of every instrumented stage, the hit rate of
+ * the query cache, the reading throughput and the approximate memory used by
+ * the index.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class StatsCommand implements ICommand {
+
+	@Override
+	public CommandStatus execute(String arguments, Session session) {
+		Environment environment = session.getEnvironment();
+		Metrics metrics = Metrics.global();
+		Index index = environment.getIndex();
+		QueryCache cache = environment.getQueryCache();
+
+		LatencyHistogram queries = metrics.histogram(Metrics.Stage.QUERY);
+		System.out.format("Upiti: %d, p50 %s, p99 %s, max %s%n", queries.count(), format(queries.percentile(50)),
+				format(queries.percentile(99)), format(queries.maxNanos()));
+		System.out.format("Bodovano %d od %d pojava riječi (preskočeno %.1f %%)%n", metrics.getScoredPostings(),
+				metrics.getPostings(), 100 * metrics.getPruningRatio());
+		System.out.format("Priručna memorija: %d pogodaka, %d promašaja, %d zapisa (%d B)%n", cache.getHits(),
+				cache.getMisses(), cache.size(), cache.bytes());
+		System.out.format("Pročitano: %d dokumenata (%d B), %.1f dokumenata/s%n", metrics.getDocumentsIngested(),
+				metrics.getBytesIngested(), metrics.getDocumentsPerSecond());
+		System.out.format("Indeks: %d dokumenata, %d riječi, približno %d B%n", index.size(),
+				index.getTotalDictionary().size(), index.estimatedBytes());
+		if (index.getFormat() == InvertedIndex.Format.OFF_HEAP) {
+			System.out.format("Izvan gomile: %d B%n", index.offHeapBytes());
+		} else if (index.isOffHeap()) {
+			System.out.format("Izvan gomile, sažeto: %d B%n", index.offHeapBytes());
+		}
+
+		System.out.format("%-12s %8s %12s %12s %12s%n", "faza", "broj", "p50", "p99", "ukupno");
+		for (Metrics.Stage stage : Metrics.Stage.values()) {
+			LatencyHistogram histogram = metrics.histogram(stage);
+			System.out.format("%-12s %8d %12s %12s %12s%n", stage.getLabel(), histogram.count(),
+					format(histogram.percentile(50)), format(histogram.percentile(99)),
+					format(histogram.totalNanos()));
+		}
+
+		return CommandStatus.CONTINUE;
+	}
+
+	/**
+	 * Formats a duration given in nanoseconds with a suitable unit.
+	 * 
+	 * @param nanos
+	 *            The duration in nanoseconds
+	 * @return The formatted duration
+	 */
+	private static String format(long nanos) {
+		if (nanos >= 1_000_000_000L) {
+			return String.format("%.2f s", nanos / 1e9);
+		}
+		if (nanos >= 1_000_000L) {
+			return String.format("%.2f ms", nanos / 1e6);
+		}
+		if (nanos >= 1_000L) {
+			return String.format("%.2f us", nanos / 1e3);
+		}
+		return nanos + " ns";
+	}
+
+}
@@ -0,0 +1,89 @@
+package hr.marin.filesearch;
+
+/**
+ * The management interface of {@link Stats}, exporting the runtime metrics of
+ * the document analyzer through JMX.
+ * 
+ * @author Marin
+ *
+ */
+public interface StatsMBean {
+	/**
+	 * Gets the number of executed queries.
+	 * 
+	 * @return The number of queries
+	 */
+	long getQueryCount();
+
+	/**
+	 * Gets the median latency of the queries.
+	 * 
+	 * @return The median latency in milliseconds
+	 */
+	double getQueryLatencyP50Millis();
+
+	/**
+	 * Gets the 99th percentile of the latency of the queries.
+	 * 
+	 * @return The 99th percentile in milliseconds
+	 */
+	double getQueryLatencyP99Millis();
+
+	/**
+	 * Gets the share of the postings of the queries' words that were skipped
+	 * by pruning.
+	 * 
+	 * @return The pruning ratio from 0 to 1
+	 */
+	double getPruningRatio();
+
+	/**
+	 * Gets the number of lookups that found a result in the query cache.
+	 * 
+	 * @return The number of cache hits
+	 */
+	long getCacheHits();
+
+	/**
+	 * Gets the number of lookups that did not find a result in the query
+	 * cache.
+	 * 
+	 * @return The number of cache misses
+	 */
+	long getCacheMisses();
+
+	/**
+	 * Gets the number of read documents.
+	 * 
+	 * @return The number of documents
+	 */
+	long getDocumentsIngested();
+
+	/**
+	 * Gets the average number of documents read per second of reading.
+	 * 
+	 * @return The number of documents per second
+	 */
+	double getDocumentsPerSecond();
+
+	/**
+	 * Gets the number of documents in the index.
+	 * 
+	 * @return The number of documents
+	 */
+	int getIndexDocuments();
+
+	/**
+	 * Gets the approximate heap memory used by the index.
+	 * 
+	 * @return The size of the index on the heap in bytes
+	 */
+	long getIndexBytes();
+
+	/**
+	 * Gets the direct memory used by the posting lists of the index.
+	 * 
+	 * @return The size of the index off the heap in bytes
+	 */
+	long getIndexOffHeapBytes();
+}
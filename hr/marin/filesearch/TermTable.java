@@ -0,0 +1,258 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An open-addressing hash table that assigns consecutive ids to words. The
+ * characters of all the words are stored one after another in a single
+ * character arena, and the table itself consists only of primitive arrays, so
+ * a table of millions of words costs a few arrays instead of millions of
+ * objects.
+ * </p>
+ * <p>
+ * Looking a word up takes one probe sequence and allocates nothing. The id of a
+ * word is the order in which it was added, starting from 0.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class TermTable {
+	/**
+	 * The initial number of slots of the table. Must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The characters of all the words, one after another.
+	 */
+	private char[] arena;
+	/**
+	 * The number of used characters of the arena.
+	 */
+	private int arenaLength;
+	/**
+	 * The offsets of the words in the arena, indexed by id. The word with id i
+	 * ends where the word with id i + 1 starts.
+	 */
+	private int[] offsets;
+	/**
+	 * The hashes of the words, indexed by id.
+	 */
+	private int[] hashes;
+	/**
+	 * The slots of the hash table, each containing the id of a word plus one,
+	 * or 0 if the slot is empty.
+	 */
+	private int[] slots;
+	/**
+	 * The number of words in the table.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new empty {@link TermTable}.
+	 */
+	public TermTable() {
+		this(0, 0);
+	}
+
+	/**
+	 * Creates a new empty {@link TermTable} with room for the given number of
+	 * words and characters.
+	 * 
+	 * @param expectedWords
+	 *            The expected number of words.
+	 * @param expectedCharacters
+	 *            The expected total number of characters of all the words.
+	 */
+	public TermTable(int expectedWords, int expectedCharacters) {
+		int capacity = INITIAL_CAPACITY;
+		while (capacity * 3 < expectedWords * 4) {
+			capacity *= 2;
+		}
+
+		arena = new char[Math.max(expectedCharacters, 256)];
+		offsets = new int[Math.max(expectedWords, 16) + 1];
+		hashes = new int[offsets.length - 1];
+		slots = new int[capacity];
+	}
+
+	/**
+	 * Gets the number of words in the table.
+	 * 
+	 * @return The number of words.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the id of the given word.
+	 * 
+	 * @param word
+	 *            The word.
+	 * @return The id of the word, or -1 if it is not in the table.
+	 */
+	public int indexOf(CharSequence word) {
+		int id = slots[find(word, hash(word))] - 1;
+		return id;
+	}
+
+	/**
+	 * Adds the given word to the table if it is not in it yet.
+	 * 
+	 * @param word
+	 *            The word.
+	 * @return The id of the word.
+	 */
+	public int add(CharSequence word) {
+		int hash = hash(word);
+		int slot = find(word, hash);
+		if (slots[slot] != 0) {
+			return slots[slot] - 1;
+		}
+
+		int length = word.length();
+		if (arenaLength + length > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaLength + length));
+		}
+		for (int i = 0; i < length; i++) {
+			arena[arenaLength + i] = word.charAt(i);
+		}
+		arenaLength += length;
+
+		if (size + 1 == offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			hashes = Arrays.copyOf(hashes, offsets.length - 1);
+		}
+		int id = size++;
+		offsets[id + 1] = arenaLength;
+		hashes[id] = hash;
+		slots[slot] = id + 1;
+
+		if (size * 4 > slots.length * 3) {
+			grow();
+		}
+		return id;
+	}
+
+	/**
+	 * Gets the word with the given id. A new string is created on every call.
+	 * 
+	 * @param id
+	 *            The id of the word.
+	 * @return The word.
+	 */
+	public String wordAt(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("Id: " + id + ", size: " + size);
+		}
+		return new String(arena, offsets[id], offsets[id + 1] - offsets[id]);
+	}
+
+	/**
+	 * Estimates the memory used by the table.
+	 *
+	 * @return The approximate size of the arrays of the table in bytes
+	 */
+	public long estimatedBytes() {
+		return 2L * arena.length + 4L * (offsets.length + hashes.length + slots.length);
+	}
+
+	/**
+	 * Finds the slot containing the given word, or the empty slot where it
+	 * would be added.
+	 * 
+	 * @param word
+	 *            The word.
+	 * @param hash
+	 *            The hash of the word.
+	 * @return The slot of the word.
+	 */
+	private int find(CharSequence word, int hash) {
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+
+		while (slots[slot] != 0) {
+			int id = slots[slot] - 1;
+			if (hashes[id] == hash && equals(id, word)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Doubles the number of slots and moves all the words to their new slots.
+	 */
+	private void grow() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+
+		for (int id = 0; id < size; id++) {
+			int slot = mix(hashes[id]) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	/**
+	 * Checks whether the word with the given id equals the given word.
+	 * 
+	 * @param id
+	 *            The id of the stored word.
+	 * @param word
+	 *            The compared word.
+	 * @return True if the words contain the same characters.
+	 */
+	private boolean equals(int id, CharSequence word) {
+		int offset = offsets[id];
+		int length = offsets[id + 1] - offset;
+		if (length != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (arena[offset + i] != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Calculates the hash of the given word, equal to the
+	 * {@link String#hashCode()} of the word.
+	 * 
+	 * @param word
+	 *            The word.
+	 * @return The hash of the word.
+	 */
+	private static int hash(CharSequence word) {
+		if (word instanceof String) {
+			return word.hashCode();
+		}
+		int hash = 0;
+		for (int i = 0, length = word.length(); i < length; i++) {
+			hash = 31 * hash + word.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Spreads the bits of a string hash so that words differing only in their
+	 * last characters do not cluster in neighbouring slots.
+	 * 
+	 * @param hash
+	 *            The string hash.
+	 * @return The mixed hash.
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
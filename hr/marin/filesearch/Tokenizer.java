@@ -0,0 +1,279 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * <p>
+ * A streaming tokenizer that splits text into words and counts them in a
+ * {@link WordCounter}. A word is a maximal sequence of Unicode letters; the
+ * words are lower-cased and the stop words are skipped.
+ * </p>
+ * <p>
+ * The text is processed in a single pass, character by character, and can be
+ * fed in any number of chunks - a word or a surrogate pair split between two
+ * chunks is joined. No copy of the text is made and no string is created
+ * except the first time a word is seen.
+ * </p>
+ * <p>
+ * Optionally, the tokenizer also records the positions of the words. The
+ * position of a word is the number of words before it, counting the stop
+ * words too, so two words separated by a stop word are not taken to be
+ * neighbours.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Tokenizer {
+	/**
+	 * The initial capacity of the buffer of the current word.
+	 */
+	private static final int INITIAL_WORD_CAPACITY = 32;
+	/**
+	 * The initial capacity of the recorded tokens.
+	 */
+	private static final int INITIAL_TOKEN_CAPACITY = 64;
+	/**
+	 * The last stop words set and its table, reused while the same set is
+	 * given to new tokenizers.
+	 */
+	private static volatile StopWords lastStopWords;
+
+	/**
+	 * The stop words set together with a table for looking them up in a
+	 * character buffer.
+	 * 
+	 * @author Marin
+	 *
+	 */
+	private static class StopWords {
+		/**
+		 * The set of all the stop words.
+		 */
+		final Set<String> set;
+		/**
+		 * The stop words in a table searchable by buffer regions.
+		 */
+		final WordCounter table;
+
+		/**
+		 * Creates a new {@link StopWords} object from the given set.
+		 * 
+		 * @param set
+		 *            The set of all the stop words.
+		 */
+		StopWords(Set<String> set) {
+			this.set = set;
+			this.table = WordCounter.of(set);
+		}
+	}
+
+	/**
+	 * The counts of the words found so far.
+	 */
+	private WordCounter counter;
+	/**
+	 * The stop words that are skipped.
+	 */
+	private WordCounter stopWords;
+	/**
+	 * The lower-cased characters of the current word.
+	 */
+	private char[] word;
+	/**
+	 * The number of characters of the current word.
+	 */
+	private int length;
+	/**
+	 * A high surrogate at the end of the last chunk, waiting for its low
+	 * surrogate, or 0 if there is none.
+	 */
+	private char pendingHighSurrogate;
+	/**
+	 * The position of the next word.
+	 */
+	private int position;
+	/**
+	 * The ids of the counted words in the order they were found, or null if
+	 * the positions are not recorded.
+	 */
+	private int[] tokenIds;
+	/**
+	 * The positions of the counted words, parallel to {@link #tokenIds}.
+	 */
+	private int[] tokenPositions;
+	/**
+	 * The number of recorded tokens.
+	 */
+	private int numOfTokens;
+
+	/**
+	 * Creates a new {@link Tokenizer} that skips the given stop words.
+	 * 
+	 * @param stopWords
+	 *            The words that are not counted.
+	 */
+	public Tokenizer(Set<String> stopWords) {
+		this(stopWords, false);
+	}
+
+	/**
+	 * Creates a new {@link Tokenizer} that skips the given stop words and
+	 * optionally records the positions of the words.
+	 * 
+	 * @param stopWords
+	 *            The words that are not counted.
+	 * @param positions
+	 *            Whether the positions of the words are recorded.
+	 */
+	public Tokenizer(Set<String> stopWords, boolean positions) {
+		StopWords last = lastStopWords;
+		if (last == null || last.set != stopWords) {
+			last = new StopWords(stopWords);
+			lastStopWords = last;
+		}
+
+		this.counter = new WordCounter();
+		this.stopWords = last.table;
+		this.word = new char[INITIAL_WORD_CAPACITY];
+		if (positions) {
+			this.tokenIds = new int[INITIAL_TOKEN_CAPACITY];
+			this.tokenPositions = new int[INITIAL_TOKEN_CAPACITY];
+		}
+	}
+
+	/**
+	 * Tokenizes the given chunk of text.
+	 * 
+	 * @param chunk
+	 *            The chunk of text.
+	 * @param start
+	 *            The index of the first character of the chunk that is
+	 *            tokenized.
+	 * @param end
+	 *            The index after the last character of the chunk that is
+	 *            tokenized.
+	 */
+	public void feed(CharSequence chunk, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = chunk.charAt(i);
+
+			if (pendingHighSurrogate != 0) {
+				char high = pendingHighSurrogate;
+				pendingHighSurrogate = 0;
+				if (Character.isLowSurrogate(c)) {
+					accept(Character.toCodePoint(high, c));
+					continue;
+				}
+				endWord();
+			}
+
+			if (Character.isHighSurrogate(c)) {
+				pendingHighSurrogate = c;
+			} else {
+				accept(c);
+			}
+		}
+	}
+
+	/**
+	 * Ends the text, counting the last word if there is one, and returns the
+	 * counts of all the words.
+	 * 
+	 * @return The counts of all the words of the text.
+	 */
+	public WordCounter finish() {
+		pendingHighSurrogate = 0;
+		endWord();
+		return counter;
+	}
+
+	/**
+	 * Gets the recorded positions of all the words, indexed by the ids the
+	 * words have in the counter returned by {@link #finish()}. The positions
+	 * of every word are in ascending order. Must be called after
+	 * {@link #finish()}.
+	 * 
+	 * @return The positions of the words, or null if the positions are not
+	 *         recorded.
+	 */
+	public int[][] positions() {
+		if (tokenIds == null) {
+			return null;
+		}
+
+		int[][] positions = new int[counter.size()][];
+		for (int slot = 0, capacity = counter.capacity(); slot < capacity; slot++) {
+			if (counter.wordAt(slot) != null) {
+				positions[counter.idAt(slot)] = new int[counter.countAt(slot)];
+			}
+		}
+		int[] counts = new int[positions.length];
+		for (int i = 0; i < numOfTokens; i++) {
+			int id = tokenIds[i];
+			positions[id][counts[id]++] = tokenPositions[i];
+		}
+		return positions;
+	}
+
+	/**
+	 * Processes a single code point: a letter is lower-cased and appended to
+	 * the current word, any other code point ends the current word.
+	 * 
+	 * @param codePoint
+	 *            The code point.
+	 */
+	private void accept(int codePoint) {
+		if (!Character.isLetter(codePoint)) {
+			endWord();
+			return;
+		}
+
+		int lowerCase = Character.toLowerCase(codePoint);
+		if (length + 2 > word.length) {
+			char[] bigger = new char[word.length * 2];
+			System.arraycopy(word, 0, bigger, 0, length);
+			word = bigger;
+		}
+		if (Character.isBmpCodePoint(lowerCase)) {
+			word[length++] = (char) lowerCase;
+		} else {
+			length += Character.toChars(lowerCase, word, length);
+		}
+	}
+
+	/**
+	 * Counts the current word, unless it is empty or a stop word, and starts a
+	 * new one.
+	 */
+	private void endWord() {
+		if (length == 0) {
+			return;
+		}
+		if (stopWords.count(word, 0, length) == 0) {
+			int id = counter.increment(word, 0, length);
+			if (tokenIds != null) {
+				record(id);
+			}
+		}
+		position++;
+		length = 0;
+	}
+
+	/**
+	 * Records the position of the word with the given id.
+	 * 
+	 * @param id
+	 *            The id of the word in the counter.
+	 */
+	private void record(int id) {
+		if (numOfTokens == tokenIds.length) {
+			tokenIds = Arrays.copyOf(tokenIds, 2 * numOfTokens);
+			tokenPositions = Arrays.copyOf(tokenPositions, 2 * numOfTokens);
+		}
+		tokenIds[numOfTokens] = id;
+		tokenPositions[numOfTokens] = position;
+		numOfTokens++;
+	}
+}
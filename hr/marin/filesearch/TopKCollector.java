@@ -0,0 +1,274 @@
+package hr.marin.filesearch;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Collects the k best scored documents out of any number of offered (document
+ * id, score) pairs. The pairs are kept in a bounded binary min-heap over two
+ * primitive arrays, so offering a document costs O(log k). The arrays grow
+ * as documents are collected, up to k, so a large k costs only as much memory
+ * as the documents that are actually offered.
+ * </p>
+ * <p>
+ * Of two documents with an equal score the one with the lower id is
+ * considered better.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class TopKCollector {
+	/**
+	 * The initial capacity of the arrays, unless k is smaller.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The maximum number of collected documents.
+	 */
+	private int k;
+	/**
+	 * Ids of the collected documents, in heap order.
+	 */
+	private int[] documents;
+	/**
+	 * Scores of the collected documents, parallel to {@link #documents}.
+	 */
+	private double[] scores;
+	/**
+	 * The number of collected documents.
+	 */
+	private int size;
+	/**
+	 * True once {@link #sort()} has been called.
+	 */
+	private boolean sorted;
+
+	/**
+	 * Creates a new empty {@link TopKCollector} that keeps at most k
+	 * documents.
+	 * 
+	 * @param k
+	 *            The maximum number of documents kept.
+	 * @throws IllegalArgumentException
+	 *             If k is negative.
+	 */
+	public TopKCollector(int k) {
+		if (k < 0) {
+			throw new IllegalArgumentException("Number of results must not be negative: " + k);
+		}
+		this.k = k;
+		documents = new int[Math.min(k, INITIAL_CAPACITY)];
+		scores = new double[documents.length];
+	}
+
+	/**
+	 * Offers a document to the collector. The document is kept if fewer than k
+	 * documents have been collected or if it is better than the worst of them.
+	 * 
+	 * @param docId
+	 *            The id of the document.
+	 * @param score
+	 *            The score of the document.
+	 * @throws IllegalStateException
+	 *             If the collector has already been sorted.
+	 */
+	public void offer(int docId, double score) {
+		if (sorted) {
+			throw new IllegalStateException("Collector has already been sorted.");
+		}
+
+		if (size < k) {
+			if (size == documents.length) {
+				int capacity = (int) Math.min(k, 2L * size);
+				documents = Arrays.copyOf(documents, capacity);
+				scores = Arrays.copyOf(scores, capacity);
+			}
+			documents[size] = docId;
+			scores[size] = score;
+			siftUp(size++);
+		} else if (size > 0 && isWorse(documents[0], scores[0], docId, score)) {
+			documents[0] = docId;
+			scores[0] = score;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	 * Offers all the documents collected by the given collector to this one,
+	 * for example to combine the collectors of separately scored parts of the
+	 * documents. The result does not depend on the order in which collectors
+	 * are merged.
+	 * 
+	 * @param other
+	 *            The collector whose documents are offered.
+	 * @throws IllegalStateException
+	 *             If this collector has already been sorted.
+	 */
+	public void merge(TopKCollector other) {
+		for (int i = 0; i < other.size; i++) {
+			offer(other.documents[i], other.scores[i]);
+		}
+	}
+
+	/**
+	 * Checks whether k documents have already been collected.
+	 * 
+	 * @return True if the collector is full, false otherwise.
+	 */
+	public boolean isFull() {
+		return size == k;
+	}
+
+	/**
+	 * Gets the lowest score of the collected documents, which a document must
+	 * beat to be collected once the collector is full.
+	 * 
+	 * @return The lowest collected score, or negative infinity if the collector
+	 *         is not full.
+	 */
+	public double threshold() {
+		return (isFull() && size > 0) ? scores[0] : Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Gets the number of collected documents.
+	 * 
+	 * @return The number of collected documents.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sorts the collected documents from the best to the worst. No documents
+	 * can be offered after the collector has been sorted.
+	 */
+	public void sort() {
+		if (sorted) {
+			return;
+		}
+		for (int last = size - 1; last > 0; last--) {
+			swap(0, last);
+			siftDown(0, last);
+		}
+		sorted = true;
+	}
+
+	/**
+	 * Gets the id of the document at the given rank. The collector must be
+	 * sorted first.
+	 * 
+	 * @param rank
+	 *            The rank of the document, 0 being the best.
+	 * @return The id of the document at the given rank.
+	 */
+	public int documentAt(int rank) {
+		checkSorted();
+		return documents[rank];
+	}
+
+	/**
+	 * Gets the score of the document at the given rank. The collector must be
+	 * sorted first.
+	 * 
+	 * @param rank
+	 *            The rank of the document, 0 being the best.
+	 * @return The score of the document at the given rank.
+	 */
+	public double scoreAt(int rank) {
+		checkSorted();
+		return scores[rank];
+	}
+
+	/**
+	 * Throws an {@link IllegalStateException} if the collector is not sorted.
+	 */
+	private void checkSorted() {
+		if (!sorted) {
+			throw new IllegalStateException("Collector has not been sorted.");
+		}
+	}
+
+	/**
+	 * Moves the element at the given heap position up until the heap property
+	 * is restored.
+	 * 
+	 * @param position
+	 *            The position of the element.
+	 */
+	private void siftUp(int position) {
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			if (!isWorse(documents[position], scores[position], documents[parent], scores[parent])) {
+				break;
+			}
+			swap(position, parent);
+			position = parent;
+		}
+	}
+
+	/**
+	 * Moves the element at the given heap position down until the heap
+	 * property is restored within the first <code>length</code> elements.
+	 * 
+	 * @param position
+	 *            The position of the element.
+	 * @param length
+	 *            The number of elements forming the heap.
+	 */
+	private void siftDown(int position, int length) {
+		while (true) {
+			int worst = position;
+			int left = 2 * position + 1;
+			int right = left + 1;
+			if (left < length && isWorse(documents[left], scores[left], documents[worst], scores[worst])) {
+				worst = left;
+			}
+			if (right < length && isWorse(documents[right], scores[right], documents[worst], scores[worst])) {
+				worst = right;
+			}
+			if (worst == position) {
+				return;
+			}
+			swap(position, worst);
+			position = worst;
+		}
+	}
+
+	/**
+	 * Swaps two elements of the heap.
+	 * 
+	 * @param i
+	 *            The position of the first element.
+	 * @param j
+	 *            The position of the second element.
+	 */
+	private void swap(int i, int j) {
+		int document = documents[i];
+		documents[i] = documents[j];
+		documents[j] = document;
+
+		double score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+	/**
+	 * Checks whether the first document ranks below the second one.
+	 * 
+	 * @param docId1
+	 *            The id of the first document.
+	 * @param score1
+	 *            The score of the first document.
+	 * @param docId2
+	 *            The id of the second document.
+	 * @param score2
+	 *            The score of the second document.
+	 * @return True if the first document is worse than the second one.
+	 */
+	private static boolean isWorse(int docId1, double score1, int docId2, double score2) {
+		return score1 < score2 || (score1 == score2 && docId1 > docId2);
+	}
+}
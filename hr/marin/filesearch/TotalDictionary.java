@@ -1,52 +1,47 @@
 package hr.marin.filesearch;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
+ * <p>
  * The dictionary containing all the words of all the documents.
+ * </p>
+ * <p>
+ * The words are kept in a {@link TermTable}, and the number of documents
+ * containing each word in an array indexed by the index of the word, so the
+ * dictionary consists of a few primitive arrays regardless of its size, and
+ * looking a word up allocates nothing.
+ * </p>
+ * <p>
+ * The inverse document frequency of every word is calculated once, when the
+ * dictionary is created, from the number of documents containing the word and
+ * the number of all the documents.
+ * </p>
  * 
  * @author Marin
  *
  */
 public class TotalDictionary {
 	/**
-	 * A simple data structure containing two pieces of information - the number
-	 * of documents containing the word and its index in the total dictionary.
-	 * 
-	 * @author Marin
-	 *
-	 */
-	private static class WordInfo {
-		/**
-		 * The number of documents containing the word
-		 */
-		int numberOfDocuments;
-		/**
-		 * The index of the word in the dictionary
-		 */
-		int index;
-
-		/**
-		 * Creates a new {@link WordInfo} object with the given parameters.
-		 * 
-		 * @param numberOfDocuments
-		 *            The number of documents containing the word
-		 * @param index
-		 *            The index of the word in the dictionary
-		 */
-		WordInfo(int numberOfDocuments, int index) {
-			this.numberOfDocuments = numberOfDocuments;
-			this.index = index;
-		}
-	}
-
+	 * The words of this dictionary. The id of a word in the table is its index
+	 * in the dictionary.
+	 */
+	private TermTable words;
+	/**
+	 * The number of documents containing each word, indexed by the index of the
+	 * word.
+	 */
+	private int[] numbersOfDocuments;
 	/**
-	 * A map that pairs the words of this dictionary with their {@link WordInfo}
-	 * .
+	 * The number of all the documents
 	 */
-	private Map<String, WordInfo> wordMap;
+	private int numberOfDocuments;
+	/**
+	 * The inverse document frequency of each word, indexed by the index of the
+	 * word.
+	 */
+	private double[] idf;
 
 	/**
 	 * Creates a new {@link TotalDictionary} from the given list of
@@ -59,22 +54,105 @@ public class TotalDictionary {
 	 *            A list of all {@link DocumentDictionary} objects.
 	 */
 	public TotalDictionary(List<DocumentDictionary> docDicts) {
-		wordMap = new HashMap<>();
-		int index = 0;
+		words = new TermTable();
+		numbersOfDocuments = new int[16];
 
-		WordInfo wordInfo = null;
 		for (DocumentDictionary docDict : docDicts) {
-			for (String word : docDict.getWordSet()) {
-				wordInfo = wordMap.get(word);
-
-				if (wordInfo != null) {
-					wordInfo.numberOfDocuments++;
-				} else {
-					wordMap.put(word, new WordInfo(1, index));
-					index++;
+			for (int slot = 0, capacity = docDict.capacity(); slot < capacity; slot++) {
+				String word = docDict.wordAt(slot);
+				if (word == null) {
+					continue;
+				}
+
+				int index = words.add(word);
+				if (index == numbersOfDocuments.length) {
+					numbersOfDocuments = Arrays.copyOf(numbersOfDocuments, index * 2);
 				}
+				numbersOfDocuments[index]++;
+			}
+		}
+
+		numberOfDocuments = docDicts.size();
+		idf = inverseDocumentFrequencies(numbersOfDocuments, words.size(), numberOfDocuments);
+	}
+
+	/**
+	 * Creates a new {@link TotalDictionary} from the given words and their
+	 * document counts. The index of each word is its position in the array.
+	 * 
+	 * @param words
+	 *            All the words of the dictionary, ordered by their index.
+	 * @param numbersOfDocuments
+	 *            The number of documents containing each word, parallel to the
+	 *            words array.
+	 * @param numberOfDocuments
+	 *            The number of all the documents.
+	 * @throws IllegalArgumentException
+	 *             If the arrays differ in length or a word is repeated.
+	 */
+	public TotalDictionary(String[] words, int[] numbersOfDocuments, int numberOfDocuments) {
+		if (words.length != numbersOfDocuments.length) {
+			throw new IllegalArgumentException("Word and document count arrays differ in length.");
+		}
+
+		int characters = 0;
+		for (String word : words) {
+			characters += word.length();
+		}
+
+		this.words = new TermTable(words.length, characters);
+		for (int index = 0; index < words.length; index++) {
+			if (this.words.add(words[index]) != index) {
+				throw new IllegalArgumentException("Repeated word: " + words[index]);
 			}
 		}
+		this.numbersOfDocuments = Arrays.copyOf(numbersOfDocuments, numbersOfDocuments.length);
+		this.numberOfDocuments = numberOfDocuments;
+		this.idf = inverseDocumentFrequencies(this.numbersOfDocuments, words.length, numberOfDocuments);
+	}
+
+	/**
+	 * Calculates the inverse document frequencies of the words.
+	 * 
+	 * @param numbersOfDocuments
+	 *            The number of documents containing each word.
+	 * @param size
+	 *            The number of words.
+	 * @param numberOfDocuments
+	 *            The number of all the documents.
+	 * @return The inverse document frequency of each word.
+	 */
+	private static double[] inverseDocumentFrequencies(int[] numbersOfDocuments, int size, int numberOfDocuments) {
+		double[] idf = new double[size];
+		for (int index = 0; index < size; index++) {
+			idf[index] = Utilities.tfIdf(1, numberOfDocuments, numbersOfDocuments[index]);
+		}
+		return idf;
+	}
+
+	/**
+	 * Gets all the words of the dictionary, ordered by their index.
+	 * 
+	 * @return An array containing the word with index i at position i.
+	 */
+	public String[] getWords() {
+		String[] array = new String[words.size()];
+		for (int index = 0; index < array.length; index++) {
+			array[index] = words.wordAt(index);
+		}
+		return array;
+	}
+
+	/**
+	 * Gets the word with the given index. A new string is created on every
+	 * call.
+	 * 
+	 * @param index
+	 *            The index of the word, from 0 to {@link #size()} - 1.
+	 * @return The word with the given index.
+	 */
+	public String wordAt(int index) {
+		return words.wordAt(index);
 	}
 
 	/**
@@ -83,7 +161,7 @@ public class TotalDictionary {
 	 * @return The number of words in the dictionary.
 	 */
 	public int size() {
-		return wordMap.size();
+		return words.size();
 	}
 
 	/**
@@ -94,8 +172,7 @@ public class TotalDictionary {
 	 * @return The idnex of the given word in the dictionary.
 	 */
 	public int indexOf(String word) {
-		WordInfo wordInfo = wordMap.get(word);
-		return (wordInfo != null) ? wordInfo.index : -1;
+		return words.indexOf(word);
 	}
 
 	/**
@@ -106,7 +183,50 @@ public class TotalDictionary {
 	 * @return The number of documents with the given string.
 	 */
 	public int numberOfDocumentsWith(String word) {
-		WordInfo wordInfo = wordMap.get(word);
-		return (wordInfo != null) ? wordInfo.numberOfDocuments : 0;
+		int index = words.indexOf(word);
+		return (index != -1) ? numbersOfDocuments[index] : 0;
+	}
+
+	/**
+	 * Estimates the memory used by the dictionary.
+	 * 
+	 * @return The approximate size of the dictionary in bytes
+	 */
+	public long estimatedBytes() {
+		return words.estimatedBytes() + 4L * numbersOfDocuments.length + 8L * idf.length;
+	}
+
+	/**
+	 * Gets the number of all the documents the dictionary was created from.
+	 * 
+	 * @return The number of documents.
+	 */
+	public int numberOfDocuments() {
+		return numberOfDocuments;
+	}
+
+	/**
+	 * Gets the inverse document frequency of the word with the given index,
+	 * the logarithm of the number of all the documents divided by the number
+	 * of documents containing the word.
+	 * 
+	 * @param index
+	 *            The index of the word, from 0 to {@link #size()} - 1.
+	 * @return The inverse document frequency of the word.
+	 */
+	public double idf(int index) {
+		return idf[index];
+	}
+
+	/**
+	 * The number of all the documents that contain the word with the given
+	 * index.
+	 * 
+	 * @param index
+	 *            The index of the word, from 0 to {@link #size()} - 1.
+	 * @return The number of documents with the word.
+	 */
+	public int numberOfDocumentsWith(int index) {
+		return numbersOfDocuments[index];
 	}
 }
@@ -1,8 +1,12 @@
 package hr.marin.filesearch;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
@@ -27,9 +31,9 @@ public class TypeCommand implements ICommand {
 	private static final String DASHED_LINE = "----------------------------------------------------------";
 
 	@Override
-	public CommandStatus execute(String arguments, Environment environment) {
+	public CommandStatus execute(String arguments, Session session) {
 		// TODO
-		List<DocumentInfo> results = environment.getResults();
+		List<DocumentInfo> results = session.getResults();
 
 		if (results == null) {
 			System.out.println("Ovu narebu nema smisla pozivati ako nije prethodno pozvan query (nema rezultata).");
@@ -54,9 +58,12 @@ public class TypeCommand implements ICommand {
 
 		System.out.println(DASHED_LINE);
 
+		Writer out = new OutputStreamWriter(System.out, Charset.defaultCharset());
 		try {
-			System.out.println(new String(Files.readAllBytes(document), StandardCharsets.UTF_8));
-		} catch (IOException e) {
+			ChunkedReader.stream(document, StandardCharsets.UTF_8, chunk -> write(chunk, out));
+			out.flush();
+			System.out.println();
+		} catch (IOException | UncheckedIOException e) {
 			System.out.println("Greška prilikom čitanja datoteke: " + document);
 			return CommandStatus.CONTINUE;
 		}
@@ -65,4 +72,22 @@ public class TypeCommand implements ICommand {
 
 		return CommandStatus.CONTINUE;
 	}
+
+	/**
+	 * Writes the characters of a chunk straight from the array backing it.
+	 * 
+	 * @param chunk
+	 *            The chunk of the document
+	 * @param out
+	 *            The writer to the standard output
+	 * @throws UncheckedIOException
+	 *             If writing was unsuccessful
+	 */
+	private static void write(CharBuffer chunk, Writer out) {
+		try {
+			out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 }
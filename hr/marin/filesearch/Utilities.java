@@ -1,13 +1,18 @@
 package hr.marin.filesearch;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * A utility class containing various methods used when analyzing documents.
@@ -56,18 +61,203 @@ public class Utilities {
 	 */
 	public static List<DocumentDictionary> createDocumentDictionaries(Path dir, Set<String> stopWordsSet,
 			Charset charset) throws IOException {
+		return createDocumentDictionaries(dir, stopWordsSet, charset, 1);
+	}
+
+	/**
+	 * The method visits all the readable files in the directory structure of
+	 * the given path and for every file found creates a
+	 * {@link DocumentDictionary} using the given stop words set. The files are
+	 * read and tokenized concurrently by the given number of worker threads.
+	 * <br>
+	 * The returned list is always in the order in which the files were
+	 * visited, regardless of the number of threads, so the ids assigned from
+	 * it are the same as for a serial run.
+	 * 
+	 * @param dir
+	 *            The root directory of the directory structure that is visited.
+	 * @param stopWordsSet
+	 *            The set of all the stop words (words that get omitted from the
+	 *            dictionary).
+	 * @param charset
+	 *            The charset used to read the file.
+	 * @param threads
+	 *            The number of worker threads. If less than 2, the files are
+	 *            read on the calling thread.
+	 * @return A list of all the created {@link DocumentDictionary} objects.
+	 * @throws IOException
+	 *             If there was an error while visiting the given directory
+	 *             structure.
+	 */
+	public static List<DocumentDictionary> createDocumentDictionaries(Path dir, Set<String> stopWordsSet,
+			Charset charset, int threads) throws IOException {
+		return createDocumentDictionaries(dir, stopWordsSet, charset, threads, false);
+	}
+
+	/**
+	 * The method visits all the readable files in the directory structure of
+	 * the given path and for every file found creates a
+	 * {@link DocumentDictionary} using the given stop words set, optionally
+	 * recording the positions of the words. The files are read like in
+	 * {@link #createDocumentDictionaries(Path, Set, Charset, int)}.
+	 * 
+	 * @param dir
+	 *            The root directory of the directory structure that is visited.
+	 * @param stopWordsSet
+	 *            The set of all the stop words (words that get omitted from the
+	 *            dictionary).
+	 * @param charset
+	 *            The charset used to read the file.
+	 * @param threads
+	 *            The number of worker threads. If less than 2, the files are
+	 *            read on the calling thread.
+	 * @param positions
+	 *            Whether the positions of the words are recorded.
+	 * @return A list of all the created {@link DocumentDictionary} objects.
+	 * @throws IOException
+	 *             If there was an error while visiting the given directory
+	 *             structure.
+	 */
+	public static List<DocumentDictionary> createDocumentDictionaries(Path dir, Set<String> stopWordsSet,
+			Charset charset, int threads, boolean positions) throws IOException {
+		long start = System.nanoTime();
 		DocumentVisitor visitor = new DocumentVisitor();
 		Files.walkFileTree(dir, visitor);
+		Metrics.global().recordSince(Metrics.Stage.CRAWL, start);
 
-		List<DocumentDictionary> docDicts = new LinkedList<>();
+		return readDocuments(visitor.getList(), stopWordsSet, charset, threads, positions);
+	}
 
-		for (Path path : visitor.getList()) {
-			docDicts.add(DocumentDictionary.fromDocument(path, stopWordsSet, charset));
+	/**
+	 * Creates a {@link DocumentDictionary} for every one of the given
+	 * documents. The documents are read and tokenized concurrently by the given
+	 * number of worker threads, and the returned list is in the order of the
+	 * given documents regardless of the number of threads.
+	 * 
+	 * @param documents
+	 *            The paths of the documents that are read.
+	 * @param stopWordsSet
+	 *            The set of all the stop words (words that get omitted from the
+	 *            dictionary).
+	 * @param charset
+	 *            The charset used to read the file.
+	 * @param threads
+	 *            The number of worker threads. If less than 2, the files are
+	 *            read on the calling thread.
+	 * @return A list of all the created {@link DocumentDictionary} objects.
+	 * @throws IOException
+	 *             If there was an error while reading a document.
+	 */
+	public static List<DocumentDictionary> readDocuments(List<Path> documents, Set<String> stopWordsSet,
+			Charset charset, int threads) throws IOException {
+		return readDocuments(documents, stopWordsSet, charset, threads, false);
+	}
+
+	/**
+	 * Creates a {@link DocumentDictionary} for every one of the given
+	 * documents, optionally recording the positions of the words. The
+	 * documents are read like in
+	 * {@link #readDocuments(List, Set, Charset, int)}.
+	 * 
+	 * @param documents
+	 *            The paths of the documents that are read.
+	 * @param stopWordsSet
+	 *            The set of all the stop words (words that get omitted from the
+	 *            dictionary).
+	 * @param charset
+	 *            The charset used to read the file.
+	 * @param threads
+	 *            The number of worker threads. If less than 2, the files are
+	 *            read on the calling thread.
+	 * @param positions
+	 *            Whether the positions of the words are recorded.
+	 * @return A list of all the created {@link DocumentDictionary} objects.
+	 * @throws IOException
+	 *             If there was an error while reading a document.
+	 */
+	public static List<DocumentDictionary> readDocuments(List<Path> documents, Set<String> stopWordsSet,
+			Charset charset, int threads, boolean positions) throws IOException {
+		List<DocumentDictionary> docDicts = new ArrayList<>(documents.size());
+		long start = System.nanoTime();
+
+		if (threads < 2) {
+			for (Path path : documents) {
+				docDicts.add(readDocument(path, stopWordsSet, charset, positions));
+			}
+			recordIngest(docDicts, start);
+			return docDicts;
 		}
 
+		List<Callable<DocumentDictionary>> tasks = new ArrayList<>(documents.size());
+		for (Path path : documents) {
+			tasks.add(() -> readDocument(path, stopWordsSet, charset, positions));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (Future<DocumentDictionary> future : pool.invokeAll(tasks)) {
+				docDicts.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading the documents.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException("Failed to read the documents.", cause);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		recordIngest(docDicts, start);
 		return docDicts;
 	}
 
+	/**
+	 * Creates the {@link DocumentDictionary} of a single document and records
+	 * the time it took in the {@link Metrics}.
+	 * 
+	 * @param document
+	 *            The path of the document.
+	 * @param stopWordsSet
+	 *            The set of all the stop words.
+	 * @param charset
+	 *            The charset used to read the document.
+	 * @param positions
+	 *            Whether the positions of the words are recorded.
+	 * @return The created {@link DocumentDictionary}.
+	 * @throws IOException
+	 *             If there was an error while reading the document.
+	 */
+	private static DocumentDictionary readDocument(Path document, Set<String> stopWordsSet, Charset charset,
+			boolean positions) throws IOException {
+		long start = System.nanoTime();
+		DocumentDictionary docDict = DocumentDictionary.fromDocument(document, stopWordsSet, charset, positions);
+		Metrics.global().recordSince(Metrics.Stage.TOKENIZE, start);
+		return docDict;
+	}
+
+	/**
+	 * Records the given read documents in the {@link Metrics}.
+	 * 
+	 * @param docDicts
+	 *            The dictionaries of the read documents.
+	 * @param start
+	 *            The value of {@link System#nanoTime()} when reading started.
+	 */
+	private static void recordIngest(List<DocumentDictionary> docDicts, long start) {
+		long bytes = 0;
+		for (DocumentDictionary docDict : docDicts) {
+			bytes += docDict.getFingerprint().getSize();
+		}
+		Metrics.global().recordIngest(docDicts.size(), bytes, System.nanoTime() - start);
+	}
+
 	/**
 	 * Method calculates the tf-idf (term frequency-inverse document frequency)
 	 * of a word in a document using the given number of occurrences of that
@@ -83,6 +273,86 @@ public class Utilities {
 	 * @return The calculated tf-idf number
 	 */
 	public static double tfIdf(int occurences, int allDocuments, int documentsWithWord) {
-		return occurences * Math.log(allDocuments / documentsWithWord);
+		return occurences * Math.log((double) allDocuments / documentsWithWord);
+	}
+
+	/**
+	 * Converts a list of results to a JSON array of objects with the rank,
+	 * the similarity and the absolute path of every result. Similarities that
+	 * are not finite are written as null.
+	 * 
+	 * @param results
+	 *            The results
+	 * @return The JSON array of the results
+	 */
+	public static String toJson(List<DocumentInfo> results) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int rank = 0; rank < results.size(); rank++) {
+			DocumentInfo result = results.get(rank);
+			double similarity = result.getSimilarity();
+			if (rank > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"rank\":").append(rank);
+			sb.append(",\"similarity\":").append(Double.isFinite(similarity) ? Double.toString(similarity) : "null");
+			sb.append(",\"path\":").append(jsonQuote(result.getPath().toAbsolutePath().toString())).append('}');
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Converts a string to a JSON string.
+	 * 
+	 * @param text
+	 *            The string
+	 * @return The quoted and escaped JSON string
+	 */
+	public static String jsonQuote(String text) {
+		StringBuilder sb = new StringBuilder("\"");
+		try {
+			jsonEscape(text, sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Appends the given characters escaped for a JSON string.
+	 * 
+	 * @param text
+	 *            The characters
+	 * @param out
+	 *            The destination of the escaped characters
+	 * @throws IOException
+	 *             If the characters could not be appended
+	 */
+	public static void jsonEscape(CharSequence text, Appendable out) throws IOException {
+		for (int i = 0, length = text.length(); i < length; i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
 	}
 }
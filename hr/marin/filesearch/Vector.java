@@ -3,7 +3,9 @@ package hr.marin.filesearch;
 import java.util.Arrays;
 
 /**
- * Class represents an implementation of the {@link AbstractVector} class.
+ * Class represents an implementation of the {@link AbstractVector} class. The
+ * components are kept in an array, and the arithmetic operations work on the
+ * whole array at once with the kernels of {@link VectorKernels}.
  * 
  * @author Marin
  *
@@ -73,9 +75,7 @@ public class Vector extends AbstractVector {
 
 	@Override
 	public AbstractVector set(int index, double value) {
-		if (readOnly) {
-			throw new RuntimeException("Vector is read-only.");
-		}
+		checkWritable();
 
 		elements[index] = value;
 
@@ -87,6 +87,61 @@ public class Vector extends AbstractVector {
 		return dimension;
 	}
 
+	@Override
+	public AbstractVector scalarMultiply(double byValue) {
+		checkWritable();
+		VectorKernels.scale(elements, dimension, byValue);
+		return this;
+	}
+
+	@Override
+	public double norm() {
+		return Math.sqrt(VectorKernels.sumOfSquares(elements, dimension));
+	}
+
+	@Override
+	public AbstractVector normalize() {
+		checkWritable();
+		VectorKernels.scale(elements, dimension, 1 / norm());
+		return this;
+	}
+
+	@Override
+	public double scalarProduct(AbstractVector other) {
+		if (other instanceof Vector) {
+			if (dimension != other.getDimension()) {
+				throw new IllegalArgumentException();
+			}
+			return VectorKernels.dot(elements, ((Vector) other).elements, dimension);
+		}
+		if (other instanceof SparseVector) {
+			return other.scalarProduct(this);
+		}
+		return super.scalarProduct(other);
+	}
+
+	/**
+	 * Gets the array of the components of this vector. The returned array
+	 * must not be modified.
+	 * 
+	 * @return The components of this vector
+	 */
+	double[] elements() {
+		return elements;
+	}
+
+	/**
+	 * Checks that the components of this vector may be changed.
+	 * 
+	 * @throws RuntimeException
+	 *             If the vector is read-only.
+	 */
+	private void checkWritable() {
+		if (readOnly) {
+			throw new RuntimeException("Vector is read-only.");
+		}
+	}
+
 	@Override
 	public AbstractVector copy() {
 		return new Vector(readOnly, false, elements);
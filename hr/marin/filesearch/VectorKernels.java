@@ -0,0 +1,163 @@
+package hr.marin.filesearch;
+
+/**
+ * <p>
+ * Bulk kernels of the vector arithmetic, working directly on the arrays that
+ * back {@link Vector} and {@link SparseVector}, so no method is called and no
+ * check is made per component.
+ * </p>
+ * <p>
+ * If the incubating module <code>jdk.incubator.vector</code> is present (the
+ * program is run with <code>--add-modules jdk.incubator.vector</code>), the
+ * kernels over contiguous arrays are computed by {@link SimdKernels} on
+ * full-width SIMD registers.
+ * Otherwise they fall back to scalar loops that keep several independent
+ * sums, so the additions do not wait on each other. Both add the products in
+ * a different order than a simple loop does, so the results may differ from
+ * it in the last bits.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public final class VectorKernels {
+	/**
+	 * The name of the module of the JDK Vector API.
+	 */
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+	/**
+	 * Whether the kernels are computed with the JDK Vector API.
+	 */
+	private static final boolean SIMD = simdAvailable();
+
+	/**
+	 * Disables creating instances of this class.
+	 */
+	private VectorKernels() {
+	}
+
+	/**
+	 * Checks whether the kernels are computed with the SIMD instructions of
+	 * the JDK Vector API.
+	 * 
+	 * @return True if the Vector API is used, false if the scalar fallback is
+	 */
+	public static boolean isAccelerated() {
+		return SIMD;
+	}
+
+	/**
+	 * Calculates the scalar product of the first components of two arrays.
+	 * 
+	 * @param a
+	 *            The first array
+	 * @param b
+	 *            The second array
+	 * @param length
+	 *            The number of components
+	 * @return The sum of a[i] * b[i] for i from 0 to length - 1
+	 */
+	public static double dot(double[] a, double[] b, int length) {
+		if (SIMD) {
+			return SimdKernels.dot(a, b, length);
+		}
+
+		double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int i = 0;
+		for (int bound = length & ~3; i < bound; i += 4) {
+			sum0 += a[i] * b[i];
+			sum1 += a[i + 1] * b[i + 1];
+			sum2 += a[i + 2] * b[i + 2];
+			sum3 += a[i + 3] * b[i + 3];
+		}
+		for (; i < length; i++) {
+			sum0 += a[i] * b[i];
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Calculates the sum of the squares of the first components of an array.
+	 * 
+	 * @param a
+	 *            The array
+	 * @param length
+	 *            The number of components
+	 * @return The sum of a[i] * a[i] for i from 0 to length - 1
+	 */
+	public static double sumOfSquares(double[] a, int length) {
+		return dot(a, a, length);
+	}
+
+	/**
+	 * Multiplies the first components of an array by a number, in place.
+	 * 
+	 * @param a
+	 *            The array
+	 * @param length
+	 *            The number of components
+	 * @param factor
+	 *            The number the components are multiplied by
+	 */
+	public static void scale(double[] a, int length, double factor) {
+		if (SIMD) {
+			SimdKernels.scale(a, length, factor);
+			return;
+		}
+
+		for (int i = 0; i < length; i++) {
+			a[i] *= factor;
+		}
+	}
+
+	/**
+	 * Calculates the scalar product of a sparse vector, given by its non-zero
+	 * components, and a dense one. The kernel is always scalar: the gathering
+	 * loads of the Vector API are slower than scalar loads for vectors of the
+	 * size of a document.
+	 * 
+	 * @param values
+	 *            The values of the non-zero components of the sparse vector
+	 * @param indices
+	 *            The indices of the non-zero components, parallel to the
+	 *            values
+	 * @param length
+	 *            The number of non-zero components
+	 * @param dense
+	 *            The components of the dense vector
+	 * @return The sum of values[i] * dense[indices[i]] for i from 0 to length -
+	 *         1
+	 */
+	public static double gatherDot(double[] values, int[] indices, int length, double[] dense) {
+		double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int i = 0;
+		for (int bound = length & ~3; i < bound; i += 4) {
+			sum0 += values[i] * dense[indices[i]];
+			sum1 += values[i + 1] * dense[indices[i + 1]];
+			sum2 += values[i + 2] * dense[indices[i + 2]];
+			sum3 += values[i + 3] * dense[indices[i + 3]];
+		}
+		for (; i < length; i++) {
+			sum0 += values[i] * dense[indices[i]];
+		}
+		return (sum0 + sum1) + (sum2 + sum3);
+	}
+
+	/**
+	 * Checks whether the JDK Vector API can be used. Its module is not
+	 * resolved unless it is added explicitly, and {@link SimdKernels} cannot
+	 * be loaded without it.
+	 * 
+	 * @return True if the module is present and the SIMD kernels work
+	 */
+	private static boolean simdAvailable() {
+		if (!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+			return false;
+		}
+		try {
+			return SimdKernels.lanes() > 1;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+}
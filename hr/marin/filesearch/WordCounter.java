@@ -0,0 +1,284 @@
+package hr.marin.filesearch;
+
+/**
+ * <p>
+ * An open-addressing hash table that counts the occurrences of words given as
+ * regions of a character buffer. A word is looked up without creating a
+ * {@link String}; a string is allocated only the first time a word is counted.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class WordCounter {
+	/**
+	 * The initial number of slots of the table. Must be a power of two.
+	 */
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * The words of the table, indexed by slot. Null for empty slots.
+	 */
+	private String[] words;
+	/**
+	 * The hashes of the words, parallel to {@link #words}.
+	 */
+	private int[] hashes;
+	/**
+	 * The counts of the words, parallel to {@link #words}.
+	 */
+	private int[] counts;
+	/**
+	 * The ids of the words, parallel to {@link #words}. The id of a word is
+	 * the number of words that were added before it.
+	 */
+	private int[] ids;
+	/**
+	 * The number of words in the table.
+	 */
+	private int size;
+
+	/**
+	 * Creates a new empty {@link WordCounter}.
+	 */
+	public WordCounter() {
+		words = new String[INITIAL_CAPACITY];
+		hashes = new int[INITIAL_CAPACITY];
+		counts = new int[INITIAL_CAPACITY];
+		ids = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Increments the count of the word contained in the given region of the
+	 * buffer, adding the word if it is not in the table yet.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the word.
+	 * @param offset
+	 *            The index of the first character of the word.
+	 * @param length
+	 *            The number of characters of the word.
+	 * @return The id of the word.
+	 */
+	public int increment(char[] buffer, int offset, int length) {
+		int hash = hash(buffer, offset, length);
+		int slot = find(buffer, offset, length, hash);
+
+		if (words[slot] == null) {
+			words[slot] = new String(buffer, offset, length);
+			hashes[slot] = hash;
+			ids[slot] = size;
+			size++;
+			if (size * 4 > words.length * 3) {
+				grow();
+				slot = find(buffer, offset, length, hash);
+			}
+		}
+		counts[slot]++;
+		return ids[slot];
+	}
+
+	/**
+	 * Gets the count of the word contained in the given region of the buffer.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the word.
+	 * @param offset
+	 *            The index of the first character of the word.
+	 * @param length
+	 *            The number of characters of the word.
+	 * @return The count of the word, or 0 if it is not in the table.
+	 */
+	public int count(char[] buffer, int offset, int length) {
+		int slot = find(buffer, offset, length, hash(buffer, offset, length));
+		return (words[slot] != null) ? counts[slot] : 0;
+	}
+
+	/**
+	 * Gets the number of words in the table.
+	 * 
+	 * @return The number of words in the table.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of slots of the table. Words can be iterated by going
+	 * through all the slots and skipping the empty ones.
+	 * 
+	 * @return The number of slots.
+	 */
+	public int capacity() {
+		return words.length;
+	}
+
+	/**
+	 * Gets the word in the given slot.
+	 * 
+	 * @param slot
+	 *            The slot, from 0 to {@link #capacity()} - 1.
+	 * @return The word in the slot, or null if the slot is empty.
+	 */
+	public String wordAt(int slot) {
+		return words[slot];
+	}
+
+	/**
+	 * Gets the count of the word in the given slot.
+	 * 
+	 * @param slot
+	 *            The slot, from 0 to {@link #capacity()} - 1.
+	 * @return The count of the word in the slot, or 0 if the slot is empty.
+	 */
+	public int countAt(int slot) {
+		return counts[slot];
+	}
+
+	/**
+	 * Gets the id of the word in the given slot. The ids of the words are
+	 * numbers from 0 to {@link #size()} - 1 in the order in which the words
+	 * were added, and do not change when the table grows.
+	 * 
+	 * @param slot
+	 *            The slot, from 0 to {@link #capacity()} - 1.
+	 * @return The id of the word in the slot, or 0 if the slot is empty.
+	 */
+	public int idAt(int slot) {
+		return ids[slot];
+	}
+
+	/**
+	 * Finds the slot containing the given word, or the empty slot where it
+	 * would be added.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the word.
+	 * @param offset
+	 *            The index of the first character of the word.
+	 * @param length
+	 *            The number of characters of the word.
+	 * @param hash
+	 *            The hash of the word.
+	 * @return The slot of the word.
+	 */
+	private int find(char[] buffer, int offset, int length, int hash) {
+		int mask = words.length - 1;
+		int slot = mix(hash) & mask;
+
+		while (words[slot] != null) {
+			if (hashes[slot] == hash && equals(words[slot], buffer, offset, length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Doubles the number of slots and moves all the words to their new slots.
+	 */
+	private void grow() {
+		String[] oldWords = words;
+		int[] oldHashes = hashes;
+		int[] oldCounts = counts;
+		int[] oldIds = ids;
+
+		words = new String[oldWords.length * 2];
+		hashes = new int[words.length];
+		counts = new int[words.length];
+		ids = new int[words.length];
+
+		int mask = words.length - 1;
+		for (int i = 0; i < oldWords.length; i++) {
+			if (oldWords[i] == null) {
+				continue;
+			}
+			int slot = mix(oldHashes[i]) & mask;
+			while (words[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			words[slot] = oldWords[i];
+			hashes[slot] = oldHashes[i];
+			counts[slot] = oldCounts[i];
+			ids[slot] = oldIds[i];
+		}
+	}
+
+	/**
+	 * Calculates the hash of the word contained in the given region of the
+	 * buffer, equal to the {@link String#hashCode()} of the word.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the word.
+	 * @param offset
+	 *            The index of the first character of the word.
+	 * @param length
+	 *            The number of characters of the word.
+	 * @return The hash of the word.
+	 */
+	private static int hash(char[] buffer, int offset, int length) {
+		int hash = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		return hash;
+	}
+
+	/**
+	 * Spreads the bits of a string hash so that words differing only in their
+	 * last characters do not cluster in neighbouring slots.
+	 * 
+	 * @param hash
+	 *            The string hash.
+	 * @return The mixed hash.
+	 */
+	private static int mix(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Checks whether the given string equals the given region of the buffer.
+	 * 
+	 * @param word
+	 *            The string.
+	 * @param buffer
+	 *            The buffer.
+	 * @param offset
+	 *            The index of the first character of the region.
+	 * @param length
+	 *            The number of characters of the region.
+	 * @return True if the string and the region contain the same characters.
+	 */
+	private static boolean equals(String word, char[] buffer, int offset, int length) {
+		if (word.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (word.charAt(i) != buffer[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a new {@link WordCounter} containing each of the given words
+	 * once.
+	 * 
+	 * @param words
+	 *            The words.
+	 * @return The created table.
+	 */
+	public static WordCounter of(Iterable<String> words) {
+		WordCounter counter = new WordCounter();
+		for (String word : words) {
+			char[] chars = word.toCharArray();
+			if (counter.count(chars, 0, chars.length) == 0) {
+				counter.increment(chars, 0, chars.length);
+			}
+		}
+		return counter;
+	}
+}
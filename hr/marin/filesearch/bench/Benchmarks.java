@@ -0,0 +1,489 @@
+package hr.marin.filesearch.bench;
+
+import hr.marin.filesearch.DocumentDictionary;
+import hr.marin.filesearch.DocumentVector;
+import hr.marin.filesearch.Index;
+import hr.marin.filesearch.InvertedIndex;
+import hr.marin.filesearch.QueryScorer;
+import hr.marin.filesearch.TopKCollector;
+import hr.marin.filesearch.TotalDictionary;
+import hr.marin.filesearch.Vector;
+import hr.marin.filesearch.VectorKernels;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ * A benchmark suite of the main stages of the document analyzer: tokenization,
+ * creation of the total dictionary, creation of the document vectors, vector
+ * arithmetic, the bulk vector kernels compared with per-component access, the
+ * size and decoding speed of compressed posting lists, the cost of posting
+ * lists kept off the heap and end-to-end query latency for queries of 1, 3
+ * and 10 words, with the posting lists on and off the heap.
+ * </p>
+ * <p>
+ * Every stage is run on {@link ZipfCorpus} collections of the sizes given as
+ * the arguments (1 000, 10 000 and 100 000 documents by default), so the
+ * results are reproducible offline. Every measurement is preceded by warm-up
+ * runs, so the measured code has been compiled by the JIT, and the results of
+ * the measured code are consumed so it cannot be eliminated as dead code.
+ * </p>
+ * <p>
+ * This is a quick overview that also reports the memory taken by the posting
+ * lists; it runs every stage only a few times in a single JVM and gives no
+ * error bounds. The JMH benchmarks of the <code>jmh</code> module measure the
+ * same stages on the same collections with forks, blackholes and confidence
+ * intervals and are the ones to use when comparing changes.
+ * </p>
+ * <p>
+ * Run with <code>java -cp &lt;classes&gt; hr.marin.filesearch.bench.Benchmarks
+ * [sizes...]</code>, preferably with a fixed heap (<code>-Xms</code> equal to
+ * <code>-Xmx</code>). Add <code>--add-modules jdk.incubator.vector</code> to
+ * measure the SIMD kernels of {@link VectorKernels} instead of the scalar
+ * fallback.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class Benchmarks {
+	/**
+	 * The default sizes of the collections
+	 */
+	private static final int[] DEFAULT_SIZES = { 1000, 10000, 100000 };
+	/**
+	 * The average number of words of a document
+	 */
+	static final int WORDS_PER_DOCUMENT = 200;
+	/**
+	 * The number of different words of a collection
+	 */
+	static final int VOCABULARY_SIZE = 50000;
+	/**
+	 * The exponent of the Zipf distribution of the words
+	 */
+	static final double ZIPF_EXPONENT = 1.07;
+	/**
+	 * The seed of the generated collections and queries
+	 */
+	static final long SEED = 42;
+	/**
+	 * The number of unmeasured runs of a stage
+	 */
+	private static final int WARMUP_RUNS = 3;
+	/**
+	 * The number of measured runs of a stage
+	 */
+	private static final int MEASURED_RUNS = 5;
+	/**
+	 * The number of different queries of every length
+	 */
+	private static final int QUERIES = 500;
+	/**
+	 * The maximum number of results of a query
+	 */
+	static final int MAX_RESULTS = 10;
+	/**
+	 * The number of scalar products of a dense vector computed in a run
+	 */
+	private static final int DENSE_PRODUCTS = 200;
+
+	/**
+	 * Consumes the results of the measured code.
+	 */
+	private static volatile long sink;
+
+	/**
+	 * Runs the benchmarks.
+	 * 
+	 * @param args
+	 *            The sizes of the collections, in numbers of documents
+	 */
+	public static void main(String[] args) {
+		int[] sizes = DEFAULT_SIZES;
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.printf("%-24s %9s %14s %14s%n", "benchmark", "documents", "time/op", "throughput");
+		for (int size : sizes) {
+			run(size);
+		}
+	}
+
+	/**
+	 * Runs all the benchmarks on a collection of the given size.
+	 * 
+	 * @param size
+	 *            The number of documents of the collection
+	 */
+	private static void run(int size) {
+		ZipfCorpus corpus = new ZipfCorpus(size, WORDS_PER_DOCUMENT, VOCABULARY_SIZE, ZIPF_EXPONENT, SEED);
+		String[] texts = corpus.getDocuments();
+		Set<String> stopWords = Collections.emptySet();
+		double megabytes = corpus.bytes() / (1024.0 * 1024.0);
+
+		List<DocumentDictionary> docDicts = new ArrayList<>(texts.length);
+		double tokenize = measure(() -> {
+			docDicts.clear();
+			long words = 0;
+			for (String text : texts) {
+				DocumentDictionary docDict = DocumentDictionary.fromString(text, stopWords);
+				docDicts.add(docDict);
+				words += docDict.size();
+			}
+			return words;
+		});
+		report("tokenize", size, tokenize, megabytes / seconds(tokenize), "MB/s");
+
+		double dictionary = measure(() -> new TotalDictionary(docDicts).size());
+		report("total dictionary", size, dictionary, size / seconds(dictionary), "docs/s");
+
+		TotalDictionary totalDict = new TotalDictionary(docDicts);
+		double vectors = measure(() -> new Index(totalDict, docDicts).size());
+		report("document vectors", size, vectors, size / seconds(vectors), "docs/s");
+
+		Index index = new Index(totalDict, docDicts);
+		List<DocumentVector> docVectors = index.getVectors();
+		double norm = measure(() -> {
+			double sum = 0;
+			for (DocumentVector vector : docVectors) {
+				sum += vector.norm();
+			}
+			return (long) sum;
+		});
+		report("norm", size, norm / size, size / seconds(norm), "ops/s");
+
+		double scalarProduct = measure(() -> {
+			double sum = 0;
+			for (int i = 1; i < docVectors.size(); i++) {
+				sum += docVectors.get(i - 1).scalarProduct(docVectors.get(i));
+			}
+			return (long) sum;
+		});
+		report("scalarProduct", size, scalarProduct / Math.max(1, size - 1), (size - 1) / seconds(scalarProduct),
+				"ops/s");
+
+		kernels(index);
+		postings(index);
+		Index offHeap = offHeap(index);
+
+		QueryScorer scorer = new QueryScorer(1);
+		for (int words : new int[] { 1, 3, 10 }) {
+			queryLatency(corpus, index, scorer, stopWords, words);
+		}
+		for (int words : new int[] { 1, 3, 10 }) {
+			queryLatency(corpus, offHeap, scorer, stopWords, words);
+		}
+		System.out.println();
+	}
+
+	/**
+	 * Compares the bulk kernels of the vector arithmetic with the same
+	 * operations computed through per-component {@link Vector#get(int)}
+	 * calls: the scalar product of dense vectors with the dimension of the
+	 * total dictionary, and the scalar products of all the documents with one
+	 * dense query.
+	 * 
+	 * @param index
+	 *            The index of the collection
+	 */
+	private static void kernels(Index index) {
+		int dimension = index.getTotalDictionary().size();
+		Random random = new Random(SEED);
+		double[] components = new double[dimension];
+		for (int i = 0; i < dimension; i++) {
+			components[i] = random.nextDouble();
+		}
+		Vector dense = new Vector(false, true, components);
+		List<DocumentVector> docVectors = index.getVectors();
+		long nonZero = 0;
+		for (DocumentVector vector : docVectors) {
+			nonZero += vector.nonZeroCount();
+		}
+		String kernels = VectorKernels.isAccelerated() ? "simd" : "scalar";
+		long denseComponents = (long) DENSE_PRODUCTS * dimension;
+
+		double perComponent = measure(() -> {
+			double sum = 0;
+			for (int run = 0; run < DENSE_PRODUCTS; run++) {
+				for (int i = dense.getDimension() - 1; i >= 0; i--) {
+					sum += dense.get(i) * dense.get(i);
+				}
+			}
+			return (long) sum;
+		});
+		report("dense dot get(i)", index.size(), perComponent / DENSE_PRODUCTS,
+				denseComponents / seconds(perComponent) / 1e6, "M/s");
+
+		double bulk = measure(() -> {
+			double sum = 0;
+			for (int run = 0; run < DENSE_PRODUCTS; run++) {
+				sum += dense.scalarProduct(dense);
+			}
+			return (long) sum;
+		});
+		report("dense dot " + kernels, index.size(), bulk / DENSE_PRODUCTS, denseComponents / seconds(bulk) / 1e6,
+				"M/s");
+
+		double gatherPerComponent = measure(() -> {
+			double sum = 0;
+			for (DocumentVector vector : docVectors) {
+				for (int i = 0, n = vector.nonZeroCount(); i < n; i++) {
+					sum += vector.valueAt(i) * dense.get(vector.indexAt(i));
+				}
+			}
+			return (long) sum;
+		});
+		report("score docs get(i)", index.size(), gatherPerComponent / index.size(),
+				nonZero / seconds(gatherPerComponent) / 1e6, "M/s");
+
+		double gather = measure(() -> {
+			double sum = 0;
+			for (DocumentVector vector : docVectors) {
+				sum += vector.scalarProduct(dense);
+			}
+			return (long) sum;
+		});
+		report("score docs bulk", index.size(), gather / index.size(), nonZero / seconds(gather) / 1e6, "M/s");
+	}
+
+	/**
+	 * Compares the size and the decoding speed of the compressed posting lists
+	 * with those of the uncompressed ones.
+	 * 
+	 * @param index
+	 *            The index of the collection
+	 */
+	private static void postings(Index index) {
+		InvertedIndex invertedIndex = index.getInvertedIndex();
+		int words = invertedIndex.numberOfWords();
+		long numOfPostings = 0;
+		int maxLength = 0;
+		for (int word = 0; word < words; word++) {
+			numOfPostings += invertedIndex.getDocuments(word).length;
+			maxLength = Math.max(maxLength, invertedIndex.getDocuments(word).length);
+		}
+		long postings = Math.max(1, numOfPostings);
+
+		double compress = measure(() -> compress(index).numberOfWords());
+		report("compress postings", index.size(), compress, postings / seconds(compress), "postings/s");
+
+		double raw = measure(() -> {
+			long sum = 0;
+			for (int word = 0; word < words; word++) {
+				int[] docs = invertedIndex.getDocuments(word);
+				double[] weights = invertedIndex.getWeights(word);
+				for (int i = 0; i < docs.length; i++) {
+					sum += docs[i] + (long) weights[i];
+				}
+			}
+			return sum;
+		});
+		report("scan raw postings", index.size(), raw / postings, postings / seconds(raw), "postings/s");
+
+		InvertedIndex compressed = compress(index);
+		int[] docs = new int[maxLength];
+		double[] weights = new double[maxLength];
+		double decode = measure(() -> {
+			long sum = 0;
+			for (int word = 0; word < words; word++) {
+				int length = compressed.getLength(word);
+				compressed.getDocuments(word, docs);
+				compressed.getWeights(word, weights);
+				for (int i = 0; i < length; i++) {
+					sum += docs[i] + (long) weights[i];
+				}
+			}
+			return sum;
+		});
+		report("decode postings", index.size(), decode / postings, postings / seconds(decode), "postings/s");
+
+		long rawBytes = invertedIndex.estimatedBytes();
+		long compressedBytes = compressed.offHeapBytes();
+		System.out.printf("%-24s %9d %14s %14s%n", "postings memory", index.size(),
+				String.format("%.1f MB", rawBytes / (1024.0 * 1024.0)),
+				String.format("%.1f MB (%.1fx)", compressedBytes / (1024.0 * 1024.0),
+						rawBytes / (double) Math.max(1, compressedBytes)));
+	}
+
+	/**
+	 * Compresses the posting lists of the given index.
+	 * 
+	 * @param index
+	 *            The index of the collection, kept on the heap
+	 * @return The compressed posting lists
+	 */
+	private static InvertedIndex compress(Index index) {
+		double[] norms = new double[index.size()];
+		for (int docId = 0; docId < norms.length; docId++) {
+			norms[docId] = index.getNorm(docId);
+		}
+		return new InvertedIndex(index.getDocuments(), norms, index.getTotalDictionary(),
+				InvertedIndex.Format.COMPRESSED);
+	}
+
+	/**
+	 * Measures the cost of keeping the posting lists off the heap: the time to
+	 * build them, the time to scan them and the memory left on the heap.
+	 * 
+	 * @param index
+	 *            The index of the collection, kept on the heap
+	 * @return A copy of the index kept off the heap
+	 */
+	private static Index offHeap(Index index) {
+		double build = measure(() -> index.toOffHeap().size());
+		report("off-heap postings", index.size(), build, index.size() / seconds(build), "docs/s");
+
+		Index offHeap = index.toOffHeap();
+		InvertedIndex invertedIndex = offHeap.getInvertedIndex();
+		int words = invertedIndex.numberOfWords();
+		long postings = 0;
+		for (int word = 0; word < words; word++) {
+			postings += invertedIndex.getLength(word);
+		}
+		long numOfPostings = Math.max(1, postings);
+
+		double scan = measure(() -> {
+			long sum = 0;
+			for (int word = 0; word < words; word++) {
+				int[] docs = invertedIndex.getDocuments(word);
+				double[] weights = invertedIndex.getWeights(word);
+				for (int i = 0; i < docs.length; i++) {
+					sum += docs[i] + (long) weights[i];
+				}
+			}
+			return sum;
+		});
+		report("scan off-heap postings", index.size(), scan / numOfPostings, numOfPostings / seconds(scan),
+				"postings/s");
+
+		System.out.printf("%-24s %9d %14s %14s%n", "heap / off-heap memory", index.size(),
+				String.format("%.1f MB", index.estimatedBytes() / (1024.0 * 1024.0)),
+				String.format("%.1f + %.1f MB", offHeap.estimatedBytes() / (1024.0 * 1024.0),
+						offHeap.offHeapBytes() / (1024.0 * 1024.0)));
+		return offHeap;
+	}
+
+	/**
+	 * Measures the latency of queries of the given length, from tokenizing the
+	 * query to collecting its best documents, and reports its percentiles.
+	 * 
+	 * @param corpus
+	 *            The collection the queries are drawn from
+	 * @param index
+	 *            The index of the collection
+	 * @param scorer
+	 *            The scorer of the queries
+	 * @param stopWords
+	 *            The stop words
+	 * @param words
+	 *            The number of words of a query
+	 */
+	private static void queryLatency(ZipfCorpus corpus, Index index, QueryScorer scorer, Set<String> stopWords,
+			int words) {
+		Random random = new Random(SEED + words);
+		String[] queries = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			queries[i] = corpus.query(random, words);
+		}
+
+		long[] latencies = new long[QUERIES];
+		for (int run = 0; run <= WARMUP_RUNS; run++) {
+			for (int i = 0; i < QUERIES; i++) {
+				long start = System.nanoTime();
+				DocumentDictionary queryDict = DocumentDictionary.fromString(queries[i], stopWords);
+				DocumentVector queryVector = new DocumentVector(queryDict, index.getTotalDictionary());
+				TopKCollector topK = scorer.score(index, queryVector, MAX_RESULTS);
+				latencies[i] = System.nanoTime() - start;
+				sink += topK.size();
+			}
+		}
+
+		Arrays.sort(latencies);
+		double mean = Arrays.stream(latencies).average().orElse(0);
+		String name = "query " + words + (words == 1 ? " word" : " words") + (index.isOffHeap() ? " off-heap" : "");
+		report(name, index.size(), mean, 1e9 / mean, "queries/s");
+		System.out.printf("%-24s %9s %14s %14s%n", "", "", "p50 " + format(latencies[QUERIES / 2]),
+				"p99 " + format(latencies[QUERIES * 99 / 100]));
+	}
+
+	/**
+	 * Runs the given code {@link #WARMUP_RUNS} times and then measures
+	 * {@link #MEASURED_RUNS} runs of it.
+	 * 
+	 * @param code
+	 *            The measured code, returning a value that is consumed
+	 * @return The average time of a measured run in nanoseconds
+	 */
+	private static double measure(LongSupplier code) {
+		for (int run = 0; run < WARMUP_RUNS; run++) {
+			sink += code.getAsLong();
+		}
+
+		long start = System.nanoTime();
+		for (int run = 0; run < MEASURED_RUNS; run++) {
+			sink += code.getAsLong();
+		}
+		return (System.nanoTime() - start) / (double) MEASURED_RUNS;
+	}
+
+	/**
+	 * Prints a line of the results.
+	 * 
+	 * @param name
+	 *            The name of the benchmark
+	 * @param size
+	 *            The number of documents
+	 * @param nanos
+	 *            The time of an operation in nanoseconds
+	 * @param throughput
+	 *            The throughput
+	 * @param unit
+	 *            The unit of the throughput
+	 */
+	private static void report(String name, int size, double nanos, double throughput, String unit) {
+		System.out.printf("%-24s %9d %14s %14s%n", name, size, format(nanos),
+				String.format("%.1f %s", throughput, unit));
+	}
+
+	/**
+	 * Formats a time given in nanoseconds with a suitable unit.
+	 * 
+	 * @param nanos
+	 *            The time in nanoseconds
+	 * @return The formatted time
+	 */
+	private static String format(double nanos) {
+		if (nanos >= 1e9) {
+			return String.format("%.2f s", nanos / 1e9);
+		}
+		if (nanos >= 1e6) {
+			return String.format("%.2f ms", nanos / 1e6);
+		}
+		if (nanos >= 1e3) {
+			return String.format("%.2f us", nanos / 1e3);
+		}
+		return String.format("%.0f ns", nanos);
+	}
+
+	/**
+	 * Converts nanoseconds to seconds.
+	 * 
+	 * @param nanos
+	 *            The time in nanoseconds
+	 * @return The time in seconds
+	 */
+	private static double seconds(double nanos) {
+		return nanos / 1e9;
+	}
+}
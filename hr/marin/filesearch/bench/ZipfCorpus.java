@@ -0,0 +1,166 @@
+package hr.marin.filesearch.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * <p>
+ * A synthetic document collection whose word frequencies follow Zipf's law,
+ * like those of natural text. The collection is generated from a seed, so the
+ * same arguments always produce the same documents and benchmark results can
+ * be compared between runs and machines without any external data.
+ * </p>
+ * <p>
+ * The vocabulary consists of pronounceable made-up words built from
+ * alternating consonants and vowels, with a few Croatian letters so the
+ * tokenizer sees non-ASCII input.
+ * </p>
+ * 
+ * @author Marin
+ *
+ */
+public class ZipfCorpus {
+	/**
+	 * The consonants the words are built from
+	 */
+	private static final String CONSONANTS = "bcčćdđfghjklmnprsštvzž";
+	/**
+	 * The vowels the words are built from
+	 */
+	private static final String VOWELS = "aeiou";
+
+	/**
+	 * The words of the vocabulary, ordered by rank
+	 */
+	private String[] vocabulary;
+	/**
+	 * The cumulative probabilities of the words, parallel to the vocabulary
+	 */
+	private double[] cumulative;
+	/**
+	 * The generated documents
+	 */
+	private String[] documents;
+
+	/**
+	 * Generates a new collection of documents.
+	 * 
+	 * @param numberOfDocuments
+	 *            The number of documents
+	 * @param wordsPerDocument
+	 *            The average number of words of a document
+	 * @param vocabularySize
+	 *            The number of different words
+	 * @param exponent
+	 *            The exponent of the Zipf distribution, about 1 for natural
+	 *            text
+	 * @param seed
+	 *            The seed of the generator
+	 */
+	public ZipfCorpus(int numberOfDocuments, int wordsPerDocument, int vocabularySize, double exponent, long seed) {
+		Random random = new Random(seed);
+
+		vocabulary = new String[vocabularySize];
+		for (int rank = 0; rank < vocabularySize; rank++) {
+			vocabulary[rank] = word(rank);
+		}
+
+		cumulative = new double[vocabularySize];
+		double sum = 0;
+		for (int rank = 0; rank < vocabularySize; rank++) {
+			sum += 1 / Math.pow(rank + 1, exponent);
+			cumulative[rank] = sum;
+		}
+		for (int rank = 0; rank < vocabularySize; rank++) {
+			cumulative[rank] /= sum;
+		}
+
+		documents = new String[numberOfDocuments];
+		StringBuilder sb = new StringBuilder();
+		for (int doc = 0; doc < numberOfDocuments; doc++) {
+			sb.setLength(0);
+			int length = wordsPerDocument / 2 + random.nextInt(wordsPerDocument + 1);
+			for (int i = 0; i < length; i++) {
+				sb.append(vocabulary[sample(random)]);
+				sb.append((i % 12 == 11) ? ".\n" : " ");
+			}
+			documents[doc] = sb.toString();
+		}
+	}
+
+	/**
+	 * Creates the word of the given rank. Different ranks give different
+	 * words.
+	 * 
+	 * @param rank
+	 *            The rank of the word
+	 * @return The word
+	 */
+	private static String word(int rank) {
+		StringBuilder sb = new StringBuilder();
+		int n = rank;
+		do {
+			sb.append(CONSONANTS.charAt(n % CONSONANTS.length()));
+			n /= CONSONANTS.length();
+			sb.append(VOWELS.charAt(n % VOWELS.length()));
+			n /= VOWELS.length();
+		} while (n > 0);
+		return sb.toString();
+	}
+
+	/**
+	 * Draws the rank of a word from the distribution.
+	 * 
+	 * @param random
+	 *            The generator used
+	 * @return The rank of the drawn word
+	 */
+	public int sample(Random random) {
+		int position = Arrays.binarySearch(cumulative, random.nextDouble());
+		return Math.min((position >= 0) ? position : -position - 1, cumulative.length - 1);
+	}
+
+	/**
+	 * Creates a query of the given number of words drawn from the
+	 * distribution of the collection.
+	 * 
+	 * @param random
+	 *            The generator used
+	 * @param words
+	 *            The number of words of the query
+	 * @return The query
+	 */
+	public String query(Random random, int words) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(vocabulary[sample(random)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the generated documents.
+	 * 
+	 * @return The documents, which must not be modified
+	 */
+	public String[] getDocuments() {
+		return documents;
+	}
+
+	/**
+	 * Gets the total size of the documents encoded in UTF-8.
+	 * 
+	 * @return The size of the documents in bytes
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (String document : documents) {
+			bytes += document.getBytes(StandardCharsets.UTF_8).length;
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,75 @@
+package hr.marin.filesearch.bench;
+
+import hr.marin.filesearch.DocumentDictionary;
+import hr.marin.filesearch.Index;
+import hr.marin.filesearch.TotalDictionary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The {@link ZipfCorpus} collection the JMH benchmarks run on, with its
+ * tokenized documents, total dictionary and index. It uses the same
+ * parameters as {@link Benchmarks}, so the results of both are comparable,
+ * and is built once per fork.
+ * 
+ * @author Marin
+ *
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+	/**
+	 * The number of documents of the collection
+	 */
+	@Param({ "1000", "10000", "100000" })
+	public int documents;
+
+	/**
+	 * The stop words, none
+	 */
+	Set<String> stopWords = Collections.emptySet();
+	/**
+	 * The generated collection
+	 */
+	ZipfCorpus corpus;
+	/**
+	 * The texts of the documents
+	 */
+	String[] texts;
+	/**
+	 * The tokenized documents
+	 */
+	List<DocumentDictionary> dictionaries;
+	/**
+	 * The total dictionary of the documents
+	 */
+	TotalDictionary totalDictionary;
+	/**
+	 * The index of the documents, kept on the heap
+	 */
+	Index index;
+
+	/**
+	 * Generates the collection and builds its index.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		corpus = new ZipfCorpus(documents, Benchmarks.WORDS_PER_DOCUMENT, Benchmarks.VOCABULARY_SIZE,
+				Benchmarks.ZIPF_EXPONENT, Benchmarks.SEED);
+		texts = corpus.getDocuments();
+		dictionaries = new ArrayList<>(texts.length);
+		for (String text : texts) {
+			dictionaries.add(DocumentDictionary.fromString(text, stopWords));
+		}
+		totalDictionary = new TotalDictionary(dictionaries);
+		index = new Index(totalDictionary, dictionaries);
+	}
+}
@@ -0,0 +1,83 @@
+package hr.marin.filesearch.bench;
+
+import hr.marin.filesearch.DocumentDictionary;
+import hr.marin.filesearch.Index;
+import hr.marin.filesearch.TotalDictionary;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the stages of building an index: tokenizing all the documents,
+ * creating the total dictionary and creating the document vectors, the
+ * norms and the inverted index.
+ * 
+ * @author Marin
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Xms2g", "-Xmx2g",
+		"-XX:MaxDirectMemorySize=2g" })
+public class IndexingBenchmark {
+	/**
+	 * Tokenizes all the documents of the collection.
+	 * 
+	 * @param state
+	 *            The collection
+	 * @param blackhole
+	 *            Consumes the dictionaries of the documents
+	 */
+	@Benchmark
+	public void tokenize(CorpusState state, Blackhole blackhole) {
+		for (String text : state.texts) {
+			blackhole.consume(DocumentDictionary.fromString(text, state.stopWords));
+		}
+	}
+
+	/**
+	 * Creates the total dictionary of the collection.
+	 * 
+	 * @param state
+	 *            The collection
+	 * @return The total dictionary
+	 */
+	@Benchmark
+	public TotalDictionary totalDictionary(CorpusState state) {
+		return new TotalDictionary(state.dictionaries);
+	}
+
+	/**
+	 * Creates the index of the collection from its total dictionary.
+	 * 
+	 * @param state
+	 *            The collection
+	 * @return The index
+	 */
+	@Benchmark
+	public Index index(CorpusState state) {
+		return new Index(state.totalDictionary, state.dictionaries);
+	}
+
+	/**
+	 * Copies the posting lists of the index off the heap.
+	 * 
+	 * @param state
+	 *            The collection
+	 * @return The index kept off the heap
+	 */
+	@Benchmark
+	public Index toOffHeap(CorpusState state) {
+		return state.index.toOffHeap();
+	}
+}
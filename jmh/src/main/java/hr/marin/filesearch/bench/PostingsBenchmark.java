@@ -0,0 +1,133 @@
+package hr.marin.filesearch.bench;
+
+import hr.marin.filesearch.InvertedIndex;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading all the posting lists of the index: kept as arrays on the
+ * heap, compressed, and kept off the heap. Every benchmark reads every
+ * posting once, so the times divided by the number of postings are comparable.
+ * 
+ * @author Marin
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Xms2g", "-Xmx2g",
+		"-XX:MaxDirectMemorySize=2g" })
+@State(Scope.Benchmark)
+public class PostingsBenchmark {
+	/**
+	 * The posting lists kept on the heap
+	 */
+	private InvertedIndex heap;
+	/**
+	 * The posting lists kept off the heap
+	 */
+	private InvertedIndex offHeap;
+	/**
+	 * The compressed posting lists
+	 */
+	private InvertedIndex compressed;
+	/**
+	 * The decoded document ids
+	 */
+	private int[] docs;
+	/**
+	 * The decoded weights
+	 */
+	private double[] weights;
+
+	/**
+	 * Builds the compressed and the off-heap posting lists.
+	 * 
+	 * @param state
+	 *            The collection
+	 */
+	@Setup(Level.Trial)
+	public void setUp(CorpusState state) {
+		heap = state.index.getInvertedIndex();
+		offHeap = state.index.toOffHeap().getInvertedIndex();
+		compressed = state.index.withFormat(InvertedIndex.Format.COMPRESSED).getInvertedIndex();
+		int maxLength = 0;
+		for (int word = 0; word < heap.numberOfWords(); word++) {
+			maxLength = Math.max(maxLength, heap.getLength(word));
+		}
+		docs = new int[maxLength];
+		weights = new double[maxLength];
+	}
+
+	/**
+	 * Reads the posting lists kept as arrays on the heap.
+	 * 
+	 * @return A checksum of the postings
+	 */
+	@Benchmark
+	public long scanHeap() {
+		long sum = 0;
+		for (int word = 0, words = heap.numberOfWords(); word < words; word++) {
+			int[] postingDocs = heap.getDocuments(word);
+			double[] postingWeights = heap.getWeights(word);
+			for (int i = 0; i < postingDocs.length; i++) {
+				sum += postingDocs[i] + (long) postingWeights[i];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Decodes the compressed posting lists, computing the weights from the
+	 * numbers of occurrences.
+	 * 
+	 * @return A checksum of the postings
+	 */
+	@Benchmark
+	public long decodeCompressed() {
+		long sum = 0;
+		for (int word = 0, words = compressed.numberOfWords(); word < words; word++) {
+			int length = compressed.getLength(word);
+			compressed.getDocuments(word, docs);
+			compressed.getWeights(word, weights);
+			for (int i = 0; i < length; i++) {
+				sum += docs[i] + (long) weights[i];
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Copies the posting lists kept off the heap into reused arrays.
+	 * 
+	 * @return A checksum of the postings
+	 */
+	@Benchmark
+	public long scanOffHeap() {
+		long sum = 0;
+		int[] postingDocs = docs;
+		double[] postingWeights = weights;
+		for (int word = 0, words = offHeap.numberOfWords(); word < words; word++) {
+			int length = offHeap.getLength(word);
+			postingDocs = offHeap.getDocuments(word, postingDocs);
+			postingWeights = offHeap.getWeights(word, postingWeights);
+			for (int i = 0; i < length; i++) {
+				sum += postingDocs[i] + (long) postingWeights[i];
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,129 @@
+package hr.marin.filesearch.bench;
+
+import hr.marin.filesearch.DocumentDictionary;
+import hr.marin.filesearch.DocumentVector;
+import hr.marin.filesearch.Index;
+import hr.marin.filesearch.InvertedIndex;
+import hr.marin.filesearch.QueryScorer;
+import hr.marin.filesearch.Scorer;
+import hr.marin.filesearch.TopKCollector;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the end-to-end latency of a query, from tokenizing it to
+ * collecting its best documents, for queries of 1, 3 and 10 words, both
+ * scorers and the posting lists on the heap, off the heap and compressed.
+ * Every invocation runs the next of a fixed set of queries drawn from the
+ * collection.
+ * 
+ * @author Marin
+ *
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Xms2g", "-Xmx2g",
+		"-XX:MaxDirectMemorySize=2g" })
+@State(Scope.Thread)
+public class QueryBenchmark {
+	/**
+	 * The number of different queries
+	 */
+	private static final int QUERIES = 512;
+
+	/**
+	 * The number of words of a query
+	 */
+	@Param({ "1", "3", "10" })
+	public int words;
+	/**
+	 * The name of the scorer
+	 */
+	@Param({ Scorer.TF_IDF, Scorer.BM25 })
+	public String scorerName;
+	/**
+	 * The way the posting lists are kept
+	 */
+	@Param({ "HEAP", "OFF_HEAP", "COMPRESSED" })
+	public InvertedIndex.Format format;
+
+	/**
+	 * The queried index
+	 */
+	private Index index;
+	/**
+	 * The scorer of the queries
+	 */
+	private Scorer scorer;
+	/**
+	 * Scores the queries in the calling thread
+	 */
+	private QueryScorer queryScorer;
+	/**
+	 * The texts of the queries
+	 */
+	private String[] queries;
+	/**
+	 * The position of the next query
+	 */
+	private int next;
+
+	/**
+	 * Draws the queries from the collection.
+	 * 
+	 * @param state
+	 *            The collection
+	 */
+	@Setup(Level.Trial)
+	public void setUp(CorpusState state) {
+		index = state.index.withFormat(format);
+		scorer = Scorer.forName(scorerName);
+		queryScorer = new QueryScorer(1);
+		Random random = new Random(Benchmarks.SEED + words);
+		queries = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			queries[i] = state.corpus.query(random, words);
+		}
+	}
+
+	/**
+	 * Stops the scorer.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		queryScorer.shutdown();
+	}
+
+	/**
+	 * Runs the next query.
+	 * 
+	 * @param state
+	 *            The collection
+	 * @return The best documents of the query
+	 */
+	@Benchmark
+	public TopKCollector query(CorpusState state) {
+		String query = queries[next];
+		next = (next + 1) % QUERIES;
+		DocumentDictionary queryDict = DocumentDictionary.fromString(query, state.stopWords);
+		DocumentVector queryVector = new DocumentVector(queryDict, index.getTotalDictionary());
+		return queryScorer.score(index, queryVector, Benchmarks.MAX_RESULTS, scorer);
+	}
+}
@@ -0,0 +1,152 @@
+package hr.marin.filesearch.bench;
+
+import hr.marin.filesearch.DocumentVector;
+import hr.marin.filesearch.Vector;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the vector arithmetic: the norms and scalar products of the
+ * document vectors, and the bulk kernels compared with per-component
+ * {@link Vector#get(int)} calls. The forks add the incubating Vector API, so
+ * the bulk kernels are the SIMD ones wherever
+ * {@link hr.marin.filesearch.VectorKernels#isAccelerated()} holds.
+ * 
+ * @author Marin
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Xms2g", "-Xmx2g",
+		"-XX:MaxDirectMemorySize=2g" })
+@State(Scope.Benchmark)
+public class VectorBenchmark {
+	/**
+	 * The document vectors of the collection
+	 */
+	private List<DocumentVector> vectors;
+	/**
+	 * A dense vector with the dimension of the total dictionary
+	 */
+	private Vector dense;
+
+	/**
+	 * Creates the dense vector with random components.
+	 * 
+	 * @param state
+	 *            The collection
+	 */
+	@Setup(Level.Trial)
+	public void setUp(CorpusState state) {
+		vectors = state.index.getVectors();
+		Random random = new Random(Benchmarks.SEED);
+		double[] components = new double[state.totalDictionary.size()];
+		for (int i = 0; i < components.length; i++) {
+			components[i] = random.nextDouble();
+		}
+		dense = new Vector(false, true, components);
+	}
+
+	/**
+	 * Computes the norms of all the document vectors.
+	 * 
+	 * @return The sum of the norms
+	 */
+	@Benchmark
+	public double norm() {
+		double sum = 0;
+		for (DocumentVector vector : vectors) {
+			sum += vector.norm();
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the scalar products of all the pairs of consecutive document
+	 * vectors.
+	 * 
+	 * @return The sum of the scalar products
+	 */
+	@Benchmark
+	public double scalarProduct() {
+		double sum = 0;
+		for (int i = 1; i < vectors.size(); i++) {
+			sum += vectors.get(i - 1).scalarProduct(vectors.get(i));
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the scalar product of the dense vector with itself through
+	 * per-component calls.
+	 * 
+	 * @return The scalar product
+	 */
+	@Benchmark
+	public double denseDotGet() {
+		double sum = 0;
+		for (int i = dense.getDimension() - 1; i >= 0; i--) {
+			sum += dense.get(i) * dense.get(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the scalar product of the dense vector with itself through the
+	 * bulk kernel.
+	 * 
+	 * @return The scalar product
+	 */
+	@Benchmark
+	public double denseDotBulk() {
+		return dense.scalarProduct(dense);
+	}
+
+	/**
+	 * Computes the scalar products of all the document vectors with the dense
+	 * vector through per-component calls.
+	 * 
+	 * @return The sum of the scalar products
+	 */
+	@Benchmark
+	public double scoreDocumentsGet() {
+		double sum = 0;
+		for (DocumentVector vector : vectors) {
+			for (int i = 0, n = vector.nonZeroCount(); i < n; i++) {
+				sum += vector.valueAt(i) * dense.get(vector.indexAt(i));
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Computes the scalar products of all the document vectors with the dense
+	 * vector through the gathering kernel.
+	 * 
+	 * @return The sum of the scalar products
+	 */
+	@Benchmark
+	public double scoreDocumentsBulk() {
+		double sum = 0;
+		for (DocumentVector vector : vectors) {
+			sum += vector.scalarProduct(dense);
+		}
+		return sum;
+	}
+}